@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import io.moquette.broker.Server;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import org.junit.jupiter.api.Assertions;
+import org.n52.sta.api.CoreRequestUtils;
+import org.n52.sta.api.dto.impl.Thing;
+import org.n52.sta.mqtt.vanilla.MqttSubscriptionEventHandlerImpl;
+import org.n52.sta.mqtt.vanilla.subscription.AbstractMqttSubscription;
+import org.n52.sta.mqtt.vanilla.subscription.MqttEntityCollectionSubscription;
+import org.n52.sta.mqtt.vanilla.subscription.MqttEntitySubscription;
+import org.n52.sta.mqtt.vanilla.subscription.MqttPropertySubscription;
+import org.n52.sta.mqtt.vanilla.subscription.MqttSelectSubscription;
+import org.n52.sta.serdes.ThingSerDes;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Base class for tests of the MQTT publish path without a running broker or database.
+ * Published messages are passed to {@link #onPublish(MqttPublishMessage)} instead of a broker.
+ */
+public abstract class AbstractMqttHandlerTest implements CoreRequestUtils {
+
+    protected static final String ROOT_URL = "http://localhost:8081/v1.1/";
+    protected static final String CLIENT_ID = "client";
+
+    protected MqttSubscriptionEventHandlerImpl createHandler() {
+        ObjectMapper mapper = new ObjectMapper();
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(new ThingSerDes.ThingSerializer(ROOT_URL));
+        mapper.registerModule(module);
+
+        MqttSubscriptionEventHandlerImpl handler = new MqttSubscriptionEventHandlerImpl(ROOT_URL, true, null, mapper);
+        handler.setMqttBroker(new Server() {
+            @Override
+            public void internalPublish(MqttPublishMessage msg, String clientId) {
+                // Mimic the broker which retains a duplicate of the payload per receiving client
+                ByteBuf copy = msg.payload().retainedDuplicate();
+                try {
+                    onPublish(msg);
+                } finally {
+                    copy.release();
+                }
+            }
+        });
+        return handler;
+    }
+
+    protected abstract void onPublish(MqttPublishMessage msg);
+
+    protected Thing createThing(String id) {
+        Thing thing = new Thing();
+        thing.setId(id);
+        thing.setName("thing " + id);
+        thing.setDescription("description of thing " + id);
+        return thing;
+    }
+
+    protected AbstractMqttSubscription collectionSubscription(String topic) {
+        return new MqttEntityCollectionSubscription(topic, match(topic, NAMED_COLL_PATTERNS));
+    }
+
+    protected AbstractMqttSubscription selectSubscription(String topic) {
+        return new MqttSelectSubscription(topic, match(topic, NAMED_SELECT_PATTERNS));
+    }
+
+    protected AbstractMqttSubscription entitySubscription(String topic) {
+        return new MqttEntitySubscription(topic, match(topic, NAMED_ENTITY_PATTERNS));
+    }
+
+    protected AbstractMqttSubscription propertySubscription(String topic) {
+        return new MqttPropertySubscription(topic, match(topic, NAMED_PROP_PATTERNS));
+    }
+
+    private Matcher match(String topic, Pattern[] patterns) {
+        for (Pattern pattern : patterns) {
+            Matcher mt = pattern.matcher(topic);
+            if (mt.matches()) {
+                return mt;
+            }
+        }
+        Assertions.fail("No pattern matches topic: " + topic);
+        return null;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.sta.api.RequestUtils;
+import org.n52.sta.api.dto.ThingDTO;
+import org.n52.sta.serdes.ThingSerDes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares deserialization of a 5 MB deep insert of a Thing with many Datastreams POSTed via a related collection.
+ * The legacy path reads the payload into a tree, adds the referenced Entity and serializes the tree again before
+ * deserializing it. The streaming path passes the referenced Entity as reader attribute and parses the payload once.
+ * Not run by default, run with mvn test -pl app -Dtest=DeepInsertDeserializationBenchmark
+ */
+public class DeepInsertDeserializationBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeepInsertDeserializationBenchmark.class);
+    private static final int PAYLOAD_SIZE = 5 * 1024 * 1024;
+    private static final int WARMUP = 10;
+    private static final int ITERATIONS = 20;
+    private static final String LOCATION_ID = "1";
+
+    private final ObjectMapper mapper = createMapper();
+
+    @Test
+    public void deserializeDeepInsert() throws IOException {
+        byte[] payload = createPayload();
+        String body = new String(payload, StandardCharsets.UTF_8);
+        int datastreams = mapper.readTree(payload).get(StaConstants.DATASTREAMS).size();
+
+        Assertions.assertEquals(datastreams, readLegacy(body).getDatastream().size());
+        Assertions.assertEquals(datastreams, readStreaming(payload).getDatastream().size());
+        Assertions.assertEquals(LOCATION_ID, readStreaming(payload).getLocations().iterator().next().getId());
+
+        for (int i = 0; i < WARMUP; i++) {
+            readLegacy(body);
+            readStreaming(payload);
+        }
+
+        long[] legacy = measure(() -> readLegacy(body));
+        long[] streaming = measure(() -> readStreaming(payload));
+        LOGGER.info("Deserialized {} bytes with {} Datastreams", payload.length, datastreams);
+        print("legacy", legacy);
+        print("streaming", streaming);
+    }
+
+    private ThingDTO readLegacy(String body) throws IOException {
+        ObjectNode jsonBody = (ObjectNode) mapper.readTree(body);
+        jsonBody.put(RequestUtils.REFERENCED_FROM_TYPE, StaConstants.LOCATIONS);
+        jsonBody.put(RequestUtils.REFERENCED_FROM_ID, LOCATION_ID);
+        return mapper.readValue(jsonBody.toString(), ThingDTO.class);
+    }
+
+    private ThingDTO readStreaming(byte[] body) throws IOException {
+        return mapper.readerFor(ThingDTO.class)
+            .withAttribute(RequestUtils.REFERENCED_FROM_TYPE, StaConstants.LOCATIONS)
+            .withAttribute(RequestUtils.REFERENCED_FROM_ID, LOCATION_ID)
+            .readValue(new ByteArrayInputStream(body));
+    }
+
+    private long[] measure(Deserialization deserialization) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            deserialization.run();
+        }
+        return new long[] {(System.nanoTime() - start) / ITERATIONS,
+            (threads.getThreadAllocatedBytes(threadId) - allocated) / ITERATIONS};
+    }
+
+    private void print(String name, long[] result) {
+        LOGGER.info("{}: {} ms/request, {} KB allocated/request",
+                    name,
+                    TimeUnit.NANOSECONDS.toMillis(result[0]),
+                    result[1] / 1024);
+    }
+
+    private byte[] createPayload() throws IOException {
+        ObjectNode thing = mapper.createObjectNode();
+        thing.put("name", "Deep insert");
+        thing.put("description", "Thing with many Datastreams");
+        thing.putObject("properties").put("purpose", "benchmark");
+        ArrayNode datastreams = thing.putArray(StaConstants.DATASTREAMS);
+        int i = 0;
+        while (mapper.writeValueAsBytes(thing).length < PAYLOAD_SIZE) {
+            for (int j = 0; j < 500; j++, i++) {
+                ObjectNode datastream = datastreams.addObject();
+                datastream.put("name", "Datastream " + i);
+                datastream.put("description", "Datastream of sensor " + i + " measuring air temperature");
+                datastream.put("observationType",
+                               "http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement");
+                datastream.putObject("unitOfMeasurement")
+                    .put("name", "degree Celsius")
+                    .put("symbol", "degC")
+                    .put("definition", "http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html#DegreeCelsius");
+                datastream.putObject("properties")
+                    .put("index", i)
+                    .put("calibrated", i % 2 == 0);
+                datastream.putObject(StaConstants.SENSOR)
+                    .put("name", "Sensor " + i)
+                    .put("description", "Thermometer " + i)
+                    .put("encodingType", "application/pdf")
+                    .put("metadata", "http://example.org/sensors/" + i + ".pdf");
+                datastream.putObject(StaConstants.OBSERVED_PROPERTY)
+                    .put("name", "Air temperature " + i)
+                    .put("description", "Temperature of the surrounding air")
+                    .put("definition", "http://example.org/properties/airTemperature/" + i);
+            }
+        }
+        return mapper.writeValueAsBytes(thing);
+    }
+
+    private static ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        SimpleModule module = new SimpleModule();
+        module.addDeserializer(ThingDTO.class, new ThingSerDes.ThingDeserializer());
+        mapper.registerModule(module);
+        return mapper;
+    }
+
+    @FunctionalInterface
+    private interface Deserialization {
+
+        Object run() throws IOException;
+    }
+}
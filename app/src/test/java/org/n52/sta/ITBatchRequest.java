@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+
+/**
+ * Tests batch requests (POST /$batch) with and without change sets
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITBatchRequest extends ConformanceTests implements TestUtil {
+
+    private static final String RESPONSES = "responses";
+    private static final String STATUS = "status";
+    private static final String BODY = "body";
+
+    private static final String THING = "{ \"name\": \"thing name 1\", \"description\": \"thing 1\", " +
+        "\"properties\": { \"note\": \"$thing\" } }";
+    private static final String LOCATION = "{ \"name\": \"location name 1\", \"description\": \"location 1\", " +
+        "\"location\": { \"type\": \"Point\", \"coordinates\": [ -117.05, 51.05 ] }, " +
+        "\"encodingType\": \"application/vnd.geo+json\" }";
+    private static final String DATASTREAM = "{ \"name\": \"datastream name 1\", \"description\": \"datastream 1\", " +
+        "\"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+        "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"observationType\": " +
+        "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", " +
+        "\"Thing\": { \"@iot.id\": \"$thing\" }, \"ObservedProperty\": { \"name\": \"Luminous Flux\", " +
+        "\"definition\": \"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", " +
+        "\"description\": \"observedProperty 1\" }, \"Sensor\": { \"name\": \"sensor name 1\", " +
+        "\"description\": \"sensor 1\", \"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } }";
+    private static final String INVALID_OBSERVATION = "{ \"phenomenonTime\": \"2015-03-03T00:00:00Z\", " +
+        "\"result\": 3, \"Datastream\": { \"@iot.id\": \"does-not-exist\" } }";
+
+    public ITBatchRequest(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+    }
+
+    @Test
+    public void testChangeSetResolvesReferences() throws IOException {
+        JsonNode responses = postBatch(
+            "{ \"requests\": [ " +
+                part("thing", "group", "Things", THING) + ", " +
+                part("location", "group", "$thing/Locations", LOCATION) + ", " +
+                part("datastream", "group", "Datastreams", DATASTREAM) + " ] }");
+
+        Assertions.assertEquals(3, responses.size());
+        for (JsonNode response : responses) {
+            Assertions.assertEquals(201, response.get(STATUS).asInt(), response.toString());
+        }
+        String thingId = responses.get(0).get(BODY).get(idKey).asText();
+        Assertions.assertEquals(thingId,
+                                getCollection(EntityType.DATASTREAM, "$expand=Thing")
+                                    .get(value).get(0).get("Thing").get(idKey).asText());
+        Assertions.assertEquals(1, getEntity(EntityType.THING, thingId, "$expand=Locations")
+            .get("Locations").size());
+        // Only @iot.id values are treated as references
+        Assertions.assertEquals("$thing", getEntity(EntityType.THING, thingId).get("properties").get("note").asText());
+    }
+
+    @Test
+    public void testFailedChangeSetIsRolledBack() throws IOException {
+        JsonNode responses = postBatch(
+            "{ \"requests\": [ " +
+                part("thing", "group", "Things", THING) + ", " +
+                part("location", "group", "$thing/Locations", LOCATION) + ", " +
+                part("observation", "group", "Observations", INVALID_OBSERVATION) + " ] }");
+
+        // A single error response is returned for the failing request
+        Assertions.assertEquals(1, responses.size());
+        Assertions.assertEquals("observation", responses.get(0).get("id").asText());
+        Assertions.assertTrue(responses.get(0).get(STATUS).asInt() >= 400, responses.toString());
+        Assertions.assertEquals(0, getCollection(EntityType.THING).get(value).size());
+        Assertions.assertEquals(0, getCollection(EntityType.LOCATION).get(value).size());
+    }
+
+    @Test
+    public void testFailureOutsideChangeSetDoesNotAffectOtherRequests() throws IOException {
+        JsonNode responses = postBatch(
+            "{ \"requests\": [ " +
+                part("first", null, "Things", THING) + ", " +
+                part("observation", null, "Observations", INVALID_OBSERVATION) + ", " +
+                part("second", null, "Things", THING) + " ] }");
+
+        Assertions.assertEquals(3, responses.size());
+        Assertions.assertEquals(201, responses.get(0).get(STATUS).asInt());
+        Assertions.assertTrue(responses.get(1).get(STATUS).asInt() >= 400, responses.toString());
+        Assertions.assertEquals(201, responses.get(2).get(STATUS).asInt());
+        Assertions.assertEquals(2, getCollection(EntityType.THING).get(value).size());
+    }
+
+    private String part(String id, String group, String url, String body) {
+        return String.format("{ \"id\": \"%s\", %s\"method\": \"post\", \"url\": \"%s\", \"body\": %s }",
+                             id,
+                             group == null ? "" : "\"atomicityGroup\": \"" + group + "\", ",
+                             url,
+                             body);
+    }
+
+    private JsonNode postBatch(String body) throws IOException {
+        HttpPost request = new HttpPost(rootUrl + "$batch");
+        request.setEntity(new StringEntity(body));
+        request.setHeader("Content-Type", jsonMimeType);
+        HttpResponse response = HttpClientBuilder.create().build().execute(request);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        return mapper.readTree(response.getEntity().getContent()).get(RESPONSES);
+    }
+}
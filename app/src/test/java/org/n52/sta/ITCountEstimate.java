@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+
+/**
+ * Checks $count of the Observations of a Datastream answered by the in-memory counters
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "server.feature.count.estimate=true")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITCountEstimate extends ConformanceTests implements TestUtil {
+
+    private static final String COUNT = "@iot.count";
+    private static final String COUNT_ESTIMATED = "@iot.countEstimated";
+
+    private final String datastreamId;
+
+    public ITCountEstimate(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"Datastreams\": " +
+            "[ { \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", " +
+            "\"name\": \"datastream name 1\", \"observationType\": " +
+            "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { " +
+            "\"name\": \"Luminous Flux\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": " +
+            "\"observedProperty 1\" }, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", " +
+            "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testCountIsEstimatedOnceSeeded() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            postObservation(i);
+        }
+
+        // First request seeds the counter with an exact count
+        JsonNode seeding = countObservations("$count=true");
+        Assertions.assertEquals(3, seeding.get(COUNT).asLong());
+        Assertions.assertFalse(seeding.has(COUNT_ESTIMATED));
+
+        JsonNode estimated = countObservations("$count=true");
+        Assertions.assertEquals(3, estimated.get(COUNT).asLong());
+        Assertions.assertTrue(estimated.get(COUNT_ESTIMATED).asBoolean());
+
+        // Counter follows inserts and deletes
+        postObservation(3);
+        String deleted = postObservation(4);
+        Assertions.assertEquals(5, countObservations("$count=true").get(COUNT).asLong());
+        deleteEntity(EntityType.OBSERVATION, deleted, false);
+        estimated = countObservations("$count=true");
+        Assertions.assertEquals(4, estimated.get(COUNT).asLong());
+        Assertions.assertTrue(estimated.get(COUNT_ESTIMATED).asBoolean());
+    }
+
+    @Test
+    public void testFilteredCountIsExact() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            postObservation(i);
+        }
+        countObservations("$count=true");
+
+        JsonNode filtered = countObservations("$count=true&$filter=result gt 0");
+        Assertions.assertEquals(2, filtered.get(COUNT).asLong());
+        Assertions.assertFalse(filtered.has(COUNT_ESTIMATED));
+    }
+
+    private String postObservation(int result) throws IOException {
+        return postEntity(EntityType.OBSERVATION,
+                          String.format("{ \"phenomenonTime\": \"2015-03-0%dT00:00:00Z\", \"result\": %d, " +
+                                            "\"Datastream\": { \"@iot.id\": %s } }",
+                                        result + 1,
+                                        result,
+                                        escape(datastreamId)))
+            .get(idKey)
+            .asText();
+    }
+
+    private JsonNode countObservations(String queryOptions) throws IOException {
+        return getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations", queryOptions);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.sta.data.vanilla.ExpandExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Runs the $expand tests with independent $expand items fetched concurrently. Entities fetched by a separate thread
+ * are detached once it is done, so serializing them must not require any further lazy loading.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "server.feature.expand.parallel=true")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITExpandParallel extends ITExpand {
+
+    @Autowired
+    private ExpandExecutor expandExecutor;
+
+    ITExpandParallel(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+    }
+
+    @Test
+    public void testFilteredExpandFetchedConcurrently() throws Exception {
+        long parallelTasks = expandExecutor.getParallelTasks();
+
+        // Items with $filter are not covered by the Fetchgraph and are therefore fetched by ExpandExecutor tasks
+        JsonNode response = getCollection(EntityType.THING,
+                                          "$expand=Datastreams($filter=startswith(name,'datastream');"
+                                              + "$expand=Sensor,ObservedProperty),"
+                                              + "Locations($filter=startswith(name,'location'))");
+        Assertions.assertTrue(expandExecutor.getParallelTasks() > parallelTasks,
+                              "Expected $expand items to be fetched by a separate thread");
+
+        JsonNode thing = response.get(value).get(0);
+        Assertions.assertEquals("first", thing.get("properties").get("reference").asText());
+        Assertions.assertEquals(2, thing.get(DATASTREAMS).size());
+        for (JsonNode datastream : thing.get(DATASTREAMS)) {
+            Assertions.assertTrue(datastream.get("unitOfMeasurement").has("name"));
+            Assertions.assertTrue(datastream.get(SENSOR).get("metadata").asText().endsWith("sensor"));
+            Assertions.assertTrue(datastream.get(OBSERVEDPROPERTY).has("definition"));
+        }
+        Assertions.assertEquals(1, thing.get(LOCATIONS).size());
+        Assertions.assertEquals("Point", thing.get(LOCATIONS).get(0).get("location").get("type").asText());
+    }
+}
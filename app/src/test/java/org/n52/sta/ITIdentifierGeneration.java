@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that Entities created without @iot.id get identifiers from the configured strategy
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "server.feature.identifiers.strategy=ulid")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITIdentifierGeneration extends ConformanceTests implements TestUtil {
+
+    private static final Pattern ULID = Pattern.compile("[0-9A-HJKMNP-TV-Z]{26}");
+
+    private static final String THING = "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", " +
+        "\"Locations\": [ { \"description\": \"location 1\", \"name\": \"location name 1\", \"location\": { " +
+        "\"type\": \"Point\", \"coordinates\": [ -117.05, 51.05 ] }, \"encodingType\": \"application/vnd.geo+json\" " +
+        "} ], \"Datastreams\": [ { \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", " +
+        "\"definition\": \"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\": " +
+        "\"datastream 1\", \"name\": \"datastream name 1\", \"observationType\": " +
+        "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { " +
+        "\"name\": \"Luminous Flux\", \"definition\": " +
+        "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": " +
+        "\"observedProperty 1\" }, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", " +
+        "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }";
+
+    public ITIdentifierGeneration(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+    }
+
+    @Test
+    public void testGeneratedIdentifiersFollowStrategy() throws IOException {
+        String thingId = postEntity(EntityType.THING, THING).get(idKey).asText();
+        assertGenerated(thingId);
+
+        for (EntityType type : new EntityType[] {EntityType.LOCATION,
+                                                 EntityType.HISTORICAL_LOCATION,
+                                                 EntityType.DATASTREAM,
+                                                 EntityType.SENSOR,
+                                                 EntityType.OBSERVED_PROPERTY}) {
+            JsonNode collection = getCollection(type);
+            Assertions.assertEquals(1, collection.get(value).size(), "Expected exactly one " + type);
+            assertGenerated(collection.get(value).get(0).get(idKey).asText());
+        }
+
+        String datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+        JsonNode observation = postEntity(EntityType.OBSERVATION,
+                                          String.format("{ \"phenomenonTime\": \"2015-03-03T00:00:00Z\", " +
+                                                            "\"result\": 3, \"Datastream\": { \"@iot.id\": %s } }",
+                                                        escape(datastreamId)));
+        assertGenerated(observation.get(idKey).asText());
+    }
+
+    @Test
+    public void testEntitiesWithSameNameAreCreatedSeparately() throws IOException {
+        String thing = "{ \"description\": \"thing 1\", \"name\": \"thing name 1\" }";
+        String first = postEntity(EntityType.THING, thing).get(idKey).asText();
+        String second = postEntity(EntityType.THING, thing).get(idKey).asText();
+
+        assertGenerated(first);
+        assertGenerated(second);
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertEquals(2, getCollection(EntityType.THING).get(value).size());
+    }
+
+    @Test
+    public void testClientIdentifierIsKept() throws IOException {
+        JsonNode created = postEntity(EntityType.THING,
+                                      "{ \"@iot.id\": \"client-thing\", \"description\": \"thing 2\", " +
+                                          "\"name\": \"thing name 2\" }");
+        Assertions.assertEquals("client-thing", created.get(idKey).asText());
+    }
+
+    @Test
+    public void testDuplicateClientIdentifierIsConflict() throws IOException {
+        String thing = "{ \"@iot.id\": \"client-thing\", \"description\": \"thing 2\", \"name\": \"thing name 2\" }";
+        postEntity(EntityType.THING, thing);
+        Assertions.assertEquals(409, post(EntityType.THING, thing));
+        Assertions.assertEquals(1, getCollection(EntityType.THING).get(value).size());
+
+        postEntity(EntityType.THING, THING);
+        String datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+        String observation = String.format("{ \"@iot.id\": \"client-observation\", " +
+                                               "\"phenomenonTime\": \"2015-03-03T00:00:00Z\", \"result\": 3, " +
+                                               "\"Datastream\": { \"@iot.id\": %s } }",
+                                           escape(datastreamId));
+        postEntity(EntityType.OBSERVATION, observation);
+        Assertions.assertEquals(409, post(EntityType.OBSERVATION, observation));
+        Assertions.assertEquals(1, getCollection(EntityType.OBSERVATION).get(value).size());
+    }
+
+    private int post(EntityType type, String body) throws IOException {
+        HttpPost request = new HttpPost(rootUrl + type.getVal());
+        request.setEntity(new StringEntity(body));
+        request.setHeader("Content-Type", "application/json");
+        HttpResponse response = HttpClientBuilder.create().build().execute(request);
+        return response.getStatusLine().getStatusCode();
+    }
+
+    private void assertGenerated(String id) {
+        Assertions.assertTrue(ULID.matcher(id).matches(), "Expected ULID but got " + id);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.sta.http.vanilla.CoreNdjsonRequestHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.web.servlet.HandlerMapping;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.servlet.ServletInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that the status of invalid lines POSTed as newline-delimited JSON is streamed back per chunk instead of
+ * being collected until the end of the body
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "http.ndjson.chunkSize=" + ITNdjsonInvalidLines.CHUNK_SIZE)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITNdjsonInvalidLines extends ConformanceTests implements TestUtil {
+
+    static final int CHUNK_SIZE = 10;
+
+    private static final int INVALID_LINES = 20000;
+    private static final String INVALID_LINE = "{ \"result\": \n";
+
+    @Autowired
+    private CoreNdjsonRequestHandler handler;
+
+    private final String datastreamId;
+
+    public ITNdjsonInvalidLines(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"Datastreams\": " +
+            "[ { \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", " +
+            "\"name\": \"datastream name 1\", \"observationType\": " +
+            "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { " +
+            "\"name\": \"Luminous Flux\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": " +
+            "\"observedProperty 1\" }, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", " +
+            "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testManyInvalidLinesAreReported() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < INVALID_LINES; i++) {
+            body.append(INVALID_LINE);
+        }
+        body.append("{ \"phenomenonTime\": \"2015-03-03T00:00:00Z\", \"result\": 3 }\n");
+
+        HttpPost request = new HttpPost(rootUrl + "Datastreams(" + datastreamId + ")/Observations/$ndjson");
+        request.setEntity(new StringEntity(body.toString(), StandardCharsets.UTF_8));
+        request.setHeader("Content-Type", "application/x-ndjson");
+        HttpResponse response = HttpClientBuilder.create().build().execute(request);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+
+        List<JsonNode> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent(),
+                                                                              StandardCharsets.UTF_8))) {
+            for (String line : reader.lines().collect(Collectors.toList())) {
+                lines.add(mapper.readTree(line));
+            }
+        }
+
+        Assertions.assertEquals(INVALID_LINES + 2, lines.size());
+        for (int i = 0; i < INVALID_LINES; i++) {
+            Assertions.assertEquals(i + 1, lines.get(i).get("line").asLong());
+            Assertions.assertEquals(400, lines.get(i).get("status").asInt());
+        }
+        Assertions.assertEquals(201, lines.get(INVALID_LINES).get("status").asInt());
+        JsonNode summary = lines.get(INVALID_LINES + 1);
+        Assertions.assertEquals(1, summary.get("created").asLong());
+        Assertions.assertEquals(INVALID_LINES, summary.get("failed").asLong());
+    }
+
+    @Test
+    public void testInvalidLinesAreFlushedPerChunk() throws Exception {
+        String path = "/Datastreams(" + datastreamId + ")/Observations/$ndjson";
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        long[] writtenAtEnd = new long[] {-1};
+        InputStream body = new InputStream() {
+            private final byte[] line = INVALID_LINE.getBytes(StandardCharsets.UTF_8);
+            private long position;
+
+            @Override public int read() {
+                if (position == (long) INVALID_LINES * line.length) {
+                    if (writtenAtEnd[0] < 0) {
+                        writtenAtEnd[0] = countLines(response.getContentAsByteArray());
+                    }
+                    return -1;
+                }
+                return line[(int) (position++ % line.length)];
+            }
+        };
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path) {
+            @Override public ServletInputStream getInputStream() {
+                return new DelegatingServletInputStream(body);
+            }
+        };
+        request.setAttribute(HandlerMapping.LOOKUP_PATH, path);
+
+        handler.handlePostNdjson("Datastreams(" + datastreamId + ")", "Observations", request, response);
+
+        // Only the lines of the last chunk and those buffered by the reader may be pending at the end of the body
+        int buffered = 8192 / INVALID_LINE.length() + 1;
+        Assertions.assertTrue(writtenAtEnd[0] >= INVALID_LINES - CHUNK_SIZE - buffered,
+                              "Only " + writtenAtEnd[0] + " of " + INVALID_LINES + " lines were reported while "
+                                  + "reading the body");
+        Assertions.assertEquals(INVALID_LINES + 1, countLines(response.getContentAsByteArray()));
+    }
+
+    private static long countLines(byte[] content) {
+        long count = 0;
+        for (byte b : content) {
+            if (b == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that nested $expand is fetched together with the expanding Entities instead of one query per Entity
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=" +
+        "org.n52.sta.CountingStatementInspector")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITNestedExpand extends ConformanceTests implements TestUtil {
+
+    private static final Pattern SELECT = Pattern.compile("\\s*select\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final String EXPAND = "$expand=Datastreams($expand=Sensor,ObservedProperty)";
+
+    private static final int THING_COUNT = 5;
+
+    public ITNestedExpand(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        for (int i = 0; i < THING_COUNT; i++) {
+            postEntity(EntityType.THING, String.format(
+                "{ \"description\": \"thing %1$d\", \"name\": \"nested thing %1$d\", \"Datastreams\": " +
+                    "[ { \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+                    "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\": " +
+                    "\"datastream %1$d\", \"name\": \"datastream name %1$d\", \"observationType\": " +
+                    "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", " +
+                    "\"ObservedProperty\": { \"name\": \"Luminous Flux %1$d\", \"definition\": " +
+                    "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux%1$d\", " +
+                    "\"description\": \"observedProperty %1$d\" }, \"Sensor\": { \"description\": " +
+                    "\"sensor %1$d\", \"name\": \"sensor name %1$d\", \"encodingType\": \"application/pdf\", " +
+                    "\"metadata\": \"Light flux sensor\" } } ] }",
+                i));
+        }
+    }
+
+    @Test
+    public void testThreeLevelExpandQueryCountIsIndependentOfPageSize() throws IOException {
+        long single = countSelects("$top=1");
+        long page = countSelects("$top=" + THING_COUNT);
+
+        Assertions.assertEquals(single,
+                                page,
+                                "Expected the same number of queries for 1 and " + THING_COUNT
+                                    + " Things but found " + single + " and " + page);
+    }
+
+    private long countSelects(String top) throws IOException {
+        CountingStatementInspector.reset();
+        JsonNode response = getCollection(EntityType.THING,
+                                          "$filter=startswith(name,'nested thing')&" + top + "&" + EXPAND);
+        long selects = CountingStatementInspector.getStatements()
+            .stream()
+            .filter(sql -> SELECT.matcher(sql).matches())
+            .count();
+
+        for (JsonNode thing : response.get(value)) {
+            JsonNode datastreams = thing.get("Datastreams");
+            Assertions.assertEquals(1, datastreams.size());
+            Assertions.assertNotNull(datastreams.get(0).get("Sensor").get(idKey));
+            Assertions.assertNotNull(datastreams.get(0).get("ObservedProperty").get(idKey));
+        }
+        return selects;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.n52.sta.data.vanilla.ObservationImporter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Tests bulk import of Observations from CSV files
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {"server.feature.importer.enabled=true", "server.feature.importer.chunkSize=2"})
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationImporter extends ConformanceTests implements TestUtil {
+
+    private static final long TIMEOUT = 60000;
+    private static final String HEADER = "phenomenonTime,result,resultTime";
+
+    @TempDir
+    Path directory;
+
+    @Autowired
+    private ObservationImporter importer;
+
+    private final String datastreamId;
+
+    public ITObservationImporter(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"Datastreams\": " +
+            "[ { \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", " +
+            "\"name\": \"datastream name 1\", \"observationType\": " +
+            "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { " +
+            "\"name\": \"Luminous Flux\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": " +
+            "\"observedProperty 1\" }, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", " +
+            "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testCsvIsParsedAndConverted() throws Exception {
+        Path file = write("observations.csv",
+                          HEADER,
+                          "2020-01-01T00:00:00Z,1,",
+                          "2020-01-01T01:00:00Z,\" 2.50 \",2020-01-02T00:00:00Z",
+                          "",
+                          "2020-01-01T02:00:00Z/2020-01-01T03:00:00Z,1E+3,",
+                          "2020-01-01T04:00:00Z,-0.125,");
+
+        Assertions.assertTrue(runImport(file).startsWith("finished"));
+
+        JsonNode observations = getObservations();
+        Assertions.assertEquals(4, observations.size());
+        Assertions.assertEquals(1, observations.get(0).get("result").asDouble());
+        Assertions.assertEquals(2.5, observations.get(1).get("result").asDouble());
+        Assertions.assertTrue(observations.get(1).get("resultTime").asText().startsWith("2020-01-02T00:00:00"));
+        Assertions.assertEquals(1000, observations.get(2).get("result").asDouble());
+        Assertions.assertTrue(observations.get(2).get("phenomenonTime").asText().contains("/"));
+        Assertions.assertEquals(-0.125, observations.get(3).get("result").asDouble());
+    }
+
+    @Test
+    public void testNonFiniteResultIsRejected() throws Exception {
+        Path file = write("nonfinite.csv",
+                          HEADER,
+                          "2020-01-01T00:00:00Z,1,",
+                          "2020-01-01T01:00:00Z,NaN,");
+
+        String state = runImport(file);
+        Assertions.assertTrue(state.startsWith("failed") && state.contains("line 3"), state);
+        Assertions.assertEquals(1, getObservations().size());
+    }
+
+    @Test
+    public void testFailedImportResumesAfterCheckpoint() throws Exception {
+        String[] lines = new String[] {HEADER,
+                                       "2020-01-01T00:00:00Z,1,",
+                                       "2020-01-01T01:00:00Z,2,",
+                                       "2020-01-01T02:00:00Z,3,",
+                                       "2020-01-01T03:00:00Z,4,",
+                                       "2020-01-01T04:00:00Z,Infinity,",
+                                       "2020-01-01T05:00:00Z,6,"};
+        Path file = write("resume.csv", lines);
+
+        // First Observation and the first chunk of two rows are imported before the invalid row
+        Assertions.assertTrue(runImport(file).startsWith("failed"));
+        Assertions.assertEquals(3, getObservations().size());
+
+        lines[5] = "2020-01-01T04:00:00Z,5,";
+        write("resume.csv", lines);
+        Assertions.assertTrue(runImport(file).startsWith("finished"));
+
+        JsonNode observations = getObservations();
+        Assertions.assertEquals(6, observations.size());
+        for (int i = 0; i < observations.size(); i++) {
+            Assertions.assertEquals(i + 1, observations.get(i).get("result").asDouble());
+        }
+
+        String state = runImport(file);
+        Assertions.assertTrue(state.contains("already imported"), state);
+        Assertions.assertEquals(6, getObservations().size());
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.write(directory.resolve(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    private String runImport(Path file) throws InterruptedException {
+        String previous = importer.getState();
+        importer.importObservations(datastreamId, "", file.toString());
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        String state = importer.getState();
+        // Each import of these tests ends in a different state than the one before
+        while (state.equals(previous) || !isDone(state)) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Import did not finish: " + state);
+            Thread.sleep(100);
+            state = importer.getState();
+        }
+        return state;
+    }
+
+    private boolean isDone(String state) {
+        return state.startsWith("finished") || state.startsWith("failed");
+    }
+
+    private JsonNode getObservations() throws IOException {
+        return getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations",
+                             "$orderby=phenomenonTime asc&$top=100").get(value);
+    }
+}
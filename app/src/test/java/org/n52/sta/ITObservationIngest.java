@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks Observations created through the ingest path with deduplication and the spool enabled
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {"server.feature.deduplication.enabled=true",
+                  "server.feature.spool.enabled=true",
+                  "server.feature.spool.directory=target/it-spool"})
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationIngest extends ConformanceTests implements TestUtil {
+
+    private static final int OBSERVATIONS = 5;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final String datastreamId;
+
+    public ITObservationIngest(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"Datastreams\": " +
+            "[ { \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", " +
+            "\"name\": \"datastream name 1\", \"observationType\": " +
+            "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { " +
+            "\"name\": \"Luminous Flux\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": " +
+            "\"observedProperty 1\" }, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", " +
+            "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+    }
+
+    @BeforeEach
+    public void clearDeduplication() {
+        // The table is not part of the schema recreated for each context
+        jdbcTemplate.execute("DELETE FROM sta_ingest_dedup");
+    }
+
+    @Test
+    public void testObservationsWithoutIdentifierGetOne() throws IOException {
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < OBSERVATIONS; i++) {
+            JsonNode created = postEntity(EntityType.OBSERVATION, observation(i));
+            Assertions.assertTrue(created.hasNonNull(idKey), "Expected an @iot.id in " + created);
+            String id = created.get(idKey).asText();
+            Assertions.assertTrue(ids.add(id), "Identifier " + id + " was returned twice");
+            Assertions.assertEquals(id, getEntity(EntityType.OBSERVATION, id).get(idKey).asText());
+        }
+        Assertions.assertEquals(OBSERVATIONS, getCollection(EntityType.OBSERVATION).get(value).size());
+
+        // Deduplication keys reference the created Observations
+        Set<String> claimed = new HashSet<>(jdbcTemplate.queryForList("SELECT observation FROM sta_ingest_dedup",
+                                                                      String.class));
+        Assertions.assertEquals(ids, claimed);
+    }
+
+    @Test
+    public void testDuplicateObservationIsCreatedOnce() throws IOException {
+        JsonNode first = postEntity(EntityType.OBSERVATION, observation(1));
+        JsonNode second = postEntity(EntityType.OBSERVATION, observation(1));
+        Assertions.assertEquals(first.get(idKey).asText(), second.get(idKey).asText());
+
+        Assertions.assertEquals(1, getCollection(EntityType.OBSERVATION).get(value).size());
+        Assertions.assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sta_ingest_dedup", Integer.class));
+    }
+
+    @Test
+    public void testIdempotencyKeyIdentifiesDuplicate() throws IOException {
+        JsonNode first = post(observation(1), "retry-1");
+        // Retried requests are identified by the key, even if the content differs
+        JsonNode second = post(observation(2), "retry-1");
+        JsonNode third = post(observation(1), "retry-2");
+        Assertions.assertEquals(first.get(idKey).asText(), second.get(idKey).asText());
+        Assertions.assertNotEquals(first.get(idKey).asText(), third.get(idKey).asText());
+
+        Assertions.assertEquals(2, getCollection(EntityType.OBSERVATION).get(value).size());
+        Assertions.assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sta_ingest_dedup", Integer.class));
+    }
+
+    private JsonNode post(String body, String idempotencyKey) throws IOException {
+        HttpPost request = new HttpPost(rootUrl + EntityType.OBSERVATION.getVal());
+        request.setEntity(new StringEntity(body));
+        request.setHeader("Content-Type", "application/json");
+        request.setHeader("Idempotency-Key", idempotencyKey);
+        HttpResponse response = HttpClientBuilder.create().build().execute(request);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        return mapper.readTree(response.getEntity().getContent());
+    }
+
+    private String observation(int result) {
+        return String.format("{ \"phenomenonTime\": \"2015-03-03T00:00:0%dZ\", \"result\": %d, " +
+                                 "\"Datastream\": { \"@iot.id\": %s } }",
+                             result,
+                             result,
+                             escape(datastreamId));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+
+/**
+ * Checks conversion of results into the observationType of their Datastream
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationResultTypes extends ConformanceTests implements TestUtil {
+
+    private static final String OBSERVATION_TYPE = "http://www.opengis.net/def/observationType/OGC-OM/2.0/";
+    private static final String MEASUREMENT = "OM_Measurement";
+    private static final String COUNT = "OM_CountObservation";
+    private static final String TRUTH = "OM_TruthObservation";
+    private static final String CATEGORY = "OM_CategoryObservation";
+
+    public ITObservationResultTypes(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        postEntity(EntityType.THING, String.format("{ \"description\": \"thing 1\", \"name\": \"thing name 1\", " +
+                                                       "\"Datastreams\": [ %s, %s, %s, %s ] }",
+                                                   datastream(MEASUREMENT),
+                                                   datastream(COUNT),
+                                                   datastream(TRUTH),
+                                                   datastream(CATEGORY)));
+    }
+
+    @Test
+    public void testMeasurement() throws IOException {
+        Assertions.assertEquals(3, post(MEASUREMENT, "3").asDouble());
+        Assertions.assertEquals(2.5, post(MEASUREMENT, "2.5").asDouble());
+        Assertions.assertEquals(2.5, post(MEASUREMENT, "\"2.5\"").asDouble());
+        postInvalid(MEASUREMENT, "\"abc\"");
+        postInvalid(MEASUREMENT, "true");
+    }
+
+    @Test
+    public void testCount() throws IOException {
+        Assertions.assertEquals(3, post(COUNT, "3").asInt());
+        Assertions.assertEquals(4, post(COUNT, "\" 4 \"").asInt());
+        Assertions.assertEquals(5, post(COUNT, "5.0").asInt());
+        postInvalid(COUNT, "3.5");
+        // Overflow of Integer
+        postInvalid(COUNT, "2147483648");
+        postInvalid(COUNT, "\"2147483648\"");
+        postInvalid(COUNT, "\"abc\"");
+        postInvalid(COUNT, "true");
+    }
+
+    @Test
+    public void testTruth() throws IOException {
+        Assertions.assertTrue(post(TRUTH, "true").asBoolean());
+        Assertions.assertFalse(post(TRUTH, "\"FALSE\"").asBoolean());
+        postInvalid(TRUTH, "\"yes\"");
+        postInvalid(TRUTH, "1");
+    }
+
+    @Test
+    public void testCategory() throws IOException {
+        Assertions.assertEquals("abc", post(CATEGORY, "\"abc\"").asText());
+        // Numbers are kept as written instead of their double representation
+        Assertions.assertEquals("1.50", post(CATEGORY, "1.50").asText());
+        Assertions.assertEquals("true", post(CATEGORY, "true").asText());
+    }
+
+    /**
+     * Posts an Observation and returns its result as stored.
+     */
+    private JsonNode post(String observationType, String result) throws IOException {
+        String id = postEntity(EntityType.OBSERVATION, observation(observationType, result)).get(idKey).asText();
+        return getEntity(EntityType.OBSERVATION, id).get("result");
+    }
+
+    private void postInvalid(String observationType, String result) throws IOException {
+        int count = getCollection(EntityType.OBSERVATION).get(value).size();
+        postInvalidEntity(EntityType.OBSERVATION, observation(observationType, result));
+        Assertions.assertEquals(count,
+                                getCollection(EntityType.OBSERVATION).get(value).size(),
+                                "Observation with result " + result + " was created for " + observationType);
+    }
+
+    private String observation(String observationType, String result) throws IOException {
+        String datastreamId = getCollection(EntityType.DATASTREAM, "$filter=name eq '" + observationType + "'")
+            .get(value)
+            .get(0)
+            .get(idKey)
+            .asText();
+        return String.format("{ \"phenomenonTime\": \"2015-03-03T00:00:00Z\", \"result\": %s, " +
+                                 "\"Datastream\": { \"@iot.id\": %s } }",
+                             result,
+                             escape(datastreamId));
+    }
+
+    private static String datastream(String observationType) {
+        return String.format("{ \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+                                 "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, " +
+                                 "\"description\": \"datastream\", \"name\": \"%1$s\", " +
+                                 "\"observationType\": \"%2$s%1$s\", \"ObservedProperty\": { \"name\": \"%1$s\", " +
+                                 "\"definition\": \"http://example.org/%1$s\", \"description\": \"%1$s\" }, " +
+                                 "\"Sensor\": { \"description\": \"%1$s\", \"name\": \"%1$s\", " +
+                                 "\"encodingType\": \"application/pdf\", \"metadata\": \"%1$s\" } }",
+                             observationType,
+                             OBSERVATION_TYPE);
+    }
+}
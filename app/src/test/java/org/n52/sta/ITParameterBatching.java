@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that parameters of a created Entity are inserted as JDBC batches instead of one statement per parameter
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=" +
+        "org.n52.sta.CountingStatementInspector")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITParameterBatching extends ConformanceTests implements TestUtil {
+
+    private static final Pattern PARAMETER_INSERT =
+        Pattern.compile("insert\\s+into\\s+(\\w+\\.)?parameter\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final int PARAMETER_COUNT = 10;
+
+    public ITParameterBatching(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"Datastreams\": " +
+            "[ { \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", " +
+            "\"name\": \"datastream name 1\", \"observationType\": " +
+            "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { " +
+            "\"name\": \"Luminous Flux\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": " +
+            "\"observedProperty 1\" }, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", " +
+            "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+    }
+
+    @Test
+    public void testObservationParametersAreBatched() throws IOException {
+        JsonNode datastreams = getCollection(EntityType.DATASTREAM);
+        String datastreamId = datastreams.get(value).get(0).get(idKey).asText();
+
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < PARAMETER_COUNT; i++) {
+            parameters.append(i == 0 ? "" : ", ").append(String.format("\"param%d\": %d", i, i));
+        }
+        String observation = String.format("{ \"phenomenonTime\": \"2015-03-03T00:00:00Z\", \"result\": 3, " +
+                                               "\"parameters\": { %s }, \"Datastream\": { \"@iot.id\": \"%s\" } }",
+                                           parameters,
+                                           datastreamId);
+
+        CountingStatementInspector.reset();
+        JsonNode created = postEntity(EntityType.OBSERVATION, observation);
+        long parameterInserts = CountingStatementInspector.getStatements()
+            .stream()
+            .filter(sql -> PARAMETER_INSERT.matcher(sql).matches())
+            .count();
+
+        Assertions.assertEquals(1,
+                                parameterInserts,
+                                "Expected parameters to be inserted in a single batch but found "
+                                    + parameterInserts + " insert statements");
+        JsonNode stored = getEntity(EntityType.OBSERVATION, created.get(idKey).asText()).get("parameters");
+        Assertions.assertEquals(PARAMETER_COUNT, stored.size());
+        for (int i = 0; i < PARAMETER_COUNT; i++) {
+            Assertions.assertEquals(i, stored.get("param" + i).asInt());
+        }
+    }
+
+    @Test
+    public void testMixedParameterTypesAreBatched() throws IOException {
+        JsonNode datastreams = getCollection(EntityType.DATASTREAM);
+        String datastreamId = datastreams.get(value).get(0).get(idKey).asText();
+
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < PARAMETER_COUNT; i++) {
+            parameters.append(i == 0 ? "" : ", ")
+                .append(String.format("\"text%d\": \"value %d\", ", i, i))
+                .append(String.format("\"quantity%d\": %d.5, ", i, i))
+                .append(String.format("\"boolean%d\": %b, ", i, i % 2 == 0))
+                .append(String.format("\"json%d\": { \"nested\": %d }", i, i));
+        }
+        String observation = String.format("{ \"phenomenonTime\": \"2015-03-03T00:00:00Z\", \"result\": 3, " +
+                                               "\"parameters\": { %s }, \"Datastream\": { \"@iot.id\": \"%s\" } }",
+                                           parameters,
+                                           datastreamId);
+
+        CountingStatementInspector.reset();
+        JsonNode created = postEntity(EntityType.OBSERVATION, observation);
+        long parameterInserts = CountingStatementInspector.getStatements()
+            .stream()
+            .filter(sql -> PARAMETER_INSERT.matcher(sql).matches())
+            .count();
+
+        // Inserts are ordered by parameter type, so there is one batch per type
+        Assertions.assertEquals(4,
+                                parameterInserts,
+                                "Expected parameters to be inserted in one batch per type but found "
+                                    + parameterInserts + " insert statements");
+        JsonNode stored = getEntity(EntityType.OBSERVATION, created.get(idKey).asText()).get("parameters");
+        Assertions.assertEquals(4 * PARAMETER_COUNT, stored.size());
+        for (int i = 0; i < PARAMETER_COUNT; i++) {
+            Assertions.assertEquals("value " + i, stored.get("text" + i).asText());
+            Assertions.assertEquals(i + 0.5, stored.get("quantity" + i).asDouble());
+            Assertions.assertEquals(i % 2 == 0, stored.get("boolean" + i).asBoolean());
+            JsonNode json = stored.get("json" + i);
+            // JSON parameters may be returned serialized as text
+            JsonNode nested = (json.isTextual() ? mapper.readTree(json.asText()) : json).get("nested");
+            Assertions.assertEquals(i, nested.asInt());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.sta.data.vanilla.ObservationReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+
+/**
+ * Checks that pages of Observations read through a StatelessSession are serialized exactly like pages read through
+ * the EntityManager
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {"server.feature.read.stateless=true",
+                  "server.feature.read.statelessMinPageSize=2"})
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITStatelessRead extends ConformanceTests implements TestUtil {
+
+    private static final int OBSERVATIONS = 6;
+
+    private static final String[] QUERIES = {
+        "$orderby=phenomenonTime",
+        "$orderby=phenomenonTime desc&$top=3&$skip=1",
+        "$select=id,result,parameters&$orderby=result",
+        "$filter=result gt 2&$orderby=phenomenonTime"
+    };
+
+    @Autowired
+    private ObservationReader observationReader;
+
+    public ITStatelessRead(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"Datastreams\": " +
+            "[ { \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\": \"datastream 1\", " +
+            "\"name\": \"datastream name 1\", \"observationType\": " +
+            "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { " +
+            "\"name\": \"Luminous Flux\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": " +
+            "\"observedProperty 1\" }, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", " +
+            "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        String datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+
+        for (int i = 0; i < OBSERVATIONS; i++) {
+            // Every other Observation has parameters, so pages mix initialized empty and non-empty collections
+            String parameters = i % 2 == 0
+                ? ""
+                : String.format("\"parameters\": { \"index\": %d, \"name\": \"observation %d\" }, ", i, i);
+            postEntity(EntityType.OBSERVATION,
+                       String.format("{ \"phenomenonTime\": \"2015-03-03T00:00:0%dZ\", \"result\": %d, %s" +
+                                         "\"Datastream\": { \"@iot.id\": %s } }",
+                                     i,
+                                     i,
+                                     parameters,
+                                     escape(datastreamId)));
+        }
+    }
+
+    @Test
+    public void testStatelessPagesMatchEntityManagerPages() throws IOException {
+        for (String query : QUERIES) {
+            observationReader.setEnabled(true);
+            long statelessPages = observationReader.getStatelessPages();
+            JsonNode stateless = getCollection(EntityType.OBSERVATION, query);
+            Assertions.assertTrue(observationReader.getStatelessPages() > statelessPages,
+                                  "Page was not read through a StatelessSession for " + query);
+
+            observationReader.setEnabled(false);
+            statelessPages = observationReader.getStatelessPages();
+            JsonNode stateful = getCollection(EntityType.OBSERVATION, query);
+            Assertions.assertEquals(statelessPages, observationReader.getStatelessPages());
+
+            Assertions.assertEquals(stateful, stateless, "Pages differ for " + query);
+        }
+        Assertions.assertEquals(0, observationReader.getFallbacks());
+    }
+
+    @Test
+    public void testParametersAreRead() throws IOException {
+        JsonNode observations = getCollection(EntityType.OBSERVATION, "$orderby=phenomenonTime").get(value);
+        Assertions.assertTrue(observationReader.getStatelessPages() > 0);
+        Assertions.assertEquals(OBSERVATIONS, observations.size());
+        for (int i = 0; i < OBSERVATIONS; i++) {
+            JsonNode parameters = observations.get(i).get("parameters");
+            if (i % 2 == 0) {
+                Assertions.assertTrue(parameters == null || parameters.size() == 0,
+                                      "Unexpected parameters " + parameters);
+            } else {
+                Assertions.assertEquals(i, parameters.get("index").asInt());
+                Assertions.assertEquals("observation " + i, parameters.get("name").asText());
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.mqtt.vanilla.MqttSubscriptionEventHandlerImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput benchmark of the MQTT publish path with 10k subscribers. Not run by default, run with
+ * mvn test -pl app -Dtest=MqttFanOutBenchmark
+ */
+public class MqttFanOutBenchmark extends AbstractMqttHandlerTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttFanOutBenchmark.class);
+    private static final int SUBSCRIBERS = 10_000;
+    private static final int WARMUP = 20;
+    private static final int EVENTS = 200;
+
+    private long published;
+
+    @Override
+    protected void onPublish(MqttPublishMessage msg) {
+        published++;
+    }
+
+    @Test
+    public void fanOutToManySubscribers() {
+        MqttSubscriptionEventHandlerImpl handler = createHandler();
+        Set<String> locations = new HashSet<>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            String topic = "Locations(" + i + ")/Things";
+            handler.addSubscription(i % 2 == 0
+                                        ? collectionSubscription(topic)
+                                        : selectSubscription(topic + "?$select=name"),
+                                    CLIENT_ID + i);
+            locations.add(String.valueOf(i));
+        }
+        Map<String, Set<String>> collections = Collections.singletonMap(STAEntityDefinition.LOCATIONS, locations);
+
+        for (int i = 0; i < WARMUP; i++) {
+            handler.handleEvent(createThing(String.valueOf(i)), STAEntityDefinition.THINGS, null, collections);
+        }
+        published = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            handler.handleEvent(createThing(String.valueOf(i)), STAEntityDefinition.THINGS, null, collections);
+        }
+        long duration = System.nanoTime() - start;
+
+        Assertions.assertEquals((long) EVENTS * SUBSCRIBERS, published);
+        double seconds = duration / (double) TimeUnit.SECONDS.toNanos(1);
+        LOGGER.info("Published {} messages to {} subscribers in {}s ({} messages/s)",
+                    published,
+                    SUBSCRIBERS,
+                    String.format("%.2f", seconds),
+                    Math.round(published / seconds));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.util.ResourceLeakDetector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.mqtt.vanilla.MqttSubscriptionEventHandlerImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests that MQTT payloads are serialized once per set of selected properties and that all payload buffers are
+ * released after an event has been published.
+ */
+public class MqttPayloadLeakTest extends AbstractMqttHandlerTest {
+
+    private final List<String> topics = new ArrayList<>();
+    private final Set<ByteBuf> payloads = Collections.newSetFromMap(new IdentityHashMap<>());
+    private MqttSubscriptionEventHandlerImpl handler;
+
+    @BeforeEach
+    public void setUp() {
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        topics.clear();
+        payloads.clear();
+        handler = createHandler();
+    }
+
+    @Override
+    protected void onPublish(MqttPublishMessage msg) {
+        Assertions.assertTrue(msg.payload().refCnt() > 0, "Payload was released before it was published");
+        topics.add(msg.variableHeader().topicName());
+        // Duplicates share the underlying buffer
+        payloads.add(msg.payload().unwrap());
+    }
+
+    @Test
+    public void payloadIsSerializedOncePerSelect() {
+        handler.addSubscription(collectionSubscription("Things"), CLIENT_ID);
+        handler.addSubscription(entitySubscription("Things(1)"), CLIENT_ID);
+        handler.addSubscription(selectSubscription("Things?$select=name"), CLIENT_ID);
+        handler.addSubscription(propertySubscription("Things(1)/name"), CLIENT_ID);
+
+        handler.handleEvent(createThing("1"), STAEntityDefinition.THINGS, null, Collections.emptyMap());
+
+        Assertions.assertEquals(4, topics.size());
+        Assertions.assertEquals(2, payloads.size());
+        for (ByteBuf payload : payloads) {
+            Assertions.assertEquals(0, payload.refCnt(), "Payload buffer was not released");
+        }
+    }
+
+    @Test
+    public void payloadIsReleasedWithoutMatchingSubscription() {
+        handler.addSubscription(entitySubscription("Things(2)"), CLIENT_ID);
+
+        handler.handleEvent(createThing("1"), STAEntityDefinition.THINGS, null, Collections.emptyMap());
+
+        Assertions.assertTrue(topics.isEmpty());
+        Assertions.assertTrue(payloads.isEmpty());
+    }
+
+    @Test
+    public void payloadsAreReleasedForManyEvents() {
+        handler.addSubscription(collectionSubscription("Things"), CLIENT_ID);
+        handler.addSubscription(selectSubscription("Things?$select=name"), CLIENT_ID);
+
+        for (int i = 0; i < 1000; i++) {
+            payloads.clear();
+            handler.handleEvent(createThing(String.valueOf(i)),
+                                STAEntityDefinition.THINGS,
+                                null,
+                                Collections.emptyMap());
+            for (ByteBuf payload : payloads) {
+                Assertions.assertEquals(0, payload.refCnt(), "Payload buffer was not released");
+            }
+        }
+        Assertions.assertEquals(2000, topics.size());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.api.CollectionWrapper;
+import org.n52.sta.api.RequestUtils;
+import org.n52.sta.data.vanilla.ObservationReader;
+import org.n52.sta.data.vanilla.service.ObservationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading a page of 1000 Observations in a read-write transaction, in a read-only transaction and through
+ * a StatelessSession. Reports CPU time and heap allocated per request by the requesting thread.
+ * Not run by default, run with mvn test -pl app -Dtest=ObservationReadBenchmark
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ObservationReadBenchmark extends ConformanceTests implements TestUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationReadBenchmark.class);
+    private static final int OBSERVATIONS = 2000;
+    private static final int PAGE_SIZE = 1000;
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    @Autowired
+    private ObservationService observationService;
+
+    @Autowired
+    private ObservationReader observationReader;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    public ObservationReadBenchmark(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        String datastreamId = postEntity(EntityType.DATASTREAM, "{ \"unitOfMeasurement\": { \"name\": \"Lumen\", " +
+            "\"symbol\": \"lm\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, " +
+            "\"description\": \"datastream 1\", \"name\": \"datastream name 1\", \"observationType\": " +
+            "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"Thing\": { " +
+            "\"description\": \"thing 1\", \"name\": \"thing name 1\" }, \"ObservedProperty\": { " +
+            "\"name\": \"Luminous Flux\", \"definition\": " +
+            "\"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\", \"description\": " +
+            "\"observedProperty 1\" }, \"Sensor\": { \"description\": \"sensor 1\", \"name\": \"sensor name 1\", " +
+            "\"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } }")
+            .get(idKey).asText();
+        for (int i = 0; i < OBSERVATIONS; i++) {
+            postEntity(EntityType.OBSERVATION, String.format(
+                "{ \"phenomenonTime\": \"2015-03-03T00:00:%02d.%03dZ\", \"result\": %d, " +
+                    "\"parameters\": { \"index\": %d }, \"Datastream\": { \"@iot.id\": %s } }",
+                i / 1000 % 60, i % 1000, i, i, escape(datastreamId)));
+        }
+    }
+
+    @Test
+    public void readObservationPage() throws Exception {
+        QueryOptions queryOptions =
+            RequestUtils.QUERY_OPTIONS_FACTORY.createQueryOptions("$top=" + PAGE_SIZE + "&$orderby=result");
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+        boolean enabled = observationReader.isEnabled();
+        try {
+            observationReader.setEnabled(false);
+            Read readWriteRead = () -> readWrite.execute(status -> {
+                try {
+                    return observationService.getEntityCollection(queryOptions);
+                } catch (STACRUDException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Read readOnlyRead = () -> observationService.getEntityCollection(queryOptions);
+            long[] readWriteResult = measure(readWriteRead);
+            long[] readOnlyResult = measure(readOnlyRead);
+
+            observationReader.setEnabled(true);
+            long pages = observationReader.getStatelessPages();
+            Read statelessRead = () -> observationService.getEntityCollection(queryOptions);
+            long[] statelessResult = measure(statelessRead);
+            Assertions.assertEquals(WARMUP + ITERATIONS, observationReader.getStatelessPages() - pages);
+
+            LOGGER.info("Read {} pages of {} Observations", ITERATIONS, PAGE_SIZE);
+            log("read-write", readWriteResult);
+            log("read-only", readOnlyResult);
+            log("stateless", statelessResult);
+        } finally {
+            observationReader.setEnabled(enabled);
+        }
+    }
+
+    private long[] measure(Read read) throws STACRUDException {
+        for (int i = 0; i < WARMUP; i++) {
+            Assertions.assertEquals(PAGE_SIZE, read.run().getEntities().size());
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long cpu = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            read.run();
+        }
+        return new long[] {(System.nanoTime() - start) / ITERATIONS,
+            (threads.getCurrentThreadCpuTime() - cpu) / ITERATIONS,
+            (threads.getThreadAllocatedBytes(threadId) - allocated) / ITERATIONS};
+    }
+
+    private void log(String name, long[] result) {
+        LOGGER.info("{}: {} ms/request, {} ms CPU/request, {} KB allocated/request",
+                    name,
+                    TimeUnit.NANOSECONDS.toMillis(result[0]),
+                    TimeUnit.NANOSECONDS.toMillis(result[1]),
+                    result[2] / 1024);
+    }
+
+    @FunctionalInterface
+    private interface Read {
+
+        CollectionWrapper run() throws STACRUDException;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.sta.http.RequestCoalescingFilter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests coalescing of identical concurrent GET requests. The leading request is held in its FilterChain until the
+ * identical request under test is waiting for it.
+ */
+public class RequestCoalescingFilterTest {
+
+    private static final String BODY = "{\"name\":\"Thing ä\"}";
+    private static final String OWN_BODY = "{\"own\":true}";
+
+    private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    public void checkErrors() {
+        Assertions.assertTrue(errors.isEmpty(), () -> "Request failed: " + errors);
+    }
+
+    @Test
+    public void testFollowerSharesResponseOfLeader() throws Exception {
+        RequestCoalescingFilter filter = new RequestCoalescingFilter(10000, 1024);
+        LeaderChain leaderChain = new LeaderChain(BODY);
+        MockHttpServletResponse leaderResponse = new MockHttpServletResponse();
+        Thread leader = start(filter, request("$top=1&$skip=2"), leaderResponse, leaderChain);
+        leaderChain.awaitEntered();
+
+        // Order of query options does not matter
+        CountingChain followerChain = new CountingChain();
+        MockHttpServletResponse followerResponse = new MockHttpServletResponse();
+        Thread follower = start(filter, request("$skip=2&$top=1"), followerResponse, followerChain);
+        awaitWaiting(follower);
+
+        leaderChain.release();
+        leader.join();
+        follower.join();
+
+        Assertions.assertEquals(0, followerChain.calls.get());
+        Assertions.assertEquals(HttpServletResponse.SC_OK, followerResponse.getStatus());
+        Assertions.assertEquals(leaderResponse.getContentType(), followerResponse.getContentType());
+        Assertions.assertEquals(StandardCharsets.UTF_8.name(), followerResponse.getCharacterEncoding());
+        Assertions.assertEquals(1, followerResponse.getHeaders(HttpHeaders.CONTENT_TYPE).size());
+        Assertions.assertEquals("leader", followerResponse.getHeader("X-Request"));
+        Assertions.assertEquals(BODY, followerResponse.getContentAsString());
+        Assertions.assertEquals(BODY, leaderResponse.getContentAsString());
+
+        Assertions.assertEquals(1, filter.getLeaders());
+        Assertions.assertEquals(1, filter.getFollowers());
+        Assertions.assertEquals(0, filter.getInFlight());
+    }
+
+    @Test
+    public void testFollowerIsProcessedOnItsOwnAfterMaxWait() throws Exception {
+        RequestCoalescingFilter filter = new RequestCoalescingFilter(50, 1024);
+        LeaderChain leaderChain = new LeaderChain(BODY);
+        Thread leader = start(filter, request("$top=1"), new MockHttpServletResponse(), leaderChain);
+        leaderChain.awaitEntered();
+
+        CountingChain followerChain = new CountingChain();
+        MockHttpServletResponse followerResponse = new MockHttpServletResponse();
+        filter.doFilter(request("$top=1"), followerResponse, followerChain);
+
+        leaderChain.release();
+        leader.join();
+
+        Assertions.assertEquals(1, followerChain.calls.get());
+        Assertions.assertEquals(OWN_BODY, followerResponse.getContentAsString());
+        Assertions.assertEquals(1, filter.getTimeouts());
+        Assertions.assertEquals(0, filter.getFollowers());
+    }
+
+    @Test
+    public void testFollowerIsProcessedOnItsOwnIfLeaderIsNotShareable() throws Exception {
+        // Response of the leader exceeds maxBytes
+        RequestCoalescingFilter filter = new RequestCoalescingFilter(10000, 4);
+        LeaderChain leaderChain = new LeaderChain(BODY);
+        MockHttpServletResponse leaderResponse = new MockHttpServletResponse();
+        Thread leader = start(filter, request("$top=1"), leaderResponse, leaderChain);
+        leaderChain.awaitEntered();
+
+        CountingChain followerChain = new CountingChain();
+        MockHttpServletResponse followerResponse = new MockHttpServletResponse();
+        Thread follower = start(filter, request("$top=1"), followerResponse, followerChain);
+        awaitWaiting(follower);
+
+        leaderChain.release();
+        leader.join();
+        follower.join();
+
+        Assertions.assertEquals(BODY, leaderResponse.getContentAsString());
+        Assertions.assertEquals(1, followerChain.calls.get());
+        Assertions.assertEquals(OWN_BODY, followerResponse.getContentAsString());
+        Assertions.assertEquals(1, filter.getUnshared());
+        Assertions.assertEquals(0, filter.getFollowers());
+    }
+
+    @Test
+    public void testEncodedSeparatorDoesNotCoalesceDifferentRequests() throws Exception {
+        RequestCoalescingFilter filter = new RequestCoalescingFilter(10000, 1024);
+        LeaderChain leaderChain = new LeaderChain(BODY);
+        Thread leader = start(filter,
+                              request("$filter=name%20eq%20'a%26b'"),
+                              new MockHttpServletResponse(),
+                              leaderChain);
+        leaderChain.awaitEntered();
+
+        // Decodes to the same options as the leader if split at '&' after decoding
+        CountingChain otherChain = new CountingChain();
+        MockHttpServletResponse otherResponse = new MockHttpServletResponse();
+        filter.doFilter(request("$filter=name%20eq%20'a&b'"), otherResponse, otherChain);
+
+        leaderChain.release();
+        leader.join();
+
+        Assertions.assertEquals(1, otherChain.calls.get());
+        Assertions.assertEquals(OWN_BODY, otherResponse.getContentAsString());
+        Assertions.assertEquals(2, filter.getLeaders());
+        Assertions.assertEquals(0, filter.getTimeouts());
+    }
+
+    private MockHttpServletRequest request(String query) {
+        MockHttpServletRequest request = new MockHttpServletRequest(HttpMethod.GET.name(), "/Things");
+        request.setQueryString(query);
+        return request;
+    }
+
+    private Thread start(RequestCoalescingFilter filter,
+                         MockHttpServletRequest request,
+                         MockHttpServletResponse response,
+                         FilterChain chain) {
+        Thread thread = new Thread(() -> {
+            try {
+                filter.doFilter(request, response, chain);
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Waits until given request is waiting for the response of its leader.
+     */
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            Assertions.assertTrue(thread.isAlive() && System.currentTimeMillis() < deadline,
+                                  "Request is not waiting for its leader");
+            Thread.sleep(1);
+        }
+    }
+
+    private static void write(ServletResponse response, String body) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    private static final class LeaderChain implements FilterChain {
+
+        private final String body;
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        LeaderChain(String body) {
+            this.body = body;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+            entered.countDown();
+            try {
+                Assertions.assertTrue(released.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            ((HttpServletResponse) response).setHeader("X-Request", "leader");
+            write(response, body);
+        }
+
+        void awaitEntered() throws InterruptedException {
+            Assertions.assertTrue(entered.await(10, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+
+
+    private static final class CountingChain implements FilterChain {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+            calls.incrementAndGet();
+            write(response, OWN_BODY);
+        }
+    }
+}
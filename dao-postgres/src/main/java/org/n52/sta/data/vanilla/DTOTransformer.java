@@ -32,14 +32,16 @@ package org.n52.sta.data.vanilla;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.hibernate.Hibernate;
 import org.joda.time.DateTime;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.io.ParseException;
-import org.locationtech.jts.io.geojson.GeoJsonReader;
 import org.n52.series.db.beans.AbstractDatasetEntity;
 import org.n52.series.db.beans.AbstractFeatureEntity;
 import org.n52.series.db.beans.BlobDataEntity;
+import org.n52.series.db.beans.BooleanDataEntity;
+import org.n52.series.db.beans.CountDataEntity;
 import org.n52.series.db.beans.DataEntity;
 import org.n52.series.db.beans.DatasetEntity;
 import org.n52.series.db.beans.FeatureEntity;
@@ -50,12 +52,15 @@ import org.n52.series.db.beans.PhenomenonEntity;
 import org.n52.series.db.beans.PlatformEntity;
 import org.n52.series.db.beans.ProcedureEntity;
 import org.n52.series.db.beans.ProcedureHistoryEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.series.db.beans.TextDataEntity;
 import org.n52.series.db.beans.UnitEntity;
 import org.n52.series.db.beans.parameter.ParameterEntity;
 import org.n52.series.db.beans.parameter.ParameterFactory;
 import org.n52.series.db.beans.sta.HistoricalLocationEntity;
 import org.n52.series.db.beans.sta.LocationEntity;
 import org.n52.series.db.beans.sta.StaFeatureEntity;
+import org.n52.shetland.filter.ExpandItem;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.shetland.ogc.gml.time.Time;
 import org.n52.shetland.ogc.gml.time.TimeInstant;
@@ -80,10 +85,12 @@ import org.n52.sta.api.dto.impl.ObservedProperty;
 import org.n52.sta.api.dto.impl.Sensor;
 import org.n52.sta.api.dto.impl.Thing;
 import org.n52.sta.data.vanilla.service.ServiceUtils;
+import org.n52.sta.serdes.GeoJsonCodec;
 import org.n52.sta.utils.TimeUtil;
 import org.springframework.util.Assert;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -91,6 +98,7 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 // import org.n52.series.db.beans.SensorML20DataEntity;
@@ -108,15 +116,17 @@ public class DTOTransformer<R extends StaDTO, S extends HibernateRelations.HasId
     private static final String SENSORML_2 = "http://www.opengis.net/sensorml/2.0";
     private static final String PDF = "application/pdf";
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final GeoJsonCodec GEO_JSON_CODEC = new GeoJsonCodec();
     private final SerDesConfig config;
-    private Map<String, Object> serialized;
+    private Map<Object, Object> serialized;
 
     public DTOTransformer(SerDesConfig config) {
         this.config = config;
     }
 
-    private static String genKey(StaDTO dto) {
-        return dto.getId() + dto.getClass().getSimpleName();
+    private static Object genKey(StaDTO dto) {
+        // DTOs without identifier are distinct Entities that are yet to be created
+        return dto.getId() == null ? dto : dto.getId() + dto.getClass().getSimpleName();
     }
 
     @SuppressWarnings("unchecked")
@@ -158,6 +168,83 @@ public class DTOTransformer<R extends StaDTO, S extends HibernateRelations.HasId
         }
     }
 
+    /**
+     * Initializes everything that is read when given Entity is converted by {@link #toDTO(Object, QueryOptions)} with
+     * given query options, i.e. its parameters, the associations always read and the associations expanded by the
+     * query options. Required if the Entity is converted after its persistence context was closed.
+     *
+     * @param raw          Entity to be initialized, may be null
+     * @param queryOptions query options the Entity is converted with, may be null
+     */
+    public static void initialize(Object raw, QueryOptions queryOptions) {
+        if (raw == null) {
+            return;
+        }
+        Hibernate.initialize(raw);
+        if (raw instanceof HibernateRelations.HasParameters) {
+            Hibernate.initialize(((HibernateRelations.HasParameters) raw).getParameters());
+        }
+        Map<String, QueryOptions> expand = new HashMap<>();
+        if (queryOptions != null && queryOptions.hasExpandFilter()) {
+            for (ExpandItem item : queryOptions.getExpandFilter().getItems()) {
+                expand.put(item.getPath(), item.getQueryOptions());
+            }
+        }
+
+        if (raw instanceof PlatformEntity) {
+            PlatformEntity platform = (PlatformEntity) raw;
+            initializeExpanded(platform::getDatasets, StaConstants.DATASTREAMS, expand);
+            initializeExpanded(platform::getLocations, StaConstants.LOCATIONS, expand);
+            initializeExpanded(platform::getHistoricalLocations, StaConstants.HISTORICAL_LOCATIONS, expand);
+        } else if (raw instanceof LocationEntity) {
+            LocationEntity location = (LocationEntity) raw;
+            initializeExpanded(location::getHistoricalLocations, StaConstants.HISTORICAL_LOCATIONS, expand);
+            initializeExpanded(location::getThings, StaConstants.THINGS, expand);
+        } else if (raw instanceof HistoricalLocationEntity) {
+            HistoricalLocationEntity historicalLocation = (HistoricalLocationEntity) raw;
+            initializeExpanded(historicalLocation::getLocations, StaConstants.LOCATIONS, expand);
+            initializeExpanded(historicalLocation::getThing, StaConstants.THING, expand);
+        } else if (raw instanceof AbstractDatasetEntity) {
+            AbstractDatasetEntity dataset = (AbstractDatasetEntity) raw;
+            Hibernate.initialize(dataset.getUnit());
+            Hibernate.initialize(dataset.getOMObservationType());
+            initializeExpanded(dataset::getPhenomenon, StaConstants.OBSERVED_PROPERTY, expand);
+            initializeExpanded(dataset::getProcedure, StaConstants.SENSOR, expand);
+            initializeExpanded(dataset::getPlatform, StaConstants.THING, expand);
+            initializeExpanded(dataset::getObservations, StaConstants.OBSERVATIONS, expand);
+        } else if (raw instanceof ProcedureEntity) {
+            ProcedureEntity procedure = (ProcedureEntity) raw;
+            Hibernate.initialize(procedure.getFormat());
+            Hibernate.initialize(procedure.getProcedureHistory());
+            initializeExpanded(procedure::getDatasets, StaConstants.DATASTREAMS, expand);
+        } else if (raw instanceof PhenomenonEntity) {
+            initializeExpanded(((PhenomenonEntity) raw)::getDatasets, StaConstants.DATASTREAMS, expand);
+        } else if (raw instanceof StaFeatureEntity) {
+            initializeExpanded(((StaFeatureEntity<?>) raw)::getObservations, StaConstants.OBSERVATIONS, expand);
+        } else if (raw instanceof DataEntity) {
+            DataEntity<?> observation = (DataEntity<?>) raw;
+            initializeExpanded(observation::getFeature, StaConstants.FEATURE_OF_INTEREST, expand);
+            initializeExpanded(observation::getDataset, StaConstants.DATASTREAM, expand);
+        }
+    }
+
+    private static void initializeExpanded(Supplier<?> association,
+                                           String navigationProperty,
+                                           Map<String, QueryOptions> expand) {
+        if (!expand.containsKey(navigationProperty)) {
+            return;
+        }
+        Object expanded = association.get();
+        if (expanded instanceof Collection) {
+            Hibernate.initialize(expanded);
+            for (Object element : (Collection<?>) expanded) {
+                initialize(element, expand.get(navigationProperty));
+            }
+        } else {
+            initialize(expanded, expand.get(navigationProperty));
+        }
+    }
+
     public S fromDTO(R type) {
         serialized = new HashMap<>();
         if (type instanceof ThingDTO) {
@@ -327,9 +414,9 @@ public class DTOTransformer<R extends StaDTO, S extends HibernateRelations.HasId
 
     private DataEntity<?> toDataEntity(ObservationDTO raw) {
         if (serialized.containsKey(genKey(raw))) {
-            return (BlobDataEntity) serialized.get(genKey(raw));
+            return (DataEntity<?>) serialized.get(genKey(raw));
         } else {
-            BlobDataEntity dataEntity = new BlobDataEntity();
+            DataEntity<?> dataEntity = createDataEntity(raw.getResult());
             serialized.put(genKey(raw), dataEntity);
             dataEntity.setIdentifier(raw.getId());
             dataEntity.setStaIdentifier(raw.getId());
@@ -356,10 +443,6 @@ public class DTOTransformer<R extends StaDTO, S extends HibernateRelations.HasId
                 dataEntity.setValidTimeEnd(((TimePeriod) validTime).getEnd().toDate());
             }
 
-            // if (raw.getResult() instanceof ObjectNode)
-            if (raw.getResult() != null) {
-                dataEntity.setValue(raw.getResult().toString());
-            }
             if (raw.getDatastream() != null) {
                 dataEntity.setDataset(this.toDatasetEntity(raw.getDatastream()));
             }
@@ -374,6 +457,40 @@ public class DTOTransformer<R extends StaDTO, S extends HibernateRelations.HasId
         }
     }
 
+    /**
+     * Creates the DataEntity matching the type of the result as parsed from JSON. Numbers are parsed as Integer or
+     * BigDecimal. The value is converted to the observationType of the Datastream once the Observation is persisted.
+     *
+     * @param result typed result of the Observation
+     * @return DataEntity holding the result
+     */
+    private DataEntity<?> createDataEntity(Object result) {
+        if (result instanceof Integer) {
+            CountDataEntity count = new CountDataEntity();
+            count.setValue((Integer) result);
+            return count;
+        } else if (result instanceof BigDecimal) {
+            QuantityDataEntity quantity = new QuantityDataEntity();
+            quantity.setValue((BigDecimal) result);
+            return quantity;
+        } else if (result instanceof Boolean) {
+            BooleanDataEntity bool = new BooleanDataEntity();
+            bool.setValue((Boolean) result);
+            return bool;
+        } else if (result instanceof String) {
+            TextDataEntity text = new TextDataEntity();
+            text.setValue((String) result);
+            return text;
+        } else {
+            // Complex results (e.g. JSON objects) are kept as JSON
+            BlobDataEntity blob = new BlobDataEntity();
+            if (result != null) {
+                blob.setValue(result.toString());
+            }
+            return blob;
+        }
+    }
+
     private DatasetEntity toDatasetEntity(DatastreamDTO raw) {
         if (serialized.containsKey(genKey(raw))) {
             return (DatasetEntity) serialized.get(genKey(raw));
@@ -819,10 +936,9 @@ public class DTOTransformer<R extends StaDTO, S extends HibernateRelations.HasId
                     // Add as samplingGeometry to enable interoperability with SOS
                     GeometryFactory factory =
                         new GeometryFactory(new PrecisionModel(PrecisionModel.FLOATING), 4326);
-                    GeoJsonReader reader = new GeoJsonReader(factory);
                     try {
                         GeometryEntity geometryEntity = new GeometryEntity();
-                        geometryEntity.setGeometry(reader.read(jsonNode.toString()));
+                        geometryEntity.setGeometry(GEO_JSON_CODEC.read(jsonNode, factory));
                         dataEntity.setGeometryEntity(geometryEntity);
                     } catch (ParseException e) {
                         Assert.notNull(null, "Could not parse" + e.getMessage());
@@ -36,13 +36,36 @@ import java.util.concurrent.Semaphore;
 /**
  * Semaphore controlling access to the Persistence Service Layer. The Persistence Layer can currently only handle as
  * many running threads as there are database connections available, as each thread uses a separate Transaction.
+ * Permits are reentrant per thread so that operations nested in a change set share the permit of the change set.
  *
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
 @Service
 public class DaoSemaphore extends Semaphore {
 
+    private static final long serialVersionUID = 4436931583291418470L;
+
+    private static final ThreadLocal<int[]> HELD = ThreadLocal.withInitial(() -> new int[1]);
+
     public DaoSemaphore(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int permits) {
         super(permits, true);
     }
+
+    @Override public void acquire() throws InterruptedException {
+        int[] held = HELD.get();
+        if (held[0] == 0) {
+            super.acquire();
+        }
+        held[0]++;
+    }
+
+    @Override public void release() {
+        int[] held = HELD.get();
+        if (held[0] > 1) {
+            held[0]--;
+        } else {
+            held[0] = 0;
+            super.release();
+        }
+    }
 }
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.n52.series.db.beans.AbstractDatasetEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes the total number of Entities returned for $count=true.
+ *
+ * <p>
+ * Exact counts are started before the page of Entities is queried and run concurrently on a separate database
+ * connection if a permit of the {@link DaoSemaphore} is available. Otherwise they are run by the requesting thread.
+ *
+ * <p>
+ * If estimates are enabled, unfiltered collections are counted using the row estimate of the PostgreSQL planner
+ * and unfiltered Observations of a Datastream using counters maintained in memory. Counters are seeded by an exact
+ * count on first use and afterwards updated whenever Observations are committed or deleted. A counter is registered
+ * before its seed count starts. If Observations of the Datastream are committed or deleted while seeding, the seed
+ * may or may not include them, so the counter is discarded and seeded again on next use. Commits are recorded right
+ * after they happened, so an Observation committed just before the seed count may still be counted twice. This is why
+ * counters are reported as estimates. If the Datastream of a committed Observation cannot be determined, all counters
+ * are discarded as none of them can be trusted anymore.
+ */
+@Component
+@ManagedResource(objectName = "org.n52.sta:name=EntityCounter", description = "Counts Entities for $count")
+public class EntityCounter implements PostCommitInsertEventListener, PostCommitDeleteEventListener, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityCounter.class);
+    private static final long serialVersionUID = 2871706313393526148L;
+    private static final String RELTUPLES = "SELECT reltuples FROM pg_class WHERE oid = to_regclass(:table)";
+
+    private final transient EntityManager em;
+    private final transient EntityManagerFactory entityManagerFactory;
+    private final transient DaoSemaphore semaphore;
+    private final boolean concurrent;
+    private final boolean estimate;
+    private final long estimateThreshold;
+
+    private final transient Map<String, DatastreamCounter> datastreamCounters = new ConcurrentHashMap<>();
+
+    private final LongAdder concurrentCounts = new LongAdder();
+    private final LongAdder sequentialCounts = new LongAdder();
+    private final LongAdder estimatedCounts = new LongAdder();
+
+    private final transient ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryImpl());
+
+    public EntityCounter(EntityManager em,
+                         EntityManagerFactory entityManagerFactory,
+                         DaoSemaphore semaphore,
+                         @Value("${server.feature.count.concurrent:true}") boolean concurrent,
+                         @Value("${server.feature.count.estimate:false}") boolean estimate,
+                         @Value("${server.feature.count.estimateThreshold:100000}") long estimateThreshold) {
+        this.em = em;
+        this.entityManagerFactory = entityManagerFactory;
+        this.semaphore = semaphore;
+        this.concurrent = concurrent;
+        this.estimate = estimate;
+        this.estimateThreshold = estimateThreshold;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (estimate) {
+            EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+            registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+            registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+        }
+    }
+
+    /**
+     * Starts an exact count.
+     *
+     * @param exact query returning the exact count. Must not depend on the transaction of the caller
+     * @return count
+     */
+    public Count count(Callable<Long> exact) {
+        if (concurrent && semaphore.tryAcquire()) {
+            concurrentCounts.increment();
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            executor.execute(() -> {
+                try {
+                    future.complete(exact.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    semaphore.release();
+                }
+            });
+            return new Count(future, false);
+        } else {
+            sequentialCounts.increment();
+            return new Count(exact, false);
+        }
+    }
+
+    /**
+     * Estimates the number of all Entities of given type. Falls back to an exact count if estimates are disabled or
+     * the table is smaller than the configured threshold.
+     *
+     * @param entityClass type of the Entities
+     * @param exact       query returning the exact count
+     * @return count
+     */
+    public Count estimate(Class<?> entityClass, Callable<Long> exact) {
+        if (estimate) {
+            try {
+                EntityPersister persister = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                    .getMetamodel()
+                    .entityPersister(entityClass);
+                if (persister instanceof AbstractEntityPersister) {
+                    List<?> result = em.createNativeQuery(RELTUPLES)
+                        .setParameter("table", ((AbstractEntityPersister) persister).getTableName())
+                        .getResultList();
+                    if (!result.isEmpty() && result.get(0) != null) {
+                        long estimated = ((Number) result.get(0)).longValue();
+                        if (estimated >= estimateThreshold) {
+                            estimatedCounts.increment();
+                            return new Count(CompletableFuture.completedFuture(estimated), true);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOGGER.debug("Could not estimate count of {}: {}", entityClass.getSimpleName(), e.getMessage());
+            }
+        }
+        return count(exact);
+    }
+
+    /**
+     * Estimates the number of all Observations of given Datastream. Falls back to an exact count if estimates are
+     * disabled or the counter of the Datastream is not seeded yet. The exact count seeds the counter.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @param exact        query returning the exact count
+     * @return count
+     */
+    public Count estimateByDatastream(String datastreamId, Callable<Long> exact) {
+        if (!estimate) {
+            return count(exact);
+        }
+        DatastreamCounter counter = datastreamCounters.get(datastreamId);
+        Long estimated = counter == null ? null : counter.get();
+        if (estimated != null) {
+            estimatedCounts.increment();
+            return new Count(CompletableFuture.completedFuture(Math.max(0, estimated)), true);
+        }
+        // Registered before counting so that changes committed while seeding are noticed. Replaces counters of
+        // concurrent requests that are still seeding, each seed is only checked against its own counter
+        DatastreamCounter seeding = new DatastreamCounter();
+        datastreamCounters.put(datastreamId, seeding);
+        Count seed = count(exact);
+        return new Count(() -> {
+            long value;
+            try {
+                value = seed.get();
+            } catch (RuntimeException e) {
+                datastreamCounters.remove(datastreamId, seeding);
+                throw e;
+            }
+            if (!seeding.seed(value)) {
+                datastreamCounters.remove(datastreamId, seeding);
+            }
+            return value;
+        }, false);
+    }
+
+    /**
+     * Records Observations that were inserted without passing through Hibernate (e.g. by bulk imports).
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @param delta        number of inserted Observations
+     */
+    public void add(String datastreamId, long delta) {
+        if (datastreamId != null) {
+            DatastreamCounter counter = datastreamCounters.get(datastreamId);
+            if (counter != null) {
+                counter.add(delta);
+            }
+        }
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        update(event.getEntity(), 1);
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+        // nothing was counted as the insert was not committed
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        update(event.getEntity(), -1);
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        // nothing was counted as the delete was not committed
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return DataEntity.class.isAssignableFrom(persister.getMappedClass());
+    }
+
+    @ManagedAttribute(description = "Exact counts run on a separate connection")
+    public long getConcurrentCounts() {
+        return concurrentCounts.sum();
+    }
+
+    @ManagedAttribute(description = "Exact counts run by the requesting thread")
+    public long getSequentialCounts() {
+        return sequentialCounts.sum();
+    }
+
+    @ManagedAttribute(description = "Counts answered by an estimate")
+    public long getEstimatedCounts() {
+        return estimatedCounts.sum();
+    }
+
+    @ManagedAttribute(description = "Datastreams with a seeded Observation counter")
+    public int getDatastreamCounters() {
+        return (int) datastreamCounters.values().stream().filter(c -> c.get() != null).count();
+    }
+
+    @ManagedOperation(description = "Discards all Observation counters. They are seeded again on next use")
+    public void resetDatastreamCounters() {
+        datastreamCounters.clear();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private void update(Object entity, long delta) {
+        if (entity instanceof DataEntity) {
+            try {
+                AbstractDatasetEntity dataset = ((DataEntity<?>) entity).getDataset();
+                if (dataset != null) {
+                    add(dataset.getStaIdentifier(), delta);
+                    if (dataset.getAggregation() != null) {
+                        add(dataset.getAggregation().getStaIdentifier(), delta);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // e.g. lazy Dataset that can no longer be initialized
+                LOGGER.debug("Could not update Observation counters: {}", e.getMessage());
+                datastreamCounters.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Total number of Entities. An exact count may still be running and is awaited by {@link #get()}.
+     */
+    public static final class Count {
+
+        private final CompletableFuture<Long> future;
+        private final Callable<Long> lazy;
+        private final boolean estimated;
+
+        private Count(CompletableFuture<Long> future, boolean estimated) {
+            this.future = future;
+            this.lazy = null;
+            this.estimated = estimated;
+        }
+
+        private Count(Callable<Long> lazy, boolean estimated) {
+            this.future = null;
+            this.lazy = lazy;
+            this.estimated = estimated;
+        }
+
+        public long get() {
+            try {
+                return future != null ? future.get() : lazy.call();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while counting Entities", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause()
+                    : new IllegalStateException(e.getCause());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public boolean isEstimated() {
+            return estimated;
+        }
+    }
+
+
+    /**
+     * Number of Observations of a Datastream. Changes recorded before the seed is known invalidate the seed.
+     */
+    private static final class DatastreamCounter {
+
+        private long value;
+        private boolean seeded;
+        private boolean changed;
+
+        /**
+         * @return false if the seed was discarded because Observations were changed while seeding
+         */
+        synchronized boolean seed(long seed) {
+            if (changed) {
+                return false;
+            }
+            value = seed;
+            seeded = true;
+            return true;
+        }
+
+        synchronized void add(long delta) {
+            if (seeded) {
+                value += delta;
+            } else {
+                changed = true;
+            }
+        }
+
+        /**
+         * @return count or null if not seeded yet
+         */
+        synchronized Long get() {
+            return seeded ? value : null;
+        }
+    }
+
+
+    private static final class ThreadFactoryImpl implements ThreadFactory {
+
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sta-count-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.n52.sta.api.STAEventHandler;
+import org.n52.sta.api.dto.StaDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatches Entity change events to {@link STAEventHandler}s. Events created inside a transaction are held back
+ * until the transaction has been committed and are discarded on rollback. Events are buffered in bounded queues and
+ * processed in batches by a small pool of workers. The events of a batch are handed to each handler at once, so that
+ * handlers can group them, e.g. by Subscription (see {@link STAEventHandler#handleEvents(List)}). Events of the same
+ * Entity are always processed by the same worker to retain their order. Events are dropped if the queue is full.
+ */
+@Component
+@ManagedResource(objectName = "org.n52.sta:name=EventDispatcher",
+                 description = "Dispatches Entity change events to MQTT/SSE handlers")
+public class EventDispatcher implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventDispatcher.class);
+
+    private final List<BlockingQueue<Event>> queues;
+    private final ExecutorService workers;
+    private final int batchSize;
+    private volatile boolean running = true;
+
+    private final LongAdder dispatchedEvents = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder discardedEvents = new LongAdder();
+    private final LongAdder latencySum = new LongAdder();
+    private final AtomicLong latencyMax = new AtomicLong();
+
+    public EventDispatcher(@Value("${server.feature.eventDispatch.queueSize:10000}") int queueSize,
+                           @Value("${server.feature.eventDispatch.workers:2}") int workerCount,
+                           @Value("${server.feature.eventDispatch.batchSize:100}") int batchSize) {
+        this.batchSize = batchSize;
+        this.queues = new ArrayList<>(workerCount);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "sta-event-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int capacity = Math.max(1, queueSize / workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            BlockingQueue<Event> queue = new ArrayBlockingQueue<>(capacity);
+            queues.add(queue);
+            workers.execute(() -> work(queue));
+        }
+    }
+
+    /**
+     * Dispatches an event to the given handler. If called inside a transaction the event is dispatched after the
+     * transaction has been committed.
+     *
+     * @param handler            handler to be notified
+     * @param entity             base entity
+     * @param entityType         java class name of entity
+     * @param differenceMap      names of properties that changed. null if all properties changed (e.g. new entity)
+     * @param relatedCollections List of related Collections
+     */
+    public void dispatch(STAEventHandler handler,
+                         StaDTO entity,
+                         String entityType,
+                         Set<String> differenceMap,
+                         Map<String, Set<String>> relatedCollections) {
+        Event event = new Event(handler,
+                                new STAEventHandler.Event(entity, entityType, differenceMap, relatedCollections));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            pendingEvents().add(event);
+        } else {
+            enqueue(event);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Event> pendingEvents() {
+        List<Event> pending = (List<Event>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            List<Event> events = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, events);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    events.forEach(EventDispatcher.this::enqueue);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        discardedEvents.add(events.size());
+                    }
+                    TransactionSynchronizationManager.unbindResourceIfPossible(EventDispatcher.this);
+                }
+            });
+            pending = events;
+        }
+        return pending;
+    }
+
+    private void enqueue(Event event) {
+        STAEventHandler.Event change = event.change;
+        int partition = Math.floorMod(Objects.hash(change.getEntityType(), change.getEntity().getId()), queues.size());
+        if (!queues.get(partition).offer(event)) {
+            droppedEvents.increment();
+            LOGGER.debug("Dropped event for {}({}). Queue is full!",
+                         change.getEntityType(),
+                         change.getEntity().getId());
+        }
+    }
+
+    private void work(BlockingQueue<Event> queue) {
+        List<Event> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+
+                // Group by handler so that each handler processes its events in one go
+                Map<STAEventHandler, List<Event>> byHandler = new LinkedHashMap<>();
+                for (Event event : batch) {
+                    byHandler.computeIfAbsent(event.handler, h -> new ArrayList<>()).add(event);
+                }
+                for (Map.Entry<STAEventHandler, List<Event>> entry : byHandler.entrySet()) {
+                    process(entry.getKey(), entry.getValue());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(STAEventHandler handler, List<Event> events) {
+        List<STAEventHandler.Event> changes = new ArrayList<>(events.size());
+        for (Event event : events) {
+            changes.add(event.change);
+        }
+        try {
+            handler.handleEvents(changes);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error while handling {} events: {}", events.size(), e.getMessage());
+        }
+        long now = System.nanoTime();
+        for (Event event : events) {
+            long latency = now - event.created;
+            dispatchedEvents.increment();
+            latencySum.add(latency);
+            latencyMax.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    @ManagedAttribute(description = "Number of events waiting to be dispatched")
+    public int getQueueDepth() {
+        return queues.stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    @ManagedAttribute(description = "Number of events dispatched to handlers")
+    public long getDispatchedEvents() {
+        return dispatchedEvents.sum();
+    }
+
+    @ManagedAttribute(description = "Number of events dropped because the queue was full")
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    @ManagedAttribute(description = "Number of events discarded because the transaction was rolled back")
+    public long getDiscardedEvents() {
+        return discardedEvents.sum();
+    }
+
+    @ManagedAttribute(description = "Average time in milliseconds from creation of an event until it was handled")
+    public double getAverageLatencyMillis() {
+        long count = dispatchedEvents.sum();
+        return count == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(latencySum.sum() / count) / 1000;
+    }
+
+    @ManagedAttribute(description = "Maximum time in milliseconds from creation of an event until it was handled")
+    public double getMaxLatencyMillis() {
+        return (double) TimeUnit.NANOSECONDS.toMicros(latencyMax.get()) / 1000;
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        workers.shutdownNow();
+    }
+
+    private static final class Event {
+
+        private final STAEventHandler handler;
+        private final STAEventHandler.Event change;
+        private final long created = System.nanoTime();
+
+        Event(STAEventHandler handler, STAEventHandler.Event change) {
+            this.handler = handler;
+            this.change = change;
+        }
+    }
+}
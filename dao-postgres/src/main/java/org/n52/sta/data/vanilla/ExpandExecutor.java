@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fetches independent $expand items of an Entity concurrently, e.g. Locations, Datastreams and HistoricalLocations
+ * of a Thing. Each concurrently fetched item runs in its own read-only transaction and therefore uses its own
+ * database connection. A permit of the {@link DaoSemaphore} is taken for each of them. Items for which no permit or
+ * thread is available are fetched by the requesting thread, as are all items if parallel expansion is disabled.
+ * Entities fetched by a separate thread are detached once its transaction ends. Tasks must therefore initialize
+ * everything that is read when the expanded Entities are serialized, see {@link #isWorkerThread()}.
+ */
+@Component
+@ManagedResource(objectName = "org.n52.sta:name=ExpandExecutor",
+                 description = "Fetches independent $expand items concurrently")
+public class ExpandExecutor implements DisposableBean {
+
+    private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> false);
+
+    private final DaoSemaphore semaphore;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean parallel;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder parallelTasks = new LongAdder();
+    private final LongAdder sequentialTasks = new LongAdder();
+
+    public ExpandExecutor(DaoSemaphore semaphore,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${server.feature.expand.parallel:false}") boolean parallel,
+                          @Value("${server.feature.expand.threads:8}") int threads) {
+        this.semaphore = semaphore;
+        this.parallel = parallel;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        AtomicInteger count = new AtomicInteger();
+        // Tasks are never queued. They are run by the requesting thread if all threads are busy
+        this.executor = new ThreadPoolExecutor(0,
+                                               Math.max(1, threads),
+                                               60,
+                                               TimeUnit.SECONDS,
+                                               new SynchronousQueue<>(),
+                                               runnable -> {
+                                                   Thread thread = new Thread(() -> {
+                                                       WORKER.set(true);
+                                                       runnable.run();
+                                                   }, "sta-expand-" + count.incrementAndGet());
+                                                   thread.setDaemon(true);
+                                                   return thread;
+                                               });
+    }
+
+    /**
+     * Runs the given tasks and waits for all of them to finish. Tasks must be independent of each other, i.e. set
+     * different properties of the expanded Entity.
+     *
+     * @param tasks tasks fetching one $expand item each
+     * @throws STACRUDException         if a task failed
+     * @throws STAInvalidQueryException if a task encountered an invalid query
+     */
+    public void execute(List<Task> tasks) throws STACRUDException, STAInvalidQueryException {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(tasks.size());
+        List<Task> local = new ArrayList<>(tasks.size());
+        // The requesting thread always fetches the first item itself
+        for (int i = 0; i < tasks.size(); i++) {
+            CompletableFuture<Void> future = i > 0 && parallel ? submit(tasks.get(i)) : null;
+            if (future == null) {
+                local.add(tasks.get(i));
+            } else {
+                futures.add(future);
+            }
+        }
+        try {
+            for (Task task : local) {
+                sequentialTasks.increment();
+                task.run();
+            }
+        } finally {
+            for (CompletableFuture<Void> future : futures) {
+                await(future);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the current thread is fetching an $expand item in its own transaction. Entities fetched by
+     * such a thread are detached when the item is complete.
+     *
+     * @return true if called by a task run by a separate thread
+     */
+    public static boolean isWorkerThread() {
+        return WORKER.get();
+    }
+
+    @ManagedAttribute(description = "$expand items fetched by a separate thread")
+    public long getParallelTasks() {
+        return parallelTasks.sum();
+    }
+
+    @ManagedAttribute(description = "$expand items fetched by the requesting thread")
+    public long getSequentialTasks() {
+        return sequentialTasks.sum();
+    }
+
+    @ManagedAttribute(description = "Threads currently fetching $expand items")
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<Void> submit(Task task) {
+        if (!semaphore.tryAcquire()) {
+            return null;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    transactionTemplate.execute(status -> {
+                        try {
+                            task.run();
+                            return null;
+                        } catch (STACRUDException | STAInvalidQueryException e) {
+                            throw new TaskException(e);
+                        }
+                    });
+                    future.complete(null);
+                } catch (TaskException e) {
+                    future.completeExceptionally(e.getCause());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    semaphore.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            semaphore.release();
+            return null;
+        }
+        parallelTasks.increment();
+        return future;
+    }
+
+    private void await(CompletableFuture<Void> future) throws STACRUDException, STAInvalidQueryException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new STACRUDException("Interrupted while fetching expanded Entities", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof STACRUDException) {
+                throw (STACRUDException) cause;
+            } else if (cause instanceof STAInvalidQueryException) {
+                throw (STAInvalidQueryException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new STACRUDException(cause.getMessage(), cause);
+        }
+    }
+
+
+    /**
+     * Fetches one $expand item and sets it on the expanded Entity.
+     */
+    @FunctionalInterface
+    public interface Task {
+
+        void run() throws STACRUDException, STAInvalidQueryException;
+    }
+
+
+    private static final class TaskException extends RuntimeException {
+
+        private static final long serialVersionUID = -2473096911744183465L;
+
+        TaskException(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.n52.series.db.beans.AbstractDatasetEntity;
+import org.n52.series.db.beans.AbstractFeatureEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.DescribableEntity;
+import org.n52.series.db.beans.HibernateRelations;
+import org.n52.series.db.beans.IdEntity;
+import org.n52.series.db.beans.PhenomenonEntity;
+import org.n52.series.db.beans.PlatformEntity;
+import org.n52.series.db.beans.ProcedureEntity;
+import org.n52.series.db.beans.sta.HistoricalLocationEntity;
+import org.n52.series.db.beans.sta.LocationEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a {@link ScalableBloomFilter} of all staIdentifiers per Entity type to answer existence checks for
+ * identifiers that definitely do not exist without querying the database. Filters are populated at startup by
+ * scanning the staIdentifiers in the background and are updated whenever an Entity is inserted. Until a filter is
+ * populated all identifiers are reported as possibly existing.
+ * <p>
+ * If a snapshot path is configured the filters are written to disk on shutdown together with the highest database id
+ * seen per type. On startup only rows inserted after the snapshot (minus a safety margin) are scanned.
+ * <p>
+ * Filters only see inserts performed by this instance. A negative answer is therefore only correct if this instance is
+ * the single writer of the database. If server.feature.identifierFilter.singleWriter is not set the filters are not
+ * used and all existence checks query the database.
+ */
+@Component
+public class IdentifierFilter implements PostInsertEventListener, PostUpdateEventListener, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentifierFilter.class);
+    private static final long serialVersionUID = -1593624372638624612L;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int FETCH_SIZE = 10000;
+
+    private static final List<Class<?>> TYPES = Arrays.asList(PlatformEntity.class,
+                                                              LocationEntity.class,
+                                                              HistoricalLocationEntity.class,
+                                                              AbstractDatasetEntity.class,
+                                                              ProcedureEntity.class,
+                                                              PhenomenonEntity.class,
+                                                              AbstractFeatureEntity.class,
+                                                              DataEntity.class);
+
+    private final transient EntityManagerFactory entityManagerFactory;
+    private final boolean enabled;
+    private final String snapshotPath;
+    private final long expectedInsertions;
+    private final double falsePositiveProbability;
+    private final long rescanMargin;
+
+    private final transient Map<Class<?>, TypeFilter> filters = new LinkedHashMap<>();
+
+    public IdentifierFilter(EntityManagerFactory entityManagerFactory,
+                            @Value("${server.feature.identifierFilter.enabled:false}") boolean enabled,
+                            @Value("${server.feature.identifierFilter.singleWriter:false}") boolean singleWriter,
+                            @Value("${server.feature.identifierFilter.snapshot:}") String snapshotPath,
+                            @Value("${server.feature.identifierFilter.expectedInsertions:1000000}")
+                                long expectedInsertions,
+                            @Value("${server.feature.identifierFilter.falsePositiveProbability:0.01}")
+                                double falsePositiveProbability,
+                            @Value("${server.feature.identifierFilter.rescanMargin:10000}") long rescanMargin) {
+        this.entityManagerFactory = entityManagerFactory;
+        if (enabled && !singleWriter) {
+            LOGGER.warn("Identifier filter is disabled as server.feature.identifierFilter.singleWriter is not set. "
+                            + "Identifiers inserted by other writers would be reported as non-existent.");
+        }
+        this.enabled = enabled && singleWriter;
+        this.snapshotPath = snapshotPath;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.rescanMargin = rescanMargin;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        for (Class<?> type : TYPES) {
+            filters.put(type, new TypeFilter(new ScalableBloomFilter(expectedInsertions, falsePositiveProbability)));
+        }
+        // Snapshot is restored before inserts are recorded so that no insert is lost
+        Map<Class<?>, Long> scanFrom = readSnapshot();
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry()
+            .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_UPDATE, this);
+
+        Thread loader = new Thread(() -> populate(scanFrom), "sta-identifier-filter");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Checks whether an Entity of given type with given staIdentifier might exist.
+     *
+     * @param entityClass  type of the Entity
+     * @param staIdentifier staIdentifier of the Entity
+     * @return false if the Entity definitely does not exist
+     */
+    public boolean mightContain(Class<?> entityClass, String staIdentifier) {
+        TypeFilter filter = getFilter(entityClass);
+        return filter == null
+            || !filter.ready
+            || staIdentifier == null
+            || filter.bloomFilter.mightContain(staIdentifier);
+    }
+
+    /**
+     * Records an Entity that was inserted without passing through Hibernate (e.g. by bulk imports).
+     *
+     * @param entityClass  type of the Entity
+     * @param staIdentifier staIdentifier of the Entity
+     */
+    public void add(Class<?> entityClass, String staIdentifier) {
+        TypeFilter filter = getFilter(entityClass);
+        if (filter != null && staIdentifier != null) {
+            filter.add(staIdentifier, null);
+        }
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        record(event.getEntity());
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        // staIdentifier may be assigned after insert (e.g. when a Dataset is converted into an Aggregation)
+        record(event.getEntity());
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    private void record(Object entity) {
+        if (entity instanceof HibernateRelations.HasStaIdentifier) {
+            TypeFilter filter = getFilter(entity.getClass());
+            String staIdentifier = ((HibernateRelations.HasStaIdentifier) entity).getStaIdentifier();
+            if (filter != null && staIdentifier != null) {
+                filter.add(staIdentifier,
+                           entity instanceof HibernateRelations.HasId
+                               ? ((HibernateRelations.HasId) entity).getId()
+                               : null);
+            }
+        }
+    }
+
+    private TypeFilter getFilter(Class<?> entityClass) {
+        for (Map.Entry<Class<?>, TypeFilter> entry : filters.entrySet()) {
+            if (entry.getKey().isAssignableFrom(entityClass)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private void populate(Map<Class<?>, Long> scanFrom) {
+        long start = System.currentTimeMillis();
+        SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        for (Map.Entry<Class<?>, TypeFilter> entry : filters.entrySet()) {
+            long from = Math.max(0, scanFrom.getOrDefault(entry.getKey(), 0L) - rescanMargin);
+            try {
+                long scanned = scan(sessionFactory, entry.getKey(), entry.getValue(), from);
+                entry.getValue().ready = true;
+                LOGGER.debug("Added {} identifiers of {} to identifier filter",
+                             scanned,
+                             entry.getKey().getSimpleName());
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not populate identifier filter for {}: {}",
+                             entry.getKey().getSimpleName(),
+                             e.getMessage());
+            }
+        }
+        LOGGER.info("Populated identifier filters in {} ms", System.currentTimeMillis() - start);
+    }
+
+    private long scan(SessionFactory sessionFactory, Class<?> type, TypeFilter filter, long from) {
+        long scanned = 0;
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            // Transaction is required for the JDBC driver to stream results instead of loading them at once
+            Transaction transaction = session.beginTransaction();
+            ScrollableResults results = session
+                .createQuery(String.format("select e.%s, e.%s from %s e where e.%s > :from and e.%s is not null",
+                                           IdEntity.PROPERTY_ID,
+                                           DescribableEntity.PROPERTY_STA_IDENTIFIER,
+                                           type.getName(),
+                                           IdEntity.PROPERTY_ID,
+                                           DescribableEntity.PROPERTY_STA_IDENTIFIER))
+                .setParameter("from", from)
+                .setFetchSize(FETCH_SIZE)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+            while (results.next()) {
+                filter.add((String) results.get(1), (Long) results.get(0));
+                scanned++;
+            }
+            results.close();
+            transaction.commit();
+        }
+        return scanned;
+    }
+
+    private Map<Class<?>, Long> readSnapshot() {
+        Map<Class<?>, Long> scanFrom = new LinkedHashMap<>();
+        if (snapshotPath.isEmpty() || !Files.exists(Paths.get(snapshotPath))) {
+            return scanFrom;
+        }
+        try (DataInputStream in =
+                 new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(snapshotPath))))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                LOGGER.warn("Ignoring identifier filter snapshot with unknown version: {}", snapshotPath);
+                return scanFrom;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String type = in.readUTF();
+                long maxId = in.readLong();
+                ScalableBloomFilter bloomFilter = ScalableBloomFilter.readFrom(in);
+                for (Map.Entry<Class<?>, TypeFilter> entry : filters.entrySet()) {
+                    if (entry.getKey().getName().equals(type)) {
+                        entry.setValue(new TypeFilter(bloomFilter, maxId));
+                        scanFrom.put(entry.getKey(), maxId);
+                    }
+                }
+            }
+            LOGGER.info("Restored identifier filters from snapshot: {}", snapshotPath);
+        } catch (IOException e) {
+            LOGGER.error("Could not read identifier filter snapshot {}: {}", snapshotPath, e.getMessage());
+            scanFrom.clear();
+            filters.replaceAll((type, filter) -> new TypeFilter(new ScalableBloomFilter(expectedInsertions,
+                                                                                        falsePositiveProbability)));
+        }
+        return scanFrom;
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path path = Paths.get(snapshotPath);
+        Path temp = Paths.get(snapshotPath + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(filters.size());
+            for (Map.Entry<Class<?>, TypeFilter> entry : filters.entrySet()) {
+                out.writeUTF(entry.getKey().getName());
+                out.writeLong(entry.getValue().maxId.get());
+                entry.getValue().bloomFilter.writeTo(out);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void destroy() {
+        if (enabled && !snapshotPath.isEmpty() && filters.values().stream().allMatch(f -> f.ready)) {
+            try {
+                writeSnapshot();
+                LOGGER.info("Wrote identifier filter snapshot: {}", snapshotPath);
+            } catch (IOException e) {
+                LOGGER.error("Could not write identifier filter snapshot {}: {}", snapshotPath, e.getMessage());
+            }
+        }
+    }
+
+
+    private static final class TypeFilter {
+
+        private final ScalableBloomFilter bloomFilter;
+        private final AtomicLong maxId;
+        private volatile boolean ready;
+
+        TypeFilter(ScalableBloomFilter bloomFilter) {
+            this(bloomFilter, 0);
+        }
+
+        TypeFilter(ScalableBloomFilter bloomFilter, long maxId) {
+            this.bloomFilter = bloomFilter;
+            this.maxId = new AtomicLong(maxId);
+        }
+
+        void add(String staIdentifier, Long id) {
+            bloomFilter.add(staIdentifier);
+            if (id != null) {
+                maxId.accumulateAndGet(id, Math::max);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Available {@link IdentifierGenerator} strategies:
+ * <ul>
+ *     <li>{@code uuid}: random UUID (version 4)</li>
+ *     <li>{@code uuidv7}: time-ordered UUID (version 7)</li>
+ *     <li>{@code ulid}: time-ordered ULID</li>
+ *     <li>{@code sequence}: numeric identifiers allocated in blocks from a database sequence</li>
+ * </ul>
+ * Time-ordered and sequential identifiers are inserted at the end of the identifier index instead of at random
+ * positions.
+ */
+public final class IdentifierGenerators {
+
+    private static final String STRATEGY = "server.feature.identifiers.strategy";
+
+    private IdentifierGenerators() {
+    }
+
+    @Component
+    @ConditionalOnProperty(value = STRATEGY, havingValue = "uuid", matchIfMissing = true)
+    static class RandomUuidGenerator implements IdentifierGenerator {
+
+        @Override public String generate() {
+            return UUID.randomUUID().toString();
+        }
+    }
+
+
+    @Component
+    @ConditionalOnProperty(value = STRATEGY, havingValue = "uuidv7")
+    static class TimeOrderedUuidGenerator implements IdentifierGenerator {
+
+        @Override public String generate() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            // 48 bit timestamp, 4 bit version, 12 bit random
+            long msb = (System.currentTimeMillis() << 16) | 0x7000L | (random.nextLong() & 0x0FFFL);
+            // 2 bit variant, 62 bit random
+            long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+            return new UUID(msb, lsb).toString();
+        }
+    }
+
+
+    @Component
+    @ConditionalOnProperty(value = STRATEGY, havingValue = "ulid")
+    static class UlidGenerator implements IdentifierGenerator {
+
+        private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+        @Override public String generate() {
+            char[] ulid = new char[26];
+            // 48 bit timestamp encoded in 10 characters
+            long time = System.currentTimeMillis();
+            for (int i = 9; i >= 0; i--) {
+                ulid[i] = ALPHABET[(int) (time & 31)];
+                time >>>= 5;
+            }
+            // 80 bit random encoded in 16 characters
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 10; i < 26; i++) {
+                ulid[i] = ALPHABET[random.nextInt(32)];
+            }
+            return new String(ulid);
+        }
+    }
+
+
+    @Component
+    @ConditionalOnProperty(value = STRATEGY, havingValue = "sequence")
+    static class SequenceIdentifierGenerator implements IdentifierGenerator {
+
+        private static final Logger LOGGER = LoggerFactory.getLogger(SequenceIdentifierGenerator.class);
+        private static final String SEQUENCE = "sta_identifier_seq";
+
+        private final DataSource dataSource;
+        private final int blockSize;
+        private final long start;
+        private long next;
+        private long max;
+
+        SequenceIdentifierGenerator(DataSource dataSource,
+                                    @Value("${server.feature.identifiers.blockSize:1000}") int blockSize,
+                                    @Value("${server.feature.identifiers.start:1}") long start) {
+            this.dataSource = dataSource;
+            this.blockSize = Math.max(1, blockSize);
+            this.start = start;
+        }
+
+        @PostConstruct
+        public void createSequence() throws SQLException {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute(String.format("CREATE SEQUENCE IF NOT EXISTS %s START WITH %d INCREMENT BY %d",
+                                                SEQUENCE,
+                                                start,
+                                                blockSize));
+                // An existing sequence may have been created with a different blockSize. Blocks handed out by
+                // nextval() would overlap if its increment was smaller than the blockSize used here.
+                statement.execute(String.format("ALTER SEQUENCE %s INCREMENT BY %d", SEQUENCE, blockSize));
+            }
+            LOGGER.info("Allocating identifiers from sequence {} in blocks of {}", SEQUENCE, blockSize);
+        }
+
+        @Override public synchronized String generate() throws STACRUDException {
+            if (next >= max) {
+                next = allocateBlock();
+                max = next + blockSize;
+            }
+            return Long.toString(next++);
+        }
+
+        /**
+         * Allocates the next block of identifiers. The connection of the current transaction is used if there is one,
+         * so callers holding a pooled connection do not wait for a second one.
+         */
+        private long allocateBlock() throws STACRUDException {
+            Connection connection = null;
+            try {
+                connection = DataSourceUtils.getConnection(dataSource);
+                try (Statement statement = connection.createStatement();
+                     ResultSet result = statement.executeQuery("SELECT nextval('" + SEQUENCE + "')")) {
+                    result.next();
+                    return result.getLong(1);
+                }
+            } catch (SQLException | CannotGetJdbcConnectionException e) {
+                throw new STACRUDException("Unable to allocate identifiers: " + e.getMessage(), e);
+            } finally {
+                DataSourceUtils.releaseConnection(connection, dataSource);
+            }
+        }
+    }
+}
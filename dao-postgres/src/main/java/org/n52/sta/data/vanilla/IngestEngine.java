@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serializes creation of Observations per Datastream. Each Datastream is hashed to one of a fixed number of
+ * single-threaded shards which performs all inserts into this Datastream. Inserts into the same Datastream therefore
+ * never wait for each other on a lock, while inserts into different Datastreams run in parallel. PATCHes and deletes
+ * of Observations are executed on the shard of their Datastream as well. Observations written as part of a change set
+ * are written by the thread of the change set, as they have to take part in its transaction.
+ * <p>
+ * Each shard queues at most queueSize tasks. Submitting threads wait up to blockTimeout for space in a full queue,
+ * afterwards the task is rejected with HTTP 503.
+ */
+@Component
+@ManagedResource(objectName = "org.n52.sta:name=IngestEngine",
+                 description = "Serializes creation of Observations per Datastream")
+public class IngestEngine implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestEngine.class);
+
+    private static final String QUEUE_FULL = "Unable to create Observation. Ingest queue is full!";
+
+    private final ThreadPoolExecutor[] shards;
+    private final long blockTimeout;
+    private final LongAdder submittedTasks = new LongAdder();
+    private final LongAdder failedTasks = new LongAdder();
+    private final LongAdder rejectedTasks = new LongAdder();
+
+    public IngestEngine(@Value("${server.feature.ingest.shards:4}") int shardCount,
+                        @Value("${server.feature.ingest.queueSize:10000}") int queueSize,
+                        @Value("${server.feature.ingest.blockTimeout:5000}") long blockTimeout) {
+        this.shards = new ThreadPoolExecutor[Math.max(1, shardCount)];
+        this.blockTimeout = blockTimeout;
+        for (int i = 0; i < shards.length; i++) {
+            String name = "sta-ingest-" + (i + 1);
+            shards[i] = new ThreadPoolExecutor(1,
+                                               1,
+                                               0L,
+                                               TimeUnit.MILLISECONDS,
+                                               new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                                               runnable -> {
+                                                   Thread thread = new Thread(runnable, name);
+                                                   thread.setDaemon(true);
+                                                   return thread;
+                                               });
+            // Tasks are put into the queue directly when it is full, so the worker has to exist already
+            shards[i].prestartAllCoreThreads();
+        }
+        LOGGER.info("Initialized ingest engine with {} shards", shards.length);
+    }
+
+    /**
+     * Returns the shard responsible for the given Datastream.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @return index of the shard
+     */
+    public int getShard(String datastreamId) {
+        return datastreamId == null ? 0 : Math.floorMod(datastreamId.hashCode(), shards.length);
+    }
+
+    /**
+     * Executes a task on the shard responsible for the given Datastream.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @param task         task to be executed
+     * @param <V>          result type
+     * @return future completed with the result of the task or exceptionally with a {@link STACRUDException} if the
+     * queue of the shard stayed full for blockTimeout
+     */
+    public <V> CompletableFuture<V> submit(String datastreamId, Callable<V> task) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        submittedTasks.increment();
+        Runnable runnable = () -> {
+            try {
+                future.complete(task.call());
+            } catch (Exception e) {
+                failedTasks.increment();
+                future.completeExceptionally(e);
+            }
+        };
+        ThreadPoolExecutor shard = shards[getShard(datastreamId)];
+        try {
+            shard.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            boolean queued = false;
+            try {
+                queued = !shard.isShutdown()
+                    && shard.getQueue().offer(runnable, blockTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            if (!queued) {
+                rejectedTasks.increment();
+                future.completeExceptionally(new STACRUDException(QUEUE_FULL, HTTPStatus.SERVICE_UNAVAILABLE));
+            }
+        }
+        return future;
+    }
+
+    @ManagedAttribute(description = "Number of shards")
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @ManagedAttribute(description = "Number of tasks submitted")
+    public long getSubmittedTasks() {
+        return submittedTasks.sum();
+    }
+
+    @ManagedAttribute(description = "Number of tasks that failed")
+    public long getFailedTasks() {
+        return failedTasks.sum();
+    }
+
+    @ManagedAttribute(description = "Number of tasks rejected because the queue of their shard was full")
+    public long getRejectedTasks() {
+        return rejectedTasks.sum();
+    }
+
+    @ManagedAttribute(description = "Number of tasks waiting in the queues of all shards")
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor shard : shards) {
+            depth += shard.getQueue().size();
+        }
+        return depth;
+    }
+
+    @Override
+    public void destroy() {
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+    }
+}
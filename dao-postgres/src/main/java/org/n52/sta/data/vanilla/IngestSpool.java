@@ -0,0 +1,729 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.hibernate.exception.JDBCConnectionException;
+import org.joda.time.DateTime;
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.shetland.ogc.gml.time.Time;
+import org.n52.shetland.ogc.gml.time.TimeInstant;
+import org.n52.shetland.ogc.gml.time.TimePeriod;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.shetland.util.DateTimeHelper;
+import org.n52.sta.api.RequestUtils;
+import org.n52.sta.api.dto.DatastreamDTO;
+import org.n52.sta.api.dto.FeatureOfInterestDTO;
+import org.n52.sta.api.dto.ObservationDTO;
+import org.n52.sta.api.dto.impl.Datastream;
+import org.n52.sta.api.dto.impl.FeatureOfInterest;
+import org.n52.sta.api.dto.impl.Observation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only spool for Observations created while the database is unavailable. Spooled Observations are written to
+ * memory-mapped segment files and acknowledged once they are synced to disk. A background thread replays them in the
+ * order they were spooled as soon as the database is available again. While the spool is not empty all further
+ * Observations are spooled as well, so Observations of a Datastream are always created in the order they were
+ * received.
+ *
+ * <p>
+ * Each record consists of its length, a CRC32 checksum and the Observation encoded as JSON. A length of zero marks the
+ * end of a segment. Corrupt records are dropped and replay continues with the next record whose checksum matches.
+ * The position of the last replayed record is stored in a checkpoint file, so Observations are replayed at least once.
+ * As Observations keep their @iot.id, Observations replayed twice are rejected as duplicates. Only Observations
+ * referencing existing Entities are spooled.
+ */
+@Component
+@ConditionalOnProperty(value = "server.feature.spool.enabled", havingValue = "true")
+@ManagedResource(objectName = "org.n52.sta:name=IngestSpool",
+                 description = "Spools Observations while the database is unavailable")
+public class IngestSpool implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestSpool.class);
+
+    private static final ObjectMapper MAPPER =
+        new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String CHECKPOINT_TMP = "checkpoint.tmp";
+
+    // length + checksum
+    private static final int HEADER_SIZE = 8;
+    // end of segment marker
+    private static final int TRAILER_SIZE = 4;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSize;
+    private final int batchSize;
+    private final long replayInterval;
+
+    private final Object replayLock = new Object();
+
+    // guarded by this
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private long writeSegment;
+    private int writeOffset;
+    private long readSegment;
+    private int readOffset;
+    private long pendingRecords;
+
+    private final LongAdder spooledRecords = new LongAdder();
+    private final LongAdder replayedRecords = new LongAdder();
+    private final LongAdder droppedRecords = new LongAdder();
+
+    private volatile Function<List<ObservationDTO>, CompletableFuture<?>> writer;
+
+    private final ScheduledExecutorService replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sta-spool-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public IngestSpool(@Value("${server.feature.spool.directory:./spool}") String directory,
+                       @Value("${server.feature.spool.segmentSize:67108864}") int segmentSize,
+                       @Value("${server.feature.spool.maxSize:1073741824}") long maxSize,
+                       @Value("${server.feature.spool.batchSize:1000}") int batchSize,
+                       @Value("${server.feature.spool.replayInterval:5000}") long replayInterval) {
+        this.directory = Paths.get(directory).toAbsolutePath().normalize();
+        this.segmentSize = Math.max(1024, segmentSize);
+        this.maxSize = Math.max(this.segmentSize, maxSize);
+        this.batchSize = Math.max(1, batchSize);
+        this.replayInterval = Math.max(100, replayInterval);
+    }
+
+    /**
+     * Opens all existing segments and restores the position of the last replayed record.
+     *
+     * @throws IOException if the spool directory cannot be read
+     */
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                                                                    SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                                              name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(sequence, map(file));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(1L, map(segmentPath(1L)));
+        }
+
+        readSegment = segments.firstKey();
+        readOffset = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            readSegment = buffer.getLong();
+            readOffset = buffer.getInt();
+        }
+        deleteSegmentsBefore(readSegment);
+        if (!segments.containsKey(readSegment)) {
+            readSegment = segments.isEmpty() ? readSegment : segments.firstKey();
+            readOffset = 0;
+            segments.putIfAbsent(readSegment, map(segmentPath(readSegment)));
+        }
+
+        // Find the end of the last segment. A corrupt record at the end was not acknowledged and is overwritten
+        writeSegment = segments.lastKey();
+        writeOffset = writeSegment == readSegment ? readOffset : 0;
+        MappedByteBuffer last = segments.get(writeSegment);
+        byte[] payload;
+        while (true) {
+            while ((payload = readRecord(last, writeOffset)) != null) {
+                writeOffset += HEADER_SIZE + payload.length;
+            }
+            // Acknowledged records may follow a corrupt one
+            int next = writeOffset + TRAILER_SIZE <= segmentSize && last.getInt(writeOffset) != 0
+                ? findRecord(last, writeOffset + 1, segmentSize)
+                : -1;
+            if (next < 0) {
+                break;
+            }
+            writeOffset = next;
+        }
+        if (writeOffset + TRAILER_SIZE <= segmentSize && last.getInt(writeOffset) != 0) {
+            LOGGER.warn("Discarding incomplete records at the end of spool segment {}", segmentPath(writeSegment));
+        }
+
+        // Count records not replayed yet
+        Batch backlog = read(readSegment, readOffset, batchSize);
+        while (!backlog.records.isEmpty()) {
+            pendingRecords += backlog.records.size();
+            backlog = read(backlog.segment, backlog.offset, batchSize);
+        }
+
+        if (pendingRecords > 0) {
+            LOGGER.info("Found {} spooled Observations in {}", pendingRecords, directory);
+        }
+        replayer.scheduleWithFixedDelay(this::replay, replayInterval, replayInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers the function used to create spooled Observations in the database. It must not spool Observations
+     * again.
+     *
+     * @param writer function creating Observations
+     */
+    public void setWriter(Function<List<ObservationDTO>, CompletableFuture<?>> writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Checks whether given Observations can be spooled. Observations need a phenomenonTime and may only reference
+     * existing Entities, as the Entities they reference are not spooled.
+     *
+     * @param observations Observations to be spooled
+     * @return true if all Observations can be spooled
+     */
+    public boolean isSpoolable(List<ObservationDTO> observations) {
+        for (ObservationDTO observation : observations) {
+            DatastreamDTO datastream = observation.getDatastream();
+            FeatureOfInterestDTO feature = observation.getFeatureOfInterest();
+            if (observation.getPhenomenonTime() == null
+                || datastream == null
+                || datastream.getId() == null
+                || datastream.getName() != null
+                || feature != null && (feature.getId() == null || feature.getName() != null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether there are spooled Observations not replayed yet. New Observations must be spooled as well in
+     * this case to keep the order of Observations.
+     *
+     * @return true if there are spooled Observations
+     */
+    public synchronized boolean hasBacklog() {
+        return readSegment != writeSegment || readOffset != writeOffset;
+    }
+
+    /**
+     * Appends Observations to the spool and syncs them to disk.
+     *
+     * @param observations Observations to be spooled
+     * @throws STACRUDException if the spool is full
+     */
+    public void append(List<ObservationDTO> observations) throws STACRUDException {
+        List<byte[]> records = new ArrayList<>(observations.size());
+        for (ObservationDTO observation : observations) {
+            records.add(encode(observation));
+        }
+        synchronized (this) {
+            // Check all records up front so that either all or none of them are spooled
+            int offset = writeOffset;
+            int rotations = 0;
+            for (byte[] record : records) {
+                if (HEADER_SIZE + record.length + TRAILER_SIZE > segmentSize) {
+                    throw new STACRUDException("Observation is too large to be spooled",
+                                               HTTPStatus.SERVICE_UNAVAILABLE);
+                }
+                if (offset + HEADER_SIZE + record.length + TRAILER_SIZE > segmentSize) {
+                    rotations++;
+                    offset = 0;
+                }
+                offset += HEADER_SIZE + record.length;
+            }
+            if ((long) (segments.size() + rotations) * segmentSize > maxSize) {
+                throw new STACRUDException("Ingest spool is full", HTTPStatus.SERVICE_UNAVAILABLE);
+            }
+
+            MappedByteBuffer segment = segments.get(writeSegment);
+            for (byte[] record : records) {
+                if (writeOffset + HEADER_SIZE + record.length + TRAILER_SIZE > segmentSize) {
+                    segment.force();
+                    segment = rotate();
+                }
+                // Write the record before its length, so a partially written record is never read
+                CRC32 crc = new CRC32();
+                crc.update(record, 0, record.length);
+                ByteBuffer target = segment.duplicate();
+                target.position(writeOffset + 4);
+                target.putInt((int) crc.getValue());
+                target.put(record);
+                target.putInt(0);
+                segment.putInt(writeOffset, record.length);
+                writeOffset += HEADER_SIZE + record.length;
+            }
+            segment.force();
+            pendingRecords += records.size();
+        }
+        spooledRecords.add(records.size());
+    }
+
+    /**
+     * Replays spooled Observations until the spool is empty or the database is unavailable.
+     *
+     * @return number of Observations replayed
+     */
+    @ManagedOperation(description = "Replays spooled Observations")
+    public long replay() {
+        synchronized (replayLock) {
+            return replay(writer);
+        }
+    }
+
+    private long replay(Function<List<ObservationDTO>, CompletableFuture<?>> currentWriter) {
+        if (currentWriter == null) {
+            return 0;
+        }
+        long replayed = 0;
+        try {
+            while (true) {
+                Batch batch;
+                synchronized (this) {
+                    batch = read(readSegment, readOffset, batchSize);
+                }
+                droppedRecords.add(batch.skipped);
+                List<ObservationDTO> observations = new ArrayList<>(batch.records.size());
+                for (byte[] record : batch.records) {
+                    try {
+                        observations.add(decode(record));
+                    } catch (IOException | RuntimeException e) {
+                        droppedRecords.increment();
+                        LOGGER.error("Dropping unreadable spooled Observation", e);
+                    }
+                }
+                if (!observations.isEmpty() && !write(currentWriter, observations)) {
+                    return replayed;
+                }
+                commit(batch);
+                replayed += observations.size();
+                if (batch.records.isEmpty()) {
+                    return replayed;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Replaying spooled Observations failed", e);
+            return replayed;
+        } finally {
+            if (replayed > 0) {
+                LOGGER.info("Replayed {} spooled Observations", replayed);
+            }
+        }
+    }
+
+    /**
+     * Checks whether an Exception was caused by the database being unavailable.
+     *
+     * @param throwable Exception to be checked
+     * @return true if the database is unavailable
+     */
+    public static boolean isOutage(Throwable throwable) {
+        Throwable cause = throwable;
+        for (int depth = 0; cause != null && depth < 16; depth++) {
+            if (cause instanceof CannotCreateTransactionException
+                || cause instanceof DataAccessResourceFailureException
+                || cause instanceof JDBCConnectionException
+                || cause instanceof SQLTransientConnectionException
+                || cause instanceof SQLNonTransientConnectionException
+                || cause instanceof ConnectException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                // connection exception, operator intervention
+                if (state != null && (state.startsWith("08") || state.startsWith("57P"))) {
+                    return true;
+                }
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    @ManagedAttribute(description = "Number of spooled Observations not replayed yet")
+    public synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    @ManagedAttribute(description = "Number of Observations spooled since startup")
+    public long getSpooledRecords() {
+        return spooledRecords.sum();
+    }
+
+    @ManagedAttribute(description = "Number of spooled Observations replayed since startup")
+    public long getReplayedRecords() {
+        return replayedRecords.sum();
+    }
+
+    @ManagedAttribute(description = "Number of spooled Observations dropped as they could not be replayed")
+    public long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    @ManagedAttribute(description = "Number of segment files")
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    @ManagedAttribute(description = "Disk space used by segment files in bytes")
+    public synchronized long getDiskUsage() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        replayer.shutdown();
+        replayer.awaitTermination(replayInterval, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            for (MappedByteBuffer segment : segments.values()) {
+                segment.force();
+            }
+            segments.clear();
+        }
+    }
+
+    /**
+     * Writes Observations to the database. If a batch is rejected, its Observations are written one by one and
+     * rejected Observations are dropped.
+     *
+     * @return false if the database is unavailable
+     */
+    private boolean write(Function<List<ObservationDTO>, CompletableFuture<?>> currentWriter,
+                          List<ObservationDTO> observations) {
+        Throwable error = await(currentWriter, observations);
+        if (error == null) {
+            replayedRecords.add(observations.size());
+            return true;
+        } else if (isOutage(error)) {
+            LOGGER.debug("Database is still unavailable: {}", error.getMessage());
+            return false;
+        }
+        for (ObservationDTO observation : observations) {
+            error = await(currentWriter, Collections.singletonList(observation));
+            if (error == null) {
+                replayedRecords.increment();
+            } else if (isOutage(error)) {
+                LOGGER.debug("Database is still unavailable: {}", error.getMessage());
+                return false;
+            } else {
+                droppedRecords.increment();
+                LOGGER.error("Dropping spooled Observation {}: {}", observation.getId(), error.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private Throwable await(Function<List<ObservationDTO>, CompletableFuture<?>> currentWriter,
+                            List<ObservationDTO> observations) {
+        try {
+            currentWriter.apply(observations).get();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new DataAccessResourceFailureException("Interrupted while replaying", e);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Reads records starting at given position. Corrupt records are skipped, reading continues with the next valid
+     * record.
+     */
+    private Batch read(long segment, int offset, int limit) {
+        Batch batch = new Batch();
+        long current = segment;
+        int position = offset;
+        while (batch.records.size() < limit && (current != writeSegment || position < writeOffset)) {
+            MappedByteBuffer buffer = segments.get(current);
+            int end = current == writeSegment ? writeOffset : segmentSize;
+            byte[] payload = readRecord(buffer, position);
+            if (payload != null) {
+                batch.records.add(payload);
+                position += HEADER_SIZE + payload.length;
+            } else if (position + TRAILER_SIZE <= end && buffer.getInt(position) != 0) {
+                int next = findRecord(buffer, position + 1, end);
+                LOGGER.error("Spool segment {} is corrupt at offset {}. Skipping {} bytes.",
+                             segmentPath(current),
+                             position,
+                             (next < 0 ? end : next) - position);
+                batch.skipped++;
+                position = next < 0 ? end : next;
+            } else if (current == writeSegment) {
+                break;
+            } else {
+                current = segments.higherKey(current);
+                position = 0;
+            }
+        }
+        batch.segment = current;
+        batch.offset = position;
+        return batch;
+    }
+
+    /**
+     * Searches for the next valid record, i.e. a plausible length followed by a matching checksum.
+     *
+     * @return offset of the next valid record or -1 if there is none before end
+     */
+    private int findRecord(MappedByteBuffer buffer, int from, int end) {
+        for (int offset = from; offset + HEADER_SIZE < end; offset++) {
+            if (readRecord(buffer, offset) != null) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the record at given offset.
+     *
+     * @return payload of the record or null if there is no valid record at given offset
+     */
+    private byte[] readRecord(MappedByteBuffer buffer, int offset) {
+        if (offset + HEADER_SIZE > segmentSize) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + HEADER_SIZE + length > segmentSize) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset + 4);
+        int checksum = source.getInt();
+        source.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    private void commit(Batch batch) throws IOException {
+        if (batch.segment == readSegment && batch.offset == readOffset) {
+            return;
+        }
+        ByteBuffer checkpoint = ByteBuffer.allocate(12);
+        checkpoint.putLong(batch.segment).putInt(batch.offset).flip();
+        Path tmp = directory.resolve(CHECKPOINT_TMP);
+        try (FileChannel channel = FileChannel.open(tmp,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(checkpoint);
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(CHECKPOINT),
+                   StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        synchronized (this) {
+            readSegment = batch.segment;
+            readOffset = batch.offset;
+            pendingRecords = hasBacklog() ? Math.max(0, pendingRecords - batch.records.size()) : 0;
+            deleteSegmentsBefore(readSegment);
+        }
+    }
+
+    private MappedByteBuffer rotate() throws STACRUDException {
+        long next = writeSegment + 1;
+        try {
+            MappedByteBuffer segment = map(segmentPath(next));
+            segments.put(next, segment);
+            writeSegment = next;
+            writeOffset = 0;
+            return segment;
+        } catch (IOException e) {
+            throw new STACRUDException("Unable to create spool segment: " + e.getMessage(),
+                                       HTTPStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private void deleteSegmentsBefore(long sequence) throws IOException {
+        Map<Long, MappedByteBuffer> replayed = segments.headMap(sequence);
+        for (Long key : new ArrayList<>(replayed.keySet())) {
+            segments.remove(key);
+            Files.deleteIfExists(segmentPath(key));
+        }
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            channel.force(true);
+            return buffer;
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private byte[] encode(ObservationDTO observation) throws STACRUDException {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put(StaConstants.AT_IOT_ID, observation.getId());
+        node.put(STAEntityDefinition.PROP_PHENOMENON_TIME, DateTimeHelper.format(observation.getPhenomenonTime()));
+        if (observation.getResultTime() != null) {
+            node.put(STAEntityDefinition.PROP_RESULT_TIME, DateTimeHelper.format(observation.getResultTime()));
+        }
+        if (observation.getValidTime() != null) {
+            node.put(STAEntityDefinition.PROP_VALID_TIME, DateTimeHelper.format(observation.getValidTime()));
+        }
+        node.set(STAEntityDefinition.PROP_RESULT, MAPPER.valueToTree(observation.getResult()));
+        if (observation.getParameters() != null) {
+            node.set(STAEntityDefinition.PROP_PARAMETERS, observation.getParameters());
+        }
+        if (observation.getIdempotencyKey() != null) {
+            node.put(RequestUtils.IDEMPOTENCY_KEY, observation.getIdempotencyKey());
+        }
+        node.putObject(StaConstants.DATASTREAM).put(StaConstants.AT_IOT_ID, observation.getDatastream().getId());
+        if (observation.getFeatureOfInterest() != null) {
+            node.putObject(StaConstants.FEATURE_OF_INTEREST)
+                .put(StaConstants.AT_IOT_ID, observation.getFeatureOfInterest().getId());
+        }
+        try {
+            return MAPPER.writeValueAsBytes(node);
+        } catch (IOException e) {
+            throw new STACRUDException("Unable to spool Observation: " + e.getMessage(),
+                                       HTTPStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private ObservationDTO decode(byte[] record) throws IOException {
+        JsonNode node = MAPPER.readTree(record);
+        Observation observation = new Observation();
+        observation.setId(node.get(StaConstants.AT_IOT_ID).textValue());
+        observation.setPhenomenonTime(parseTime(node.get(STAEntityDefinition.PROP_PHENOMENON_TIME)));
+        observation.setResultTime(parseTime(node.get(STAEntityDefinition.PROP_RESULT_TIME)));
+        observation.setValidTime(parseTime(node.get(STAEntityDefinition.PROP_VALID_TIME)));
+        observation.setResult(parseResult(node.get(STAEntityDefinition.PROP_RESULT)));
+        if (node.hasNonNull(STAEntityDefinition.PROP_PARAMETERS)) {
+            observation.setParameters((ObjectNode) node.get(STAEntityDefinition.PROP_PARAMETERS));
+        }
+        if (node.hasNonNull(RequestUtils.IDEMPOTENCY_KEY)) {
+            observation.setIdempotencyKey(node.get(RequestUtils.IDEMPOTENCY_KEY).textValue());
+        }
+        Datastream datastream = new Datastream();
+        datastream.setId(node.get(StaConstants.DATASTREAM).get(StaConstants.AT_IOT_ID).textValue());
+        observation.setDatastream(datastream);
+        if (node.has(StaConstants.FEATURE_OF_INTEREST)) {
+            FeatureOfInterest feature = new FeatureOfInterest();
+            feature.setId(node.get(StaConstants.FEATURE_OF_INTEREST).get(StaConstants.AT_IOT_ID).textValue());
+            observation.setFeatureOfInterest(feature);
+        }
+        return observation;
+    }
+
+    private Time parseTime(JsonNode node) {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        String[] split = node.textValue().split("/");
+        return split.length == 2
+            ? new TimePeriod(DateTime.parse(split[0]), DateTime.parse(split[1]))
+            : new TimeInstant(DateTime.parse(split[0]));
+    }
+
+    /**
+     * Restores the type of the result as created by the JSON deserializer.
+     */
+    private Object parseResult(JsonNode node) {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        switch (node.getNodeType()) {
+            case NUMBER:
+                return node.isInt() ? Integer.valueOf(node.intValue()) : node.decimalValue();
+            case BOOLEAN:
+                return node.booleanValue();
+            case STRING:
+                return node.textValue();
+            default:
+                return node;
+        }
+    }
+
+
+    private static final class Batch {
+
+        private final List<byte[]> records = new ArrayList<>();
+        private long segment;
+        private int offset;
+        private int skipped;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.n52.shetland.util.DateTimeHelper;
+import org.n52.sta.api.dto.ObservationDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects duplicate Observations, e.g. caused by clients retrying requests that timed out or MQTT QoS 1
+ * redelivery. Observations are identified by the Idempotency-Key supplied by the client or by their Datastream,
+ * phenomenonTime and result.
+ *
+ * <p>
+ * Keys of Observations created within the configured window are kept in memory, so most duplicates are detected
+ * without querying the database. Keys are additionally claimed in the table sta_ingest_dedup in the transaction
+ * creating the Observation. Its primary key detects duplicates after a restart, after keys were evicted from memory
+ * or when multiple instances share the database.
+ */
+@Component
+@ConditionalOnProperty(value = "server.feature.deduplication.enabled", havingValue = "true")
+@ManagedResource(objectName = "org.n52.sta:name=ObservationDeduplicator",
+                 description = "Detects duplicate Observations")
+public class ObservationDeduplicator implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationDeduplicator.class);
+
+    private static final String TABLE = "sta_ingest_dedup";
+    private static final String CLAIM = "INSERT INTO " + TABLE + " (dedup_key, observation, created) "
+        + "VALUES (?, ?, now()) ON CONFLICT (dedup_key) DO NOTHING";
+    private static final String FIND = "SELECT observation FROM " + TABLE + " WHERE dedup_key = ?";
+    private static final String PURGE = "DELETE FROM " + TABLE
+        + " WHERE created < now() - ? * INTERVAL '1 millisecond'";
+    private static final char SEPARATOR = '\u0000';
+
+    private final EntityManager em;
+    private final DataSource dataSource;
+    private final boolean byContent;
+    private final long window;
+    private final int maxEntries;
+
+    // guarded by this. Ordered by insertion so expired keys are at the head
+    private final LinkedHashMap<String, Entry> recent = new LinkedHashMap<>();
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder databaseHits = new LongAdder();
+    private final LongAdder claimedKeys = new LongAdder();
+
+    private final ScheduledExecutorService purger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sta-dedup-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ObservationDeduplicator(EntityManager em,
+                                   DataSource dataSource,
+                                   @Value("${server.feature.deduplication.byContent:true}") boolean byContent,
+                                   @Value("${server.feature.deduplication.window:600000}") long window,
+                                   @Value("${server.feature.deduplication.maxEntries:100000}") int maxEntries) {
+        this.em = em;
+        this.dataSource = dataSource;
+        this.byContent = byContent;
+        this.window = Math.max(1000, window);
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    @PostConstruct
+    public void createTable() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                                  + "dedup_key VARCHAR(64) PRIMARY KEY, "
+                                  + "observation VARCHAR(255) NOT NULL, "
+                                  + "created TIMESTAMP NOT NULL)");
+            statement.execute("CREATE INDEX IF NOT EXISTS " + TABLE + "_created ON " + TABLE + " (created)");
+        }
+        purger.scheduleWithFixedDelay(this::purge, window, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Computes the key identifying given Observation.
+     *
+     * @param observation Observation to be created
+     * @return key or null if the Observation cannot be deduplicated
+     */
+    public String getKey(ObservationDTO observation) {
+        if (observation.getDatastream() == null || observation.getDatastream().getId() == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(observation.getDatastream().getId()).append(SEPARATOR);
+        if (observation.getIdempotencyKey() != null) {
+            key.append("key").append(SEPARATOR).append(observation.getIdempotencyKey());
+        } else if (byContent && observation.getPhenomenonTime() != null) {
+            key.append("content").append(SEPARATOR)
+                .append(DateTimeHelper.format(observation.getPhenomenonTime())).append(SEPARATOR)
+                .append(normalize(observation.getResult()));
+        } else {
+            return null;
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks up an Observation created with given key within the window without querying the database.
+     *
+     * @param key key of the Observation
+     * @return staIdentifier of the Observation or null if none is known
+     */
+    public synchronized String findRecent(String key) {
+        Entry entry = recent.get(key);
+        if (entry != null && entry.expires > System.currentTimeMillis()) {
+            memoryHits.increment();
+            return entry.observation;
+        }
+        return null;
+    }
+
+    /**
+     * Claims given key for an Observation. Must be called in the transaction creating the Observation, so the
+     * claim is rolled back together with the Observation.
+     *
+     * @param key         key of the Observation
+     * @param observation staIdentifier of the Observation, must not be null
+     * @return staIdentifier of the Observation that claimed the key before or null if the key was claimed
+     */
+    public String claim(String key, String observation) {
+        Assert.notNull(observation, "Observation must have an identifier to claim a key");
+        int inserted = em.createNativeQuery(CLAIM)
+            .setParameter(1, key)
+            .setParameter(2, observation)
+            .executeUpdate();
+        if (inserted > 0) {
+            claimedKeys.increment();
+            return null;
+        }
+        databaseHits.increment();
+        List<?> existing = em.createNativeQuery(FIND).setParameter(1, key).getResultList();
+        return existing.isEmpty() ? null : (String) existing.get(0);
+    }
+
+    /**
+     * Remembers the keys of created Observations. Must be called after the Observations were committed.
+     *
+     * @param keys keys and staIdentifiers of the Observations
+     */
+    public synchronized void remember(Map<String, String> keys) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, String> key : keys.entrySet()) {
+            recent.remove(key.getKey());
+            recent.put(key.getKey(), new Entry(key.getValue(), now + window));
+        }
+        Iterator<Entry> entries = recent.values().iterator();
+        while (entries.hasNext()) {
+            Entry eldest = entries.next();
+            if (recent.size() <= maxEntries && eldest.expires > now) {
+                break;
+            }
+            entries.remove();
+        }
+    }
+
+    @ManagedAttribute(description = "Number of keys kept in memory")
+    public synchronized int getRecentKeys() {
+        return recent.size();
+    }
+
+    @ManagedAttribute(description = "Number of duplicates detected in memory")
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    @ManagedAttribute(description = "Number of duplicates detected by the database")
+    public long getDatabaseHits() {
+        return databaseHits.sum();
+    }
+
+    @ManagedAttribute(description = "Number of keys claimed in the database")
+    public long getClaimedKeys() {
+        return claimedKeys.sum();
+    }
+
+    @Override
+    public void destroy() {
+        purger.shutdownNow();
+    }
+
+    /**
+     * Deletes keys older than the window from the database.
+     */
+    private void purge() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(PURGE)) {
+            statement.setLong(1, window);
+            int deleted = statement.executeUpdate();
+            LOGGER.debug("Purged {} expired keys from {}", deleted, TABLE);
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.warn("Unable to purge expired keys from {}: {}", TABLE, e.getMessage());
+        }
+    }
+
+    /**
+     * Normalizes numeric results so e.g. 1 and 1.0 are detected as duplicates.
+     */
+    private String normalize(Object result) {
+        if (result instanceof Number) {
+            try {
+                return new BigDecimal(result.toString()).stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException e) {
+                return result.toString();
+            }
+        }
+        return String.valueOf(result);
+    }
+
+
+    private static final class Entry {
+
+        private final String observation;
+        private final long expires;
+
+        Entry(String observation, long expires) {
+            this.observation = observation;
+            this.expires = expires;
+        }
+    }
+}
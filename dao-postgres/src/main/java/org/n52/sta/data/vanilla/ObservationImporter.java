@@ -0,0 +1,815 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.type.Type;
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.series.db.beans.AbstractDatasetEntity;
+import org.n52.series.db.beans.BooleanDataEntity;
+import org.n52.series.db.beans.CategoryDataEntity;
+import org.n52.series.db.beans.CountDataEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.series.db.beans.TextDataEntity;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.api.AbstractSensorThingsEntityService;
+import org.n52.sta.api.ChangeSetExecutor;
+import org.n52.sta.api.EntityServiceFactory;
+import org.n52.sta.api.dto.ObservationDTO;
+import org.n52.sta.data.vanilla.repositories.DatastreamRepository;
+import org.n52.sta.data.vanilla.repositories.ObservationRepository;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports historical Observations of a single Datastream from CSV or NDJSON files, bypassing the regular creation of
+ * Observations. The first Observation of a file is created regularly to set up the Dataset (e.g. FeatureOfInterest)
+ * and serves as template for all further Observations. Further rows are streamed in chunks into a temporary staging
+ * table via COPY and inserted into the Observation table with a single statement per chunk. First/last Observation
+ * and phenomenonTime of the Datastream are recomputed once after the import.
+ *
+ * <p>
+ * CSV files require a header with the columns phenomenonTime, result and optionally resultTime. NDJSON files contain
+ * one JSON object with the same properties per line. The number of lines imported is stored together with each chunk,
+ * so a failed or aborted import continues after the last imported chunk when it is started again.
+ */
+@Component
+@ConditionalOnProperty(value = "server.feature.importer.enabled", havingValue = "true")
+@ManagedResource(objectName = "org.n52.sta:name=ObservationImporter",
+                 description = "Bulk import of historical Observations")
+public class ObservationImporter implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationImporter.class);
+
+    private static final String CHECKPOINT_TABLE = "sta_import_checkpoint";
+    private static final String STAGING_TABLE = "sta_import_staging";
+    private static final String PHENOMENON_TIME = "phenomenonTime";
+    private static final String RESULT_TIME = "resultTime";
+    private static final String RESULT = "result";
+    private static final String NULL = "\\N";
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+
+    // Properties of the Observation table filled from the imported rows
+    private static final Set<String> IMPORTED_PROPERTIES = new HashSet<>(Arrays.asList("dataset",
+                                                                                     "samplingTimeStart",
+                                                                                     "samplingTimeEnd",
+                                                                                     "resultTime",
+                                                                                     "identifier",
+                                                                                     "staIdentifier",
+                                                                                     "value"));
+
+    private final EntityManager em;
+    private final DataSource dataSource;
+    private final TransactionTemplate transactionTemplate;
+    private final ChangeSetExecutor changeSetExecutor;
+    private final EntityServiceFactory serviceRepository;
+    private final ObservationRepository<DataEntity<?>> observationRepository;
+    private final DatastreamRepository datastreamRepository;
+    private final org.n52.sta.data.vanilla.IdentifierGenerator identifierGenerator;
+    private final IdentifierFilter identifierFilter;
+    private final EntityCounter entityCounter;
+    private final IngestEngine ingestEngine;
+    private final ObjectMapper mapper;
+    private final int chunkSize;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sta-import");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong importedRows = new AtomicLong();
+    private volatile String state = "idle";
+    private volatile String currentSource;
+    private volatile long currentLine;
+
+    public ObservationImporter(EntityManager em,
+                               DataSource dataSource,
+                               PlatformTransactionManager transactionManager,
+                               ChangeSetExecutor changeSetExecutor,
+                               EntityServiceFactory serviceRepository,
+                               ObservationRepository<DataEntity<?>> observationRepository,
+                               DatastreamRepository datastreamRepository,
+                               org.n52.sta.data.vanilla.IdentifierGenerator identifierGenerator,
+                               IdentifierFilter identifierFilter,
+                               EntityCounter entityCounter,
+                               IngestEngine ingestEngine,
+                               ObjectMapper mapper,
+                               @Value("${server.feature.importer.chunkSize:100000}") int chunkSize) {
+        this.em = em;
+        this.dataSource = dataSource;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.changeSetExecutor = changeSetExecutor;
+        this.serviceRepository = serviceRepository;
+        this.observationRepository = observationRepository;
+        this.datastreamRepository = datastreamRepository;
+        this.identifierGenerator = identifierGenerator;
+        this.identifierFilter = identifierFilter;
+        this.entityCounter = entityCounter;
+        this.ingestEngine = ingestEngine;
+        this.mapper = mapper;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    @PostConstruct
+    public void createCheckpointTable() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + CHECKPOINT_TABLE + " ("
+                                  + "source VARCHAR(1024) PRIMARY KEY, "
+                                  + "datastream VARCHAR(255) NOT NULL, "
+                                  + "dataset BIGINT NOT NULL, "
+                                  + "line BIGINT NOT NULL, "
+                                  + "finished BOOLEAN NOT NULL)");
+        }
+    }
+
+    /**
+     * Schedules the import of given file. Imports are executed one after another.
+     *
+     * @param datastreamId        staIdentifier of the Datastream
+     * @param featureOfInterestId staIdentifier of the FeatureOfInterest. May be empty to use the Location of the Thing
+     * @param file                path to a .csv or .ndjson file
+     * @return status message
+     */
+    @ManagedOperation(description = "Schedules the import of a CSV or NDJSON file into a Datastream")
+    public String importObservations(String datastreamId, String featureOfInterestId, String file) {
+        Path path = Paths.get(file).toAbsolutePath().normalize();
+        if (!Files.isReadable(path)) {
+            return "Unable to read " + path;
+        }
+        executor.execute(() -> {
+            try {
+                importFile(datastreamId, featureOfInterestId, path);
+            } catch (Exception e) {
+                state = "failed: " + e.getMessage();
+                LOGGER.error("Import of {} failed after line {}. Restart the import to resume.",
+                             path,
+                             currentLine,
+                             e);
+            }
+        });
+        return "Scheduled import of " + path;
+    }
+
+    @ManagedAttribute(description = "State of the current import")
+    public String getState() {
+        return state;
+    }
+
+    @ManagedAttribute(description = "File currently imported")
+    public String getCurrentSource() {
+        return currentSource;
+    }
+
+    @ManagedAttribute(description = "Number of lines of the current file imported")
+    public long getCurrentLine() {
+        return currentLine;
+    }
+
+    @ManagedAttribute(description = "Number of Observations imported since startup")
+    public long getImportedRows() {
+        return importedRows.get();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private void importFile(String datastreamId, String featureOfInterestId, Path path) throws Exception {
+        String source = path.toString();
+        currentSource = source;
+        currentLine = 0;
+        state = "running";
+        long start = System.currentTimeMillis();
+        try (Cursor cursor = new Cursor(path)) {
+            Checkpoint checkpoint = readCheckpoint(source);
+            if (checkpoint == null) {
+                Row first = cursor.next();
+                if (first == null) {
+                    state = "finished: " + source + " is empty";
+                    return;
+                }
+                checkpoint = createFirst(source, datastreamId, featureOfInterestId, first, cursor.line);
+            } else if (checkpoint.finished) {
+                state = "finished: " + source + " was already imported";
+                return;
+            } else if (!checkpoint.datastream.equals(datastreamId)) {
+                throw new STACRUDException(source + " was imported into Datastream " + checkpoint.datastream,
+                                           HTTPStatus.CONFLICT);
+            } else {
+                LOGGER.info("Resuming import of {} after line {}", source, checkpoint.line);
+                cursor.skipTo(checkpoint.line);
+            }
+            currentLine = cursor.line;
+
+            Merge merge = transactionTemplate.execute(status -> createMerge(checkpoint.dataset));
+            while (!cursor.eof) {
+                List<String> identifiers = transactionTemplate.execute(
+                    status -> em.unwrap(Session.class).doReturningWork(
+                        connection -> importChunk(connection, cursor, merge, source)));
+                identifiers.forEach(id -> identifierFilter.add(DataEntity.class, id));
+                entityCounter.add(datastreamId, identifiers.size());
+                importedRows.addAndGet(identifiers.size());
+                currentLine = cursor.line;
+                LOGGER.info("Imported {} lines of {} ({} Observations/s)",
+                            cursor.line,
+                            source,
+                            cursor.imported * 1000 / Math.max(1, System.currentTimeMillis() - start));
+            }
+
+            // Serialized with regular inserts into the Datastream
+            await(ingestEngine.submit(datastreamId, () -> transactionTemplate.execute(status -> {
+                finish(source, checkpoint.dataset);
+                return null;
+            })));
+            state = "finished: " + source;
+            LOGGER.info("Finished import of {} lines of {} in {} ms",
+                        cursor.line,
+                        source,
+                        System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Creates the first Observation of a file regularly and stores the checkpoint in the same transaction.
+     */
+    private Checkpoint createFirst(String source,
+                                   String datastreamId,
+                                   String featureOfInterestId,
+                                   Row row,
+                                   long line) throws Exception {
+        ObjectNode json = mapper.createObjectNode();
+        json.put(PHENOMENON_TIME, row.phenomenonTime);
+        if (row.resultTime != null) {
+            json.put(RESULT_TIME, row.resultTime);
+        }
+        json.set(RESULT, row.result);
+        json.putObject(StaConstants.DATASTREAM).put(StaConstants.AT_IOT_ID, datastreamId);
+        if (featureOfInterestId != null && !featureOfInterestId.isEmpty()) {
+            json.putObject(StaConstants.FEATURE_OF_INTEREST).put(StaConstants.AT_IOT_ID, featureOfInterestId);
+        }
+        ObservationDTO observation = mapper.treeToValue(json, ObservationDTO.class);
+
+        return await(ingestEngine.submit(datastreamId, () -> changeSetExecutor.execute(() -> {
+            ObservationDTO created = ((AbstractSensorThingsEntityService<ObservationDTO>)
+                serviceRepository.getEntityService(StaConstants.OBSERVATIONS)).create(observation);
+            Long dataset = observationRepository.findByStaIdentifier(created.getId())
+                .orElseThrow(() -> new STACRUDException("Could not find created Observation " + created.getId()))
+                .getDataset()
+                .getId();
+            em.createNativeQuery("INSERT INTO " + CHECKPOINT_TABLE
+                                     + " (source, datastream, dataset, line, finished) VALUES (?, ?, ?, ?, false)")
+                .setParameter(1, source)
+                .setParameter(2, datastreamId)
+                .setParameter(3, dataset)
+                .setParameter(4, line)
+                .executeUpdate();
+            return new Checkpoint(datastreamId, dataset, line, false);
+        })));
+    }
+
+    private Checkpoint readCheckpoint(String source) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                 "SELECT datastream, dataset, line, finished FROM " + CHECKPOINT_TABLE + " WHERE source = ?")) {
+            statement.setString(1, source);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next()
+                    ? new Checkpoint(result.getString(1), result.getLong(2), result.getLong(3), result.getBoolean(4))
+                    : null;
+            }
+        }
+    }
+
+    /**
+     * Creates the statement inserting staged rows into the Observation table. Columns not filled from the imported
+     * rows are set to the values of an existing Observation of the Dataset.
+     */
+    private Merge createMerge(long datasetId) {
+        DataEntity<?> template = observationRepository.findFirstByDataset_idOrderBySamplingTimeStartAsc(datasetId);
+        if (template == null) {
+            throw new IllegalStateException("Dataset " + datasetId + " does not contain any Observations");
+        }
+        AbstractEntityPersister persister = (AbstractEntityPersister) em.getEntityManagerFactory()
+            .unwrap(SessionFactoryImplementor.class)
+            .getMetamodel()
+            .entityPersister(Hibernate.getClass(template));
+        if (!(persister instanceof SingleTableEntityPersister)) {
+            throw new IllegalStateException("Bulk import requires Observations mapped to a single table");
+        }
+
+        List<String> columns = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        IdentifierGenerator generator = persister.getIdentifierGenerator();
+        if (generator instanceof SequenceStyleGenerator) {
+            columns.add(persister.getIdentifierColumnNames()[0]);
+            values.add("nextval('" + ((SequenceStyleGenerator) generator).getDatabaseStructure().getName() + "')");
+        }
+        if (persister.getDiscriminatorColumnName() != null) {
+            columns.add(persister.getDiscriminatorColumnName());
+            values.add(persister.getDiscriminatorSQLValue());
+        }
+        Map<String, String> imported = new HashMap<>();
+        imported.put("dataset", "?");
+        imported.put("samplingTimeStart", "s.phenomenon_start");
+        imported.put("samplingTimeEnd", "s.phenomenon_end");
+        imported.put("resultTime", "s.result_time");
+        imported.put("identifier", "s.sta_identifier");
+        imported.put("staIdentifier", "s.sta_identifier");
+        imported.put("value", "s.value");
+
+        // Parameters in order of appearance. The Dataset is bound as plain id without a Type
+        List<Type> parameterTypes = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+
+        String[] properties = persister.getPropertyNames();
+        Type[] types = persister.getPropertyTypes();
+        boolean[] insertable = persister.getPropertyInsertability();
+        for (int i = 0; i < properties.length; i++) {
+            String[] propertyColumns = persister.getPropertyColumnNames(i);
+            if (!insertable[i] || propertyColumns.length != 1) {
+                continue;
+            }
+            if (IMPORTED_PROPERTIES.contains(properties[i])) {
+                columns.add(propertyColumns[0]);
+                values.add(imported.get(properties[i]));
+                if ("dataset".equals(properties[i])) {
+                    parameterTypes.add(null);
+                    parameters.add(datasetId);
+                }
+            } else if (!types[i].isAssociationType() && !types[i].isComponentType()) {
+                Object value = persister.getPropertyValue(template, i);
+                if (value != null) {
+                    columns.add(propertyColumns[0]);
+                    values.add("?");
+                    parameterTypes.add(types[i]);
+                    parameters.add(value);
+                }
+            }
+        }
+        String sql = "INSERT INTO " + persister.getTableName()
+            + " (" + String.join(", ", columns) + ")"
+            + " SELECT " + String.join(", ", values)
+            + " FROM " + STAGING_TABLE + " s ORDER BY s.line";
+        return new Merge(sql, ValueType.of(template), parameterTypes, parameters);
+    }
+
+    private List<String> importChunk(Connection connection, Cursor cursor, Merge merge, String source)
+        throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET LOCAL TIME ZONE 'UTC'");
+            statement.execute("CREATE TEMPORARY TABLE " + STAGING_TABLE + " ("
+                                  + "line BIGINT, "
+                                  + "sta_identifier VARCHAR(255), "
+                                  + "phenomenon_start TIMESTAMP, "
+                                  + "phenomenon_end TIMESTAMP, "
+                                  + "result_time TIMESTAMP, "
+                                  + "value " + merge.valueType.sqlType + ") ON COMMIT DROP");
+        }
+
+        List<String> identifiers = new ArrayList<>();
+        CopyIn copy = connection.unwrap(PGConnection.class)
+            .getCopyAPI()
+            .copyIn("COPY " + STAGING_TABLE + " FROM STDIN");
+        try {
+            Row row;
+            while (identifiers.size() < chunkSize && (row = cursor.next()) != null) {
+                String identifier = identifierGenerator.generate();
+                identifiers.add(identifier);
+                byte[] bytes = toCopyRow(cursor.line, identifier, row, merge.valueType)
+                    .getBytes(StandardCharsets.UTF_8);
+                copy.writeToCopy(bytes, 0, bytes.length);
+            }
+            copy.endCopy();
+        } catch (STACRUDException | RuntimeException e) {
+            if (copy.isActive()) {
+                copy.cancelCopy();
+            }
+            throw new SQLException("Unable to import line " + cursor.line + ": " + e.getMessage(), e);
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement(merge.sql)) {
+            SharedSessionContractImplementor session = em.unwrap(SharedSessionContractImplementor.class);
+            for (int i = 0; i < merge.parameters.size(); i++) {
+                Type type = merge.parameterTypes.get(i);
+                if (type == null) {
+                    insert.setLong(i + 1, (Long) merge.parameters.get(i));
+                } else {
+                    type.nullSafeSet(insert, merge.parameters.get(i), i + 1, session);
+                }
+            }
+            cursor.imported += insert.executeUpdate();
+        }
+        try (PreparedStatement update = connection.prepareStatement(
+            "UPDATE " + CHECKPOINT_TABLE + " SET line = ? WHERE source = ?")) {
+            update.setLong(1, cursor.line);
+            update.setString(2, source);
+            update.executeUpdate();
+        }
+        return identifiers;
+    }
+
+    /**
+     * Recomputes first/last Observation and phenomenonTime of the Dataset and its Aggregation.
+     */
+    private void finish(String source, long datasetId) {
+        AbstractDatasetEntity dataset = datastreamRepository.findById(datasetId)
+            .orElseThrow(() -> new IllegalStateException("Could not find Dataset " + datasetId));
+        DataEntity<?> first = observationRepository.findFirstByDataset_idOrderBySamplingTimeStartAsc(datasetId);
+        DataEntity<?> last = observationRepository.findFirstByDataset_idOrderBySamplingTimeEndDesc(datasetId);
+        for (AbstractDatasetEntity current = dataset; current != null; current = current.getAggregation()) {
+            if (!current.isSetFirstValueAt() || first.getSamplingTimeStart().before(current.getFirstValueAt())) {
+                current.setFirstValueAt(first.getSamplingTimeStart());
+                current.setFirstObservation(first);
+                if (first instanceof QuantityDataEntity) {
+                    current.setFirstQuantityValue(((QuantityDataEntity) first).getValue());
+                }
+            }
+            if (!current.isSetLastValueAt() || last.getSamplingTimeEnd().after(current.getLastValueAt())) {
+                current.setLastValueAt(last.getSamplingTimeEnd());
+                current.setLastObservation(last);
+                if (last instanceof QuantityDataEntity) {
+                    current.setLastQuantityValue(((QuantityDataEntity) last).getValue());
+                }
+            }
+            if (current.getPhenomenonTimeStart() == null
+                || current.getPhenomenonTimeStart().after(first.getPhenomenonTimeStart())) {
+                current.setPhenomenonTimeStart(first.getPhenomenonTimeStart());
+            }
+            if (current.getPhenomenonTimeEnd() == null
+                || current.getPhenomenonTimeEnd().before(last.getPhenomenonTimeEnd())) {
+                current.setPhenomenonTimeEnd(last.getPhenomenonTimeEnd());
+            }
+            datastreamRepository.save(current);
+        }
+        em.createNativeQuery("UPDATE " + CHECKPOINT_TABLE + " SET finished = true WHERE source = ?")
+            .setParameter(1, source)
+            .executeUpdate();
+    }
+
+    private String toCopyRow(long line, String identifier, Row row, ValueType valueType) {
+        String[] phenomenonTime = row.phenomenonTime.split("/");
+        String value = row.result == null || row.result.isNull()
+            ? null
+            : valueType.convert(row.result.isValueNode() ? row.result.asText() : row.result.toString());
+        return line
+            + "\t" + escape(identifier)
+            + "\t" + toTimestamp(phenomenonTime[0])
+            + "\t" + toTimestamp(phenomenonTime[phenomenonTime.length - 1])
+            + "\t" + (row.resultTime == null ? NULL : toTimestamp(row.resultTime))
+            + "\t" + (value == null ? NULL : escape(value))
+            + "\n";
+    }
+
+    private static String toTimestamp(String time) {
+        return OffsetDateTime.parse(time.trim()).atZoneSameInstant(ZoneOffset.UTC).format(TIMESTAMP_FORMAT);
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private enum ValueType {
+        NUMERIC("NUMERIC") {
+            @Override String convert(String value) {
+                // Non-finite values like NaN or Infinity are not accepted by BigDecimal
+                return parse(value).toPlainString();
+            }
+        },
+        INTEGER("BIGINT") {
+            @Override String convert(String value) {
+                try {
+                    return Long.toString(parse(value).longValueExact());
+                } catch (ArithmeticException e) {
+                    throw new IllegalArgumentException("Result is not an integer: " + value, e);
+                }
+            }
+        },
+        BOOLEAN("BOOLEAN") {
+            @Override String convert(String value) {
+                String trimmed = value.trim();
+                if (!"true".equalsIgnoreCase(trimmed) && !"false".equalsIgnoreCase(trimmed)) {
+                    throw new IllegalArgumentException("Result is not a boolean: " + value);
+                }
+                return Boolean.toString(Boolean.parseBoolean(trimmed));
+            }
+        },
+        TEXT("TEXT") {
+            @Override String convert(String value) {
+                return value;
+            }
+        };
+
+        private final String sqlType;
+
+        ValueType(String sqlType) {
+            this.sqlType = sqlType;
+        }
+
+        abstract String convert(String value);
+
+        private static BigDecimal parse(String value) {
+            try {
+                return new BigDecimal(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Result is not a finite number: " + value, e);
+            }
+        }
+
+        static ValueType of(DataEntity<?> template) {
+            if (template instanceof QuantityDataEntity) {
+                return NUMERIC;
+            } else if (template instanceof CountDataEntity) {
+                return INTEGER;
+            } else if (template instanceof BooleanDataEntity) {
+                return BOOLEAN;
+            } else if (template instanceof TextDataEntity || template instanceof CategoryDataEntity) {
+                return TEXT;
+            }
+            throw new IllegalStateException("Bulk import is not supported for " + template.getClass().getSimpleName());
+        }
+    }
+
+
+    private static final class Checkpoint {
+
+        private final String datastream;
+        private final long dataset;
+        private final long line;
+        private final boolean finished;
+
+        Checkpoint(String datastream, long dataset, long line, boolean finished) {
+            this.datastream = datastream;
+            this.dataset = dataset;
+            this.line = line;
+            this.finished = finished;
+        }
+    }
+
+
+    private static final class Merge {
+
+        private final String sql;
+        private final ValueType valueType;
+        private final List<Type> parameterTypes;
+        private final List<Object> parameters;
+
+        Merge(String sql, ValueType valueType, List<Type> parameterTypes, List<Object> parameters) {
+            this.sql = sql;
+            this.valueType = valueType;
+            this.parameterTypes = parameterTypes;
+            this.parameters = parameters;
+        }
+    }
+
+
+    private static final class Row {
+
+        private final String phenomenonTime;
+        private final String resultTime;
+        private final JsonNode result;
+
+        Row(String phenomenonTime, String resultTime, JsonNode result) {
+            if (phenomenonTime == null) {
+                throw new IllegalArgumentException("phenomenonTime is missing");
+            }
+            this.phenomenonTime = phenomenonTime;
+            this.resultTime = resultTime;
+            this.result = result;
+        }
+    }
+
+
+    /**
+     * Reads rows from a CSV or NDJSON file keeping track of the number of lines read.
+     */
+    private final class Cursor implements AutoCloseable {
+
+        private final BufferedReader reader;
+        private final boolean csv;
+        private final Map<String, Integer> header = new HashMap<>();
+        private long line;
+        private long imported;
+        private boolean eof;
+
+        Cursor(Path path) throws IOException {
+            this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+            this.csv = path.getFileName().toString().toLowerCase().endsWith(".csv");
+            if (csv) {
+                String first = readLine();
+                if (first == null) {
+                    throw new IOException("CSV file does not contain a header: " + path);
+                }
+                List<String> names = parseCsv(first);
+                for (int i = 0; i < names.size(); i++) {
+                    header.put(names.get(i).trim(), i);
+                }
+                if (!header.containsKey(PHENOMENON_TIME) || !header.containsKey(RESULT)) {
+                    throw new IOException("CSV header must contain phenomenonTime and result: " + path);
+                }
+            }
+        }
+
+        void skipTo(long target) throws IOException {
+            while (line < target && readLine() != null) {
+                // skip lines imported before
+            }
+        }
+
+        Row next() {
+            try {
+                String current;
+                while ((current = readLine()) != null) {
+                    if (!current.trim().isEmpty()) {
+                        return csv ? parseCsvRow(current) : parseJsonRow(current);
+                    }
+                }
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String readLine() throws IOException {
+            String current = reader.readLine();
+            if (current == null) {
+                eof = true;
+            } else {
+                line++;
+            }
+            return current;
+        }
+
+        private Row parseJsonRow(String current) throws IOException {
+            JsonNode node = mapper.readTree(current);
+            return new Row(node.path(PHENOMENON_TIME).textValue(),
+                           node.path(RESULT_TIME).textValue(),
+                           node.get(RESULT));
+        }
+
+        private Row parseCsvRow(String current) {
+            List<String> fields = parseCsv(current);
+            Integer resultTime = header.get(RESULT_TIME);
+            String result = fields.get(header.get(RESULT));
+            return new Row(fields.get(header.get(PHENOMENON_TIME)),
+                           resultTime == null || fields.get(resultTime).isEmpty() ? null : fields.get(resultTime),
+                           toJson(result));
+        }
+
+        private JsonNode toJson(String value) {
+            if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                return BooleanNode.valueOf(Boolean.parseBoolean(value));
+            }
+            try {
+                return DecimalNode.valueOf(new BigDecimal(value));
+            } catch (NumberFormatException e) {
+                return TextNode.valueOf(value);
+            }
+        }
+
+        private List<String> parseCsv(String current) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < current.length(); i++) {
+                char c = current.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < current.length() && current.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+
+        @Override public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jpa.QueryHints;
+import org.n52.series.db.beans.CompositeDataEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads pages of Observations through a {@link StatelessSession} on the connection of the current transaction.
+ * Observations read this way are not added to the persistence context, so neither snapshots for dirty checking
+ * nor entries in the first-level cache are created for them. Only pages without $expand are read this way, as
+ * lazy associations of the returned Observations cannot be initialized.
+ */
+@Component
+@ManagedResource(objectName = "org.n52.sta:name=ObservationReader",
+                 description = "Reads pages of Observations through a StatelessSession")
+public class ObservationReader {
+
+    private static final String QUERY = "select distinct o from " + DataEntity.class.getName() + " o "
+        + "left join fetch o.parameters where o.staIdentifier in (:ids)";
+
+    private final EntityManager em;
+    private final SessionFactoryImplementor sessionFactory;
+    private final int minPageSize;
+    private volatile boolean enabled;
+
+    private final LongAdder statelessPages = new LongAdder();
+    private final LongAdder statelessEntities = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    public ObservationReader(EntityManager em,
+                             EntityManagerFactory entityManagerFactory,
+                             @Value("${server.feature.read.stateless:true}") boolean enabled,
+                             @Value("${server.feature.read.statelessMinPageSize:100}") int minPageSize) {
+        this.em = em;
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        this.enabled = enabled;
+        this.minPageSize = minPageSize;
+    }
+
+    /**
+     * Checks whether a page of Observations requested with given options is read by this reader.
+     *
+     * @param queryOptions query options of the request
+     * @param pageSize     number of Observations on the page
+     * @return true if the page is read by {@link #read(List)}
+     */
+    public boolean isApplicable(QueryOptions queryOptions, int pageSize) {
+        return enabled && pageSize >= minPageSize && !queryOptions.hasExpandFilter();
+    }
+
+    /**
+     * Reads the Observations with given identifiers including their parameters. Must be called within a
+     * transaction.
+     *
+     * @param identifiers staIdentifiers of the Observations
+     * @return Observations in the order of the given identifiers or null if the page contains Observations that
+     * have to be read through the EntityManager, e.g. composite Observations
+     */
+    public List<DataEntity<?>> read(List<String> identifiers) {
+        List<DataEntity<?>> result = em.unwrap(Session.class).doReturningWork(connection -> {
+            try (StatelessSession session = sessionFactory.openStatelessSession(connection)) {
+                List<DataEntity<?>> observations = session.createQuery(QUERY)
+                    .setParameterList("ids", identifiers)
+                    .setHint(QueryHints.HINT_PASS_DISTINCT_THROUGH, false)
+                    .setReadOnly(true)
+                    .list();
+                Map<String, DataEntity<?>> byIdentifier = new HashMap<>(observations.size() * 2);
+                for (DataEntity<?> observation : observations) {
+                    // Parameters are initialized by the fetch join, components of composite Observations are not
+                    if (observation instanceof CompositeDataEntity) {
+                        return null;
+                    }
+                    byIdentifier.put(observation.getStaIdentifier(), observation);
+                }
+                List<DataEntity<?>> ordered = new ArrayList<>(observations.size());
+                for (String identifier : identifiers) {
+                    DataEntity<?> observation = byIdentifier.get(identifier);
+                    if (observation != null) {
+                        ordered.add(observation);
+                    }
+                }
+                return ordered;
+            }
+        });
+        if (result == null) {
+            fallbacks.increment();
+        } else {
+            statelessPages.increment();
+            statelessEntities.add(result.size());
+        }
+        return result;
+    }
+
+    @ManagedAttribute(description = "Read pages of Observations through a StatelessSession")
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @ManagedAttribute
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @ManagedAttribute(description = "Pages of Observations read through a StatelessSession")
+    public long getStatelessPages() {
+        return statelessPages.sum();
+    }
+
+    @ManagedAttribute(description = "Observations read through a StatelessSession")
+    public long getStatelessEntities() {
+        return statelessEntities.sum();
+    }
+
+    @ManagedAttribute(description = "Pages read through the EntityManager as they contained composite Observations")
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.n52.series.db.beans.parameter.ParameterEntity;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.orm.jpa.JpaDialect;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Collects parameters created within a transaction and writes them in one go shortly before the transaction
+ * commits. Parameters are flushed in chunks of the configured JDBC batch size so Hibernate can send them as
+ * JDBC batches instead of one statement per parameter and Entity.
+ */
+@Component
+public class ParameterBatchWriter {
+
+    private final EntityManager em;
+    private final JpaDialect jpaDialect = new HibernateJpaDialect();
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public ParameterBatchWriter(EntityManager em,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}") int batchSize) {
+        this.em = em;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Queues the given parameters for writing at the end of the current transaction. Parameters are written
+     * immediately in a new transaction if there is no transaction.
+     *
+     * @param parameters parameters to be persisted
+     */
+    public void saveAll(Collection<? extends ParameterEntity> parameters) {
+        if (parameters.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            transactionTemplate.executeWithoutResult(status -> write(parameters));
+            return;
+        }
+        PendingParameters pending = (PendingParameters) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingParameters();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.parameters.addAll(parameters);
+    }
+
+    /**
+     * Writes the parameters. Exceptions are translated to DataAccessExceptions (e.g. DataIntegrityViolationException),
+     * as they are thrown while committing and therefore bypass the exception translation of the repositories.
+     */
+    private void write(Collection<? extends ParameterEntity> parameters) {
+        try {
+            int count = 0;
+            for (ParameterEntity parameter : parameters) {
+                if (parameter.getId() == null) {
+                    em.persist(parameter);
+                } else {
+                    em.merge(parameter);
+                }
+                if (++count % batchSize == 0) {
+                    em.flush();
+                }
+            }
+            em.flush();
+        } catch (RuntimeException e) {
+            DataAccessException translated = jpaDialect.translateExceptionIfPossible(e);
+            throw translated != null ? translated : e;
+        }
+    }
+
+    private final class PendingParameters extends TransactionSynchronizationAdapter {
+
+        private final List<ParameterEntity> parameters = new ArrayList<>();
+
+        @Override public void beforeCommit(boolean readOnly) {
+            write(parameters);
+        }
+
+        @Override public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(ParameterBatchWriter.this);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter for Strings that grows with the number of inserted elements. Once a filter reaches its capacity a new
+ * filter with twice the capacity and half the false positive probability is added, so that the overall false positive
+ * probability stays below twice the initial one. Safe for concurrent use.
+ */
+public class ScalableBloomFilter {
+
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING = 0.5;
+
+    private final List<Filter> filters = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param capacity                 number of elements the first filter is sized for
+     * @param falsePositiveProbability false positive probability of the first filter
+     */
+    public ScalableBloomFilter(long capacity, double falsePositiveProbability) {
+        filters.add(new Filter(Math.max(1, capacity), falsePositiveProbability));
+    }
+
+    private ScalableBloomFilter() {
+    }
+
+    /**
+     * @param element element to be checked
+     * @return false if the element was definitely never added
+     */
+    public boolean mightContain(String element) {
+        long[] hash = hash(element);
+        for (Filter filter : filters) {
+            if (filter.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void add(String element) {
+        long[] hash = hash(element);
+        Filter current = filters.get(filters.size() - 1);
+        if (current.count.get() >= current.capacity) {
+            synchronized (this) {
+                current = filters.get(filters.size() - 1);
+                if (current.count.get() >= current.capacity) {
+                    current = new Filter(current.capacity * GROWTH, current.falsePositiveProbability * TIGHTENING);
+                    filters.add(current);
+                }
+            }
+        }
+        current.add(hash);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(filters.size());
+        for (Filter filter : filters) {
+            filter.writeTo(out);
+        }
+    }
+
+    public static ScalableBloomFilter readFrom(DataInput in) throws IOException {
+        ScalableBloomFilter bloomFilter = new ScalableBloomFilter();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            bloomFilter.filters.add(Filter.readFrom(in));
+        }
+        return bloomFilter;
+    }
+
+    /*
+     * Two independent 64 bit hashes (FNV-1a and a murmur3 finalizer) used for double hashing
+     */
+    private static long[] hash(String element) {
+        long h1 = 0xcbf29ce484222325L;
+        for (byte b : element.getBytes(StandardCharsets.UTF_8)) {
+            h1 ^= b;
+            h1 *= 0x100000001b3L;
+        }
+        long h2 = h1;
+        h2 ^= h2 >>> 33;
+        h2 *= 0xff51afd7ed558ccdL;
+        h2 ^= h2 >>> 33;
+        h2 *= 0xc4ceb9fe1a85ec53L;
+        h2 ^= h2 >>> 33;
+        return new long[] {h1, h2 | 1};
+    }
+
+
+    private static final class Filter {
+
+        private final long capacity;
+        private final double falsePositiveProbability;
+        private final int hashes;
+        private final long bits;
+        private final AtomicLongArray words;
+        private final AtomicLong count;
+
+        Filter(long capacity, double falsePositiveProbability) {
+            this.capacity = capacity;
+            this.falsePositiveProbability = falsePositiveProbability;
+            long optimalBits = (long) Math.ceil(-capacity * Math.log(falsePositiveProbability)
+                                                    / (Math.log(2) * Math.log(2)));
+            int length = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) / 64));
+            this.words = new AtomicLongArray(length);
+            this.bits = (long) length * 64;
+            this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * Math.log(2)));
+            this.count = new AtomicLong();
+        }
+
+        private Filter(long capacity, double falsePositiveProbability, int hashes, long count, long[] words) {
+            this.capacity = capacity;
+            this.falsePositiveProbability = falsePositiveProbability;
+            this.hashes = hashes;
+            this.count = new AtomicLong(count);
+            this.words = new AtomicLongArray(words);
+            this.bits = (long) words.length * 64;
+        }
+
+        boolean mightContain(long[] hash) {
+            for (int i = 0; i < hashes; i++) {
+                long index = Math.floorMod(hash[0] + i * hash[1], bits);
+                if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(long[] hash) {
+            for (int i = 0; i < hashes; i++) {
+                long index = Math.floorMod(hash[0] + i * hash[1], bits);
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long current;
+                do {
+                    current = words.get(word);
+                } while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask));
+            }
+            count.incrementAndGet();
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(capacity);
+            out.writeDouble(falsePositiveProbability);
+            out.writeInt(hashes);
+            out.writeLong(count.get());
+            out.writeInt(words.length());
+            for (int i = 0; i < words.length(); i++) {
+                out.writeLong(words.get(i));
+            }
+        }
+
+        static Filter readFrom(DataInput in) throws IOException {
+            long capacity = in.readLong();
+            double falsePositiveProbability = in.readDouble();
+            int hashes = in.readInt();
+            long count = in.readLong();
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            return new Filter(capacity, falsePositiveProbability, hashes, count, words);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.api.ChangeSetExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Executes change sets in a single database transaction. The change set holds one permit of the {@link DaoSemaphore}
+ * for its whole duration which is reused by all operations executed as part of the change set.
+ */
+@Component
+public class TransactionalChangeSetExecutor implements ChangeSetExecutor {
+
+    private final TransactionTemplate transactionTemplate;
+    private final DaoSemaphore semaphore;
+
+    public TransactionalChangeSetExecutor(PlatformTransactionManager transactionManager,
+                                          DaoSemaphore semaphore) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.semaphore = semaphore;
+    }
+
+    @Override public <T> T execute(ChangeSet<T> changeSet) throws Exception {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new STACRUDException(e.getMessage(), e);
+        }
+        try {
+            return transactionTemplate.execute(status -> {
+                try {
+                    return changeSet.run();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new ChangeSetFailedException(e);
+                }
+            });
+        } catch (ChangeSetFailedException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Transports checked exceptions through {@link TransactionTemplate} triggering a rollback.
+     */
+    private static final class ChangeSetFailedException extends RuntimeException {
+
+        private static final long serialVersionUID = -2214796513408823154L;
+
+        ChangeSetFailedException(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla.repositories;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.n52.series.db.beans.AbstractDatasetEntity;
+import org.n52.series.db.beans.AbstractFeatureEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.PhenomenonEntity;
+import org.n52.series.db.beans.PlatformEntity;
+import org.n52.series.db.beans.ProcedureEntity;
+import org.n52.series.db.beans.sta.HistoricalLocationEntity;
+import org.n52.series.db.beans.sta.LocationEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records the names of changed properties of updated entities using Hibernate's dirty checking. Used to create the
+ * differenceMap for matching MQTT Subscriptions on Entity properties without loading the previous state of the
+ * entity. Changes are recorded per transaction and are therefore isolated between concurrent requests.
+ */
+@Component
+public class DirtyPropertyTracker implements PostUpdateEventListener,
+    PostCollectionUpdateEventListener,
+    PostCollectionRecreateEventListener,
+    RepositoryConstants {
+
+    private static final long serialVersionUID = 6178374911342563418L;
+
+    /*
+     * Mapping of Hibernate property names to STA property names per entity type. Properties not contained are not
+     * tracked.
+     */
+    private static final Map<Class<?>, Map<String, String>> PROPERTY_MAPPING = new LinkedHashMap<>();
+
+    static {
+        Map<String, String> sensor = describable();
+        sensor.put(ProcedureEntity.PROPERTY_DESCRIPTION_FILE, METADATA);
+        sensor.put("format", ENCODINGTYPE);
+        PROPERTY_MAPPING.put(ProcedureEntity.class, sensor);
+
+        Map<String, String> location = describable();
+        location.put(LocationEntity.PROPERTY_GEOMETRY_ENTITY, LOCATION);
+        location.put(LocationEntity.PROPERTY_LOCATION_ENCODINT, ENCODINGTYPE);
+        PROPERTY_MAPPING.put(LocationEntity.class, location);
+
+        Map<String, String> thing = describable();
+        thing.put(PARAMETERS, PROPERTIES);
+        PROPERTY_MAPPING.put(PlatformEntity.class, thing);
+
+        Map<String, String> datastream = describable();
+        datastream.put(AbstractDatasetEntity.PROPERTY_OM_OBSERVATION_TYPE, OBSERVATIONTYPE);
+        datastream.put("unit", UOM);
+        datastream.put("geometryEntity", OBSERVEDAREA);
+        datastream.put(SAMPLINGTIMESTART, PHENOMENONTIME);
+        datastream.put(SAMPLINGTIMEEND, PHENOMENONTIME);
+        datastream.put(RESULTTIMESTART, RESULTTIME);
+        datastream.put(RESULTTIMEEND, RESULTTIME);
+        PROPERTY_MAPPING.put(AbstractDatasetEntity.class, datastream);
+
+        PROPERTY_MAPPING.put(HistoricalLocationEntity.class,
+                             Collections.singletonMap(HistoricalLocationEntity.PROPERTY_TIME, TIME));
+
+        Map<String, String> observation = new HashMap<>();
+        observation.put(SAMPLINGTIMESTART, PHENOMENONTIME);
+        observation.put(SAMPLINGTIMEEND, PHENOMENONTIME);
+        observation.put(DataEntity.PROPERTY_RESULT_TIME, RESULTTIME);
+        observation.put(VALIDTIMESTART, VALIDTIME);
+        observation.put(VALIDTIMEEND, VALIDTIME);
+        observation.put(DataEntity.PROPERTY_PARAMETERS, PARAMETERS);
+        observation.put("value", RESULT);
+        //TODO: implement difference map for "resultQuality"
+        PROPERTY_MAPPING.put(DataEntity.class, observation);
+
+        Map<String, String> feature = describable();
+        feature.put(AbstractFeatureEntity.PROPERTY_GEOMETRY_ENTITY, FEATURE);
+        PROPERTY_MAPPING.put(AbstractFeatureEntity.class, feature);
+
+        Map<String, String> observedProperty = describable();
+        observedProperty.put(PhenomenonEntity.PROPERTY_IDENTIFIER, DEFINITION);
+        PROPERTY_MAPPING.put(PhenomenonEntity.class, observedProperty);
+    }
+
+    private final transient EntityManagerFactory entityManagerFactory;
+
+    public DirtyPropertyTracker(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    private static Map<String, String> describable() {
+        Map<String, String> mapping = new HashMap<>();
+        mapping.put(NAME, NAME);
+        mapping.put(DESCRIPTION, DESCRIPTION);
+        return mapping;
+    }
+
+    @PostConstruct
+    public void registerListeners() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry()
+            .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_UPDATE, this);
+        registry.appendListeners(EventType.POST_COLLECTION_UPDATE, this);
+        registry.appendListeners(EventType.POST_COLLECTION_RECREATE, this);
+    }
+
+    /**
+     * Returns the STA properties of the given entity that were changed in the current transaction and resets them.
+     *
+     * @param entity managed entity
+     * @return names of changed properties. Empty if no property was changed
+     */
+    public Set<String> consumeChanges(Object entity) {
+        Map<Object, Set<String>> changes = getChanges();
+        if (changes == null) {
+            return new HashSet<>();
+        }
+        Set<String> changed = changes.remove(entity);
+        return changed != null ? changed : new HashSet<>();
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        int[] dirtyProperties = event.getDirtyProperties();
+        String[] propertyNames = event.getPersister().getPropertyNames();
+        if (dirtyProperties == null) {
+            // Dirty properties were not computed during flush
+            if (event.getOldState() == null) {
+                return;
+            }
+            dirtyProperties = event.getPersister().findDirty(event.getState(),
+                                                             event.getOldState(),
+                                                             event.getEntity(),
+                                                             event.getSession());
+            if (dirtyProperties == null) {
+                return;
+            }
+        }
+        for (int index : dirtyProperties) {
+            record(event.getEntity(), propertyNames[index]);
+        }
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        recordCollection(event);
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        recordCollection(event);
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    private void recordCollection(AbstractCollectionEvent event) {
+        Object owner = event.getAffectedOwnerOrNull();
+        String role = event.getCollection().getRole();
+        if (owner != null && role != null) {
+            record(owner, role.substring(role.lastIndexOf('.') + 1));
+        }
+    }
+
+    private void record(Object entity, String property) {
+        String staProperty = toStaProperty(entity, property);
+        if (staProperty != null) {
+            Map<Object, Set<String>> changes = getChanges();
+            if (changes != null) {
+                changes.computeIfAbsent(entity, e -> new HashSet<>()).add(staProperty);
+            }
+        }
+    }
+
+    private String toStaProperty(Object entity, String property) {
+        for (Map.Entry<Class<?>, Map<String, String>> mapping : PROPERTY_MAPPING.entrySet()) {
+            if (mapping.getKey().isInstance(entity)) {
+                return mapping.getValue().get(property);
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Set<String>> getChanges() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        Map<Object, Set<String>> changes = (Map<Object, Set<String>>) TransactionSynchronizationManager.getResource(this);
+        if (changes == null) {
+            changes = new IdentityHashMap<>();
+            TransactionSynchronizationManager.bindResource(this, changes);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(DirtyPropertyTracker.this);
+                }
+            });
+        }
+        return changes;
+    }
+}
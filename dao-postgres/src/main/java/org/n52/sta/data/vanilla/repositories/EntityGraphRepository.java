@@ -37,8 +37,10 @@ import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.repository.NoRepositoryBean;
 import org.springframework.lang.Nullable;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * Repository shadowing JpaSpecificationExecutor methods with additional EntityGraph Parameters.
@@ -126,38 +128,81 @@ public interface EntityGraphRepository<T, I> extends JpaSpecificationExecutor<T>
      */
     List<T> findAll(@Nullable Specification<T> spec, Sort sort, FetchGraph... fetchGraphs);
 
-    //TODO: expand if necessary
-    enum FetchGraph {
-        FETCHGRAPH_DEFAULT("identifier"),
-        FETCHGRAPH_PLATFORMS("platforms(parameters)"),
-        FETCHGRAPH_PLATFORM("platform(parameters)"),
-        FETCHGRAPH_PLATFORMSHISTLOCATION("platforms(historicalLocations)"),
-        FETCHGRAPH_LOCATIONS("locations(parameters)"),
-        FETCHGRAPH_LOCATIONHISTLOCATION("locations(historicalLocations)"),
-        FETCHGRAPH_HIST_LOCATIONS("historicalLocations"),
-        FETCHGRAPH_UOM("unit"),
-        FETCHGRAPH_PARAMETERS("parameters"),
-        FETCHGRAPH_FORMAT("format"),
-        FETCHGRAPH_FEATURETYPE("featureType"),
-        FETCHGRAPH_PROCEDURE("procedure(format,procedureHistory,parameters)"),
-        FETCHGRAPH_PHENOMENON("phenomenon(parameters)"),
-        FETCHGRAPH_OM_OBS_TYPE("omObservationType"),
-        FETCHGRAPH_DATASETS("datasets(category,unit,omObservationType,parameters)"),
-        FETCHGRAPH_FEATURE("feature"),
-        FETCHGRAPH_DATASET_FIRSTLAST_OBSERVATION("dataset(firstObservation,lastObservation)"),
-        FETCHGRAPH_PROCEDUREHISTORY("procedureHistory"),
-        FETCHGRAPH_CATEGORY("category");
-
-        private String val;
-
-        FetchGraph(String val) {
+    /**
+     * String representation of an EntityGraph. Nested graphs may be created for $expand of related Entities.
+     */
+    final class FetchGraph {
+        public static final FetchGraph FETCHGRAPH_DEFAULT = new FetchGraph("identifier");
+        public static final FetchGraph FETCHGRAPH_PLATFORMS = new FetchGraph("platforms(parameters)");
+        public static final FetchGraph FETCHGRAPH_PLATFORM = new FetchGraph("platform(parameters)");
+        public static final FetchGraph FETCHGRAPH_PLATFORMSHISTLOCATION =
+            new FetchGraph("platforms(historicalLocations)");
+        public static final FetchGraph FETCHGRAPH_LOCATIONS = new FetchGraph("locations(parameters)");
+        public static final FetchGraph FETCHGRAPH_LOCATIONHISTLOCATION =
+            new FetchGraph("locations(historicalLocations)");
+        public static final FetchGraph FETCHGRAPH_HIST_LOCATIONS = new FetchGraph("historicalLocations");
+        public static final FetchGraph FETCHGRAPH_UOM = new FetchGraph("unit");
+        public static final FetchGraph FETCHGRAPH_PARAMETERS = new FetchGraph("parameters");
+        public static final FetchGraph FETCHGRAPH_FORMAT = new FetchGraph("format");
+        public static final FetchGraph FETCHGRAPH_FEATURETYPE = new FetchGraph("featureType");
+        public static final FetchGraph FETCHGRAPH_PROCEDURE =
+            new FetchGraph("procedure(format,procedureHistory,parameters)");
+        public static final FetchGraph FETCHGRAPH_PHENOMENON = new FetchGraph("phenomenon(parameters)");
+        public static final FetchGraph FETCHGRAPH_OM_OBS_TYPE = new FetchGraph("omObservationType");
+        public static final FetchGraph FETCHGRAPH_DATASETS =
+            new FetchGraph("datasets(category,unit,omObservationType,parameters)");
+        public static final FetchGraph FETCHGRAPH_FEATURE = new FetchGraph("feature");
+        public static final FetchGraph FETCHGRAPH_DATASET_FIRSTLAST_OBSERVATION =
+            new FetchGraph("dataset(firstObservation,lastObservation)");
+        public static final FetchGraph FETCHGRAPH_PROCEDUREHISTORY = new FetchGraph("procedureHistory");
+        public static final FetchGraph FETCHGRAPH_CATEGORY = new FetchGraph("category");
+
+        private final String val;
+
+        private FetchGraph(String val) {
             this.val = val;
         }
 
+        /**
+         * Creates a graph fetching the given attribute together with the given graphs of the referenced Entity.
+         *
+         * @param attribute attribute referencing the related Entity
+         * @param subgraphs graphs relative to the related Entity
+         * @return graph fetching attribute(subgraphs)
+         */
+        public static FetchGraph nested(String attribute, FetchGraph... subgraphs) {
+            if (subgraphs.length == 0) {
+                return new FetchGraph(attribute);
+            }
+            return new FetchGraph(Arrays.stream(subgraphs)
+                                      .map(FetchGraph::value)
+                                      .distinct()
+                                      .collect(Collectors.joining(",", attribute + "(", ")")));
+        }
+
         public String value() {
             return val;
         }
 
+        /**
+         * @return attribute fetched by this graph without subgraphs
+         */
+        public String attribute() {
+            int subgraph = val.indexOf('(');
+            return subgraph == -1 ? val : val.substring(0, subgraph);
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof FetchGraph && val.equals(((FetchGraph) o).val);
+        }
+
+        @Override public int hashCode() {
+            return val.hashCode();
+        }
+
+        @Override public String toString() {
+            return val;
+        }
     }
 
 }
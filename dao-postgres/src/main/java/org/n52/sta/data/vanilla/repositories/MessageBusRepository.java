@@ -40,12 +40,13 @@ import org.n52.series.db.beans.IdEntity;
 import org.n52.series.db.beans.PhenomenonEntity;
 import org.n52.series.db.beans.PlatformEntity;
 import org.n52.series.db.beans.ProcedureEntity;
-import org.n52.series.db.beans.parameter.ParameterEntity;
 import org.n52.series.db.beans.sta.HistoricalLocationEntity;
 import org.n52.series.db.beans.sta.LocationEntity;
 import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.data.vanilla.DTOTransformer;
+import org.n52.sta.data.vanilla.EventDispatcher;
+import org.n52.sta.data.vanilla.IdentifierFilter;
 import org.n52.sta.data.vanilla.SerDesConfig;
 import org.n52.sta.SpringApplicationContext;
 import org.n52.sta.api.STAEventHandler;
@@ -67,7 +68,6 @@ import org.springframework.util.Assert;
 
 import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
 import javax.persistence.NoResultException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -76,12 +76,12 @@ import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -98,12 +98,14 @@ public class MessageBusRepository<T, I extends Serializable>
     private final String ID = IdEntity.PROPERTY_ID;
 
     private final JpaEntityInformation entityInformation;
-    private final STAEventHandler mqttHandler;
+    private final Collection<STAEventHandler> eventHandlers;
+    private final EventDispatcher eventDispatcher;
     private final EntityManager em;
-    private final EntityManager databaseEm;
     private final Class<T> entityClass;
     private final CriteriaBuilder criteriaBuilder;
     private final SerDesConfig config;
+    private final DirtyPropertyTracker dirtyPropertyTracker;
+    private final IdentifierFilter identifierFilter;
 
     // Is set in Repositories that need it to get related Collections for mqtt handling
     private DatastreamRepository datastreamRepository;
@@ -115,18 +117,20 @@ public class MessageBusRepository<T, I extends Serializable>
         super(entityInformation, entityManager);
         this.em = entityManager;
 
-        EntityManagerFactory factory =
-            (EntityManagerFactory) SpringApplicationContext.getBean(EntityManagerFactory.class);
-        Assert.notNull(factory, "Could not autowire EntityManagerFactory!");
-        this.databaseEm = factory.createEntityManager();
-
         this.entityInformation = entityInformation;
         this.entityClass = entityInformation.getJavaType();
         this.entityTypeToStaType = this.createEntityTypeToStaTypeMapping();
         this.criteriaBuilder = em.getCriteriaBuilder();
 
-        this.mqttHandler = (STAEventHandler) SpringApplicationContext.getBean(STAEventHandler.class);
-        Assert.notNull(this.mqttHandler, "Could not autowire Mqtt handler!");
+        this.eventHandlers = SpringApplicationContext.getBeansOfType(STAEventHandler.class);
+        Assert.notEmpty(this.eventHandlers, "Could not autowire Event handlers!");
+        this.eventDispatcher = (EventDispatcher) SpringApplicationContext.getBean(EventDispatcher.class);
+        Assert.notNull(this.eventDispatcher, "Could not autowire EventDispatcher!");
+        this.dirtyPropertyTracker =
+            (DirtyPropertyTracker) SpringApplicationContext.getBean(DirtyPropertyTracker.class);
+        Assert.notNull(this.dirtyPropertyTracker, "Could not autowire DirtyPropertyTracker!");
+        this.identifierFilter = (IdentifierFilter) SpringApplicationContext.getBean(IdentifierFilter.class);
+        Assert.notNull(this.identifierFilter, "Could not autowire IdentifierFilter!");
 
         if (this.entityClass.equals(DataEntity.class)
             || this.entityClass.equals(ProcedureEntity.class)
@@ -245,6 +249,11 @@ public class MessageBusRepository<T, I extends Serializable>
 
     @Transactional
     public boolean existsByStaIdentifier(String identifier) {
+        // Most checks are for new identifiers which are answered without querying the database if the filter is
+        // enabled for a single writer
+        if (!identifierFilter.mightContain(entityClass, identifier)) {
+            return false;
+        }
         CriteriaQuery<Long> criteriaQuery = criteriaBuilder.createQuery(Long.class);
         Root<T> root = criteriaQuery.from(entityClass);
 
@@ -260,35 +269,31 @@ public class MessageBusRepository<T, I extends Serializable>
     @Override
     public <S extends T> S save(S newEntity) {
         String entityType = entityTypeToStaType.get(entityInformation.getEntityName());
-        final DTOTransformer<?, ?> transformer = new DTOTransformer<>(config);
-        boolean intercept =
-            mqttHandler.getWatchedEntityTypes().contains(entityType);
+        List<STAEventHandler> interceptors = eventHandlers.stream()
+            .filter(handler -> handler.getWatchedEntityTypes().contains(entityType))
+            .collect(Collectors.toList());
+        boolean intercept = !interceptors.isEmpty();
 
         if (entityInformation.isNew(newEntity)) {
             em.persist(newEntity);
             em.flush();
             if (intercept) {
-                StaDTO o = transformer.toDTO(newEntity, null);
-                this.mqttHandler.handleEvent(o, entityType, null, getRelatedCollections(newEntity));
+                Map<String, Set<String>> relatedCollections = getRelatedCollections(newEntity);
+                for (STAEventHandler handler : interceptors) {
+                    eventDispatcher.dispatch(handler, toDTO(newEntity), entityType, null, relatedCollections);
+                }
             }
         } else {
             if (intercept) {
-                // Get original entity state from database to create differenceMap for matching MQTT Subscriptions on
-                // Entity properties
-                S oldEntity = (S) this.databaseEm.find(newEntity.getClass(), entityInformation.getId(newEntity));
-
-                // Entity was intermediateSaved and is not known to databaseEm
-                if (oldEntity == null) {
-                    oldEntity = (S) this.em.find(newEntity.getClass(), entityInformation.getId(newEntity));
-                }
-                Map<String, Object> oldProperties = getPropertyMap(oldEntity);
+                // Changed properties are recorded by Hibernate dirty checking during flush and used to create the
+                // differenceMap for matching MQTT Subscriptions on Entity properties
                 S entity = em.merge(newEntity);
                 em.flush();
-                StaDTO o = transformer.toDTO(newEntity, null);
-                this.mqttHandler.handleEvent(o,
-                                             entityType,
-                                             computeDifference(oldProperties, getPropertyMap(newEntity)),
-                                             getRelatedCollections(entity));
+                Set<String> difference = dirtyPropertyTracker.consumeChanges(entity);
+                Map<String, Set<String>> relatedCollections = getRelatedCollections(entity);
+                for (STAEventHandler handler : interceptors) {
+                    eventDispatcher.dispatch(handler, toDTO(newEntity), entityType, difference, relatedCollections);
+                }
                 return entity;
             } else {
                 return em.merge(newEntity);
@@ -298,6 +303,14 @@ public class MessageBusRepository<T, I extends Serializable>
         return newEntity;
     }
 
+    /**
+     * Creates a separate DTO for each handler as handlers modify the DTO (e.g. by setting QueryOptions)
+     * while processing the event asynchronously.
+     */
+    private StaDTO toDTO(T entity) {
+        return new DTOTransformer<>(config).toDTO(entity, null);
+    }
+
     private <S extends T> Map<String, Set<String>> getRelatedCollections(S rawObject) {
         Map<String, Set<String>> collections = new HashMap<>();
         if (rawObject instanceof ProcedureEntity) {
@@ -420,83 +433,6 @@ public class MessageBusRepository<T, I extends Serializable>
         return collections;
     }
 
-    private Set<String> computeDifference(Map<String, Object> oldProperties, Map<String, Object> newProperties) {
-        HashSet<String> result = new HashSet<>();
-        for (Map.Entry<String, Object> entry : oldProperties.entrySet()) {
-            if (!Objects.equals(entry.getValue(), newProperties.get(entry.getKey()))) {
-                if (SAMPLINGTIMEEND.equals(entry.getKey()) || SAMPLINGTIMESTART.equals(entry.getKey())) {
-                    result.add(PHENOMENONTIME);
-                } else if (RESULTTIMESTART.equals(entry.getKey()) || RESULTTIMEEND.equals(entry.getKey())) {
-                    result.add(RESULTTIME);
-                } else if (VALIDTIMESTART.equals(entry.getKey()) || VALIDTIMEEND.equals(entry.getKey())) {
-                    result.add(VALIDTIME);
-                } else {
-                    result.add(entry.getKey());
-                }
-            }
-        }
-        return result;
-    }
-
-    private <S extends T> Map<String, Object> getPropertyMap(S entity) {
-        Map<String, Object> result = new HashMap<>();
-        if (entity instanceof ProcedureEntity) {
-            result.put(DESCRIPTION, ((ProcedureEntity) entity).getDescription());
-            result.put(NAME, ((ProcedureEntity) entity).getName());
-            result.put(METADATA, ((ProcedureEntity) entity).getDescriptionFile());
-            result.put(ENCODINGTYPE, ((ProcedureEntity) entity).getFormat().getFormat());
-        } else if (entity instanceof LocationEntity) {
-            result.put(DESCRIPTION, ((LocationEntity) entity).getDescription());
-            result.put(NAME, ((LocationEntity) entity).getName());
-            result.put(LOCATION, ((LocationEntity) entity).getGeometryEntity().getGeometry());
-            result.put(ENCODINGTYPE, ((LocationEntity) entity).getLocationEncoding());
-        } else if (entity instanceof PlatformEntity) {
-            result.put(DESCRIPTION, ((PlatformEntity) entity).getDescription());
-            result.put(NAME, ((PlatformEntity) entity).getName());
-            Set<ParameterEntity> parameters = ((PlatformEntity) entity).hasParameters() ?
-                new HashSet<>(((PlatformEntity) entity).getParameters()) :
-                new HashSet<>();
-            result.put(PROPERTIES, parameters);
-        } else if (entity instanceof AbstractDatasetEntity) {
-            result.put(DESCRIPTION, ((AbstractDatasetEntity) entity).getDescription());
-            result.put(NAME, ((AbstractDatasetEntity) entity).getName());
-            result.put(OBSERVATIONTYPE, ((AbstractDatasetEntity) entity).getOMObservationType().getFormat());
-            result.put(UOM, ((AbstractDatasetEntity) entity).getUnit());
-            result.put(OBSERVEDAREA,
-                       (((AbstractDatasetEntity) entity).getGeometryEntity() != null) ?
-                           ((AbstractDatasetEntity) entity).getGeometryEntity().getGeometry() : null);
-            result.put(SAMPLINGTIMESTART, ((AbstractDatasetEntity) entity).getSamplingTimeStart());
-            result.put(SAMPLINGTIMEEND, ((AbstractDatasetEntity) entity).getSamplingTimeEnd());
-            result.put(RESULTTIMESTART, ((AbstractDatasetEntity) entity).getResultTimeStart());
-            result.put(RESULTTIMEEND, ((AbstractDatasetEntity) entity).getResultTimeEnd());
-        } else if (entity instanceof HistoricalLocationEntity) {
-            result.put(TIME, ((HistoricalLocationEntity) entity).getTime());
-        } else if (entity instanceof DataEntity<?>) {
-            result.put(SAMPLINGTIMESTART, ((DataEntity<?>) entity).getSamplingTimeStart());
-            result.put(SAMPLINGTIMEEND, ((DataEntity<?>) entity).getSamplingTimeEnd());
-            result.put(RESULTTIME, ((DataEntity<?>) entity).getResultTime());
-            result.put(VALIDTIMESTART, ((DataEntity<?>) entity).getValidTimeStart());
-            result.put(VALIDTIMEEND, ((DataEntity<?>) entity).getValidTimeEnd());
-            Set<ParameterEntity> parameters = ((DataEntity<?>) entity).hasParameters() ?
-                new HashSet<>(((DataEntity<?>) entity).getParameters()) :
-                new HashSet<>();
-            result.put(PARAMETERS, parameters);
-            result.put(RESULT, ((DataEntity<?>) entity).getValue());
-            //TODO: implement difference map for "resultQuality"
-        } else if (entity instanceof AbstractFeatureEntity) {
-            result.put(NAME, ((AbstractFeatureEntity) entity).getName());
-            result.put(DESCRIPTION, ((AbstractFeatureEntity) entity).getDescription());
-            result.put(FEATURE, ((AbstractFeatureEntity) entity).getGeometry());
-        } else if (entity instanceof PhenomenonEntity) {
-            result.put(NAME, ((PhenomenonEntity) entity).getName());
-            result.put(DESCRIPTION, ((PhenomenonEntity) entity).getDescription());
-            result.put(DEFINITION, ((PhenomenonEntity) entity).getIdentifier());
-        } else {
-            LOGGER.error("Error while computing difference map: Could not identify Entity Type");
-        }
-        return result;
-    }
-
     private EntityGraph<T> createEntityGraph(EntityGraphRepository.FetchGraph... fetchGraphs) {
         if (fetchGraphs != null && fetchGraphs.length != 0) {
             Set<RootGraph<T>> roots = new HashSet<>();
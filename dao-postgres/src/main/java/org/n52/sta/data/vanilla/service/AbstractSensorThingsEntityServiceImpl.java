@@ -34,8 +34,10 @@ import org.n52.series.db.beans.DataEntity;
 import org.n52.series.db.beans.HibernateRelations;
 import org.n52.series.db.beans.HibernateRelations.HasDescription;
 import org.n52.series.db.beans.HibernateRelations.HasName;
+import org.n52.series.db.beans.parameter.ParameterEntity;
 import org.n52.series.db.beans.sta.LocationEntity;
 import org.n52.shetland.filter.ExpandFilter;
+import org.n52.shetland.filter.ExpandItem;
 import org.n52.shetland.filter.FilterFilter;
 import org.n52.shetland.filter.OrderProperty;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
@@ -44,10 +46,13 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.sta.data.vanilla.DTOTransformer;
 import org.n52.sta.data.vanilla.SerDesConfig;
+import org.n52.sta.data.vanilla.ExpandExecutor;
 import org.n52.sta.api.CollectionWrapper;
 import org.n52.sta.api.dto.StaDTO;
+import org.n52.sta.data.vanilla.IdentifierGenerator;
 import org.n52.sta.data.vanilla.MutexFactory;
 import org.n52.sta.data.vanilla.OffsetLimitBasedPageRequest;
+import org.n52.sta.data.vanilla.ParameterBatchWriter;
 import org.n52.sta.data.vanilla.repositories.EntityGraphRepository;
 import org.n52.sta.data.vanilla.repositories.StaIdentifierRepository;
 import org.n52.sta.data.vanilla.service.EntityServiceRepository.EntityTypes;
@@ -66,8 +71,12 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.Predicate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Interface for requesting Sensor Things entities
@@ -105,7 +114,10 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
     private EntityServiceRepository serviceRepository;
     private T repository;
     @Autowired private MutexFactory lock;
+    @Autowired private IdentifierGenerator identifierGenerator;
+    @Autowired private ParameterBatchWriter parameterWriter;
     @Autowired private SerDesConfig config;
+    @Autowired private ExpandExecutor expandExecutor;
 
     protected AbstractSensorThingsEntityServiceImpl() {
         this.em = null;
@@ -142,10 +154,32 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
         }
     }
 
+    /**
+     * Generates an identifier for an Entity created without a client-supplied identifier.
+     *
+     * @return new identifier
+     * @throws STACRUDException if no identifier could be generated
+     */
+    protected String generateIdentifier() throws STACRUDException {
+        return identifierGenerator.generate();
+    }
+
+    /**
+     * Persists the parameters of a newly created Entity together with all other parameters of the current
+     * transaction.
+     *
+     * @param parameters parameters to be persisted
+     */
+    protected void saveParameters(Collection<? extends ParameterEntity> parameters) {
+        parameterWriter.saveAll(parameters);
+    }
+
+    @Transactional(readOnly = true)
     public boolean existsEntity(String id) {
         return getRepository().existsByStaIdentifier(id);
     }
 
+    @Transactional(readOnly = true)
     public R getEntity(String id, QueryOptions queryOptions) throws STACRUDException {
         try {
             S entity = getRepository().findByStaIdentifier(id, createFetchGraph(queryOptions.getExpandFilter())).get();
@@ -160,6 +194,7 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
         }
     }
 
+    @Transactional(readOnly = true)
     public CollectionWrapper getEntityCollection(QueryOptions queryOptions) throws STACRUDException {
         try {
             Page<S> pages = getRepository().findAll(getFilterPredicate(entityClass, queryOptions),
@@ -171,6 +206,7 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
         }
     }
 
+    @Transactional(readOnly = true)
     public R getEntityByRelatedEntity(String relatedId,
                                       String relatedType,
                                       String ownId,
@@ -185,6 +221,7 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
         }
     }
 
+    @Transactional(readOnly = true)
     public CollectionWrapper getEntityCollectionByRelatedEntity(String relatedId,
                                                                 String relatedType,
                                                                 QueryOptions queryOptions)
@@ -195,6 +232,7 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
                                                                                       queryOptions));
     }
 
+    @Transactional(readOnly = true)
     public String getEntityIdByRelatedEntity(String relatedId, String relatedType) {
         Optional<String> entity = getRepository().getColumn(
             this.byRelatedEntityFilter(relatedId, relatedType, null),
@@ -202,6 +240,7 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
         return entity.orElse(null);
     }
 
+    @Transactional(readOnly = true)
     public boolean existsEntityByRelatedEntity(String relatedId,
                                                String relatedType,
                                                String ownId) {
@@ -213,6 +252,15 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
         return this.createWrapper(createOrfetch(entity), null);
     }
 
+    @Transactional(rollbackFor = Exception.class)
+    public List<R> createAll(List<S> entities) throws STACRUDException {
+        List<R> result = new ArrayList<>(entities.size());
+        for (S entity : entities) {
+            result.add(create(entity));
+        }
+        return result;
+    }
+
     @Transactional(rollbackFor = Exception.class)
     public R update(String id, S entity, HttpMethod method) throws STACRUDException {
         return this.createWrapper(updateEntity(id, entity, method), null);
@@ -237,14 +285,7 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
 
     protected CollectionWrapper createCollectionWrapperAndExpand(QueryOptions queryOptions, Page<S> pages) {
         if (queryOptions.hasExpandFilter()) {
-            Page<S> expanded = pages.map(e -> {
-                try {
-                    em.detach(e);
-                    return fetchExpandEntitiesWithFilter(e, queryOptions.getExpandFilter());
-                } catch (STACRUDException | STAInvalidQueryException ex) {
-                    throw new RuntimeException(ex);
-                }
-            });
+            Page<S> expanded = fetchExpandEntitiesWithFilter(pages, queryOptions.getExpandFilter());
             long count = (queryOptions.hasCountFilter() && queryOptions.getCountFilter().getValue()) ?
                 expanded.getTotalElements() :
                 -1;
@@ -310,14 +351,7 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
                          createPageableRequest(queryOptions),
                          createFetchGraph(queryOptions.getExpandFilter()));
             if (queryOptions.hasExpandFilter()) {
-                return pages.map(e -> {
-                    try {
-                        em.detach(e);
-                        return fetchExpandEntitiesWithFilter(e, queryOptions.getExpandFilter());
-                    } catch (STACRUDException | STAInvalidQueryException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                });
+                return fetchExpandEntitiesWithFilter(pages, queryOptions.getExpandFilter());
             } else {
                 return pages;
             }
@@ -351,6 +385,114 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
     protected abstract S fetchExpandEntitiesWithFilter(S entity, ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException;
 
+    /**
+     * Fetches $expanded Entities that are filtered via $filter for all Entities of a page. Entities are detached and
+     * expanded individually unless overridden to fetch the expanded Entities of the whole page at once.
+     *
+     * @param pages        Base Entities
+     * @param expandOption Entities to be expanded
+     * @return Base Entities with embedded expanded parameters
+     */
+    protected Page<S> fetchExpandEntitiesWithFilter(Page<S> pages, ExpandFilter expandOption) {
+        return pages.map(e -> {
+            try {
+                em.detach(e);
+                return fetchExpandEntitiesWithFilter(e, expandOption);
+            } catch (STACRUDException | STAInvalidQueryException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+    }
+
+    /**
+     * Checks whether the Entities expanded by given item are fetched by the Fetchgraph of this Entity. This is the
+     * case if the item has no $filter and all its nested $expand items are fetched by the Fetchgraph of the
+     * expanded Entity. All other items are fetched by {@link #fetchExpandEntitiesWithFilter(Object, ExpandFilter)}.
+     *
+     * @param expandItem $expand item
+     * @return true if the expanded Entities are fetched by the Fetchgraph
+     */
+    protected boolean isFetchedByGraph(ExpandItem expandItem) {
+        QueryOptions queryOptions = expandItem.getQueryOptions();
+        if (queryOptions.hasFilterFilter()) {
+            return false;
+        }
+        if (queryOptions.hasExpandFilter()) {
+            AbstractSensorThingsEntityServiceImpl<?, ?, ?> expandedService = getExpandedService(expandItem.getPath());
+            if (expandedService == null) {
+                return false;
+            }
+            for (ExpandItem nested : queryOptions.getExpandFilter().getItems()) {
+                if (!expandedService.isFetchedByGraph(nested)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the service of the Entities expanded by given navigation property if their own $expand can be fetched
+     * by a subgraph of the Fetchgraph of this Entity.
+     *
+     * @param navigationProperty expanded navigation property
+     * @return service of the expanded Entities or null if nested $expand is not supported
+     */
+    protected AbstractSensorThingsEntityServiceImpl<?, ?, ?> getExpandedService(String navigationProperty) {
+        return null;
+    }
+
+    /**
+     * Creates the Fetchgraph for given $expand item by extending given graph with the subgraphs required by the
+     * nested $expand of the item.
+     *
+     * @param fetchGraph Fetchgraph of the expanded Entities without nested $expand
+     * @param expandItem $expand item
+     * @return Fetchgraph including nested $expand
+     * @throws STAInvalidQueryException if the nested $expand is invalid
+     */
+    protected EntityGraphRepository.FetchGraph createNestedFetchGraph(EntityGraphRepository.FetchGraph fetchGraph,
+                                                                      ExpandItem expandItem)
+        throws STAInvalidQueryException {
+        if (!expandItem.getQueryOptions().hasExpandFilter()) {
+            return fetchGraph;
+        }
+        return EntityGraphRepository.FetchGraph.nested(
+            fetchGraph.attribute(),
+            getExpandedService(expandItem.getPath()).createFetchGraph(expandItem.getQueryOptions().getExpandFilter()));
+    }
+
+    /**
+     * Initializes everything that is read when given expanded Entity is serialized with given query options. This
+     * is required if the Entity was fetched by a separate thread of the {@link ExpandExecutor}, as the Entity is
+     * detached once the transaction of that thread ends.
+     *
+     * @param expanded     expanded Entity, may be null
+     * @param queryOptions query options of the $expand item
+     * @param <T>          type of the expanded Entity
+     * @return given Entity
+     */
+    protected <T> T initializeExpanded(T expanded, QueryOptions queryOptions) {
+        if (ExpandExecutor.isWorkerThread()) {
+            DTOTransformer.initialize(expanded, queryOptions);
+        }
+        return expanded;
+    }
+
+    /**
+     * Initializes given expanded Entities, see {@link #initializeExpanded(Object, QueryOptions)}.
+     *
+     * @param expanded     expanded Entities
+     * @param queryOptions query options of the $expand item
+     * @param <T>          type of the expanded Entities
+     * @return expanded Entities
+     */
+    protected <T> Set<T> initializeExpanded(Page<T> expanded, QueryOptions queryOptions) {
+        return expanded.get()
+            .map(e -> initializeExpanded(e, queryOptions))
+            .collect(Collectors.toSet());
+    }
+
     /**
      * Wraps the raw Entity into a Wrapper object to associate with QueryOptions used for this request
      *
@@ -564,6 +706,10 @@ public abstract class AbstractSensorThingsEntityServiceImpl<
         }
     }
 
+    ExpandExecutor getExpandExecutor() {
+        return expandExecutor;
+    }
+
     LocationService getLocationService() {
         return (LocationService) serviceRepository.getEntityServiceRaw(EntityTypes.Location);
     }
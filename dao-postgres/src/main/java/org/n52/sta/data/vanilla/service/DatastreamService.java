@@ -60,6 +60,7 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.api.dto.DatastreamDTO;
+import org.n52.sta.data.vanilla.ExpandExecutor;
 import org.n52.sta.data.vanilla.query.DatastreamQuerySpecifications;
 import org.n52.sta.data.vanilla.repositories.CategoryRepository;
 import org.n52.sta.data.vanilla.repositories.DatastreamParameterRepository;
@@ -83,11 +84,14 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.Predicate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
@@ -115,6 +119,7 @@ public class DatastreamService extends AbstractSensorThingsEntityServiceImpl<
 
     private final OfferingService offeringService;
     private final FormatService formatService;
+    private final EntityManager em;
 
     @Autowired
     public DatastreamService(DatastreamRepository repository,
@@ -140,6 +145,7 @@ public class DatastreamService extends AbstractSensorThingsEntityServiceImpl<
         this.formatService = formatService;
         this.offeringService = offeringService;
         this.categoryRepository = categoryRepository;
+        this.em = em;
     }
 
     @Override protected EntityGraphRepository.FetchGraph[] createFetchGraph(ExpandFilter expandOption)
@@ -153,20 +159,23 @@ public class DatastreamService extends AbstractSensorThingsEntityServiceImpl<
         }
         if (expandOption != null) {
             for (ExpandItem expandItem : expandOption.getItems()) {
-                // We cannot handle nested $filter or $expand
-                if (expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter()) {
+                // Items with nested $filter are fetched separately
+                if (!isFetchedByGraph(expandItem)) {
                     continue;
                 }
                 String expandProperty = expandItem.getPath();
                 switch (expandProperty) {
                     case STAEntityDefinition.SENSOR:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_PROCEDURE);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_PROCEDURE, expandItem));
                         break;
                     case STAEntityDefinition.THING:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_PLATFORM);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_PLATFORM, expandItem));
                         break;
                     case STAEntityDefinition.OBSERVED_PROPERTY:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_PHENOMENON);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_PHENOMENON, expandItem));
                         break;
                     case STAEntityDefinition.OBSERVATIONS:
                         break;
@@ -180,30 +189,98 @@ public class DatastreamService extends AbstractSensorThingsEntityServiceImpl<
         return fetchGraphs.toArray(new EntityGraphRepository.FetchGraph[0]);
     }
 
+    @Override
+    protected boolean isFetchedByGraph(ExpandItem expandItem) {
+        // Observations are always fetched separately
+        return !STAEntityDefinition.OBSERVATIONS.equals(expandItem.getPath()) && super.isFetchedByGraph(expandItem);
+    }
+
+    @Override
+    protected AbstractSensorThingsEntityServiceImpl<?, ?, ?> getExpandedService(String navigationProperty) {
+        switch (navigationProperty) {
+            case STAEntityDefinition.SENSOR:
+                return getSensorService();
+            case STAEntityDefinition.THING:
+                return getThingService();
+            case STAEntityDefinition.OBSERVED_PROPERTY:
+                return getObservedPropertyService();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Fetches expanded Observations of all Datastreams of the page with a single query instead of one query per
+     * Datastream.
+     */
+    @Override
+    protected Page<AbstractDatasetEntity> fetchExpandEntitiesWithFilter(Page<AbstractDatasetEntity> pages,
+                                                                        ExpandFilter expandOption) {
+        Map<Long, Set<DataEntity<?>>> observations = null;
+        if (pages.getNumberOfElements() > 1) {
+            for (ExpandItem expandItem : expandOption.getItems()) {
+                if (STAEntityDefinition.OBSERVATIONS.equals(expandItem.getPath())
+                    && !checkForFirstLastObservation(expandItem)) {
+                    try {
+                        observations = getObservationService().getEntityCollectionByDatastreamsRaw(
+                            pages.map(AbstractDatasetEntity::getId).getContent(),
+                            expandItem.getQueryOptions());
+                    } catch (STACRUDException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+        if (observations == null) {
+            return super.fetchExpandEntitiesWithFilter(pages, expandOption);
+        }
+        Map<Long, Set<DataEntity<?>>> expandedObservations = observations;
+        return pages.map(e -> {
+            try {
+                em.detach(e);
+                return fetchExpandEntitiesWithFilter(e, expandOption, expandedObservations);
+            } catch (STACRUDException | STAInvalidQueryException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+    }
+
     @Override
     protected AbstractDatasetEntity fetchExpandEntitiesWithFilter(AbstractDatasetEntity entity,
                                                                   ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
+        return fetchExpandEntitiesWithFilter(entity, expandOption, null);
+    }
+
+    private AbstractDatasetEntity fetchExpandEntitiesWithFilter(AbstractDatasetEntity entity,
+                                                                ExpandFilter expandOption,
+                                                                Map<Long, Set<DataEntity<?>>> expandedObservations)
+        throws STACRUDException, STAInvalidQueryException {
+        List<ExpandExecutor.Task> tasks = new ArrayList<>();
         for (ExpandItem expandItem : expandOption.getItems()) {
             String expandProperty = expandItem.getPath();
-            // We have already handled $expand without filter and expand
-            // Except for $expand on Observations
-            if (!(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())
-                && !expandProperty.equals(STAEntityDefinition.OBSERVATIONS)) {
+            // We have already handled $expand fetched by the Fetchgraph
+            if (isFetchedByGraph(expandItem)) {
                 continue;
             }
             switch (expandProperty) {
                 case STAEntityDefinition.SENSOR:
-                    entity.setProcedure(getSensorService().getEntityByIdRaw(entity.getProcedure().getId(),
-                                                                            expandItem.getQueryOptions()));
+                    tasks.add(() -> entity.setProcedure(initializeExpanded(
+                        getSensorService().getEntityByIdRaw(entity.getProcedure().getId(),
+                                                            expandItem.getQueryOptions()),
+                        expandItem.getQueryOptions())));
                     break;
                 case STAEntityDefinition.THING:
-                    entity.setThing(getThingService().getEntityByIdRaw(entity.getThing().getId(),
-                                                                       expandItem.getQueryOptions()));
+                    tasks.add(() -> entity.setThing(initializeExpanded(
+                        getThingService().getEntityByIdRaw(entity.getThing().getId(),
+                                                           expandItem.getQueryOptions()),
+                        expandItem.getQueryOptions())));
                     break;
                 case STAEntityDefinition.OBSERVED_PROPERTY:
-                    entity.setObservableProperty(getObservedPropertyService().getEntityByIdRaw(
-                        entity.getObservableProperty().getId(), expandItem.getQueryOptions()));
+                    tasks.add(() -> entity.setObservableProperty(initializeExpanded(
+                        getObservedPropertyService().getEntityByIdRaw(entity.getObservableProperty().getId(),
+                                                                      expandItem.getQueryOptions()),
+                        expandItem.getQueryOptions())));
                     break;
                 case STAEntityDefinition.OBSERVATIONS:
                     // Optimize Request when only First/Last Observation is requested as we have already fetched that.
@@ -222,11 +299,19 @@ public class DatastreamService extends AbstractSensorThingsEntityServiceImpl<
                             break;
                         }
                     }
-                    Page<DataEntity<?>> observations = getObservationService()
-                        .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
-                                                               STAEntityDefinition.DATASTREAMS,
-                                                               expandItem.getQueryOptions());
-                    entity.setObservations(observations.get().collect(Collectors.toSet()));
+                    // Already fetched for the whole page
+                    if (expandedObservations != null) {
+                        entity.setObservations(new LinkedHashSet<>(
+                            expandedObservations.getOrDefault(entity.getId(), Collections.emptySet())));
+                        break;
+                    }
+                    tasks.add(() -> {
+                        Page<DataEntity<?>> observations = getObservationService()
+                            .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
+                                                                   STAEntityDefinition.DATASTREAMS,
+                                                                   expandItem.getQueryOptions());
+                        entity.setObservations(initializeExpanded(observations, expandItem.getQueryOptions()));
+                    });
                     break;
                 default:
                     throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED,
@@ -234,6 +319,7 @@ public class DatastreamService extends AbstractSensorThingsEntityServiceImpl<
                                                                      StaConstants.DATASTREAM));
             }
         }
+        getExpandExecutor().execute(tasks);
         return entity;
     }
 
@@ -286,36 +372,31 @@ public class DatastreamService extends AbstractSensorThingsEntityServiceImpl<
             }
             check(datastream);
             if (datastream.getStaIdentifier() == null) {
-                String uuid = UUID.randomUUID().toString();
-                datastream.setIdentifier(uuid);
-                datastream.setStaIdentifier(uuid);
+                String generated = generateIdentifier();
+                datastream.setIdentifier(generated);
+                datastream.setStaIdentifier(generated);
             }
-            synchronized (getLock(datastream.getStaIdentifier())) {
-                if (getRepository().existsByStaIdentifier(datastream.getStaIdentifier())) {
-                    throw new STACRUDException("Identifier already exists!", HTTPStatus.CONFLICT);
-                }
-                datastream.setProcessed(true);
-                datastream.setOMObservationType(
-                    formatService.createOrFetchFormat(datastream.getOMObservationType()));
-                createOrfetchUnit(datastream);
-                datastream.setObservableProperty(
-                    getObservedPropertyService().createOrfetch(datastream.getObservableProperty()));
-                datastream.setProcedure(getSensorService().createOrfetch(datastream.getProcedure()));
-                datastream.setThing(getThingService().createOrfetch(datastream.getThing()));
-
-                DatasetEntity dataset = createandSaveDataset(datastream, null, datastream.getStaIdentifier());
-                if (datastream.getParameters() != null) {
-                    parameterRepository.saveAll(datastream.getParameters()
-                                                    .stream()
-                                                    .filter(t -> t instanceof DatasetParameterEntity)
-                                                    .map(t -> {
-                                                        ((DatasetParameterEntity) t).setDataset(dataset);
-                                                        return (DatasetParameterEntity) t;
-                                                    })
-                                                    .collect(Collectors.toSet()));
-                }
-                processObservation(dataset, entity.getObservations());
+            datastream.setProcessed(true);
+            datastream.setOMObservationType(
+                formatService.createOrFetchFormat(datastream.getOMObservationType()));
+            createOrfetchUnit(datastream);
+            datastream.setObservableProperty(
+                getObservedPropertyService().createOrfetch(datastream.getObservableProperty()));
+            datastream.setProcedure(getSensorService().createOrfetch(datastream.getProcedure()));
+            datastream.setThing(getThingService().createOrfetch(datastream.getThing()));
+
+            DatasetEntity dataset = createandSaveDataset(datastream, null, datastream.getStaIdentifier());
+            if (datastream.getParameters() != null) {
+                saveParameters(datastream.getParameters()
+                                   .stream()
+                                   .filter(t -> t instanceof DatasetParameterEntity)
+                                   .map(t -> {
+                                       ((DatasetParameterEntity) t).setDataset(dataset);
+                                       return (DatasetParameterEntity) t;
+                                   })
+                                   .collect(Collectors.toSet()));
             }
+            processObservation(dataset, entity.getObservations());
             return getRepository().findByStaIdentifier(entity.getStaIdentifier(),
                                                        EntityGraphRepository.FetchGraph.FETCHGRAPH_UOM,
                                                        EntityGraphRepository.FetchGraph.FETCHGRAPH_OM_OBS_TYPE)
@@ -513,7 +594,7 @@ public class DatastreamService extends AbstractSensorThingsEntityServiceImpl<
 
             DatasetAggregationEntity parent = new DatasetAggregationEntity();
             parent.copy(datastream);
-            parent.setIdentifier(UUID.randomUUID().toString());
+            parent.setIdentifier(generateIdentifier());
             parent.setFeature(null);
 
             // Free up staIdentifier
@@ -554,7 +635,7 @@ public class DatastreamService extends AbstractSensorThingsEntityServiceImpl<
                                                           .filter(p -> p instanceof BooleanParameterEntity)
                                                           .filter(p -> p.getName().equals("isMobile"))
                                                           .anyMatch(p -> ((ParameterEntity<Boolean>) p).getValue()));
-        dataset.setIdentifier(UUID.randomUUID().toString());
+        dataset.setIdentifier(generateIdentifier());
         dataset.setStaIdentifier(staIdentifier);
         dataset.setName(datastream.getName());
         dataset.setDescription(datastream.getDescription());
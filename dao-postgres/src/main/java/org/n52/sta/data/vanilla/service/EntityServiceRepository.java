@@ -36,6 +36,7 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -73,7 +74,7 @@ public class EntityServiceRepository implements EntityServiceFactory {
     private ServiceFacade.FeatureOfInterestServiceFacade featureOfInterestService;
 
     @Autowired
-    private STAEventHandler mqttSubscriptionEventHandler;
+    private List<STAEventHandler> eventHandlers;
 
     @PostConstruct
     public void postConstruct() {
@@ -101,7 +102,7 @@ public class EntityServiceRepository implements EntityServiceFactory {
         entityServices.put(EntityTypes.FeatureOfInterest, featureOfInterestService);
         entityServices.put(EntityTypes.FeaturesOfInterest, featureOfInterestService);
 
-        mqttSubscriptionEventHandler.setServiceRepository(this);
+        eventHandlers.forEach(handler -> handler.setServiceRepository(this));
     }
 
     @PostConstruct
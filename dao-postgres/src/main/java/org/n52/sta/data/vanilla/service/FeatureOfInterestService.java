@@ -78,7 +78,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
@@ -187,24 +186,10 @@ public class FeatureOfInterestService
             }
         }
         if (feature.getStaIdentifier() == null) {
-            if (getRepository().existsByName(feature.getName())) {
-                Iterable<AbstractFeatureEntity<?>> features =
-                    getRepository().findAll(foiQS.withName(feature.getName()));
-                AbstractFeatureEntity<?> f = alreadyExistsFeature(features, feature);
-                if (f != null) {
-                    return f;
-                } else {
-                    // Autogenerate Identifier
-                    String uuid = UUID.randomUUID().toString();
-                    feature.setIdentifier(uuid);
-                    feature.setStaIdentifier(uuid);
-                }
-            } else {
-                // Autogenerate Identifier
-                String uuid = UUID.randomUUID().toString();
-                feature.setIdentifier(uuid);
-                feature.setStaIdentifier(uuid);
-            }
+            // Autogenerate Identifier
+            String generated = generateIdentifier();
+            feature.setIdentifier(generated);
+            feature.setStaIdentifier(generated);
         }
         synchronized (getLock(feature.getStaIdentifier())) {
             // Check whether feature exists by sta and sos identifier
@@ -233,14 +218,14 @@ public class FeatureOfInterestService
                 checkFeatureType(feature);
                 AbstractFeatureEntity<?> intermediateSave = getRepository().intermediateSave(feature);
                 if (feature.getParameters() != null) {
-                    parameterRepository.saveAll(feature.getParameters()
-                                                    .stream()
-                                                    .filter(t -> t instanceof FeatureParameterEntity)
-                                                    .map(t -> {
-                                                        ((FeatureParameterEntity) t).setFeature(intermediateSave);
-                                                        return (FeatureParameterEntity) t;
-                                                    })
-                                                    .collect(Collectors.toSet()));
+                    saveParameters(feature.getParameters()
+                                       .stream()
+                                       .filter(t -> t instanceof FeatureParameterEntity)
+                                       .map(t -> {
+                                           ((FeatureParameterEntity) t).setFeature(intermediateSave);
+                                           return (FeatureParameterEntity) t;
+                                       })
+                                       .collect(Collectors.toSet()));
                 }
                 return getRepository().save(feature);
             }
@@ -329,17 +314,6 @@ public class FeatureOfInterestService
         }
     }
 
-    private AbstractFeatureEntity<?> alreadyExistsFeature(Iterable<AbstractFeatureEntity<?>> features,
-                                                          AbstractFeatureEntity<?> feature) {
-        for (AbstractFeatureEntity<?> f : features) {
-            if (f.isSetGeometry() && feature.isSetGeometry() && f.getGeometry().equals(feature.getGeometry())
-                && f.getDescription().equals(feature.getDescription())) {
-                return f;
-            }
-        }
-        return null;
-    }
-
     private void deleteRelatedObservationsAndUpdateDatasets(String featureId) throws STACRUDException {
         // set dataset first/last to null
         synchronized (getLock(featureId)) {
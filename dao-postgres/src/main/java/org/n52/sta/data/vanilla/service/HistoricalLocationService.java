@@ -40,6 +40,7 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.api.dto.HistoricalLocationDTO;
+import org.n52.sta.data.vanilla.ExpandExecutor;
 import org.n52.sta.data.vanilla.query.HistoricalLocationQuerySpecifications;
 import org.n52.sta.data.vanilla.repositories.EntityGraphRepository;
 import org.n52.sta.data.vanilla.repositories.HistoricalLocationRepository;
@@ -55,11 +56,12 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
@@ -92,14 +94,15 @@ public class HistoricalLocationService
         Set<EntityGraphRepository.FetchGraph> fetchGraphs = new HashSet<>(6);
         if (expandOption != null) {
             for (ExpandItem expandItem : expandOption.getItems()) {
-                // We cannot handle nested $filter or $expand
-                if (expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter()) {
+                // Items with nested $filter are fetched separately
+                if (!isFetchedByGraph(expandItem)) {
                     continue;
                 }
                 String expandProperty = expandItem.getPath();
                 switch (expandProperty) {
                     case STAEntityDefinition.LOCATIONS:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_LOCATIONS);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_LOCATIONS, expandItem));
                         break;
                     case STAEntityDefinition.THING:
                         // fallthru
@@ -107,7 +110,8 @@ public class HistoricalLocationService
                         // The Definition in Section 8.2.3 of the OGC STA v1.0 defines the relations as "Thing"
                         // We will allow both for now
                     case STAEntityDefinition.THINGS:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_PLATFORM);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_PLATFORM, expandItem));
                         break;
                     default:
                         throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED,
@@ -119,23 +123,39 @@ public class HistoricalLocationService
         return fetchGraphs.toArray(new EntityGraphRepository.FetchGraph[0]);
     }
 
+    @Override
+    protected AbstractSensorThingsEntityServiceImpl<?, ?, ?> getExpandedService(String navigationProperty) {
+        switch (navigationProperty) {
+            case STAEntityDefinition.LOCATIONS:
+                return getLocationService();
+            case STAEntityDefinition.THING:
+            case STAEntityDefinition.THINGS:
+                return getThingService();
+            default:
+                return null;
+        }
+    }
+
     @Override
     protected HistoricalLocationEntity fetchExpandEntitiesWithFilter(HistoricalLocationEntity entity,
                                                                      ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
+        List<ExpandExecutor.Task> tasks = new ArrayList<>();
         for (ExpandItem expandItem : expandOption.getItems()) {
-            // We have already handled $expand without filter and expand
-            if (!(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())) {
+            // We have already handled $expand fetched by the Fetchgraph
+            if (isFetchedByGraph(expandItem)) {
                 continue;
             }
             String expandProperty = expandItem.getPath();
             switch (expandProperty) {
                 case STAEntityDefinition.LOCATIONS:
-                    Page<LocationEntity> locations = getLocationService()
-                        .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
-                                                               STAEntityDefinition.HISTORICAL_LOCATIONS,
-                                                               expandItem.getQueryOptions());
-                    entity.setLocations(locations.get().collect(Collectors.toSet()));
+                    tasks.add(() -> {
+                        Page<LocationEntity> locations = getLocationService()
+                            .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
+                                                                   STAEntityDefinition.HISTORICAL_LOCATIONS,
+                                                                   expandItem.getQueryOptions());
+                        entity.setLocations(initializeExpanded(locations, expandItem.getQueryOptions()));
+                    });
                     break;
                 case STAEntityDefinition.THING:
                     // fallthru
@@ -143,8 +163,9 @@ public class HistoricalLocationService
                     // The Definition in Section 8.2.3 of the OGC STA v1.0 defines the relations as "Thing"
                     // We will allow both for now
                 case STAEntityDefinition.THINGS:
-                    entity.setThing(getThingService()
-                                        .getEntityByIdRaw(entity.getThing().getId(), expandItem.getQueryOptions()));
+                    tasks.add(() -> entity.setThing(initializeExpanded(
+                        getThingService().getEntityByIdRaw(entity.getThing().getId(), expandItem.getQueryOptions()),
+                        expandItem.getQueryOptions())));
                     break;
                 default:
                     throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED,
@@ -152,6 +173,7 @@ public class HistoricalLocationService
                                                                      StaConstants.HISTORICAL_LOCATION));
             }
         }
+        getExpandExecutor().execute(tasks);
         return entity;
     }
 
@@ -182,6 +204,12 @@ public class HistoricalLocationService
     @Override
     public HistoricalLocationEntity createOrfetch(HistoricalLocationEntity historicalLocation)
         throws STACRUDException {
+        if (historicalLocation.getStaIdentifier() == null) {
+            // Autogenerate Identifier
+            String generated = generateIdentifier();
+            historicalLocation.setIdentifier(generated);
+            historicalLocation.setStaIdentifier(generated);
+        }
         synchronized (getLock(historicalLocation.getStaIdentifier())) {
             if (!historicalLocation.isProcessed()) {
                 check(historicalLocation);
@@ -44,6 +44,7 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.api.dto.LocationDTO;
+import org.n52.sta.data.vanilla.ExpandExecutor;
 import org.n52.sta.data.vanilla.query.LocationQuerySpecifications;
 import org.n52.sta.data.vanilla.repositories.EntityGraphRepository;
 import org.n52.sta.data.vanilla.repositories.LocationEncodingRepository;
@@ -63,11 +64,12 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
@@ -110,17 +112,19 @@ public class LocationService
         fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS);
         if (expandOption != null) {
             for (ExpandItem expandItem : expandOption.getItems()) {
-                // We cannot handle nested $filter or $expand
-                if (expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter()) {
+                // Items with nested $filter are fetched separately
+                if (!isFetchedByGraph(expandItem)) {
                     continue;
                 }
                 String expandProperty = expandItem.getPath();
                 switch (expandProperty) {
                     case STAEntityDefinition.HISTORICAL_LOCATIONS:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_HIST_LOCATIONS);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_HIST_LOCATIONS, expandItem));
                         break;
                     case STAEntityDefinition.THINGS:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_PLATFORMS);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_PLATFORMS, expandItem));
                         break;
                     default:
                         throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED, expandProperty,
@@ -131,35 +135,53 @@ public class LocationService
         return fetchGraphs.toArray(new EntityGraphRepository.FetchGraph[0]);
     }
 
+    @Override
+    protected AbstractSensorThingsEntityServiceImpl<?, ?, ?> getExpandedService(String navigationProperty) {
+        switch (navigationProperty) {
+            case STAEntityDefinition.HISTORICAL_LOCATIONS:
+                return getHistoricalLocationService();
+            case STAEntityDefinition.THINGS:
+                return getThingService();
+            default:
+                return null;
+        }
+    }
+
     @Override
     protected LocationEntity fetchExpandEntitiesWithFilter(LocationEntity entity, ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
+        List<ExpandExecutor.Task> tasks = new ArrayList<>();
         for (ExpandItem expandItem : expandOption.getItems()) {
-            // We have already handled $expand without filter and expand
-            if (!(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())) {
+            // We have already handled $expand fetched by the Fetchgraph
+            if (isFetchedByGraph(expandItem)) {
                 continue;
             }
             String expandProperty = expandItem.getPath();
             switch (expandProperty) {
                 case STAEntityDefinition.HISTORICAL_LOCATIONS:
-                    Page<HistoricalLocationEntity> hLocs = getHistoricalLocationService()
-                        .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
-                                                               STAEntityDefinition.LOCATIONS,
-                                                               expandItem.getQueryOptions());
-                    entity.setHistoricalLocations(hLocs.get().collect(Collectors.toSet()));
+                    tasks.add(() -> {
+                        Page<HistoricalLocationEntity> hLocs = getHistoricalLocationService()
+                            .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
+                                                                   STAEntityDefinition.LOCATIONS,
+                                                                   expandItem.getQueryOptions());
+                        entity.setHistoricalLocations(initializeExpanded(hLocs, expandItem.getQueryOptions()));
+                    });
                     break;
                 case STAEntityDefinition.THINGS:
-                    Page<PlatformEntity> things =
-                        getThingService().getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
-                                                                                STAEntityDefinition.LOCATIONS,
-                                                                                expandItem.getQueryOptions());
-                    entity.setThings(things.get().collect(Collectors.toSet()));
+                    tasks.add(() -> {
+                        Page<PlatformEntity> things =
+                            getThingService().getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
+                                                                                    STAEntityDefinition.LOCATIONS,
+                                                                                    expandItem.getQueryOptions());
+                        entity.setThings(initializeExpanded(things, expandItem.getQueryOptions()));
+                    });
                     break;
                 default:
                     throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED, expandProperty,
                                                                      StaConstants.LOCATION));
             }
         }
+        getExpandExecutor().execute(tasks);
         return entity;
     }
 
@@ -201,36 +223,26 @@ public class LocationService
                 }
             }
             if (location.getStaIdentifier() == null) {
-                if (getRepository().existsByName(location.getName())) {
-                    Optional<LocationEntity> optional = getRepository().findByName(location.getName());
-                    return optional.orElse(null);
-                } else {
-                    // Autogenerate Identifier
-                    String uuid = UUID.randomUUID().toString();
-                    location.setIdentifier(uuid);
-                    location.setStaIdentifier(uuid);
-                }
+                // Autogenerate Identifier
+                String generated = generateIdentifier();
+                location.setIdentifier(generated);
+                location.setStaIdentifier(generated);
             }
-            synchronized (getLock(location.getStaIdentifier())) {
-                if (getRepository().existsByStaIdentifier(location.getStaIdentifier())) {
-                    throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
-                }
-                location.setProcessed(true);
-                checkLocationEncoding(location);
-                LocationEntity intermediateSave = getRepository().intermediateSave(location);
-                if (location.getParameters() != null) {
-                    parameterRepository.saveAll(location.getParameters()
-                                                    .stream()
-                                                    .filter(t -> t instanceof LocationParameterEntity)
-                                                    .map(t -> {
-                                                        ((LocationParameterEntity) t).setLocation(intermediateSave);
-                                                        return (LocationParameterEntity) t;
-                                                    })
-                                                    .collect(Collectors.toSet()));
-                }
-                location = getRepository().save(location);
-                processThings(location);
+            location.setProcessed(true);
+            checkLocationEncoding(location);
+            LocationEntity intermediateSave = getRepository().intermediateSave(location);
+            if (location.getParameters() != null) {
+                saveParameters(location.getParameters()
+                                   .stream()
+                                   .filter(t -> t instanceof LocationParameterEntity)
+                                   .map(t -> {
+                                       ((LocationParameterEntity) t).setLocation(intermediateSave);
+                                       return (LocationParameterEntity) t;
+                                   })
+                                   .collect(Collectors.toSet()));
             }
+            location = getRepository().save(location);
+            processThings(location);
         }
         return location;
     }
@@ -30,6 +30,10 @@
 package org.n52.sta.data.vanilla.service;
 
 import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.metamodel.spi.MetamodelImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
 import org.hibernate.query.criteria.internal.CriteriaBuilderImpl;
 import org.n52.janmayen.http.HTTPStatus;
 import org.n52.series.db.beans.AbstractDatasetEntity;
@@ -41,6 +45,7 @@ import org.n52.series.db.beans.CountDataEntity;
 import org.n52.series.db.beans.DataEntity;
 import org.n52.series.db.beans.DatasetAggregationEntity;
 import org.n52.series.db.beans.DatasetEntity;
+import org.n52.series.db.beans.IdEntity;
 import org.n52.series.db.beans.QuantityDataEntity;
 import org.n52.series.db.beans.TextDataEntity;
 import org.n52.series.db.beans.parameter.observation.ObservationParameterEntity;
@@ -56,6 +61,9 @@ import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.api.CollectionWrapper;
 import org.n52.sta.api.dto.ObservationDTO;
+import org.n52.sta.data.vanilla.EntityCounter;
+import org.n52.sta.data.vanilla.ExpandExecutor;
+import org.n52.sta.data.vanilla.ObservationReader;
 import org.n52.sta.data.vanilla.OffsetLimitBasedPageRequest;
 import org.n52.sta.data.vanilla.query.ObservationQuerySpecifications;
 import org.n52.sta.data.vanilla.repositories.DatastreamRepository;
@@ -71,6 +79,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Component;
@@ -79,12 +89,19 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.Predicate;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -98,15 +115,20 @@ public class ObservationService
 
     private static final ObservationQuerySpecifications oQS = new ObservationQuerySpecifications();
     private static final Logger LOGGER = LoggerFactory.getLogger(ObservationService.class);
+    private static final Pattern COLUMN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
     protected final DatastreamRepository datastreamRepository;
     protected final ObservationParameterRepository parameterRepository;
     private final String OBS_TYPE_SENSORML_OBSERVATION =
         "http://www.52north.org/def/observationType/OGC-OM/2.0/OM_SensorML20Observation";
     private final Class entityClass;
+    private final EntityManager em;
+    @Autowired private EntityCounter entityCounter;
+    @Autowired private ObservationReader observationReader;
 
     public ObservationService() {
         super();
         this.entityClass = null;
+        this.em = null;
         this.datastreamRepository = null;
         this.parameterRepository = null;
     }
@@ -118,53 +140,48 @@ public class ObservationService
                               ObservationParameterRepository parameterRepository) {
         super(repository, em, DataEntity.class);
         this.entityClass = DataEntity.class;
+        this.em = em;
         this.datastreamRepository = datastreamRepository;
         this.parameterRepository = parameterRepository;
     }
 
     @Override
+    @Transactional(readOnly = true)
     public CollectionWrapper getEntityCollection(QueryOptions queryOptions) throws STACRUDException {
         try {
             OffsetLimitBasedPageRequest pageableRequest = createPageableRequest(queryOptions);
             Specification<DataEntity<?>> spec = getFilterPredicate(DataEntity.class, queryOptions);
+            EntityCounter.Count count = startCount(queryOptions, spec, null, null);
             List<String> identifierList = getRepository()
                 .getColumnList(spec,
                                pageableRequest,
                                STAIDENTIFIER);
-            if (identifierList.isEmpty()) {
-                return new CollectionWrapper(-1, Collections.emptyList(), false);
-            } else {
-                return getEntityCollectionWrapperByIdentifierList(identifierList, pageableRequest, queryOptions, spec);
-            }
+            return getEntityCollectionWrapperByIdentifierList(identifierList, pageableRequest, queryOptions, count);
         } catch (RuntimeException e) {
             throw new STACRUDException(e.getMessage(), e);
         }
     }
-    /*
-    @Override public CollectionWrapper getEntityCollectionByRelatedEntity(String relatedId,
-                                                                          String relatedType,
-                                                                          QueryOptions queryOptions)
-        throws STACRUDException {
 
+    @Override
+    @Transactional(readOnly = true)
+    public CollectionWrapper getEntityCollectionByRelatedEntity(String relatedId,
+                                                                String relatedType,
+                                                                QueryOptions queryOptions)
+        throws STACRUDException {
         try {
             OffsetLimitBasedPageRequest pageableRequest = createPageableRequest(queryOptions);
             Specification<DataEntity<?>> spec =
                 byRelatedEntityFilter(relatedId, relatedType, null)
-                    .and(getFilterPredicate(entityClass, queryOptions));
-
+                    .and(getFilterPredicate(DataEntity.class, queryOptions));
+            EntityCounter.Count count = startCount(queryOptions, spec, relatedId, relatedType);
             List<String> identifierList = getRepository().getColumnList(spec,
-                                                                        createPageableRequest(queryOptions),
+                                                                        pageableRequest,
                                                                         STAIDENTIFIER);
-            if (identifierList.isEmpty()) {
-                return new CollectionWrapper(-1, Collections.emptyList(), false);
-            } else {
-                return getEntityCollectionWrapperByIdentifierList(identifierList, pageableRequest, queryOptions, spec);
-            }
+            return getEntityCollectionWrapperByIdentifierList(identifierList, pageableRequest, queryOptions, count);
         } catch (RuntimeException e) {
             throw new STACRUDException(e.getMessage(), e);
         }
     }
-     */
 
     @Override
     public DataEntity<?> getEntityByIdRaw(Long id, QueryOptions queryOptions) throws STACRUDException {
@@ -227,6 +244,115 @@ public class ObservationService
         }
     }
 
+    /**
+     * Fetches the Observations of multiple Datastreams with a single query. $top, $skip and $orderby are applied to
+     * each Datastream individually using a window function partitioned by Datastream. Observations of the
+     * sub-datasets of aggregations are included in the Observations of the aggregation.
+     *
+     * @param datastreamIds database ids of the Datastreams
+     * @param queryOptions  query options of the expanded Observations
+     * @return Observations per Datastream id or null if the query options are not supported by this query
+     * @throws STACRUDException if an error occurred
+     */
+    public Map<Long, Set<DataEntity<?>>> getEntityCollectionByDatastreamsRaw(Collection<Long> datastreamIds,
+                                                                              QueryOptions queryOptions)
+        throws STACRUDException {
+        if (queryOptions.hasFilterFilter()) {
+            return null;
+        }
+        String sql = createTopPerDatastreamQuery(queryOptions);
+        if (sql == null) {
+            return null;
+        }
+        Map<Long, Set<DataEntity<?>>> result = new LinkedHashMap<>();
+        if (datastreamIds.isEmpty()) {
+            return result;
+        }
+        try {
+            long skip = queryOptions.hasSkipFilter() ? queryOptions.getSkipFilter().getValue() : 0;
+            List<?> rows = em.createNativeQuery(sql)
+                .setParameter("ids", datastreamIds)
+                .setParameter("skip", skip)
+                .setParameter("limit", skip + queryOptions.getTopFilter().getValue())
+                .getResultList();
+            Set<Long> ids = rows.stream()
+                .map(row -> ((Number) ((Object[]) row)[0]).longValue())
+                .collect(Collectors.toSet());
+            Map<Long, DataEntity<?>> observations = new HashMap<>();
+            if (!ids.isEmpty()) {
+                for (DataEntity<?> observation : getRepository().findAll(
+                    (root, query, builder) -> root.get(IdEntity.PROPERTY_ID).in(ids),
+                    EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS)) {
+                    Hibernate.initialize(observation);
+                    fetchValueIfCompositeDataEntity(observation);
+                    if (queryOptions.hasExpandFilter()) {
+                        observation = fetchExpandEntitiesWithFilter((DataEntity<?>) Hibernate.unproxy(observation),
+                                                                    queryOptions.getExpandFilter());
+                    }
+                    observations.put(observation.getId(), observation);
+                }
+            }
+            // Rows are ordered by Datastream and position within the Datastream
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                DataEntity<?> observation = observations.get(((Number) columns[0]).longValue());
+                if (observation != null) {
+                    result.computeIfAbsent(((Number) columns[1]).longValue(), k -> new LinkedHashSet<>())
+                        .add(observation);
+                }
+            }
+            return result;
+        } catch (RuntimeException | STAInvalidQueryException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates the query selecting the ids of the Observations of each Datastream in the requested page. Column names
+     * are taken from the Hibernate mapping.
+     *
+     * @return query or null if a sort property cannot be mapped to a column
+     */
+    private String createTopPerDatastreamQuery(QueryOptions queryOptions) {
+        try {
+            MetamodelImplementor metamodel = em.getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class)
+                .getMetamodel();
+            AbstractEntityPersister observations =
+                (AbstractEntityPersister) metamodel.entityPersister(DataEntity.class);
+            AbstractEntityPersister datasets =
+                (AbstractEntityPersister) metamodel.entityPersister(DatasetEntity.class);
+            String id = observations.getIdentifierColumnNames()[0];
+            String datasetId = datasets.getIdentifierColumnNames()[0];
+            String aggregation = datasets.toColumns(DatasetEntity.PROPERTY_AGGREGATION)[0];
+
+            StringBuilder orderBy = new StringBuilder();
+            for (Sort.Order order : createPageableRequest(queryOptions).getSort()) {
+                for (String column : observations.toColumns(order.getProperty())) {
+                    if (!COLUMN.matcher(column).matches()) {
+                        return null;
+                    }
+                    orderBy.append("o.").append(column).append(order.isAscending() ? " ASC, " : " DESC, ");
+                }
+            }
+            orderBy.append("o.").append(id);
+
+            String datastream = "CASE WHEN d." + aggregation + " IN (:ids) THEN d." + aggregation
+                + " ELSE d." + datasetId + " END";
+            return "SELECT t.id, t.datastream FROM ("
+                + "SELECT o." + id + " AS id, " + datastream + " AS datastream, "
+                + "ROW_NUMBER() OVER (PARTITION BY " + datastream + " ORDER BY " + orderBy + ") AS rn"
+                + " FROM " + observations.getTableName() + " o"
+                + " JOIN " + datasets.getTableName() + " d"
+                + " ON o." + observations.toColumns(DataEntity.PROPERTY_DATASET)[0] + " = d." + datasetId
+                + " WHERE d." + datasetId + " IN (:ids) OR d." + aggregation + " IN (:ids)"
+                + ") t WHERE t.rn > :skip AND t.rn <= :limit ORDER BY t.datastream, t.rn";
+        } catch (HibernateException | ClassCastException e) {
+            LOGGER.debug("Could not create query for Observations of multiple Datastreams: {}", e.getMessage());
+            return null;
+        }
+    }
+
     @Override protected EntityGraphRepository.FetchGraph[] createFetchGraph(ExpandFilter expandOption) {
         return new EntityGraphRepository.FetchGraph[] {
             EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS,
@@ -237,18 +363,25 @@ public class ObservationService
     protected DataEntity<?> fetchExpandEntitiesWithFilter(DataEntity<?> returned,
                                                           ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
+        List<ExpandExecutor.Task> tasks = new ArrayList<>();
+        // Both items are looked up by the id of the Datastream, which must not change while they are fetched
+        Long datasetId = returned.getDataset().getId();
         for (ExpandItem expandItem : expandOption.getItems()) {
             String expandProperty = expandItem.getPath();
             switch (expandProperty) {
                 case STAEntityDefinition.DATASTREAM:
-                    DatasetEntity datastream = (DatasetEntity) getDatastreamService()
-                        .getEntityByIdRaw(returned.getDataset().getId(), expandItem.getQueryOptions());
-                    returned.setDataset(datastream);
+                    tasks.add(() -> {
+                        DatasetEntity datastream = (DatasetEntity) getDatastreamService()
+                            .getEntityByIdRaw(datasetId, expandItem.getQueryOptions());
+                        returned.setDataset(initializeExpanded(datastream, expandItem.getQueryOptions()));
+                    });
                     break;
                 case STAEntityDefinition.FEATURE_OF_INTEREST:
-                    AbstractFeatureEntity<?> foi = getFeatureOfInterestService()
-                        .getEntityByDatasetIdRaw(returned.getDataset().getId(), expandItem.getQueryOptions());
-                    returned.setFeature(foi);
+                    tasks.add(() -> {
+                        AbstractFeatureEntity<?> foi = getFeatureOfInterestService()
+                            .getEntityByDatasetIdRaw(datasetId, expandItem.getQueryOptions());
+                        returned.setFeature(initializeExpanded(foi, expandItem.getQueryOptions()));
+                    });
                     break;
                 default:
                     throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED,
@@ -256,6 +389,7 @@ public class ObservationService
                                                                      StaConstants.OBSERVATIONS));
             }
         }
+        getExpandExecutor().execute(tasks);
         return returned;
     }
 
@@ -284,81 +418,79 @@ public class ObservationService
 
     @Override
     public DataEntity<?> createOrfetch(DataEntity<?> entity) throws STACRUDException {
-        synchronized (getLock(entity.getStaIdentifier())) {
-            DataEntity<?> observation = entity;
-            if (!observation.isProcessed()) {
-                observation.setProcessed(true);
-                check(observation);
-
-                // Fetch dataset and check if FOI matches to reuse existing dataset
-                AbstractDatasetEntity datastream = datastreamRepository
-                    .findByStaIdentifier(entity.getDataset().getStaIdentifier(),
-                                         EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURE)
-                    .orElseThrow(() -> new STACRUDException("Unable to find Datastream!"));
-                AbstractFeatureEntity<?> feature = createOrfetchFeature(observation, datastream.getPlatform().getId());
-
-                // Check all subdatasets for a matching  dataset
-                Set<DatasetEntity> datasets;
-                if (datastream.getAggregation() == null && !(datastream instanceof DatasetAggregationEntity)) {
-                    // We are not an aggregate so there is only one dataset to check for fit
-                    datasets = Collections.singleton((DatasetEntity) datastream);
-                } else {
-                    datasets = datastreamRepository.findAllByAggregationId(datastream.getId())
-                        .stream()
-                        .map(d -> (DatasetEntity) d)
-                        .collect(Collectors.toSet());
-                }
+        DataEntity<?> observation = entity;
+        if (!observation.isProcessed()) {
+            observation.setProcessed(true);
+            check(observation);
 
-                // Check all datasets for a matching FOI
-                boolean found = false;
-                for (DatasetEntity dataset : datasets) {
-                    if (!dataset.hasFeature()) {
-                        // We have a dataset without a feature
-                        LOGGER.debug("Reusing existing dataset without FOI.");
-                        dataset.setFeature(feature);
-                        observation.setDataset(datastreamRepository.save(dataset));
-                        found = true;
-                        break;
-                    } else if (feature.getId().equals(dataset.getFeature().getId())) {
-                        // We have a dataset with a matching feature
-                        observation.setDataset(dataset);
-                        LOGGER.debug("Reusing existing dataset with matching FOI.");
-                        found = true;
-                        break;
-                    }
-                }
+            // Fetch dataset and check if FOI matches to reuse existing dataset
+            AbstractDatasetEntity datastream = datastreamRepository
+                .findByStaIdentifier(entity.getDataset().getStaIdentifier(),
+                                     EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURE)
+                .orElseThrow(() -> new STACRUDException("Unable to find Datastream!"));
+            AbstractFeatureEntity<?> feature = createOrfetchFeature(observation, datastream.getPlatform().getId());
 
-                if (!found) {
-                    // We have not found a matching dataset so we need to create a new one
-                    LOGGER.debug("Creating new dataset as none with matching FOI exists");
-                    observation.setDataset(getDatastreamService().createOrExpandAggregation(datastream, feature));
-                }
+            // Check all subdatasets for a matching  dataset
+            Set<DatasetEntity> datasets;
+            if (datastream.getAggregation() == null && !(datastream instanceof DatasetAggregationEntity)) {
+                // We are not an aggregate so there is only one dataset to check for fit
+                datasets = Collections.singleton((DatasetEntity) datastream);
+            } else {
+                datasets = datastreamRepository.findAllByAggregationId(datastream.getId())
+                    .stream()
+                    .map(d -> (DatasetEntity) d)
+                    .collect(Collectors.toSet());
+            }
 
-                // Save Observation
-                DataEntity<?> data = saveObservation(observation, observation.getDataset());
-
-                // Save parameters
-                if (observation.getParameters() != null) {
-                    parameterRepository.saveAll(
-                        observation
-                            .getParameters()
-                            .stream()
-                            .filter(o -> o instanceof ObservationParameterEntity)
-                            .map(o -> {
-                                ((ObservationParameterEntity<?>) o).setObservation(data);
-                                return (ObservationParameterEntity) o;
-                            })
-                            .collect(Collectors.toSet())
-                    );
-                    data.setParameters(observation.getParameters());
+            // Check all datasets for a matching FOI
+            boolean found = false;
+            for (DatasetEntity dataset : datasets) {
+                if (!dataset.hasFeature()) {
+                    // We have a dataset without a feature
+                    LOGGER.debug("Reusing existing dataset without FOI.");
+                    dataset.setFeature(feature);
+                    observation.setDataset(datastreamRepository.save(dataset));
+                    found = true;
+                    break;
+                } else if (feature.getId().equals(dataset.getFeature().getId())) {
+                    // We have a dataset with a matching feature
+                    observation.setDataset(dataset);
+                    LOGGER.debug("Reusing existing dataset with matching FOI.");
+                    found = true;
+                    break;
                 }
+            }
+
+            if (!found) {
+                // We have not found a matching dataset so we need to create a new one
+                LOGGER.debug("Creating new dataset as none with matching FOI exists");
+                observation.setDataset(getDatastreamService().createOrExpandAggregation(datastream, feature));
+            }
 
-                // Update FirstValue/LastValue + FirstObservation/LastObservation of Dataset + Aggregation
-                updateDataset(observation.getDataset(), data);
-                return data;
+            // Save Observation
+            DataEntity<?> data = saveObservation(observation, observation.getDataset());
+
+            // Save parameters
+            if (observation.getParameters() != null) {
+                saveParameters(
+                    observation
+                        .getParameters()
+                        .stream()
+                        .filter(o -> o instanceof ObservationParameterEntity)
+                        .map(o -> {
+                            ((ObservationParameterEntity<?>) o).setObservation(data);
+                            return (ObservationParameterEntity) o;
+                        })
+                        .collect(Collectors.toSet())
+                );
+                data.setParameters(observation.getParameters());
             }
-            return observation;
+
+            // Update FirstValue/LastValue + FirstObservation/LastObservation of Dataset + Aggregation
+            updateDataset(observation.getDataset(), data);
+            return data;
         }
+        return observation;
     }
 
     @Override
@@ -465,7 +597,7 @@ public class ObservationService
             }
         }
         // value
-        if (toMerge.getValueText() != null) {
+        if (toMerge.getValue() != null) {
             checkValue(existing, toMerge);
         }
         return existing;
@@ -521,34 +653,31 @@ public class ObservationService
         throws STACRUDException {
         DataEntity data = null;
         Object value = observation.getValue();
-        switch (dataset.getOMObservationType().getFormat()) {
+        String observationType = dataset.getOMObservationType().getFormat();
+        switch (observationType) {
             case OmConstants.OBS_TYPE_MEASUREMENT:
                 QuantityDataEntity quantityObservationEntity = new QuantityDataEntity();
-                if (value.equals("NaN") || value.equals("Inf") || value.equals("-Inf")) {
-                    quantityObservationEntity.setValue(null);
-                } else {
-                    quantityObservationEntity.setValue(BigDecimal.valueOf(Double.parseDouble((String) value)));
-                }
+                quantityObservationEntity.setValue(toQuantity(value, observationType));
                 data = quantityObservationEntity;
                 break;
             case OmConstants.OBS_TYPE_CATEGORY_OBSERVATION:
                 CategoryDataEntity categoryObservationEntity = new CategoryDataEntity();
-                categoryObservationEntity.setValue((String) value);
+                categoryObservationEntity.setValue(toText(value));
                 data = categoryObservationEntity;
                 break;
             case OmConstants.OBS_TYPE_COUNT_OBSERVATION:
                 CountDataEntity countObservationEntity = new CountDataEntity();
-                countObservationEntity.setValue(Integer.parseInt((String) value));
+                countObservationEntity.setValue(toCount(value, observationType));
                 data = countObservationEntity;
                 break;
             case OmConstants.OBS_TYPE_TEXT_OBSERVATION:
                 TextDataEntity textObservationEntity = new TextDataEntity();
-                textObservationEntity.setValue((String) value);
+                textObservationEntity.setValue(toText(value));
                 data = textObservationEntity;
                 break;
             case OmConstants.OBS_TYPE_TRUTH_OBSERVATION:
                 BooleanDataEntity booleanObservationEntity = new BooleanDataEntity();
-                booleanObservationEntity.setValue(Boolean.parseBoolean((String) value));
+                booleanObservationEntity.setValue(toBoolean(value, observationType));
                 data = booleanObservationEntity;
                 break;
             //            case OBS_TYPE_SENSORML_OBSERVATION:
@@ -563,18 +692,115 @@ public class ObservationService
         return fillConcreteObservationType(data, observation, dataset);
     }
 
+    /*
+     * Values are typed according to the JSON token they were parsed from (see DTOTransformer). Strings are accepted
+     * for all types for compatibility with clients sending results as text.
+     */
+
+    private BigDecimal toQuantity(Object value, String observationType) throws STACRUDException {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof Integer) {
+            return BigDecimal.valueOf((Integer) value);
+        } else if (value instanceof String) {
+            String text = (String) value;
+            if (text.equals("NaN") || text.equals("Inf") || text.equals("-Inf")) {
+                return null;
+            }
+            try {
+                return new BigDecimal(text.trim());
+            } catch (NumberFormatException e) {
+                throw invalidResult(value, observationType);
+            }
+        }
+        throw invalidResult(value, observationType);
+    }
+
+    private Integer toCount(Object value, String observationType) throws STACRUDException {
+        try {
+            if (value instanceof Integer) {
+                return (Integer) value;
+            } else if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).intValueExact();
+            } else if (value instanceof String) {
+                return Integer.valueOf(((String) value).trim());
+            }
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw invalidResult(value, observationType);
+        }
+        throw invalidResult(value, observationType);
+    }
+
+    private Boolean toBoolean(Object value, String observationType) throws STACRUDException {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if ("true".equalsIgnoreCase(String.valueOf(value))) {
+            return Boolean.TRUE;
+        } else if ("false".equalsIgnoreCase(String.valueOf(value))) {
+            return Boolean.FALSE;
+        }
+        throw invalidResult(value, observationType);
+    }
+
+    private String toText(Object value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private STACRUDException invalidResult(Object value, String observationType) {
+        return new STACRUDException(String.format("Result %s does not match observationType %s",
+                                                  value,
+                                                  observationType),
+                                    HTTPStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Starts counting the Entities matching given specification if requested by $count. Unfiltered collections may
+     * be estimated, see {@link EntityCounter}.
+     *
+     * @return count or null if no count was requested
+     */
+    private EntityCounter.Count startCount(QueryOptions queryOptions,
+                                           Specification<DataEntity<?>> spec,
+                                           String relatedId,
+                                           String relatedType) {
+        if (!queryOptions.hasCountFilter() || !queryOptions.getCountFilter().getValue()) {
+            return null;
+        }
+        Callable<Long> exact = () -> getRepository().count(spec);
+        if (!queryOptions.hasFilterFilter()) {
+            if (relatedId == null) {
+                return entityCounter.estimate(DataEntity.class, exact);
+            } else if (STAEntityDefinition.DATASTREAMS.equals(relatedType)) {
+                return entityCounter.estimateByDatastream(relatedId, exact);
+            }
+        }
+        return entityCounter.count(exact);
+    }
+
     private CollectionWrapper getEntityCollectionWrapperByIdentifierList(List<String> identifierList,
                                                                          OffsetLimitBasedPageRequest pageableRequest,
                                                                          QueryOptions queryOptions,
-                                                                         Specification<DataEntity<?>> spec) {
-        Page<DataEntity<?>> pages = getRepository()
-            .findAll(
-                oQS.withStaIdentifier(identifierList),
-                new OffsetLimitBasedPageRequest(0,
-                                                pageableRequest.getPageSize(),
-                                                pageableRequest.getSort()),
-                EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS)
-            .map(this::fetchValueIfCompositeDataEntity);
+                                                                         EntityCounter.Count count) {
+        if (identifierList.isEmpty()) {
+            return count == null
+                ? new CollectionWrapper(-1, Collections.emptyList(), false)
+                : new CollectionWrapper(count.get(), Collections.emptyList(), false, count.isEstimated());
+        }
+        OffsetLimitBasedPageRequest page = new OffsetLimitBasedPageRequest(0,
+                                                                           pageableRequest.getPageSize(),
+                                                                           pageableRequest.getSort());
+        List<DataEntity<?>> observations = observationReader.isApplicable(queryOptions, identifierList.size())
+            ? observationReader.read(identifierList)
+            : null;
+        Page<DataEntity<?>> pages = observations != null
+            ? new PageImpl<>(observations, page, observations.size())
+            : getRepository().findAll(oQS.withStaIdentifier(identifierList),
+                                      page,
+                                      EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS)
+                .map(this::fetchValueIfCompositeDataEntity);
 
         CollectionWrapper wrapper = createCollectionWrapperAndExpand(queryOptions, pages);
         // Create Page manually as we used Database Pagination and are not sure how many Entities there are in
@@ -582,20 +808,22 @@ public class ObservationService
         if (pages.isEmpty()) {
             return wrapper;
         } else {
-            long count = -1;
+            long total = -1;
             boolean hasNextPage = false;
-            if (queryOptions.hasCountFilter() && queryOptions.getCountFilter().getValue()) {
-                count = getRepository().count(spec);
+            if (count != null) {
+                total = count.get();
                 // we can calculate whether there is an additional page
-                hasNextPage = identifierList.size() + pageableRequest.getOffset() < count;
-            } else {
+                hasNextPage = identifierList.size() + pageableRequest.getOffset() < total;
+            }
+            if (count == null || count.isEstimated()) {
                 // we presume there is a next page if this page is filled completely.
                 // In the case that the entity count is divided by the page size directly this nextpage is empty
                 hasNextPage = identifierList.size() == pageableRequest.getPageSize();
             }
-            return new CollectionWrapper(count,
+            return new CollectionWrapper(total,
                                          wrapper.getEntities(),
-                                         hasNextPage);
+                                         hasNextPage,
+                                         count != null && count.isEstimated());
         }
     }
 
@@ -654,6 +882,42 @@ public class ObservationService
         }
     }
 
+    /**
+     * Returns the staIdentifier of the Datastream the Observation with given staIdentifier was created in. If the
+     * Observation belongs to a dataset of an aggregation this is the aggregation.
+     *
+     * @param observationIdentifier staIdentifier of the Observation
+     * @return staIdentifier of the Datastream or null if there is no such Observation
+     */
+    @Transactional(readOnly = true)
+    public String getDatastreamIdentifier(String observationIdentifier) {
+        AbstractEntityPersister observations = (AbstractEntityPersister) em.getEntityManagerFactory()
+            .unwrap(SessionFactoryImplementor.class)
+            .getMetamodel()
+            .entityPersister(DataEntity.class);
+        AbstractEntityPersister datasets = getDatasetPersister();
+        String datasetId = datasets.getIdentifierColumnNames()[0];
+        List<?> datastreams = em.createNativeQuery(
+            "SELECT a." + datasets.toColumns(STAIDENTIFIER)[0]
+                + " FROM " + observations.getTableName() + " o"
+                + " JOIN " + datasets.getTableName() + " d"
+                + " ON o." + observations.toColumns(DataEntity.PROPERTY_DATASET)[0] + " = d." + datasetId
+                + " JOIN " + datasets.getTableName() + " a"
+                + " ON a." + datasetId + " = COALESCE(d." + datasets.toColumns(DatasetEntity.PROPERTY_AGGREGATION)[0]
+                + ", d." + datasetId + ")"
+                + " WHERE o." + observations.toColumns(STAIDENTIFIER)[0] + " = :id")
+            .setParameter("id", observationIdentifier)
+            .getResultList();
+        return datastreams.isEmpty() ? null : (String) datastreams.get(0);
+    }
+
+    private AbstractEntityPersister getDatasetPersister() {
+        return (AbstractEntityPersister) em.getEntityManagerFactory()
+            .unwrap(SessionFactoryImplementor.class)
+            .getMetamodel()
+            .entityPersister(DatasetEntity.class);
+    }
+
     private void deleteReferenceFromDatasetFirstLast(DataEntity<?> observation) {
         // TODO get the next first/last observation and set it
         DatasetEntity dataset = observation.getDataset();
@@ -720,48 +984,46 @@ public class ObservationService
         throws STACRUDException {
         Optional<DataEntity<?>> rawObservation = getRepository().findById(data.getId());
         if (rawObservation.isPresent()) {
-            synchronized (getLock(dataset.getId().toString() + "Dataset")) {
-                LOGGER.debug("Updating First/Last/Geometry of of Dataset: {}", dataset.getId());
-                if (!dataset.isSetFirstValueAt()
-                    || (dataset.isSetFirstValueAt()
-                    && data.getSamplingTimeStart().before(dataset.getFirstValueAt()))) {
-                    dataset.setFirstValueAt(data.getSamplingTimeStart());
-                    dataset.setFirstObservation(rawObservation.get());
-                    if (data instanceof QuantityDataEntity) {
-                        dataset.setFirstQuantityValue(((QuantityDataEntity) data).getValue());
-                    }
+            LOGGER.debug("Updating First/Last/Geometry of of Dataset: {}", dataset.getId());
+            if (!dataset.isSetFirstValueAt()
+                || (dataset.isSetFirstValueAt()
+                && data.getSamplingTimeStart().before(dataset.getFirstValueAt()))) {
+                dataset.setFirstValueAt(data.getSamplingTimeStart());
+                dataset.setFirstObservation(rawObservation.get());
+                if (data instanceof QuantityDataEntity) {
+                    dataset.setFirstQuantityValue(((QuantityDataEntity) data).getValue());
                 }
-                if (!dataset.isSetLastValueAt()
-                    || (dataset.isSetLastValueAt()
-                    && data.getSamplingTimeEnd().after(dataset.getLastValueAt()))) {
-                    dataset.setLastValueAt(data.getSamplingTimeEnd());
-                    dataset.setLastObservation(rawObservation.get());
-                    if (data instanceof QuantityDataEntity) {
-                        dataset.setLastQuantityValue(((QuantityDataEntity) data).getValue());
-                    }
+            }
+            if (!dataset.isSetLastValueAt()
+                || (dataset.isSetLastValueAt()
+                && data.getSamplingTimeEnd().after(dataset.getLastValueAt()))) {
+                dataset.setLastValueAt(data.getSamplingTimeEnd());
+                dataset.setLastObservation(rawObservation.get());
+                if (data instanceof QuantityDataEntity) {
+                    dataset.setLastQuantityValue(((QuantityDataEntity) data).getValue());
                 }
-                // Update phenomenonTime
-                if (dataset.getPhenomenonTimeStart() == null) {
+            }
+            // Update phenomenonTime
+            if (dataset.getPhenomenonTimeStart() == null) {
+                dataset.setPhenomenonTimeStart(data.getPhenomenonTimeStart());
+                dataset.setPhenomenonTimeEnd(data.getPhenomenonTimeEnd());
+            } else {
+                if (dataset.getPhenomenonTimeStart().after(data.getPhenomenonTimeStart())) {
                     dataset.setPhenomenonTimeStart(data.getPhenomenonTimeStart());
-                    dataset.setPhenomenonTimeEnd(data.getPhenomenonTimeEnd());
-                } else {
-                    if (dataset.getPhenomenonTimeStart().after(data.getPhenomenonTimeStart())) {
-                        dataset.setPhenomenonTimeStart(data.getPhenomenonTimeStart());
-                    }
-                    if (dataset.getPhenomenonTimeEnd().before(data.getPhenomenonTimeEnd())) {
-                        dataset.setPhenomenonTimeEnd(data.getPhenomenonTimeEnd());
-                    }
                 }
-                // Update aggregation if present
-                if (dataset.getAggregation() != null) {
-                    //TODO: We might need to fetch the aggregation first!
-                    LOGGER.debug("Updating First/Last/Geometry of parent Aggregation: {}",
-                                 dataset.getAggregation().getId());
-                    updateDataset(dataset.getAggregation(), data);
+                if (dataset.getPhenomenonTimeEnd().before(data.getPhenomenonTimeEnd())) {
+                    dataset.setPhenomenonTimeEnd(data.getPhenomenonTimeEnd());
                 }
-
-                return datastreamRepository.save(dataset);
             }
+            // Update aggregation if present
+            if (dataset.getAggregation() != null) {
+                //TODO: We might need to fetch the aggregation first!
+                LOGGER.debug("Updating First/Last/Geometry of parent Aggregation: {}",
+                             dataset.getAggregation().getId());
+                updateDataset(dataset.getAggregation(), data);
+            }
+
+            return datastreamRepository.save(dataset);
         } else {
             throw new STACRUDException("Could not update Dataset->firstObservation or Dataset->firstObservation. " +
                                            "Unable to find Observation with Id:" + data.getId());
@@ -776,17 +1038,17 @@ public class ObservationService
     }
 
     private void checkValue(DataEntity<?> existing, DataEntity<?> toMerge) throws STACRUDException {
+        String observationType = existing.getDataset().getOMObservationType().getFormat();
         if (existing instanceof QuantityDataEntity) {
-            ((QuantityDataEntity) existing)
-                .setValue(BigDecimal.valueOf(Double.parseDouble(toMerge.getValue().toString())));
+            ((QuantityDataEntity) existing).setValue(toQuantity(toMerge.getValue(), observationType));
         } else if (existing instanceof CountDataEntity) {
-            ((CountDataEntity) existing).setValue(Integer.parseInt(toMerge.getValue().toString()));
+            ((CountDataEntity) existing).setValue(toCount(toMerge.getValue(), observationType));
         } else if (existing instanceof BooleanDataEntity) {
-            ((BooleanDataEntity) existing).setValue(Boolean.parseBoolean(toMerge.getValue().toString()));
+            ((BooleanDataEntity) existing).setValue(toBoolean(toMerge.getValue(), observationType));
         } else if (existing instanceof TextDataEntity) {
-            ((TextDataEntity) existing).setValue(toMerge.getValue().toString());
+            ((TextDataEntity) existing).setValue(toText(toMerge.getValue()));
         } else if (existing instanceof CategoryDataEntity) {
-            ((CategoryDataEntity) existing).setValue(toMerge.getValue().toString());
+            ((CategoryDataEntity) existing).setValue(toText(toMerge.getValue()));
         } else {
             throw new STACRUDException(
                 String.format("The observation value for @iot.id %s can not be updated!",
@@ -799,17 +1061,14 @@ public class ObservationService
                                                         DataEntity<?> observation,
                                                         DatasetEntity dataset) throws STACRUDException {
         data.setDataset(dataset);
+        // Duplicate identifiers are rejected by the unique constraint
         if (observation.getStaIdentifier() != null) {
-            if (getRepository().existsByStaIdentifier(observation.getStaIdentifier())) {
-                throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
-            } else {
-                data.setIdentifier(observation.getIdentifier());
-                data.setStaIdentifier(observation.getStaIdentifier());
-            }
+            data.setIdentifier(observation.getIdentifier());
+            data.setStaIdentifier(observation.getStaIdentifier());
         } else {
-            String uuid = UUID.randomUUID().toString();
-            data.setIdentifier(uuid);
-            data.setStaIdentifier(uuid);
+            String generated = generateIdentifier();
+            data.setIdentifier(generated);
+            data.setStaIdentifier(generated);
         }
         data.setSamplingTimeStart(observation.getSamplingTimeStart());
         data.setSamplingTimeEnd(observation.getSamplingTimeEnd());
@@ -59,7 +59,6 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
@@ -99,11 +98,13 @@ public class ObservedPropertyService
      * @return true if an Entity with given id exists
      */
     @Override
+    @Transactional(readOnly = true)
     public boolean existsEntity(String id) {
         return getRepository().existsByStaIdentifier(id);
     }
 
     @Override
+    @Transactional(readOnly = true)
     public boolean existsEntityByRelatedEntity(String relatedId, String relatedType, String ownId) {
         switch (relatedType) {
             case STAEntityDefinition.DATASTREAMS: {
@@ -118,14 +119,14 @@ public class ObservedPropertyService
         throws STAInvalidQueryException {
         if (expandOption != null) {
             for (ExpandItem expandItem : expandOption.getItems()) {
-                // We cannot handle nested $filter or $expand
-                if (expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter()) {
+                // Items with nested $filter are fetched separately
+                if (!isFetchedByGraph(expandItem)) {
                     continue;
                 }
                 String expandProperty = expandItem.getPath();
                 if (ObservedPropertyEntityDefinition.DATASTREAMS.equals(expandProperty)) {
                     return new EntityGraphRepository.FetchGraph[] {
-                        EntityGraphRepository.FetchGraph.FETCHGRAPH_DATASETS,
+                        createNestedFetchGraph(EntityGraphRepository.FetchGraph.FETCHGRAPH_DATASETS, expandItem),
                         EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS,
                     };
                 }
@@ -139,12 +140,22 @@ public class ObservedPropertyService
         };
     }
 
+    @Override
+    protected AbstractSensorThingsEntityServiceImpl<?, ?, ?> getExpandedService(String navigationProperty) {
+        switch (navigationProperty) {
+            case STAEntityDefinition.DATASTREAMS:
+                return getDatastreamService();
+            default:
+                return null;
+        }
+    }
+
     @Override
     protected PhenomenonEntity fetchExpandEntitiesWithFilter(PhenomenonEntity entity, ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
         for (ExpandItem expandItem : expandOption.getItems()) {
-            // We have already handled $expand without filter and expand
-            if (!(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())) {
+            // We have already handled $expand fetched by the Fetchgraph
+            if (isFetchedByGraph(expandItem)) {
                 continue;
             }
             String expandProperty = expandItem.getPath();
@@ -197,37 +208,26 @@ public class ObservedPropertyService
         }
 
         if (observableProperty.getStaIdentifier() == null) {
-            if (getRepository().existsByName(observableProperty.getName())) {
-                Optional<PhenomenonEntity> optional
-                    = getRepository().findOne(oQS.withName(observableProperty.getName()));
-                return optional.isPresent() ? optional.get() : null;
-            } else {
-                // Autogenerate Identifier
-                observableProperty.setStaIdentifier(UUID.randomUUID().toString());
-            }
+            // Autogenerate Identifier
+            observableProperty.setStaIdentifier(generateIdentifier());
         }
-        synchronized (getLock(observableProperty.getStaIdentifier())) {
-            // Check for duplicate definition
-            if (getRepository().existsByIdentifier(observableProperty.getIdentifier())) {
-                throw new STACRUDException("Observed Property with given Definition already exists!",
-                                           HTTPStatus.CONFLICT);
-            }
-            if (getRepository().existsByStaIdentifier(observableProperty.getStaIdentifier())) {
-                throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
-            }
-            PhenomenonEntity intermediateSave = getRepository().intermediateSave(observableProperty);
-            if (observableProperty.getParameters() != null) {
-                parameterRepository.saveAll(observableProperty.getParameters()
-                                                .stream()
-                                                .filter(t -> t instanceof PhenomenonParameterEntity)
-                                                .map(t -> {
-                                                    ((PhenomenonParameterEntity) t).setPhenomenon(intermediateSave);
-                                                    return (PhenomenonParameterEntity) t;
-                                                })
-                                                .collect(Collectors.toSet()));
-            }
-            return getRepository().save(observableProperty);
+        // Check for duplicate definition
+        if (getRepository().existsByIdentifier(observableProperty.getIdentifier())) {
+            throw new STACRUDException("Observed Property with given Definition already exists!",
+                                       HTTPStatus.CONFLICT);
+        }
+        PhenomenonEntity intermediateSave = getRepository().intermediateSave(observableProperty);
+        if (observableProperty.getParameters() != null) {
+            saveParameters(observableProperty.getParameters()
+                               .stream()
+                               .filter(t -> t instanceof PhenomenonParameterEntity)
+                               .map(t -> {
+                                   ((PhenomenonParameterEntity) t).setPhenomenon(intermediateSave);
+                                   return (PhenomenonParameterEntity) t;
+                               })
+                               .collect(Collectors.toSet()));
         }
+        return getRepository().save(observableProperty);
     }
 
     @Override
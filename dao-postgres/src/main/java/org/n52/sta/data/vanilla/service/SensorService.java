@@ -63,7 +63,6 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
@@ -103,8 +102,8 @@ public class SensorService
         throws STAInvalidQueryException {
         if (expandOption != null) {
             for (ExpandItem expandItem : expandOption.getItems()) {
-                // We cannot handle nested $filter or $expand
-                if (expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter()) {
+                // Items with nested $filter are fetched separately
+                if (!isFetchedByGraph(expandItem)) {
                     continue;
                 }
                 String expandProperty = expandItem.getPath();
@@ -112,7 +111,7 @@ public class SensorService
                     return new EntityGraphRepository.FetchGraph[] {
                         EntityGraphRepository.FetchGraph.FETCHGRAPH_FORMAT,
                         EntityGraphRepository.FetchGraph.FETCHGRAPH_PROCEDUREHISTORY,
-                        EntityGraphRepository.FetchGraph.FETCHGRAPH_DATASETS,
+                        createNestedFetchGraph(EntityGraphRepository.FetchGraph.FETCHGRAPH_DATASETS, expandItem),
                         EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS,
                     };
                 }
@@ -128,11 +127,21 @@ public class SensorService
         };
     }
 
+    @Override
+    protected AbstractSensorThingsEntityServiceImpl<?, ?, ?> getExpandedService(String navigationProperty) {
+        switch (navigationProperty) {
+            case STAEntityDefinition.DATASTREAMS:
+                return getDatastreamService();
+            default:
+                return null;
+        }
+    }
+
     @Override protected ProcedureEntity fetchExpandEntitiesWithFilter(ProcedureEntity entity, ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
         for (ExpandItem expandItem : expandOption.getItems()) {
-            // We have already handled $expand without filter and expand
-            if (!(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())) {
+            // We have already handled $expand fetched by the Fetchgraph
+            if (isFetchedByGraph(expandItem)) {
                 continue;
             }
             String expandProperty = expandItem.getPath();
@@ -186,54 +195,42 @@ public class SensorService
             }
         }
         if (sensor.getStaIdentifier() == null) {
-            if (getRepository().existsByName(sensor.getName())) {
-                Optional<ProcedureEntity> optional = getRepository()
-                    .findOne(sQS.withStaIdentifier(sensor.getStaIdentifier())
-                                 .or(sQS.withName(sensor.getName())));
-                return optional.isPresent() ? optional.get() : null;
-            } else {
-                // Autogenerate Identifier
-                String uuid = UUID.randomUUID().toString();
-                sensor.setIdentifier(uuid);
-                sensor.setStaIdentifier(uuid);
-            }
+            // Autogenerate Identifier
+            String generated = generateIdentifier();
+            sensor.setIdentifier(generated);
+            sensor.setStaIdentifier(generated);
         }
 
-        synchronized (getLock(sensor.getStaIdentifier())) {
-            if (getRepository().existsByStaIdentifier(sensor.getStaIdentifier())) {
-                throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
-            }
-            checkFormat(sensor, sensor);
-            // Intermediate save to allow DatastreamService->createOrUpdate to use this entity. Does not trigger
-            // intercept handling (e.g. mqtt). Needed as Datastream<->Procedure connection is not yet set but
-            // required by interceptors
-            ProcedureEntity intermediateSave = getRepository().intermediateSave(sensor);
-            checkProcedureHistory(sensor);
-            if (sensor.hasDatastreams()) {
-                for (AbstractDatasetEntity datastreamEntity : sensor.getDatasets()) {
-                    try {
-                        getDatastreamService().createOrUpdate(datastreamEntity);
-                    } catch (STACRUDException e) {
-                        // Datastream might be currently processing.
-                        //TODO: check if we need to do something here
-                    }
+        checkFormat(sensor, sensor);
+        // Intermediate save to allow DatastreamService->createOrUpdate to use this entity. Does not trigger
+        // intercept handling (e.g. mqtt). Needed as Datastream<->Procedure connection is not yet set but
+        // required by interceptors
+        ProcedureEntity intermediateSave = getRepository().intermediateSave(sensor);
+        checkProcedureHistory(sensor);
+        if (sensor.hasDatastreams()) {
+            for (AbstractDatasetEntity datastreamEntity : sensor.getDatasets()) {
+                try {
+                    getDatastreamService().createOrUpdate(datastreamEntity);
+                } catch (STACRUDException e) {
+                    // Datastream might be currently processing.
+                    //TODO: check if we need to do something here
                 }
             }
-            if (sensor.getParameters() != null) {
-                parameterRepository.saveAll(sensor.getParameters()
-                                                .stream()
-                                                .filter(t -> t instanceof ProcedureParameterEntity)
-                                                .map(t -> {
-                                                    ((ProcedureParameterEntity) t).setProcedure(intermediateSave);
-                                                    return (ProcedureParameterEntity) t;
-                                                })
-                                                .collect(Collectors.toSet()));
-            }
-
-            // Save with Interception as procedure is now linked to Datastream
-            getRepository().save(sensor);
-            return sensor;
         }
+        if (sensor.getParameters() != null) {
+            saveParameters(sensor.getParameters()
+                               .stream()
+                               .filter(t -> t instanceof ProcedureParameterEntity)
+                               .map(t -> {
+                                   ((ProcedureParameterEntity) t).setProcedure(intermediateSave);
+                                   return (ProcedureParameterEntity) t;
+                               })
+                               .collect(Collectors.toSet()));
+        }
+
+        // Save with Interception as procedure is now linked to Datastream
+        getRepository().save(sensor);
+        return sensor;
     }
 
     @Override
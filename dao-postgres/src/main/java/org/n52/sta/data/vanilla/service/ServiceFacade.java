@@ -28,6 +28,7 @@
  */
 package org.n52.sta.data.vanilla.service;
 
+import org.n52.janmayen.http.HTTPStatus;
 import org.n52.series.db.beans.AbstractDatasetEntity;
 import org.n52.series.db.beans.AbstractFeatureEntity;
 import org.n52.series.db.beans.DataEntity;
@@ -41,8 +42,13 @@ import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.sta.data.vanilla.DTOTransformer;
 import org.n52.sta.data.vanilla.DaoSemaphore;
+import org.n52.sta.data.vanilla.IdentifierGenerator;
+import org.n52.sta.data.vanilla.IngestEngine;
+import org.n52.sta.data.vanilla.IngestSpool;
+import org.n52.sta.data.vanilla.ObservationDeduplicator;
 import org.n52.sta.data.vanilla.SerDesConfig;
 import org.n52.sta.api.AbstractSensorThingsEntityService;
+import org.n52.sta.api.ChangeSetExecutor;
 import org.n52.sta.api.CollectionWrapper;
 import org.n52.sta.api.dto.DatastreamDTO;
 import org.n52.sta.api.dto.FeatureOfInterestDTO;
@@ -53,8 +59,22 @@ import org.n52.sta.api.dto.ObservedPropertyDTO;
 import org.n52.sta.api.dto.SensorDTO;
 import org.n52.sta.api.dto.StaDTO;
 import org.n52.sta.api.dto.ThingDTO;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Facade proxying actual Service implementations. Used to restrict the number of parallel threads accessing the Data
@@ -66,6 +86,9 @@ import org.springframework.stereotype.Component;
 public class ServiceFacade<R extends StaDTO, S extends HibernateRelations.HasId>
     implements AbstractSensorThingsEntityService<R> {
 
+    private static final String IDENTIFIER_ALREADY_EXISTS = "Identifier already exists!";
+    private static final String UNIQUE_VIOLATION = "23505";
+
     private final DaoSemaphore semaphore;
     private final SerDesConfig config;
     private AbstractSensorThingsEntityServiceImpl<?, R, S> serviceImpl;
@@ -188,6 +211,28 @@ public class ServiceFacade<R extends StaDTO, S extends HibernateRelations.HasId>
             result = serviceImpl.create((S) new DTOTransformer<>(config).fromDTO(entity));
         } catch (InterruptedException e) {
             throw new STACRUDException(e.getMessage(), e);
+        } catch (DataIntegrityViolationException e) {
+            throw mapConstraintViolation(e);
+        } finally {
+            semaphore.release();
+        }
+        return result;
+    }
+
+    @Override public List<R> createAll(List<R> entities) throws STACRUDException {
+        List<R> result;
+        try {
+            semaphore.acquire();
+            DTOTransformer<R, S> transformer = new DTOTransformer<>(config);
+            List<S> raw = new ArrayList<>(entities.size());
+            for (R entity : entities) {
+                raw.add(transformer.fromDTO(entity));
+            }
+            result = serviceImpl.createAll(raw);
+        } catch (InterruptedException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        } catch (DataIntegrityViolationException e) {
+            throw mapConstraintViolation(e);
         } finally {
             semaphore.release();
         }
@@ -201,6 +246,8 @@ public class ServiceFacade<R extends StaDTO, S extends HibernateRelations.HasId>
             result = serviceImpl.update(id, (S) new DTOTransformer<>(config).fromDTO(entity), method);
         } catch (InterruptedException e) {
             throw new STACRUDException(e.getMessage(), e);
+        } catch (DataIntegrityViolationException e) {
+            throw mapConstraintViolation(e);
         } finally {
             semaphore.release();
         }
@@ -218,6 +265,18 @@ public class ServiceFacade<R extends StaDTO, S extends HibernateRelations.HasId>
         }
     }
 
+    /**
+     * Maps violations of unique constraints (e.g. duplicate identifiers) to HTTP 409 as existence of Entities is not
+     * checked before inserting them.
+     */
+    private STACRUDException mapConstraintViolation(DataIntegrityViolationException e) {
+        Throwable cause = e.getMostSpecificCause();
+        if (cause instanceof SQLException && UNIQUE_VIOLATION.equals(((SQLException) cause).getSQLState())) {
+            return new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
+        }
+        return new STACRUDException(cause.getMessage(), e);
+    }
+
     @Component
     static class ThingServiceFacade extends ServiceFacade<ThingDTO, PlatformEntity> {
 
@@ -279,10 +338,313 @@ public class ServiceFacade<R extends StaDTO, S extends HibernateRelations.HasId>
     static class ObservationServiceFacade
         extends ServiceFacade<ObservationDTO, DataEntity<?>> {
 
+        private static final String CROSS_SHARD_BATCH =
+            "Observations of Datastreams handled by different ingest shards can not be created in a single request";
+
+        private final ObservationService observationService;
+        private final IdentifierGenerator identifierGenerator;
+        private final IngestEngine ingestEngine;
+        private final IngestSpool spool;
+        private final ObservationDeduplicator deduplicator;
+        private final ChangeSetExecutor changeSetExecutor;
+
         ObservationServiceFacade(ObservationService serviceImpl,
                                  DaoSemaphore semaphore,
-                                 SerDesConfig config) {
+                                 SerDesConfig config,
+                                 IdentifierGenerator identifierGenerator,
+                                 IngestEngine ingestEngine,
+                                 ObjectProvider<IngestSpool> spool,
+                                 ObjectProvider<ObservationDeduplicator> deduplicator,
+                                 ChangeSetExecutor changeSetExecutor) {
             super(serviceImpl, semaphore, config);
+            this.observationService = serviceImpl;
+            this.identifierGenerator = identifierGenerator;
+            this.ingestEngine = ingestEngine;
+            this.spool = spool.getIfAvailable();
+            this.deduplicator = deduplicator.getIfAvailable();
+            this.changeSetExecutor = changeSetExecutor;
+            if (this.spool != null) {
+                this.spool.setWriter(this::replay);
+            }
+        }
+
+        /**
+         * Creates the Observation on the ingest shard responsible for its Datastream. Observations created as part
+         * of a change set are created by the calling thread to take part in the transaction of the change set.
+         */
+        @Override public ObservationDTO create(ObservationDTO entity) throws STACRUDException {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                return super.create(entity);
+            }
+            return (ObservationDTO) await(createAsync(entity));
+        }
+
+        /**
+         * Creates the Observations in a single transaction on the ingest shard responsible for their Datastreams.
+         * Observations of Datastreams handled by different shards are rejected.
+         */
+        @Override public List<ObservationDTO> createAll(List<ObservationDTO> entities) throws STACRUDException {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                return super.createAll(entities);
+            }
+            return (List<ObservationDTO>) await(createAllAsync(entities));
+        }
+
+        /**
+         * Updates the Observation on the ingest shard responsible for its Datastream, so it is never written
+         * concurrently with the creation of Observations updating the first/last Observation of the Datastream.
+         */
+        @Override public ObservationDTO update(String id, ObservationDTO entity, HttpMethod method)
+            throws STACRUDException {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                return super.update(id, entity, method);
+            }
+            return await(ingestEngine.submit(observationService.getDatastreamIdentifier(id),
+                                             () -> super.update(id, entity, method)));
+        }
+
+        /**
+         * Deletes the Observation on the ingest shard responsible for its Datastream.
+         */
+        @Override public void delete(String id) throws STACRUDException {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                super.delete(id);
+                return;
+            }
+            await(ingestEngine.submit(observationService.getDatastreamIdentifier(id), () -> {
+                super.delete(id);
+                return null;
+            }));
+        }
+
+        /**
+         * Creates the Observation on the ingest shard responsible for its Datastream. If the spool is enabled, the
+         * Observation is spooled while the database is unavailable. If deduplication is enabled, duplicates of
+         * Observations created before are not created again.
+         */
+        @Override public CompletableFuture<StaDTO> createAsync(ObservationDTO entity) {
+            try {
+                assignIdentifiers(Collections.singletonList(entity));
+            } catch (STACRUDException e) {
+                CompletableFuture<StaDTO> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+            return submit(getDatastreamId(entity),
+                          () -> deduplicator == null
+                              ? super.create(entity)
+                              : createDeduplicated(Collections.singletonList(entity)).get(0),
+                          Collections.singletonList(entity),
+                          entity);
+        }
+
+        /**
+         * Creates the Observations in a single transaction on the ingest shard responsible for their Datastreams. If
+         * the spool is enabled, the Observations are spooled while the database is unavailable. The future completes
+         * exceptionally if the Observations belong to Datastreams handled by different shards, as they can not be
+         * created in a single transaction.
+         */
+        @Override public CompletableFuture<List<? extends StaDTO>> createAllAsync(List<ObservationDTO> entities) {
+            if (entities.isEmpty()) {
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            String datastreamId = getDatastreamId(entities.get(0));
+            int shard = ingestEngine.getShard(datastreamId);
+            for (ObservationDTO entity : entities) {
+                if (ingestEngine.getShard(getDatastreamId(entity)) != shard) {
+                    CompletableFuture<List<? extends StaDTO>> future = new CompletableFuture<>();
+                    future.completeExceptionally(new STACRUDException(CROSS_SHARD_BATCH, HTTPStatus.BAD_REQUEST));
+                    return future;
+                }
+            }
+            try {
+                assignIdentifiers(entities);
+            } catch (STACRUDException e) {
+                CompletableFuture<List<? extends StaDTO>> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+            return submit(datastreamId,
+                          () -> deduplicator == null
+                              ? super.createAll(entities)
+                              : createDeduplicated(entities),
+                          entities,
+                          entities);
+        }
+
+        /**
+         * Replays spooled Observations. The Observations were accepted one request at a time, so they are created
+         * in one transaction per ingest shard instead of a single transaction.
+         */
+        private CompletableFuture<List<? extends StaDTO>> replay(List<ObservationDTO> entities) {
+            Map<Integer, List<ObservationDTO>> byShard = new LinkedHashMap<>();
+            for (ObservationDTO entity : entities) {
+                byShard.computeIfAbsent(ingestEngine.getShard(getDatastreamId(entity)), k -> new ArrayList<>())
+                    .add(entity);
+            }
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[byShard.size()];
+            int shard = 0;
+            for (List<ObservationDTO> batch : byShard.values()) {
+                futures[shard++] = ingestEngine.submit(getDatastreamId(batch.get(0)),
+                                                       () -> deduplicator == null
+                                                           ? super.createAll(batch)
+                                                           : createDeduplicated(batch));
+            }
+            return CompletableFuture.allOf(futures).thenApply(v -> entities);
+        }
+
+        /**
+         * Assigns identifiers to Observations posted without @iot.id. Deduplication and the spool keep track of
+         * Observations by their identifier, so it has to be known before the Observations are handed to them.
+         *
+         * @param entities Observations to be created
+         * @throws STACRUDException if no identifier could be generated
+         */
+        private void assignIdentifiers(List<ObservationDTO> entities) throws STACRUDException {
+            for (ObservationDTO entity : entities) {
+                if (entity.getId() == null) {
+                    entity.setId(identifierGenerator.generate());
+                }
+            }
+        }
+
+        /**
+         * Creates the Observations except for duplicates of Observations created before. Duplicates are answered with
+         * the Observation as received carrying the @iot.id of the original Observation. Must be called on the ingest
+         * shard of the Datastreams, so duplicates are never created concurrently. Keys are claimed for the @iot.id of
+         * the Observation, so it is assigned before.
+         *
+         * @param entities Observations to be created
+         * @return created Observations in the same order
+         * @throws Exception if the Observations could not be created
+         */
+        private List<ObservationDTO> createDeduplicated(List<ObservationDTO> entities) throws Exception {
+            assignIdentifiers(entities);
+            List<ObservationDTO> result = new ArrayList<>(entities);
+            List<Integer> pending = new ArrayList<>();
+            List<String> pendingKeys = new ArrayList<>();
+            Map<String, Integer> batchKeys = new HashMap<>();
+            Map<Integer, Integer> duplicateOf = new HashMap<>();
+            for (int i = 0; i < entities.size(); i++) {
+                ObservationDTO entity = entities.get(i);
+                String key = deduplicator.getKey(entity);
+                String original = null;
+                if (key != null && batchKeys.containsKey(key)) {
+                    duplicateOf.put(i, batchKeys.get(key));
+                    continue;
+                } else if (key != null) {
+                    original = deduplicator.findRecent(key);
+                    batchKeys.put(key, i);
+                }
+                if (original != null) {
+                    entity.setId(original);
+                } else {
+                    pending.add(i);
+                    pendingKeys.add(key);
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                Map<String, String> claimed = new HashMap<>();
+                try {
+                    changeSetExecutor.execute(() -> {
+                        List<Integer> indices = new ArrayList<>();
+                        List<ObservationDTO> batch = new ArrayList<>();
+                        for (int i = 0; i < pending.size(); i++) {
+                            ObservationDTO entity = entities.get(pending.get(i));
+                            String key = pendingKeys.get(i);
+                            String original = key == null ? null : deduplicator.claim(key, entity.getId());
+                            if (original != null) {
+                                entity.setId(original);
+                            } else {
+                                indices.add(pending.get(i));
+                                batch.add(entity);
+                                if (key != null) {
+                                    claimed.put(key, entity.getId());
+                                }
+                            }
+                        }
+                        if (!batch.isEmpty()) {
+                            List<ObservationDTO> created = super.createAll(batch);
+                            for (int i = 0; i < indices.size(); i++) {
+                                result.set(indices.get(i), created.get(i));
+                            }
+                        }
+                        return null;
+                    });
+                } catch (DataIntegrityViolationException e) {
+                    throw super.mapConstraintViolation(e);
+                }
+                deduplicator.remember(claimed);
+            }
+            for (Map.Entry<Integer, Integer> duplicate : duplicateOf.entrySet()) {
+                entities.get(duplicate.getKey()).setId(result.get(duplicate.getValue()).getId());
+            }
+            return result;
+        }
+
+        /**
+         * Executes a task on the ingest shard responsible for given Datastream. Observations are appended to the spool
+         * instead if there already are spooled Observations or the database is unavailable.
+         *
+         * @param datastreamId staIdentifier of the Datastream
+         * @param task         task creating the Observations
+         * @param entities     Observations created by the task or null if they must not be spooled
+         * @param spooled      result returned if the Observations are spooled
+         * @param <V>          result type
+         * @return future completed with the result of the task
+         */
+        private <V> CompletableFuture<V> submit(String datastreamId,
+                                                Callable<V> task,
+                                                List<ObservationDTO> entities,
+                                                V spooled) {
+            if (spool == null || entities == null || !spool.isSpoolable(entities)) {
+                return ingestEngine.submit(datastreamId, task);
+            }
+            CompletableFuture<V> future = new CompletableFuture<>();
+            if (spool.hasBacklog()) {
+                append(entities, spooled, future);
+                return future;
+            }
+            ingestEngine.submit(datastreamId, task).whenComplete((created, e) -> {
+                if (e == null) {
+                    future.complete(created);
+                } else if (IngestSpool.isOutage(e)) {
+                    append(entities, spooled, future);
+                } else {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        }
+
+        private <V> void append(List<ObservationDTO> entities, V spooled, CompletableFuture<V> future) {
+            try {
+                spool.append(entities);
+                future.complete(spooled);
+            } catch (STACRUDException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        private String getDatastreamId(ObservationDTO entity) {
+            return entity.getDatastream() != null ? entity.getDatastream().getId() : null;
+        }
+
+        private <V> V await(CompletableFuture<V> future) throws STACRUDException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new STACRUDException(e.getMessage(), e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof STACRUDException) {
+                    throw (STACRUDException) e.getCause();
+                } else if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new STACRUDException(e.getCause().getMessage(), e.getCause());
+            }
         }
     }
 
@@ -43,6 +43,7 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.api.dto.ThingDTO;
+import org.n52.sta.data.vanilla.ExpandExecutor;
 import org.n52.sta.data.vanilla.query.ThingQuerySpecifications;
 import org.n52.sta.data.vanilla.repositories.EntityGraphRepository;
 import org.n52.sta.data.vanilla.repositories.PlatformParameterRepository;
@@ -57,12 +58,13 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
@@ -94,20 +96,23 @@ public class ThingService
         fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS);
         if (expandOption != null) {
             for (ExpandItem expandItem : expandOption.getItems()) {
-                // We cannot handle nested $filter or $expand
-                if (expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter()) {
+                // Items with nested $filter are fetched separately
+                if (!isFetchedByGraph(expandItem)) {
                     continue;
                 }
                 String expandProperty = expandItem.getPath();
                 switch (expandProperty) {
                     case STAEntityDefinition.HISTORICAL_LOCATIONS:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_HIST_LOCATIONS);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_HIST_LOCATIONS, expandItem));
                         break;
                     case STAEntityDefinition.DATASTREAMS:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_DATASETS);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_DATASETS, expandItem));
                         break;
                     case STAEntityDefinition.LOCATIONS:
-                        fetchGraphs.add(EntityGraphRepository.FetchGraph.FETCHGRAPH_LOCATIONS);
+                        fetchGraphs.add(createNestedFetchGraph(
+                            EntityGraphRepository.FetchGraph.FETCHGRAPH_LOCATIONS, expandItem));
                         break;
                     default:
                         throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED,
@@ -119,35 +124,56 @@ public class ThingService
         return fetchGraphs.toArray(new EntityGraphRepository.FetchGraph[0]);
     }
 
+    @Override
+    protected AbstractSensorThingsEntityServiceImpl<?, ?, ?> getExpandedService(String navigationProperty) {
+        switch (navigationProperty) {
+            case STAEntityDefinition.HISTORICAL_LOCATIONS:
+                return getHistoricalLocationService();
+            case STAEntityDefinition.DATASTREAMS:
+                return getDatastreamService();
+            case STAEntityDefinition.LOCATIONS:
+                return getLocationService();
+            default:
+                return null;
+        }
+    }
+
     @Override protected PlatformEntity fetchExpandEntitiesWithFilter(PlatformEntity entity, ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
+        List<ExpandExecutor.Task> tasks = new ArrayList<>();
         for (ExpandItem expandItem : expandOption.getItems()) {
-            // We have already handled $expand without filter and expand
-            if (!(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())) {
+            // We have already handled $expand fetched by the Fetchgraph
+            if (isFetchedByGraph(expandItem)) {
                 continue;
             }
             String expandProperty = expandItem.getPath();
             switch (expandProperty) {
                 case STAEntityDefinition.HISTORICAL_LOCATIONS:
-                    Page<HistoricalLocationEntity> hLocs = getHistoricalLocationService()
-                        .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
-                                                               STAEntityDefinition.THINGS,
-                                                               expandItem.getQueryOptions());
-                    entity.setHistoricalLocations(hLocs.get().collect(Collectors.toSet()));
+                    tasks.add(() -> {
+                        Page<HistoricalLocationEntity> hLocs = getHistoricalLocationService()
+                            .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
+                                                                   STAEntityDefinition.THINGS,
+                                                                   expandItem.getQueryOptions());
+                        entity.setHistoricalLocations(initializeExpanded(hLocs, expandItem.getQueryOptions()));
+                    });
                     break;
                 case STAEntityDefinition.DATASTREAMS:
-                    Page<AbstractDatasetEntity> datastreams = getDatastreamService()
-                        .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
-                                                               STAEntityDefinition.THINGS,
-                                                               expandItem.getQueryOptions());
-                    entity.setDatasets(datastreams.get().collect(Collectors.toSet()));
+                    tasks.add(() -> {
+                        Page<AbstractDatasetEntity> datastreams = getDatastreamService()
+                            .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
+                                                                   STAEntityDefinition.THINGS,
+                                                                   expandItem.getQueryOptions());
+                        entity.setDatasets(initializeExpanded(datastreams, expandItem.getQueryOptions()));
+                    });
                     break;
                 case STAEntityDefinition.LOCATIONS:
-                    Page<LocationEntity> locations = getLocationService()
-                        .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
-                                                               STAEntityDefinition.THINGS,
-                                                               expandItem.getQueryOptions());
-                    entity.setLocations(locations.get().collect(Collectors.toSet()));
+                    tasks.add(() -> {
+                        Page<LocationEntity> locations = getLocationService()
+                            .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
+                                                                   STAEntityDefinition.THINGS,
+                                                                   expandItem.getQueryOptions());
+                        entity.setLocations(initializeExpanded(locations, expandItem.getQueryOptions()));
+                    });
                     break;
                 default:
                     throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED,
@@ -155,6 +181,7 @@ public class ThingService
                                                                      StaConstants.THING));
             }
         }
+        getExpandExecutor().execute(tasks);
         return entity;
     }
 
@@ -202,42 +229,32 @@ public class ThingService
                 }
             }
             if (thing.getStaIdentifier() == null) {
-                if (getRepository().existsByName(thing.getName())) {
-                    return getRepository().findByName(thing.getName()).orElse(null);
-                } else {
-                    // Autogenerate Identifier
-                    String uuid = UUID.randomUUID().toString();
-                    thing.setIdentifier(uuid);
-                    thing.setStaIdentifier(uuid);
-                }
+                // Autogenerate Identifier
+                String generated = generateIdentifier();
+                thing.setIdentifier(generated);
+                thing.setStaIdentifier(generated);
             }
-            synchronized (getLock(thing.getStaIdentifier())) {
-                if (getRepository().existsByStaIdentifier(thing.getStaIdentifier())) {
-                    throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
-                } else {
-                    thing.setProcessed(true);
-                    thing = getRepository().intermediateSave(thing);
-                    boolean locationChanged = processLocations(thing, thing.getLocations());
-                    if (thing.getParameters() != null) {
-                        PlatformEntity finalThing = thing;
-                        parameterRepository.saveAll(thing.getParameters()
-                                                        .stream()
-                                                        .filter(t -> t instanceof PlatformParameterEntity)
-                                                        .map(t -> {
-                                                            ((PlatformParameterEntity) t).setPlatform(finalThing);
-                                                            return (PlatformParameterEntity) t;
-                                                        })
-                                                        .collect(Collectors.toSet()));
-                    }
-                    processDatastreams(thing);
-                    boolean hasUnpersistedHLocs = thing.hasHistoricalLocations() &&
-                        thing.getHistoricalLocations().stream().anyMatch(p -> p.getId() == null);
-                    if (locationChanged || hasUnpersistedHLocs) {
-                        generateHistoricalLocation(thing);
-                    }
-                    thing = getRepository().save(thing);
-                }
+            thing.setProcessed(true);
+            thing = getRepository().intermediateSave(thing);
+            boolean locationChanged = processLocations(thing, thing.getLocations());
+            if (thing.getParameters() != null) {
+                PlatformEntity finalThing = thing;
+                saveParameters(thing.getParameters()
+                                   .stream()
+                                   .filter(t -> t instanceof PlatformParameterEntity)
+                                   .map(t -> {
+                                       ((PlatformParameterEntity) t).setPlatform(finalThing);
+                                       return (PlatformParameterEntity) t;
+                                   })
+                                   .collect(Collectors.toSet()));
+            }
+            processDatastreams(thing);
+            boolean hasUnpersistedHLocs = thing.hasHistoricalLocations() &&
+                thing.getHistoricalLocations().stream().anyMatch(p -> p.getId() == null);
+            if (locationChanged || hasUnpersistedHLocs) {
+                generateHistoricalLocation(thing);
             }
+            thing = getRepository().save(thing);
         }
         return thing;
     }
@@ -391,7 +408,7 @@ public class ThingService
                 ? new LinkedHashSet<>(thing.getHistoricalLocations())
                 : new LinkedHashSet<>();
             HistoricalLocationEntity historicalLocation = new HistoricalLocationEntity();
-            historicalLocation.setIdentifier(UUID.randomUUID().toString());
+            historicalLocation.setIdentifier(generateIdentifier());
             historicalLocation.setThing(thing);
             historicalLocation.setTime(DateTime.now().toDate());
             historicalLocation.setProcessed(true);
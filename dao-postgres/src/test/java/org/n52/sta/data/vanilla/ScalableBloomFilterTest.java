@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests false positive rate, growth and serialization of {@link ScalableBloomFilter}
+ */
+public class ScalableBloomFilterTest {
+
+    private static final int CAPACITY = 10000;
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final int PROBES = 100000;
+
+    @Test
+    public void testNoFalseNegatives() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(CAPACITY, FALSE_POSITIVE_PROBABILITY);
+        fill(filter, CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            Assertions.assertTrue(filter.mightContain("id-" + i), "Missing id-" + i);
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRateAtCapacity() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(CAPACITY, FALSE_POSITIVE_PROBABILITY);
+        fill(filter, CAPACITY);
+        double rate = falsePositiveRate(filter);
+        Assertions.assertTrue(rate <= FALSE_POSITIVE_PROBABILITY * 1.5,
+                              "False positive rate " + rate + " exceeds " + FALSE_POSITIVE_PROBABILITY);
+    }
+
+    @Test
+    public void testGrowthKeepsFalsePositiveRateBounded() throws IOException {
+        ScalableBloomFilter filter = new ScalableBloomFilter(CAPACITY, FALSE_POSITIVE_PROBABILITY);
+        // capacity + 2 * capacity + 4 * capacity
+        fill(filter, 7 * CAPACITY);
+
+        Assertions.assertEquals(3, filterCount(filter));
+        for (int i = 0; i < 7 * CAPACITY; i++) {
+            Assertions.assertTrue(filter.mightContain("id-" + i), "Missing id-" + i);
+        }
+        double rate = falsePositiveRate(filter);
+        Assertions.assertTrue(rate <= 2 * FALSE_POSITIVE_PROBABILITY,
+                              "False positive rate " + rate + " exceeds " + 2 * FALSE_POSITIVE_PROBABILITY);
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        ScalableBloomFilter filter = new ScalableBloomFilter(CAPACITY, FALSE_POSITIVE_PROBABILITY);
+        fill(filter, 3 * CAPACITY);
+
+        ScalableBloomFilter restored = ScalableBloomFilter.readFrom(
+            new DataInputStream(new ByteArrayInputStream(serialize(filter))));
+
+        Assertions.assertEquals(2, filterCount(restored));
+        Assertions.assertArrayEquals(serialize(filter), serialize(restored));
+        for (int i = 0; i < PROBES; i++) {
+            String element = "id-" + i;
+            Assertions.assertEquals(filter.mightContain(element), restored.mightContain(element), element);
+        }
+        // Restored filter continues growing where the original stopped
+        for (int i = 0; i < 4 * CAPACITY; i++) {
+            restored.add("more-" + i);
+        }
+        Assertions.assertEquals(3, filterCount(restored));
+        Assertions.assertTrue(restored.mightContain("id-0"));
+        Assertions.assertTrue(restored.mightContain("more-0"));
+    }
+
+    private static void fill(ScalableBloomFilter filter, int count) {
+        for (int i = 0; i < count; i++) {
+            filter.add("id-" + i);
+        }
+    }
+
+    private static double falsePositiveRate(ScalableBloomFilter filter) {
+        int positives = 0;
+        for (int i = 0; i < PROBES; i++) {
+            if (filter.mightContain("unknown-" + i)) {
+                positives++;
+            }
+        }
+        return (double) positives / PROBES;
+    }
+
+    private static byte[] serialize(ScalableBloomFilter filter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            filter.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int filterCount(ScalableBloomFilter filter) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(serialize(filter))).readInt();
+    }
+}
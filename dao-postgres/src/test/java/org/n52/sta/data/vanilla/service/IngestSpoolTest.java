@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.vanilla.service;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.shetland.ogc.gml.time.TimeInstant;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.api.dto.ObservationDTO;
+import org.n52.sta.api.dto.impl.Datastream;
+import org.n52.sta.api.dto.impl.Observation;
+import org.n52.sta.data.vanilla.DaoSemaphore;
+import org.n52.sta.data.vanilla.IngestEngine;
+import org.n52.sta.data.vanilla.IngestSpool;
+import org.n52.sta.data.vanilla.ObservationDeduplicator;
+import org.n52.sta.data.vanilla.SerDesConfig;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tests spooling of Observations created through the ObservationServiceFacade while the database is unavailable. The
+ * outage is simulated by a DataSource refusing connections.
+ */
+public class IngestSpoolTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    private final AtomicBoolean available = new AtomicBoolean();
+    private final AtomicInteger generated = new AtomicInteger();
+    private final List<DataEntity<?>> created = Collections.synchronizedList(new ArrayList<>());
+    private final DataSource dataSource = (DataSource) Proxy.newProxyInstance(
+        DataSource.class.getClassLoader(),
+        new Class<?>[] {DataSource.class},
+        (proxy, method, args) -> {
+            if (!method.getName().equals("getConnection")) {
+                throw new UnsupportedOperationException(method.getName());
+            } else if (!available.get()) {
+                throw new SQLTransientConnectionException("Connection refused", "08001");
+            }
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                          new Class<?>[] {Connection.class},
+                                          (connection, m, a) -> null);
+        });
+
+    private IngestEngine ingestEngine;
+    private IngestSpool spool;
+    private ServiceFacade.ObservationServiceFacade facade;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        available.set(false);
+        created.clear();
+        ingestEngine = new IngestEngine(2, 1000, 1000);
+        open(1024 * 1024);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        spool.destroy();
+        ingestEngine.destroy();
+    }
+
+    @Test
+    public void observationsAreReplayedInOrderAfterOutage() throws STACRUDException {
+        for (int i = 0; i < 200; i++) {
+            Assertions.assertEquals("obs-" + i, facade.create(observation("ds-" + i % 3, i)).getId());
+        }
+        Assertions.assertTrue(created.isEmpty());
+        Assertions.assertTrue(spool.hasBacklog());
+        Assertions.assertEquals(200, spool.getPendingRecords());
+        Assertions.assertTrue(spool.getSegments() > 1, "Segments were not rotated");
+
+        Assertions.assertEquals(0, spool.replay());
+        Assertions.assertEquals(200, spool.getPendingRecords());
+
+        available.set(true);
+        Assertions.assertEquals(200, spool.replay());
+        Assertions.assertFalse(spool.hasBacklog());
+        Assertions.assertEquals(0, spool.getPendingRecords());
+        Assertions.assertEquals(1, spool.getSegments());
+        Assertions.assertEquals(200, created.size());
+
+        for (int ds = 0; ds < 3; ds++) {
+            String datastream = "ds-" + ds;
+            List<DataEntity<?>> observations = created.stream()
+                .filter(o -> o.getDataset().getStaIdentifier().equals(datastream))
+                .collect(Collectors.toList());
+            int previous = -1;
+            for (DataEntity<?> observation : observations) {
+                int index = Integer.parseInt(observation.getStaIdentifier().substring(4));
+                Assertions.assertTrue(index > previous, "Observations of " + datastream + " are out of order");
+                Assertions.assertEquals(index % 3, ds);
+                Assertions.assertEquals(new BigDecimal(index + ".5"), observation.getValue());
+                Assertions.assertEquals(time(index).toDate(), observation.getSamplingTimeStart());
+                previous = index;
+            }
+        }
+    }
+
+    @Test
+    public void observationsAreSpooledWhileBacklogExists() throws STACRUDException {
+        facade.create(observation("ds-0", 0));
+        available.set(true);
+        // Created after the spooled Observation, so it must not overtake it
+        facade.create(observation("ds-0", 1));
+        Assertions.assertTrue(created.isEmpty());
+        Assertions.assertEquals(2, spool.replay());
+        Assertions.assertEquals(2, created.size());
+        Assertions.assertEquals("obs-0", created.get(0).getStaIdentifier());
+        Assertions.assertEquals("obs-1", created.get(1).getStaIdentifier());
+
+        facade.create(observation("ds-0", 2));
+        Assertions.assertEquals(3, created.size());
+    }
+
+    @Test
+    public void observationsWithoutIdentifierAreSpooled() throws STACRUDException {
+        ObservationDTO observation = observation("ds-0", 0);
+        observation.setId(null);
+        String id = facade.create(observation).getId();
+        Assertions.assertNotNull(id);
+        Assertions.assertEquals(1, spool.getPendingRecords());
+
+        available.set(true);
+        Assertions.assertEquals(1, spool.replay());
+        Assertions.assertEquals(id, created.get(0).getStaIdentifier());
+    }
+
+    @Test
+    public void spoolIsRecoveredAfterRestart() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            facade.create(observation("ds-0", i));
+        }
+        spool.destroy();
+        open(1024 * 1024);
+        Assertions.assertEquals(10, spool.getPendingRecords());
+
+        available.set(true);
+        Assertions.assertEquals(10, spool.replay());
+        spool.destroy();
+        open(1024 * 1024);
+        Assertions.assertFalse(spool.hasBacklog());
+        Assertions.assertEquals(0, spool.replay());
+        Assertions.assertEquals(10, created.size());
+    }
+
+    @Test
+    public void corruptPayloadIsSkipped() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            facade.create(observation("ds-0", i));
+        }
+        spool.destroy();
+
+        try (RandomAccessFile segment = segmentFile()) {
+            // Flip a byte within the payload of the first record
+            segment.seek(20);
+            int value = segment.read();
+            segment.seek(20);
+            segment.write(value ^ 0xFF);
+        }
+
+        assertOnlyFirstRecordIsDropped();
+    }
+
+    @Test
+    public void corruptLengthIsSkipped() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            facade.create(observation("ds-0", i));
+        }
+        spool.destroy();
+
+        try (RandomAccessFile segment = segmentFile()) {
+            // Length of the first record pointing beyond the end of the segment
+            segment.seek(0);
+            segment.writeInt(SEGMENT_SIZE * 2);
+        }
+
+        assertOnlyFirstRecordIsDropped();
+    }
+
+    @Test
+    public void spoolIsBounded() throws Exception {
+        spool.destroy();
+        open(2 * SEGMENT_SIZE);
+        Assertions.assertThrows(STACRUDException.class, () -> {
+            for (int i = 0; i < 1000; i++) {
+                facade.create(observation("ds-0", i));
+            }
+        });
+        Assertions.assertTrue(spool.getDiskUsage() <= 2 * SEGMENT_SIZE);
+    }
+
+    private void assertOnlyFirstRecordIsDropped() throws Exception {
+        open(1024 * 1024);
+        available.set(true);
+        Assertions.assertEquals(2, spool.replay());
+        Assertions.assertEquals(1, spool.getDroppedRecords());
+        Assertions.assertFalse(spool.hasBacklog());
+        Assertions.assertEquals(Stream.of("obs-1", "obs-2").collect(Collectors.toList()),
+                                created.stream().map(DataEntity::getStaIdentifier).collect(Collectors.toList()));
+
+        // Records appended after the corrupt one are created directly
+        facade.create(observation("ds-0", 3));
+        Assertions.assertEquals(3, created.size());
+    }
+
+    private RandomAccessFile segmentFile() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return new RandomAccessFile(files.filter(f -> f.getFileName().toString().endsWith(".log"))
+                                            .findFirst()
+                                            .get()
+                                            .toFile(),
+                                        "rw");
+        }
+    }
+
+    /**
+     * Opens the spool and creates a facade writing to it. Observations are created by an ObservationService that
+     * fails like the transaction manager does if the DataSource refuses connections.
+     */
+    @SuppressWarnings("unchecked")
+    private void open(long maxSize) throws Exception {
+        spool = new IngestSpool(directory.toString(), SEGMENT_SIZE, maxSize, 50, 3600000);
+        spool.open();
+
+        ObservationService service = Mockito.mock(ObservationService.class);
+        Mockito.when(service.create(Mockito.any()))
+            .thenAnswer(invocation -> write(Collections.singletonList(invocation.getArgument(0))).get(0));
+        Mockito.when(service.createAll(Mockito.anyList()))
+            .thenAnswer(invocation -> write(invocation.getArgument(0)));
+
+        StaticListableBeanFactory beans = new StaticListableBeanFactory(Collections.singletonMap("spool", spool));
+        facade = new ServiceFacade.ObservationServiceFacade(
+            service,
+            new DaoSemaphore(10),
+            new SerDesConfig("samplingGeometry", "verticalFrom", "verticalTo", "verticalFromTo", false),
+            () -> "generated-" + generated.incrementAndGet(),
+            ingestEngine,
+            beans.getBeanProvider(IngestSpool.class),
+            beans.getBeanProvider(ObservationDeduplicator.class),
+            null);
+    }
+
+    private List<ObservationDTO> write(List<DataEntity<?>> observations) {
+        try (Connection connection = dataSource.getConnection()) {
+            created.addAll(observations);
+        } catch (SQLException e) {
+            throw new CannotCreateTransactionException("Could not open JPA EntityManager for transaction", e);
+        }
+        return observations.stream().map(entity -> {
+            Observation observation = new Observation();
+            observation.setId(entity.getStaIdentifier());
+            return observation;
+        }).collect(Collectors.toList());
+    }
+
+    private ObservationDTO observation(String datastreamId, int index) {
+        Datastream datastream = new Datastream();
+        datastream.setId(datastreamId);
+        Observation observation = new Observation();
+        observation.setId("obs-" + index);
+        observation.setPhenomenonTime(new TimeInstant(time(index)));
+        observation.setResult(new BigDecimal(index + ".5"));
+        observation.setDatastream(datastream);
+        return observation;
+    }
+
+    private DateTime time(int index) {
+        return new DateTime(2020, 1, 1, 0, 0, DateTimeZone.UTC).plusMinutes(index);
+    }
+}
@@ -74,10 +74,13 @@ import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -156,6 +159,13 @@ public class UfzAggregataObservationService extends ObservationService {
         }
     }
 
+    @Override
+    public Map<Long, Set<DataEntity<?>>> getEntityCollectionByDatastreamsRaw(Collection<Long> datastreamIds,
+                                                                              QueryOptions queryOptions) {
+        // Observations are not stored in the database. Datastreams are expanded individually
+        return null;
+    }
+
     @Override protected EntityGraphRepository.FetchGraph[] createFetchGraph(ExpandFilter expandOption) {
         throw new STAInvalidQueryError(NOT_YET_IMPLEMENTED);
     }
@@ -34,6 +34,8 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+
 /**
  * Wrapper to always return a reference to the Spring Application Context from
  **/
@@ -46,6 +48,10 @@ public class SpringApplicationContext implements ApplicationContextAware {
         return CONTEXT.getBean(bean);
     }
 
+    public static <T> Collection<T> getBeansOfType(Class<T> bean) {
+        return CONTEXT.getBeansOfType(bean).values();
+    }
+
     @Override
     @SuppressFBWarnings("ST_WRITE_TO_STATIC_FROM_INSTANCE_METHOD")
     public void setApplicationContext(ApplicationContext context) throws BeansException {
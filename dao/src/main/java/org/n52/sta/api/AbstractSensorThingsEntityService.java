@@ -33,6 +33,9 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.sta.api.dto.StaDTO;
 import org.springframework.http.HttpMethod;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
@@ -114,6 +117,50 @@ public interface AbstractSensorThingsEntityService<R extends StaDTO> {
 
     StaDTO create(R entity) throws STACRUDException;
 
+    /**
+     * Creates all given Entities in a single transaction. Either all Entities are created or none.
+     *
+     * @param entities Entities to be created
+     * @return created Entities in the order they were given
+     * @throws STACRUDException if any Entity could not be created
+     */
+    List<? extends StaDTO> createAll(List<R> entities) throws STACRUDException;
+
+    /**
+     * Creates the given Entity. The returned future is completed once the Entity was persisted. Implementations may
+     * create the Entity in a different thread. By default the Entity is created in the calling thread.
+     *
+     * @param entity Entity to be created
+     * @return future completed with the created Entity
+     */
+    default CompletableFuture<StaDTO> createAsync(R entity) {
+        CompletableFuture<StaDTO> future = new CompletableFuture<>();
+        try {
+            future.complete(create(entity));
+        } catch (STACRUDException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Creates all given Entities. The returned future is completed once all Entities were persisted.
+     * By default the Entities are created in the calling thread.
+     *
+     * @param entities Entities to be created
+     * @return future completed with the created Entities in the order they were given
+     * @see #createAll(List)
+     */
+    default CompletableFuture<List<? extends StaDTO>> createAllAsync(List<R> entities) {
+        CompletableFuture<List<? extends StaDTO>> future = new CompletableFuture<>();
+        try {
+            future.complete(createAll(entities));
+        } catch (STACRUDException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     StaDTO update(String id, R entity, HttpMethod method) throws STACRUDException;
 
     void delete(String id) throws STACRUDException;
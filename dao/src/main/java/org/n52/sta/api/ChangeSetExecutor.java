@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.api;
+
+/**
+ * Executes multiple operations on {@link AbstractSensorThingsEntityService}s as one atomic unit, e.g. a change set
+ * of a batch request. Either all operations are persisted or none.
+ */
+public interface ChangeSetExecutor {
+
+    /**
+     * Executes given change set in a single transaction. The transaction is rolled back if the change set throws.
+     *
+     * @param changeSet operations to be executed
+     * @param <T>       return type of the change set
+     * @return result of the change set
+     * @throws Exception exception thrown by the change set
+     */
+    <T> T execute(ChangeSet<T> changeSet) throws Exception;
+
+    /**
+     * Operations executed atomically by {@link ChangeSetExecutor}.
+     *
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    interface ChangeSet<T> {
+
+        T run() throws Exception;
+    }
+}
@@ -47,20 +47,37 @@ public class CollectionWrapper {
 
     private final boolean hasNextPage;
 
+    /**
+     * Whether totalEntityCount is an estimate instead of the exact count
+     */
+    private final boolean countEstimated;
+
     private String requestURL;
 
     public CollectionWrapper(long entityCount,
                              List<? extends StaDTO> entity,
                              boolean hasNextPage) {
+        this(entityCount, entity, hasNextPage, false);
+    }
+
+    public CollectionWrapper(long entityCount,
+                             List<? extends StaDTO> entity,
+                             boolean hasNextPage,
+                             boolean countEstimated) {
         this.totalEntityCount = entityCount;
         this.entities = entity;
         this.hasNextPage = hasNextPage;
+        this.countEstimated = countEstimated;
     }
 
     public long getTotalEntityCount() {
         return totalEntityCount;
     }
 
+    public boolean isCountEstimated() {
+        return countEstimated;
+    }
+
     public List<? extends StaDTO> getEntities() {
         return entities;
     }
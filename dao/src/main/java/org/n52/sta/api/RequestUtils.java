@@ -64,6 +64,9 @@ public interface RequestUtils extends StaConstants {
     // Used to store information about referenced entity during related POST
     String REFERENCED_FROM_ID = "referencedFromID";
 
+    // Header identifying retries of the same POST. Passed to deserialization under the same name
+    String IDEMPOTENCY_KEY = "Idempotency-Key";
+
     // Used for identifying/referencing source Entity Type
     // e.g. "Datastreams" in /Datastreams(52)/Thing
     String GROUPNAME_SOURCE_NAME = "sourceName";
@@ -116,6 +119,8 @@ public interface RequestUtils extends StaConstants {
     String CURLY_BRACKET_CLOSE = "}";
     String SLASHREF = SLASH + "$ref";
     String SLASHVALUE = SLASH + "$value";
+    String SLASHSTREAM = SLASH + "$stream";
+    String SLASHNDJSON = SLASH + "$ndjson";
 
     // Used to mark start and end of named capturing groups
     String SOURCE_NAME_GROUP_START =
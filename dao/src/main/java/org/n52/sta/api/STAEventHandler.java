@@ -29,8 +29,8 @@
 package org.n52.sta.api;
 
 import org.n52.sta.api.dto.StaDTO;
-import org.springframework.scheduling.annotation.Async;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,18 +43,34 @@ public interface STAEventHandler {
 
     /**
      * Handles a Create/Update Event emitted by the Database.
+     * Called by the event dispatcher threads after the transaction has been committed.
      *
      * @param entity             base entity
      * @param entityType         java class name of entity
      * @param differenceMap      names of properties that changed. null if all properties changed (e.g. new entity)
      * @param relatedCollections List of related Collections
      */
-    @Async
     void handleEvent(StaDTO entity,
                      String entityType,
                      Set<String> differenceMap,
                      Map<String, Set<String>> relatedCollections);
 
+    /**
+     * Handles a batch of Create/Update Events in the order they were emitted. Called by the event dispatcher threads
+     * after the transactions have been committed. Handlers may override this to process the events of a batch
+     * together, e.g. grouped by Subscription. Handles the events one by one by default.
+     *
+     * @param events events to be handled
+     */
+    default void handleEvents(List<Event> events) {
+        for (Event event : events) {
+            handleEvent(event.getEntity(),
+                        event.getEntityType(),
+                        event.getDifferenceMap(),
+                        event.getRelatedCollections());
+        }
+    }
+
     /**
      * Lists all Entity types that are monitored by this Handler. Directly matched with getJavaType().getName().
      *
@@ -63,4 +79,41 @@ public interface STAEventHandler {
     Set<String> getWatchedEntityTypes();
 
     void setServiceRepository(EntityServiceFactory serviceRepository);
+
+    /**
+     * Create/Update Event emitted by the Database.
+     */
+    final class Event {
+
+        private final StaDTO entity;
+        private final String entityType;
+        private final Set<String> differenceMap;
+        private final Map<String, Set<String>> relatedCollections;
+
+        public Event(StaDTO entity,
+                     String entityType,
+                     Set<String> differenceMap,
+                     Map<String, Set<String>> relatedCollections) {
+            this.entity = entity;
+            this.entityType = entityType;
+            this.differenceMap = differenceMap;
+            this.relatedCollections = relatedCollections;
+        }
+
+        public StaDTO getEntity() {
+            return entity;
+        }
+
+        public String getEntityType() {
+            return entityType;
+        }
+
+        public Set<String> getDifferenceMap() {
+            return differenceMap;
+        }
+
+        public Map<String, Set<String>> getRelatedCollections() {
+            return relatedCollections;
+        }
+    }
 }
@@ -46,10 +46,26 @@ public interface ObservationDTO extends StaDTO {
 
     void setResultTime(Time resultTime);
 
+    /**
+     * Returns the result. Results of incoming Observations are typed by their JSON token: Integer or BigDecimal for
+     * numbers, Boolean, String, and JsonNode for complex results.
+     *
+     * @return result of the Observation
+     */
     Object getResult();
 
     void setResult(Object result);
 
+    /**
+     * Returns the key supplied by the client to identify retries of the same request, e.g. via the Idempotency-Key
+     * header.
+     *
+     * @return idempotency key or null if none was supplied
+     */
+    String getIdempotencyKey();
+
+    void setIdempotencyKey(String idempotencyKey);
+
     /**
      * It is currently unclear what this element actually contains, so it is omitted for now.
      * See: https://github.com/opengeospatial/sensorthings/issues/68
@@ -62,6 +62,11 @@ public abstract class Entity implements StaDTO {
     }
 
     @Override public void setAndParseQueryOptions(QueryOptions queryOptions) {
+        // Reset options of previous calls as the same entity may be serialized multiple times (e.g. for MQTT)
+        hasSelectOption = false;
+        hasExpandOption = false;
+        fieldsToSerialize.clear();
+        fieldsToExpand.clear();
         if (queryOptions != null) {
             if (queryOptions.hasSelectFilter()) {
                 hasSelectOption = true;
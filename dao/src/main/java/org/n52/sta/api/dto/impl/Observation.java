@@ -52,6 +52,8 @@ public class Observation extends Entity implements ObservationDTO {
 
     private Time validTime;
 
+    private String idempotencyKey;
+
     private ObjectNode parameters;
 
     private DatastreamDTO datastream;
@@ -92,6 +94,14 @@ public class Observation extends Entity implements ObservationDTO {
         this.result = result;
     }
 
+    @Override public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    @Override public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
     @Override public Time getValidTime() {
         return validTime;
     }
@@ -56,6 +56,9 @@ public class CollectionSer extends StdSerializer<CollectionWrapper> {
 
         if (value.getTotalEntityCount() != -1) {
             gen.writeNumberField("@iot.count", value.getTotalEntityCount());
+            if (value.isCountEstimated()) {
+                gen.writeBooleanField("@iot.countEstimated", true);
+            }
         }
         // We have multiple pages
         if (value.hasNextPage() && !value.getEntities().isEmpty()) {
@@ -34,7 +34,6 @@ import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import org.locationtech.jts.io.geojson.GeoJsonWriter;
 import org.n52.shetland.ogc.sta.model.DatastreamEntityDefinition;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.shetland.util.DateTimeHelper;
@@ -72,13 +71,16 @@ public class DatastreamSerDes {
     public static class DatastreamSerializer
         extends AbstractSTASerializer<DatastreamDTO> {
 
-        private static final GeoJsonWriter GEO_JSON_WRITER = new GeoJsonWriter();
         private static final long serialVersionUID = -6555417490577181829L;
 
+        private final GeoJsonCodec geoJsonCodec;
+
         public DatastreamSerializer(String rootUrl,
+                                    GeoJsonCodec geoJsonCodec,
                                     String... activeExtensions) {
             super(DatastreamDTO.class, activeExtensions);
             this.rootUrl = rootUrl;
+            this.geoJsonCodec = geoJsonCodec;
             this.entitySetName = DatastreamEntityDefinition.ENTITY_SET_NAME;
         }
 
@@ -135,7 +137,7 @@ public class DatastreamSerDes {
                 datastream.getFieldsToSerialize().contains(STAEntityDefinition.PROP_OBSERVED_AREA)) {
                 if (datastream.getObservedArea() != null) {
                     gen.writeFieldName(STAEntityDefinition.PROP_OBSERVED_AREA);
-                    gen.writeRawValue(GEO_JSON_WRITER.write(datastream.getObservedArea()));
+                    geoJsonCodec.write(datastream.getObservedArea(), gen);
                 } else {
                     gen.writeNullField(STAEntityDefinition.PROP_OBSERVED_AREA);
                 }
@@ -232,7 +234,8 @@ public class DatastreamSerDes {
 
         @Override
         public DatastreamDTO deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return p.readValueAs(JSONDatastream.class)
+            return ctxt.readValue(p, JSONDatastream.class)
+                .withAttributes(ctxt)
                 .parseToDTO(JSONBase.EntityType.FULL);
         }
     }
@@ -248,7 +251,8 @@ public class DatastreamSerDes {
 
         @Override
         public DatastreamDTOPatch deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return new DatastreamDTOPatch(p.readValueAs(JSONDatastream.class)
+            return new DatastreamDTOPatch(ctxt.readValue(p, JSONDatastream.class)
+                                              .withAttributes(ctxt)
                                               .parseToDTO(JSONBase.EntityType.PATCH));
         }
     }
@@ -34,7 +34,6 @@ import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import org.locationtech.jts.io.geojson.GeoJsonWriter;
 import org.n52.shetland.ogc.sta.model.FeatureOfInterestEntityDefinition;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.api.dto.EntityPatch;
@@ -74,12 +73,14 @@ public class FeatureOfInterestSerDes {
 
         private static final String ENCODINGTYPE_GEOJSON = "application/vnd.geo+json";
 
-        private static final GeoJsonWriter GEO_JSON_WRITER = new GeoJsonWriter();
         private static final long serialVersionUID = -2476879916353087078L;
 
-        public FeatureOfInterestSerializer(String rootUrl, String... activeExtensions) {
+        private final GeoJsonCodec geoJsonCodec;
+
+        public FeatureOfInterestSerializer(String rootUrl, GeoJsonCodec geoJsonCodec, String... activeExtensions) {
             super(FeatureOfInterestDTO.class, activeExtensions);
             this.rootUrl = rootUrl;
+            this.geoJsonCodec = geoJsonCodec;
             this.entitySetName = FeatureOfInterestEntityDefinition.ENTITY_SET_NAME;
         }
 
@@ -116,7 +117,7 @@ public class FeatureOfInterestSerDes {
             if (!feature.hasSelectOption() ||
                 feature.getFieldsToSerialize().contains(STAEntityDefinition.PROP_FEATURE)) {
                 gen.writeFieldName(STAEntityDefinition.PROP_FEATURE);
-                gen.writeRawValue(GEO_JSON_WRITER.write(feature.getFeature()));
+                geoJsonCodec.write(feature.getFeature(), gen);
             }
             if (!feature.hasSelectOption() ||
                 feature.getFieldsToSerialize().contains(STAEntityDefinition.PROP_PROPERTIES)) {
@@ -161,7 +162,9 @@ public class FeatureOfInterestSerDes {
 
         @Override
         public FeatureOfInterestDTO deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return p.readValueAs(JSONFeatureOfInterest.class).parseToDTO(JSONBase.EntityType.FULL);
+            return ctxt.readValue(p, JSONFeatureOfInterest.class)
+                .withAttributes(ctxt)
+                .parseToDTO(JSONBase.EntityType.FULL);
         }
     }
 
@@ -176,7 +179,8 @@ public class FeatureOfInterestSerDes {
 
         @Override
         public FeatureOfInterestDTOPatch deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return new FeatureOfInterestDTOPatch(p.readValueAs(JSONFeatureOfInterest.class)
+            return new FeatureOfInterestDTOPatch(ctxt.readValue(p, JSONFeatureOfInterest.class)
+                                                     .withAttributes(ctxt)
                                                      .parseToDTO(JSONBase.EntityType.PATCH));
         }
     }
@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.serdes;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ParseException;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming GeoJSON codec reading/writing JTS {@link Geometry} directly from/to Jackson
+ * {@link JsonParser}/{@link JsonGenerator} without building intermediate Strings.
+ * Output mirrors the format of {@link org.locationtech.jts.io.geojson.GeoJsonWriter}.
+ */
+public class GeoJsonCodec implements Serializable {
+
+    private static final long serialVersionUID = 2301956783312859231L;
+    public static final int DEFAULT_DECIMALS = 8;
+
+    private static final String TYPE = "type";
+    private static final String COORDINATES = "coordinates";
+    private static final String GEOMETRIES = "geometries";
+    private static final String CRS = "crs";
+    private static final String PROPERTIES = "properties";
+    private static final String NAME = "name";
+    private static final String EPSG_PREFIX = "EPSG:";
+
+    private static final String POINT = "Point";
+    private static final String LINESTRING = "LineString";
+    private static final String POLYGON = "Polygon";
+    private static final String MULTIPOINT = "MultiPoint";
+    private static final String MULTILINESTRING = "MultiLineString";
+    private static final String MULTIPOLYGON = "MultiPolygon";
+    private static final String GEOMETRYCOLLECTION = "GeometryCollection";
+
+    private static final double LOWER_FORMAT_BOUND = 1e-3;
+    private static final double UPPER_FORMAT_BOUND = 1e7;
+
+    private final double scale;
+    private final boolean encodeCRS;
+
+    public GeoJsonCodec() {
+        this(DEFAULT_DECIMALS, true);
+    }
+
+    /**
+     * @param decimals  number of decimals ordinates are rounded to when writing. Negative values disable rounding
+     * @param encodeCRS whether a named crs member is written for geometries with a SRID
+     */
+    public GeoJsonCodec(int decimals, boolean encodeCRS) {
+        this.scale = decimals < 0 ? -1 : Math.pow(10, decimals);
+        this.encodeCRS = encodeCRS;
+    }
+
+    /**
+     * Writes given geometry as GeoJSON object to the generator. Writes JSON null if geometry is null.
+     *
+     * @param geometry geometry to be written
+     * @param gen      generator to write to
+     * @throws IOException if writing fails
+     */
+    public void write(Geometry geometry, JsonGenerator gen) throws IOException {
+        if (geometry == null) {
+            gen.writeNull();
+        } else {
+            writeGeometry(geometry, gen, encodeCRS);
+        }
+    }
+
+    private void writeGeometry(Geometry geometry, JsonGenerator gen, boolean withCRS) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField(TYPE, geometry.getGeometryType());
+        if (geometry instanceof Point) {
+            gen.writeFieldName(COORDINATES);
+            writePoint((Point) geometry, gen);
+        } else if (geometry instanceof LineString) {
+            gen.writeFieldName(COORDINATES);
+            writeSequence(((LineString) geometry).getCoordinateSequence(), gen);
+        } else if (geometry instanceof Polygon) {
+            gen.writeFieldName(COORDINATES);
+            writePolygon((Polygon) geometry, gen);
+        } else if (geometry instanceof MultiPoint) {
+            gen.writeArrayFieldStart(COORDINATES);
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                writePoint((Point) geometry.getGeometryN(i), gen);
+            }
+            gen.writeEndArray();
+        } else if (geometry instanceof MultiLineString) {
+            gen.writeArrayFieldStart(COORDINATES);
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                writeSequence(((LineString) geometry.getGeometryN(i)).getCoordinateSequence(), gen);
+            }
+            gen.writeEndArray();
+        } else if (geometry instanceof MultiPolygon) {
+            gen.writeArrayFieldStart(COORDINATES);
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                writePolygon((Polygon) geometry.getGeometryN(i), gen);
+            }
+            gen.writeEndArray();
+        } else if (geometry instanceof GeometryCollection) {
+            gen.writeArrayFieldStart(GEOMETRIES);
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                writeGeometry(geometry.getGeometryN(i), gen, false);
+            }
+            gen.writeEndArray();
+        } else {
+            throw new IllegalArgumentException("Unable to encode geometry " + geometry.getGeometryType());
+        }
+        if (withCRS && geometry.getSRID() > 0) {
+            gen.writeObjectFieldStart(CRS);
+            gen.writeStringField(TYPE, NAME);
+            gen.writeObjectFieldStart(PROPERTIES);
+            gen.writeStringField(NAME, EPSG_PREFIX + geometry.getSRID());
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+    }
+
+    private void writePoint(Point point, JsonGenerator gen) throws IOException {
+        if (point.isEmpty()) {
+            gen.writeStartArray();
+            gen.writeEndArray();
+        } else {
+            writeCoordinate(point.getCoordinateSequence(), 0, gen);
+        }
+    }
+
+    private void writePolygon(Polygon polygon, JsonGenerator gen) throws IOException {
+        gen.writeStartArray();
+        if (!polygon.isEmpty()) {
+            writeSequence(polygon.getExteriorRing().getCoordinateSequence(), gen);
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                writeSequence(polygon.getInteriorRingN(i).getCoordinateSequence(), gen);
+            }
+        }
+        gen.writeEndArray();
+    }
+
+    private void writeSequence(CoordinateSequence sequence, JsonGenerator gen) throws IOException {
+        gen.writeStartArray();
+        for (int i = 0; i < sequence.size(); i++) {
+            writeCoordinate(sequence, i, gen);
+        }
+        gen.writeEndArray();
+    }
+
+    private void writeCoordinate(CoordinateSequence sequence, int index, JsonGenerator gen) throws IOException {
+        gen.writeStartArray();
+        writeOrdinate(sequence.getX(index), gen);
+        writeOrdinate(sequence.getY(index), gen);
+        if (sequence.getDimension() > 2) {
+            double z = sequence.getOrdinate(index, CoordinateSequence.Z);
+            if (!Double.isNaN(z)) {
+                writeOrdinate(z, gen);
+            }
+        }
+        gen.writeEndArray();
+    }
+
+    private void writeOrdinate(double value, JsonGenerator gen) throws IOException {
+        double abs = Math.abs(value);
+        if (scale > 0 && abs >= LOWER_FORMAT_BOUND && abs < UPPER_FORMAT_BOUND) {
+            double rounded = Math.floor(value * scale + 0.5) / scale;
+            long asLong = (long) rounded;
+            if (asLong == rounded) {
+                gen.writeNumber(asLong);
+            } else {
+                gen.writeNumber(rounded);
+            }
+        } else {
+            gen.writeNumber(value);
+        }
+    }
+
+    /**
+     * Reads a GeoJSON geometry from given JSON tree without serializing the tree to a String first.
+     *
+     * @param node    GeoJSON geometry object
+     * @param factory factory used to create the geometry
+     * @return parsed geometry
+     * @throws ParseException if the node is not a valid GeoJSON geometry
+     */
+    public Geometry read(JsonNode node, GeometryFactory factory) throws ParseException {
+        try (JsonParser parser = node.traverse()) {
+            parser.nextToken();
+            return read(parser, factory);
+        } catch (IOException e) {
+            throw new ParseException(e);
+        }
+    }
+
+    /**
+     * Reads a GeoJSON geometry from given parser. The parser must be positioned at the START_OBJECT token of
+     * the geometry and is left at the corresponding END_OBJECT token.
+     *
+     * @param parser  parser to read from
+     * @param factory factory used to create the geometry
+     * @return parsed geometry
+     * @throws IOException    if reading from the parser fails
+     * @throws ParseException if the input is not a valid GeoJSON geometry
+     */
+    public Geometry read(JsonParser parser, GeometryFactory factory) throws IOException, ParseException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new ParseException("Expected GeoJSON object but found: " + parser.currentToken());
+        }
+        String type = null;
+        // Coordinates may precede the type member so they are buffered as nested lists
+        Object coordinates = null;
+        List<Geometry> geometries = null;
+        GeometryFactory geometryFactory = factory;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            switch (fieldName) {
+                case TYPE:
+                    type = parser.getValueAsString();
+                    break;
+                case COORDINATES:
+                    coordinates = readCoordinates(parser);
+                    break;
+                case GEOMETRIES:
+                    geometries = readGeometries(parser, factory);
+                    break;
+                case CRS:
+                    geometryFactory = readCRS(parser, factory);
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        if (type == null) {
+            throw new ParseException("Could not parse Geometry from Json string.  No 'type' property found.");
+        }
+        return createGeometry(type, coordinates, geometries, geometryFactory);
+    }
+
+    private List<Geometry> readGeometries(JsonParser parser, GeometryFactory factory)
+        throws IOException, ParseException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new ParseException("Expected array of geometries");
+        }
+        List<Geometry> geometries = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            geometries.add(read(parser, factory));
+        }
+        return geometries;
+    }
+
+    private GeometryFactory readCRS(JsonParser parser, GeometryFactory factory) throws IOException, ParseException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return factory;
+        }
+        GeometryFactory result = factory;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if (PROPERTIES.equals(fieldName) && parser.currentToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String propName = parser.getCurrentName();
+                    parser.nextToken();
+                    String value = parser.getValueAsString();
+                    if (NAME.equals(propName) && value != null && value.startsWith(EPSG_PREFIX)) {
+                        int srid;
+                        try {
+                            srid = Integer.parseInt(value.substring(EPSG_PREFIX.length()));
+                        } catch (NumberFormatException e) {
+                            throw new ParseException("Invalid EPSG code in 'crs': " + value);
+                        }
+                        if (srid != factory.getSRID()) {
+                            result = new GeometryFactory(factory.getPrecisionModel(),
+                                                         srid,
+                                                         factory.getCoordinateSequenceFactory());
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads arbitrarily nested coordinate arrays. Positions are returned as {@link Coordinate}, all other levels
+     * as {@link List}.
+     */
+    private Object readCoordinates(JsonParser parser) throws IOException, ParseException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new ParseException("Expected coordinate array but found: " + parser.currentToken());
+        }
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            double[] ordinates = new double[3];
+            int i = 0;
+            while (token != JsonToken.END_ARRAY) {
+                if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT) {
+                    throw new ParseException("Expected numeric ordinate but found: " + token);
+                }
+                if (i < ordinates.length) {
+                    ordinates[i] = parser.getDoubleValue();
+                }
+                i++;
+                token = parser.nextToken();
+            }
+            if (i < 2) {
+                throw new ParseException("Position must contain at least two ordinates");
+            }
+            return i == 2
+                ? new Coordinate(ordinates[0], ordinates[1])
+                : new Coordinate(ordinates[0], ordinates[1], ordinates[2]);
+        }
+        List<Object> result = new ArrayList<>();
+        while (token != JsonToken.END_ARRAY) {
+            result.add(readCoordinates(parser));
+            token = parser.nextToken();
+        }
+        return result;
+    }
+
+    private Geometry createGeometry(String type,
+                                    Object coordinates,
+                                    List<Geometry> geometries,
+                                    GeometryFactory factory) throws ParseException {
+        if (GEOMETRYCOLLECTION.equals(type)) {
+            if (geometries == null) {
+                throw new ParseException("Could not parse GeometryCollection.  No 'geometries' property found.");
+            }
+            return factory.createGeometryCollection(geometries.toArray(new Geometry[0]));
+        }
+        if (coordinates == null) {
+            throw new ParseException("Could not parse " + type + ".  No 'coordinates' property found.");
+        }
+        switch (type) {
+            case POINT:
+                return createPoint(coordinates, factory);
+            case LINESTRING:
+                return factory.createLineString(toCoordinates(coordinates));
+            case POLYGON:
+                return createPolygon(coordinates, factory);
+            case MULTIPOINT:
+                List<Object> points = asList(coordinates);
+                Point[] pointArray = new Point[points.size()];
+                for (int i = 0; i < pointArray.length; i++) {
+                    pointArray[i] = createPoint(points.get(i), factory);
+                }
+                return factory.createMultiPoint(pointArray);
+            case MULTILINESTRING:
+                List<Object> lines = asList(coordinates);
+                LineString[] lineArray = new LineString[lines.size()];
+                for (int i = 0; i < lineArray.length; i++) {
+                    lineArray[i] = factory.createLineString(toCoordinates(lines.get(i)));
+                }
+                return factory.createMultiLineString(lineArray);
+            case MULTIPOLYGON:
+                List<Object> polygons = asList(coordinates);
+                Polygon[] polygonArray = new Polygon[polygons.size()];
+                for (int i = 0; i < polygonArray.length; i++) {
+                    polygonArray[i] = createPolygon(polygons.get(i), factory);
+                }
+                return factory.createMultiPolygon(polygonArray);
+            default:
+                throw new ParseException("Could not parse Geometry from GeoJson string.  Unsupported 'type':" + type);
+        }
+    }
+
+    private Point createPoint(Object coordinates, GeometryFactory factory) throws ParseException {
+        if (coordinates instanceof Coordinate) {
+            return factory.createPoint((Coordinate) coordinates);
+        } else if (asList(coordinates).isEmpty()) {
+            return factory.createPoint((Coordinate) null);
+        } else {
+            throw new ParseException("Invalid position for Point");
+        }
+    }
+
+    private Polygon createPolygon(Object coordinates, GeometryFactory factory) throws ParseException {
+        List<Object> rings = asList(coordinates);
+        if (rings.isEmpty()) {
+            return factory.createPolygon((LinearRing) null, null);
+        }
+        LinearRing shell = factory.createLinearRing(toCoordinates(rings.get(0)));
+        LinearRing[] holes = new LinearRing[rings.size() - 1];
+        for (int i = 1; i < rings.size(); i++) {
+            holes[i - 1] = factory.createLinearRing(toCoordinates(rings.get(i)));
+        }
+        return factory.createPolygon(shell, holes);
+    }
+
+    private Coordinate[] toCoordinates(Object coordinates) throws ParseException {
+        List<Object> positions = asList(coordinates);
+        Coordinate[] result = new Coordinate[positions.size()];
+        for (int i = 0; i < result.length; i++) {
+            Object position = positions.get(i);
+            if (!(position instanceof Coordinate)) {
+                throw new ParseException("Invalid position in coordinate array");
+            }
+            result[i] = (Coordinate) position;
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> asList(Object coordinates) throws ParseException {
+        if (!(coordinates instanceof List)) {
+            throw new ParseException("Invalid nesting of coordinate array");
+        }
+        return (List<Object>) coordinates;
+    }
+}
@@ -156,7 +156,9 @@ public class HistoricalLocationSerDes {
 
         @Override
         public HistoricalLocationDTO deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return p.readValueAs(JSONHistoricalLocation.class).parseToDTO(JSONBase.EntityType.FULL);
+            return ctxt.readValue(p, JSONHistoricalLocation.class)
+                .withAttributes(ctxt)
+                .parseToDTO(JSONBase.EntityType.FULL);
         }
     }
 
@@ -171,7 +173,8 @@ public class HistoricalLocationSerDes {
 
         @Override
         public HistoricalLocationDTOPatch deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return new HistoricalLocationDTOPatch(p.readValueAs(JSONHistoricalLocation.class)
+            return new HistoricalLocationDTOPatch(ctxt.readValue(p, JSONHistoricalLocation.class)
+                                                      .withAttributes(ctxt)
                                                       .parseToDTO(JSONBase.EntityType.PATCH));
         }
     }
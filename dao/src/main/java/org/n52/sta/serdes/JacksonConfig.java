@@ -68,6 +68,8 @@ public class JacksonConfig {
         @Value("${server.feature.observation.verticalFromTo}") String verticalFromToMapping,
         @Value("${server.feature.implicitExpand:false}") boolean implicitExpand,
         @Value("${server.feature.includeDatastreamCategory:false}") boolean includeDatastreamCategory,
+        @Value("${server.feature.geojson.decimals:8}") int geoJsonDecimals,
+        @Value("${server.feature.geojson.encodeCRS:true}") boolean geoJsonEncodeCRS,
         Environment environment
     ) {
         Map<String, String> parameterMapping = new HashMap<>();
@@ -77,6 +79,7 @@ public class JacksonConfig {
         parameterMapping.put("verticalFromTo", verticalFromToMapping);
 
         String[] activeProfiles = environment.getActiveProfiles();
+        GeoJsonCodec geoJsonCodec = new GeoJsonCodec(geoJsonDecimals, geoJsonEncodeCRS);
         ArrayList<Module> modules = new ArrayList<>();
 
         SimpleModule module = new SimpleModule();
@@ -89,23 +92,27 @@ public class JacksonConfig {
                                             activeProfiles));
         serializers.addSerializer(
             new LocationSerDes.LocationSerializer(rootUrl,
+                                                  geoJsonCodec,
                                                   activeProfiles));
         serializers.addSerializer(
             new SensorSerDes.SensorSerializer(rootUrl,
                                               activeProfiles));
         serializers.addSerializer(
             new ObservationSerDes.ObservationSerializer(rootUrl,
+                                                        geoJsonCodec,
                                                         activeProfiles));
         serializers.addSerializer(
             new ObservedPropertySerDes.ObservedPropertySerializer(rootUrl,
                                                                   activeProfiles));
         serializers.addSerializer(
             new FeatureOfInterestSerDes.FeatureOfInterestSerializer(rootUrl,
+                                                                    geoJsonCodec,
                                                                     activeProfiles));
         serializers.addSerializer(
             new HistoricalLocationSerDes.HistoricalLocationSerializer(rootUrl, activeProfiles));
         serializers.addSerializer(
             new DatastreamSerDes.DatastreamSerializer(rootUrl,
+                                                      geoJsonCodec,
                                                       activeProfiles));
 
         SimpleDeserializers deserializers = new SimpleDeserializers();
@@ -33,7 +33,6 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
-import org.locationtech.jts.io.geojson.GeoJsonWriter;
 import org.n52.shetland.ogc.sta.model.LocationEntityDefinition;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.api.dto.EntityPatch;
@@ -70,12 +69,14 @@ public class LocationSerDes {
 
         private static final String ENCODINGTYPE_GEOJSON = "application/vnd.geo+json";
 
-        private static final GeoJsonWriter GEO_JSON_WRITER = new GeoJsonWriter();
         private static final long serialVersionUID = 5481294508394633788L;
 
-        public LocationSerializer(String rootUrl, String... activeExtensions) {
+        private final GeoJsonCodec geoJsonCodec;
+
+        public LocationSerializer(String rootUrl, GeoJsonCodec geoJsonCodec, String... activeExtensions) {
             super(LocationDTO.class, activeExtensions);
             this.rootUrl = rootUrl;
+            this.geoJsonCodec = geoJsonCodec;
             this.entitySetName = LocationEntityDefinition.ENTITY_SET_NAME;
         }
 
@@ -113,7 +114,7 @@ public class LocationSerDes {
                 || location.getFieldsToSerialize().contains(STAEntityDefinition.PROP_LOCATION)) {
 
                 gen.writeFieldName(STAEntityDefinition.PROP_LOCATION);
-                gen.writeRawValue(GEO_JSON_WRITER.write(location.getGeometry()));
+                geoJsonCodec.write(location.getGeometry(), gen);
             }
             if (!location.hasSelectOption() ||
                 location.getFieldsToSerialize().contains(STAEntityDefinition.PROP_PROPERTIES)) {
@@ -171,7 +172,8 @@ public class LocationSerDes {
 
         @Override
         public LocationDTO deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return p.readValueAs(JSONLocation.class)
+            return ctxt.readValue(p, JSONLocation.class)
+                .withAttributes(ctxt)
                 .parseToDTO(JSONBase.EntityType.FULL);
         }
     }
@@ -187,7 +189,8 @@ public class LocationSerDes {
 
         @Override
         public LocationDTOPatch deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return new LocationDTOPatch(p.readValueAs(JSONLocation.class)
+            return new LocationDTOPatch(ctxt.readValue(p, JSONLocation.class)
+                                            .withAttributes(ctxt)
                                             .parseToDTO(JSONBase.EntityType.PATCH));
         }
     }
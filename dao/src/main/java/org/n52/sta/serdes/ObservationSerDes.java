@@ -34,7 +34,6 @@ import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import org.locationtech.jts.io.geojson.GeoJsonWriter;
 import org.n52.shetland.ogc.sta.model.ObservationEntityDefinition;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.shetland.util.DateTimeHelper;
@@ -75,11 +74,13 @@ public class ObservationSerDes {
 
         protected static final String VERTICAL = "vertical";
         private static final long serialVersionUID = -4575044340713191285L;
-        private static final GeoJsonWriter GEO_JSON_WRITER = new GeoJsonWriter();
 
-        public ObservationSerializer(String rootUrl, String... activeExtensions) {
+        private final GeoJsonCodec geoJsonCodec;
+
+        public ObservationSerializer(String rootUrl, GeoJsonCodec geoJsonCodec, String... activeExtensions) {
             super(ObservationDTO.class, activeExtensions);
             this.rootUrl = rootUrl;
+            this.geoJsonCodec = geoJsonCodec;
             this.entitySetName = ObservationEntityDefinition.ENTITY_SET_NAME;
         }
 
@@ -177,7 +178,7 @@ public class ObservationSerDes {
                     }
                     if (observation.isSetGeometryEntity()) {
                         gen.writeFieldName("http://www.opengis.net/def/param-name/OGC-OM/2.0/samplingGeometry");
-                        gen.writeRawValue(GEO_JSON_WRITER.write(observation.getGeometryEntity().getGeometry()));
+                        geoJsonCodec.write(observation.getGeometryEntity().getGeometry(), gen);
                     }
                     if (observation.hasParameters()) {
                         for (ParameterEntity<?> parameter : observation.getParameters()) {
@@ -292,7 +293,8 @@ public class ObservationSerDes {
 
         @Override
         public ObservationDTO deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return p.readValueAs(JSONObservation.class)
+            return ctxt.readValue(p, JSONObservation.class)
+                .withAttributes(ctxt)
                 //.parseParameters(parameterMapping)
                 .parseToDTO(JSONBase.EntityType.FULL);
         }
@@ -311,7 +313,8 @@ public class ObservationSerDes {
 
         @Override
         public ObservationEntityPatch deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return new ObservationEntityPatch(p.readValueAs(JSONObservation.class)
+            return new ObservationEntityPatch(ctxt.readValue(p, JSONObservation.class)
+                                                  .withAttributes(ctxt)
                                                   //.parseParameters(parameterMapping)
                                                   .parseToDTO(JSONBase.EntityType.PATCH));
         }
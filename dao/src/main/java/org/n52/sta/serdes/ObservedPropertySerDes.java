@@ -153,7 +153,9 @@ public class ObservedPropertySerDes {
 
         @Override
         public ObservedPropertyDTO deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return p.readValueAs(JSONObservedProperty.class).parseToDTO(JSONBase.EntityType.FULL);
+            return ctxt.readValue(p, JSONObservedProperty.class)
+                .withAttributes(ctxt)
+                .parseToDTO(JSONBase.EntityType.FULL);
         }
     }
 
@@ -168,7 +170,8 @@ public class ObservedPropertySerDes {
 
         @Override
         public ObservedPropertyDTOPatch deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return new ObservedPropertyDTOPatch(p.readValueAs(JSONObservedProperty.class)
+            return new ObservedPropertyDTOPatch(ctxt.readValue(p, JSONObservedProperty.class)
+                                                    .withAttributes(ctxt)
                                                     .parseToDTO(JSONBase.EntityType.PATCH));
         }
     }
@@ -154,10 +154,12 @@ public class SensorSerDes {
         @Override
         public SensorDTO deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
             if (variableEncodingType) {
-                return p.readValueAs(JSONSensorVariableEncoding.class)
+                return ctxt.readValue(p, JSONSensorVariableEncoding.class)
+                    .withAttributes(ctxt)
                     .parseToDTO(JSONBase.EntityType.FULL);
             } else {
-                return p.readValueAs(JSONSensor.class)
+                return ctxt.readValue(p, JSONSensor.class)
+                    .withAttributes(ctxt)
                     .parseToDTO(JSONBase.EntityType.FULL);
             }
         }
@@ -177,10 +179,12 @@ public class SensorSerDes {
         @Override
         public SensorDTOPatch deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
             if (variableEncodingType) {
-                return new SensorDTOPatch(p.readValueAs(JSONSensorVariableEncoding.class)
+                return new SensorDTOPatch(ctxt.readValue(p, JSONSensorVariableEncoding.class)
+                                              .withAttributes(ctxt)
                                               .parseToDTO(JSONBase.EntityType.PATCH));
             } else {
-                return new SensorDTOPatch(p.readValueAs(JSONSensor.class)
+                return new SensorDTOPatch(ctxt.readValue(p, JSONSensor.class)
+                                              .withAttributes(ctxt)
                                               .parseToDTO(JSONBase.EntityType.PATCH));
             }
         }
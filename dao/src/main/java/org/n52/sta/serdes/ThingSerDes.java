@@ -155,7 +155,8 @@ public class ThingSerDes {
 
         @Override
         public ThingDTO deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return p.readValueAs(JSONThing.class)
+            return ctxt.readValue(p, JSONThing.class)
+                .withAttributes(ctxt)
                 .parseToDTO(JSONBase.EntityType.FULL);
         }
     }
@@ -171,7 +172,8 @@ public class ThingSerDes {
 
         @Override
         public ThingDTOPatch deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return new ThingDTOPatch(p.readValueAs(JSONThing.class)
+            return new ThingDTOPatch(ctxt.readValue(p, JSONThing.class)
+                                         .withAttributes(ctxt)
                                          .parseToDTO(JSONBase.EntityType.PATCH));
         }
     }
@@ -30,15 +30,16 @@ package org.n52.sta.serdes.json;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationContext;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.joda.time.DateTime;
 import org.n52.shetland.ogc.gml.time.Time;
 import org.n52.shetland.ogc.gml.time.TimeInstant;
 import org.n52.shetland.ogc.gml.time.TimePeriod;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.sta.api.RequestUtils;
 import org.springframework.util.Assert;
 
-import java.util.UUID;
-
 @SuppressWarnings("VisibilityModifier")
 @SuppressFBWarnings({"UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD", "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD"})
 public class JSONBase {
@@ -53,7 +54,7 @@ public class JSONBase {
     public abstract static class JSONwithId<T> {
 
         @JsonProperty("@iot.id")
-        public String identifier = UUID.randomUUID().toString();
+        public String identifier;
 
         /**
          * Backreference to parent Entity used during nested deserialization
@@ -90,6 +91,27 @@ public class JSONBase {
             identifier = rawIdentifier;
         }
 
+        /**
+         * Applies information passed alongside the payload as per-call attributes of the ObjectReader, e.g. the
+         * Entity referenced in the URL of a related POST or the id of a PATCHed Entity. This avoids rewriting the
+         * payload before deserialization.
+         *
+         * @param ctxt context of the current deserialization
+         * @return this
+         */
+        public JSONwithId<T> withAttributes(DeserializationContext ctxt) {
+            Object type = ctxt.getAttribute(RequestUtils.REFERENCED_FROM_TYPE);
+            if (type != null) {
+                referencedFromType = (String) type;
+                referencedFromID = (String) ctxt.getAttribute(RequestUtils.REFERENCED_FROM_ID);
+            }
+            Object id = ctxt.getAttribute(StaConstants.AT_IOT_ID);
+            if (id != null) {
+                setIdentifier((String) id);
+            }
+            return this;
+        }
+
         /**
          * Parses referencedFromType and referencedFromID into the specific JSON Entities.
          * Must be called before any validation is performed on the presence of related Entities!
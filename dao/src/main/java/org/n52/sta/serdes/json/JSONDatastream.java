@@ -37,11 +37,11 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.io.ParseException;
-import org.locationtech.jts.io.geojson.GeoJsonReader;
 import org.n52.shetland.ogc.om.OmConstants;
 import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.sta.api.dto.DatastreamDTO;
 import org.n52.sta.api.dto.impl.Datastream;
+import org.n52.sta.serdes.GeoJsonCodec;
 import org.springframework.util.Assert;
 
 import java.util.Arrays;
@@ -54,6 +54,7 @@ public class JSONDatastream extends JSONBase.JSONwithIdNameDescriptionTime<Datas
     implements AbstractJSONEntity {
 
     private static final String COULD_NOT_PARSE_OBS_AREA = "Could not parse observedArea to GeoJSON. Error was: ";
+    private static final GeoJsonCodec GEO_JSON_CODEC = new GeoJsonCodec();
     // JSON Properties. Matched by Annotation or variable name
     public String observationType;
     public DatastreamDTO.UnitOfMeasurement unitOfMeasurement;
@@ -160,6 +161,7 @@ public class JSONDatastream extends JSONBase.JSONwithIdNameDescriptionTime<Datas
                 Assert.isNull(Thing, INVALID_REFERENCED_ENTITY);
                 Assert.isNull(Observations, INVALID_REFERENCED_ENTITY);
 
+                Assert.notNull(identifier, INVALID_REFERENCED_ENTITY);
                 self.setId(identifier);
                 return self;
             default:
@@ -177,9 +179,8 @@ public class JSONDatastream extends JSONBase.JSONwithIdNameDescriptionTime<Datas
         }
 
         if (observedArea != null) {
-            GeoJsonReader reader = new GeoJsonReader(factory);
             try {
-                self.setObservedArea(reader.read(observedArea.toString()));
+                self.setObservedArea(GEO_JSON_CODEC.read(observedArea, factory));
             } catch (ParseException e) {
                 Assert.notNull(null, COULD_NOT_PARSE_OBS_AREA + e.getMessage());
             }
@@ -228,9 +229,8 @@ public class JSONDatastream extends JSONBase.JSONwithIdNameDescriptionTime<Datas
         self.setObservationType(observationType);
 
         if (observedArea != null) {
-            GeoJsonReader reader = new GeoJsonReader(factory);
             try {
-                self.setObservedArea(reader.read(observedArea.toString()));
+                self.setObservedArea(GEO_JSON_CODEC.read(observedArea, factory));
             } catch (ParseException e) {
                 Assert.notNull(null, COULD_NOT_PARSE_OBS_AREA + e.getMessage());
             }
@@ -35,9 +35,9 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.io.ParseException;
-import org.locationtech.jts.io.geojson.GeoJsonReader;
 import org.n52.sta.api.dto.FeatureOfInterestDTO;
 import org.n52.sta.api.dto.impl.FeatureOfInterest;
+import org.n52.sta.serdes.GeoJsonCodec;
 import org.springframework.util.Assert;
 
 import java.util.Objects;
@@ -48,6 +48,7 @@ public class JSONFeatureOfInterest extends JSONBase.JSONwithIdNameDescription<Fe
     implements AbstractJSONEntity {
 
     private static final String COULD_NOT_PARSE = "Could not parse feature to GeoJSON. Error was: ";
+    private static final GeoJsonCodec GEO_JSON_CODEC = new GeoJsonCodec();
     // JSON Properties. Matched by Annotation or variable name
     public String encodingType;
 
@@ -98,19 +99,18 @@ public class JSONFeatureOfInterest extends JSONBase.JSONwithIdNameDescription<Fe
 
                 if (feature != null) {
                     //TODO: check what is actually allowed here
-                    GeoJsonReader reader = new GeoJsonReader(factory);
-                    String geo;
+                    JsonNode geo;
                     if (FEATURE.equals(feature.get(TYPE).asText())) {
                         Assert.notNull(feature.get(GEOMETRY), INVALID_INLINE_ENTITY_MISSING + FEATURE_GEOM);
-                        geo = feature.get(GEOMETRY).toString();
+                        geo = feature.get(GEOMETRY);
                     } else {
                         Assert.isTrue(POINT.equals(feature.get(TYPE).asText()),
                                       INVALID_INLINE_ENTITY_MISSING + FEATURE_TYPE);
                         Assert.isTrue(feature.has(COORDINATES), INVALID_INLINE_ENTITY_MISSING + FEATURE_COORDS);
-                        geo = feature.toString();
+                        geo = feature;
                     }
                     try {
-                        self.setFeature(reader.read(geo));
+                        self.setFeature(GEO_JSON_CODEC.read(geo, factory));
                     } catch (ParseException e) {
                         Assert.notNull(null, COULD_NOT_PARSE + e.getMessage());
                     }
@@ -133,19 +133,18 @@ public class JSONFeatureOfInterest extends JSONBase.JSONwithIdNameDescription<Fe
 
                 if (feature != null) {
                     //TODO: check what is actually allowed here
-                    GeoJsonReader reader = new GeoJsonReader(factory);
-                    String geo;
+                    JsonNode geo;
                     if (FEATURE.equals(feature.get(TYPE).asText())) {
                         Assert.notNull(feature.get(GEOMETRY), INVALID_INLINE_ENTITY_MISSING + FEATURE_GEOM);
-                        geo = feature.get(GEOMETRY).toString();
+                        geo = feature.get(GEOMETRY);
                     } else {
                         Assert.isTrue(POINT.equals(feature.get(TYPE).asText()),
                                       INVALID_INLINE_ENTITY_MISSING + FEATURE_TYPE);
                         Assert.isTrue(feature.has(COORDINATES), INVALID_INLINE_ENTITY_MISSING + FEATURE_COORDS);
-                        geo = feature.toString();
+                        geo = feature;
                     }
                     try {
-                        self.setFeature(reader.read(geo));
+                        self.setFeature(GEO_JSON_CODEC.read(geo, factory));
                     } catch (ParseException e) {
                         Assert.notNull(null, COULD_NOT_PARSE + e.getMessage());
                     }
@@ -166,6 +165,7 @@ public class JSONFeatureOfInterest extends JSONBase.JSONwithIdNameDescription<Fe
                 Assert.isNull(properties, INVALID_REFERENCED_ENTITY);
                 Assert.isNull(Observations, INVALID_REFERENCED_ENTITY);
 
+                Assert.notNull(identifier, INVALID_REFERENCED_ENTITY);
                 self.setId(identifier);
                 return self;
             default:
@@ -126,6 +126,7 @@ public class JSONHistoricalLocation extends JSONBase.JSONwithIdTime<HistoricalLo
                 Assert.isNull(Thing, INVALID_REFERENCED_ENTITY);
                 Assert.isNull(Locations, INVALID_REFERENCED_ENTITY);
 
+                Assert.notNull(identifier, INVALID_REFERENCED_ENTITY);
                 self.setId(identifier);
                 return self;
             default:
@@ -37,9 +37,9 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.io.ParseException;
-import org.locationtech.jts.io.geojson.GeoJsonReader;
 import org.n52.sta.api.dto.LocationDTO;
 import org.n52.sta.api.dto.impl.Location;
+import org.n52.sta.serdes.GeoJsonCodec;
 import org.springframework.util.Assert;
 
 import java.util.Arrays;
@@ -52,6 +52,7 @@ import java.util.stream.Collectors;
 public class JSONLocation extends JSONBase.JSONwithIdNameDescription<LocationDTO> implements AbstractJSONEntity {
 
     private static final String COULD_NOT_PARSE = "Could not parse location to GeoJSON. Error was: ";
+    private static final GeoJsonCodec GEO_JSON_CODEC = new GeoJsonCodec();
 
     // JSON Properties. Matched by Annotation or variable name
     public String encodingType;
@@ -102,7 +103,6 @@ public class JSONLocation extends JSONBase.JSONwithIdNameDescription<LocationDTO
 
     @Override
     public LocationDTO parseToDTO(JSONBase.EntityType type) {
-        GeoJsonReader reader;
         switch (type) {
             case FULL:
                 parseReferencedFrom();
@@ -130,12 +130,11 @@ public class JSONLocation extends JSONBase.JSONwithIdNameDescription<LocationDTO
                 // This is already set by default
                 // self.setEncodingType(encodingType);
 
-                reader = new GeoJsonReader(factory);
                 try {
                     if (location.has(GEOMETRY)) {
-                        self.setGeometry(reader.read(location.get(GEOMETRY).toString()));
+                        self.setGeometry(GEO_JSON_CODEC.read(location.get(GEOMETRY), factory));
                     } else {
-                        self.setGeometry(reader.read(location.toString()));
+                        self.setGeometry(GEO_JSON_CODEC.read(location, factory));
                     }
                 } catch (ParseException e) {
                     Assert.notNull(null, COULD_NOT_PARSE + e.getMessage());
@@ -186,12 +185,11 @@ public class JSONLocation extends JSONBase.JSONwithIdNameDescription<LocationDTO
                 }
 
                 if (location != null) {
-                    reader = new GeoJsonReader(factory);
                     try {
                         if (location.has(GEOMETRY)) {
-                            self.setGeometry(reader.read(location.get(GEOMETRY).toString()));
+                            self.setGeometry(GEO_JSON_CODEC.read(location.get(GEOMETRY), factory));
                         } else {
-                            self.setGeometry(reader.read(location.toString()));
+                            self.setGeometry(GEO_JSON_CODEC.read(location, factory));
                         }
                     } catch (ParseException e) {
                         Assert.notNull(null, COULD_NOT_PARSE + e.getMessage());
@@ -222,6 +220,7 @@ public class JSONLocation extends JSONBase.JSONwithIdNameDescription<LocationDTO
                 Assert.isNull(properties, INVALID_REFERENCED_ENTITY);
                 Assert.isNull(Things, INVALID_REFERENCED_ENTITY);
 
+                Assert.notNull(identifier, INVALID_REFERENCED_ENTITY);
                 self.setId(identifier);
                 return self;
             default:
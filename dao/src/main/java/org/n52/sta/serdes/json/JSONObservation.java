@@ -30,10 +30,12 @@
 package org.n52.sta.serdes.json;
 
 import com.fasterxml.jackson.annotation.JsonManagedReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.sta.api.RequestUtils;
 import org.n52.sta.api.dto.ObservationDTO;
 import org.n52.sta.api.dto.impl.Observation;
 import org.springframework.util.Assert;
@@ -55,10 +57,18 @@ public class JSONObservation extends JSONBase.JSONwithIdTime<ObservationDTO> imp
     @JsonManagedReference
     public JSONDatastream Datastream;
 
+    private String idempotencyKey;
+
     public JSONObservation() {
         self = new Observation();
     }
 
+    @Override
+    public JSONwithId<ObservationDTO> withAttributes(DeserializationContext ctxt) {
+        idempotencyKey = (String) ctxt.getAttribute(RequestUtils.IDEMPOTENCY_KEY);
+        return super.withAttributes(ctxt);
+    }
+
     @Override
     protected void parseReferencedFrom() {
         if (referencedFromType != null) {
@@ -97,6 +107,7 @@ public class JSONObservation extends JSONBase.JSONwithIdTime<ObservationDTO> imp
                 Assert.isNull(resultQuality, INVALID_REFERENCED_ENTITY);
                 Assert.isNull(parameters, INVALID_REFERENCED_ENTITY);
 
+                Assert.notNull(identifier, INVALID_REFERENCED_ENTITY);
                 self.setId(identifier);
                 return self;
             default:
@@ -104,6 +115,29 @@ public class JSONObservation extends JSONBase.JSONwithIdTime<ObservationDTO> imp
         }
     }
 
+    /**
+     * Converts the result into a Java value matching its JSON token type, so that it does not need to be parsed
+     * again when it is converted into the observationType of the Datastream.
+     *
+     * @param node result as parsed from JSON
+     * @return Integer, BigDecimal, Boolean or String for scalar results, JsonNode otherwise
+     */
+    private Object parseResult(JsonNode node) {
+        if (node == null) {
+            return null;
+        }
+        switch (node.getNodeType()) {
+            case NUMBER:
+                return node.isInt() ? Integer.valueOf(node.intValue()) : node.decimalValue();
+            case BOOLEAN:
+                return node.booleanValue();
+            case STRING:
+                return node.textValue();
+            default:
+                return node;
+        }
+    }
+
     private ObservationDTO createPatchEntity() {
         self.setId(identifier);
 
@@ -125,7 +159,7 @@ public class JSONObservation extends JSONBase.JSONwithIdTime<ObservationDTO> imp
             self.setPhenomenonTime(parseTime(validTime));
         }
 
-        self.setResult(result);
+        self.setResult(parseResult(result));
 
         // Link to Datastream
         if (Datastream != null) {
@@ -162,7 +196,8 @@ public class JSONObservation extends JSONBase.JSONwithIdTime<ObservationDTO> imp
         self.setParameters(parameters);
 
         // result
-        self.setResult(result);
+        self.setResult(parseResult(result));
+        self.setIdempotencyKey(idempotencyKey);
 
         // Link to Datastream
         if (Datastream != null) {
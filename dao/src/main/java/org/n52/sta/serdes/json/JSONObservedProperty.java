@@ -107,6 +107,7 @@ public class JSONObservedProperty extends JSONBase.JSONwithIdNameDescription<Obs
                 Assert.isNull(properties, INVALID_REFERENCED_ENTITY);
                 Assert.isNull(Datastreams, INVALID_REFERENCED_ENTITY);
 
+                Assert.notNull(identifier, INVALID_REFERENCED_ENTITY);
                 self.setId(identifier);
                 return self;
             default:
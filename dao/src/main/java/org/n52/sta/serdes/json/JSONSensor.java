@@ -119,6 +119,7 @@ public class JSONSensor extends JSONBase.JSONwithIdNameDescription<SensorDTO> im
                 Assert.isNull(properties, INVALID_REFERENCED_ENTITY);
                 Assert.isNull(Datastreams, INVALID_REFERENCED_ENTITY);
 
+                Assert.notNull(identifier, INVALID_REFERENCED_ENTITY);
                 self.setId(identifier);
                 return self;
             default:
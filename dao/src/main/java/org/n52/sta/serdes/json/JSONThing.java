@@ -164,6 +164,7 @@ public class JSONThing extends JSONBase.JSONwithIdNameDescription<ThingDTO> impl
                 Assert.isNull(Locations, INVALID_REFERENCED_ENTITY);
                 Assert.isNull(Datastreams, INVALID_REFERENCED_ENTITY);
 
+                Assert.notNull(identifier, INVALID_REFERENCED_ENTITY);
                 self.setId(identifier);
                 return self;
             default:
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.serdes;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Tests reading and writing GeoJSON geometries with {@link GeoJsonCodec}.
+ */
+public class GeoJsonCodecTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final GeometryFactory factory = new GeometryFactory(new PrecisionModel(PrecisionModel.FLOATING), 4326);
+    private final GeoJsonCodec codec = new GeoJsonCodec();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        WKTReader reader = new WKTReader(factory);
+        String[] wkts = {
+            "POINT (7.65 51.93)",
+            "POINT (7.65 51.93 42)",
+            "LINESTRING (30 10, 10 30, 40 40)",
+            "POLYGON ((30 10, 40 40, 20 40, 10 20, 30 10), (20 30, 35 35, 30 20, 20 30))",
+            "MULTIPOINT ((10 40), (40 30), (20 20), (30 10))",
+            "MULTILINESTRING ((10 10, 20 20, 10 40), (40 40, 30 30, 40 20, 30 10))",
+            "MULTIPOLYGON (((30 20, 45 40, 10 40, 30 20)), ((15 5, 40 10, 10 20, 5 10, 15 5)))",
+            "GEOMETRYCOLLECTION (POINT (40 10), LINESTRING (10 10, 20 20, 10 40))"
+        };
+        for (String wkt : wkts) {
+            Geometry geometry = reader.read(wkt);
+            Geometry read = codec.read(write(geometry), factory);
+            Assertions.assertTrue(geometry.equalsExact(read), wkt + " was read as " + read);
+            Assertions.assertEquals(geometry.getGeometryType(), read.getGeometryType());
+            Assertions.assertEquals(4326, read.getSRID());
+        }
+    }
+
+    @Test
+    public void testCrsIsWrittenAndRead() throws Exception {
+        Geometry geometry = new WKTReader(new GeometryFactory(new PrecisionModel(), 25832)).read("POINT (1 2)");
+        JsonNode json = write(geometry);
+        Assertions.assertEquals("EPSG:25832", json.get("crs").get("properties").get("name").asText());
+        Assertions.assertEquals(25832, codec.read(json, factory).getSRID());
+    }
+
+    @Test
+    public void testCoordinatesBeforeType() throws Exception {
+        Geometry read = codec.read(MAPPER.readTree("{\"coordinates\": [1, 2], \"type\": \"Point\"}"), factory);
+        Assertions.assertEquals("Point", read.getGeometryType());
+        Assertions.assertEquals(2, read.getCoordinate().getY());
+    }
+
+    @Test
+    public void testInvalidCrsIsRejected() throws Exception {
+        for (String name : new String[] {"EPSG:abc", "EPSG:", "EPSG:99999999999"}) {
+            JsonNode json = MAPPER.readTree("{\"type\": \"Point\", \"coordinates\": [1, 2], "
+                                                + "\"crs\": {\"type\": \"name\", \"properties\": {\"name\": \""
+                                                + name + "\"}}}");
+            Assertions.assertThrows(ParseException.class, () -> codec.read(json, factory), name);
+        }
+    }
+
+    @Test
+    public void testInvalidGeometryIsRejected() throws Exception {
+        String[] invalid = {
+            "{\"coordinates\": [1, 2]}",
+            "{\"type\": \"Point\"}",
+            "{\"type\": \"Point\", \"coordinates\": [1]}",
+            "{\"type\": \"Point\", \"coordinates\": [\"a\", 2]}",
+            "{\"type\": \"Circle\", \"coordinates\": [1, 2]}"
+        };
+        for (String json : invalid) {
+            JsonNode node = MAPPER.readTree(json);
+            Assertions.assertThrows(ParseException.class, () -> codec.read(node, factory), json);
+        }
+    }
+
+    private JsonNode write(Geometry geometry) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator gen = MAPPER.getFactory().createGenerator(writer)) {
+            codec.write(geometry, gen);
+        }
+        return MAPPER.readTree(writer.toString());
+    }
+}
@@ -29,7 +29,7 @@
 package org.n52.sta.http;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
@@ -41,11 +41,11 @@ import org.n52.sta.utils.AbstractSTARequestHandler;
 import org.springframework.http.HttpMethod;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.servlet.HandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Handles all CUD requests (POST, PUT, DELETE)
@@ -70,15 +70,17 @@ public abstract class CudRequestHandler<T extends StaDTO> extends AbstractSTAReq
      * e.g. ../Datastreams
      *
      * @param collectionName name of entity. Automatically set by Spring via @PathVariable
-     * @param body           request Body. Automatically set by Spring via @RequestBody
+     * @param body           request Body
+     * @param request        full request
      */
     @SuppressWarnings("unchecked")
     public StaDTO handlePostDirect(String collectionName,
-                                   String body)
+                                   InputStream body,
+                                   HttpServletRequest request)
         throws IOException, STACRUDException, STAInvalidUrlException {
-        Class<T> clazz = collectionNameToClass(collectionName);
+        ObjectReader reader = createReader(collectionNameToClass(collectionName), request);
         return ((AbstractSensorThingsEntityService<T>)
-            serviceRepository.getEntityService(collectionName)).create(mapper.readValue(body, clazz));
+            serviceRepository.getEntityService(collectionName)).create(reader.readValue(body));
     }
 
     /**
@@ -87,29 +89,27 @@ public abstract class CudRequestHandler<T extends StaDTO> extends AbstractSTAReq
      *
      * @param entity  name and id of related entity. Automatically set by Spring via @PathVariable
      * @param target  type of entity POSTed. Automatically set by Spring via @PathVariable
-     * @param body    request Body. Automatically set by Spring via @RequestBody
+     * @param body    request Body
      * @param request full request
      */
     @SuppressWarnings("unchecked")
     public StaDTO handlePostRelated(String entity,
                                     String target,
-                                    String body,
+                                    InputStream body,
                                     HttpServletRequest request)
         throws Exception {
         String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
         validateResource(lookupPath, serviceRepository);
 
-        // Add information about the related Entity to json payload to be used during deserialization
+        // Pass information about the related Entity to be used during deserialization
         String[] split = splitId(entity);
         String sourceType = split[0];
         String sourceId = split[1];
-        ObjectNode jsonBody = (ObjectNode) mapper.readTree(body);
-        jsonBody.put(REFERENCED_FROM_TYPE, sourceType);
-        jsonBody.put(REFERENCED_FROM_ID, sourceId);
-
-        Class<T> clazz = collectionNameToClass(target);
+        ObjectReader reader = createReader(collectionNameToClass(target), request)
+            .withAttribute(REFERENCED_FROM_TYPE, sourceType)
+            .withAttribute(REFERENCED_FROM_ID, sourceId);
         return ((AbstractSensorThingsEntityService<T>)
-            serviceRepository.getEntityService(target)).create(mapper.readValue(jsonBody.toString(), clazz));
+            serviceRepository.getEntityService(target)).create(reader.readValue(body));
     }
 
     /**
@@ -118,25 +118,26 @@ public abstract class CudRequestHandler<T extends StaDTO> extends AbstractSTAReq
      *
      * @param collectionName name of entity. Automatically set by Spring via @PathVariable
      * @param id             id of entity. Automatically set by Spring via @PathVariable
+     * @param body           request Body
      * @param request        full request
      */
     @SuppressWarnings("unchecked")
     public StaDTO handleDirectPatch(@PathVariable String collectionName,
                                     @PathVariable String id,
-                                    @RequestBody String body,
+                                    InputStream body,
                                     HttpServletRequest request)
         throws Exception {
         String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
         validateResource(lookupPath, serviceRepository);
 
         Class<EntityPatch> clazz = collectionNameToPatchClass(collectionName);
-        ObjectNode jsonBody = (ObjectNode) mapper.readTree(body);
         String strippedId = unescapeIdIfWanted(id.substring(1, id.length() - 1));
-        jsonBody.put(StaConstants.AT_IOT_ID, strippedId);
+        EntityPatch<T> patch = mapper.readerFor(clazz)
+            .withAttribute(StaConstants.AT_IOT_ID, strippedId)
+            .readValue(body);
         return ((AbstractSensorThingsEntityService<T>)
             serviceRepository.getEntityService(collectionName)).update(strippedId,
-                                                                       (T) ((mapper.readValue(jsonBody.toString(),
-                                                                                              clazz))).getEntity(),
+                                                                       patch.getEntity(),
                                                                        HttpMethod.PATCH);
     }
 
@@ -146,12 +147,13 @@ public abstract class CudRequestHandler<T extends StaDTO> extends AbstractSTAReq
      *
      * @param entity  identifier of related. Automatically set by Spring via @PathVariable
      * @param target  name of entity. Automatically set by Spring via @PathVariable
+     * @param body    request Body
      * @param request full request
      */
     @SuppressWarnings("unchecked")
     public StaDTO handleRelatedPatch(String entity,
                                      String target,
-                                     String body,
+                                     InputStream body,
                                      HttpServletRequest request)
         throws Exception {
         String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
@@ -171,13 +173,12 @@ public abstract class CudRequestHandler<T extends StaDTO> extends AbstractSTAReq
         Class<EntityPatch> clazz = collectionNameToPatchClass(target);
         Assert.notNull(clazz, "Could not find Patch Class!");
 
-        ObjectNode jsonBody = (ObjectNode) mapper.readTree(body);
-        jsonBody.put(StaConstants.AT_IOT_ID, entityId);
+        EntityPatch<T> patch = mapper.readerFor(clazz)
+            .withAttribute(StaConstants.AT_IOT_ID, entityId)
+            .readValue(body);
 
         // Do update
-        return entityService.update(entityId,
-                                    (T) ((mapper.readValue(jsonBody.toString(), clazz))).getEntity(),
-                                    HttpMethod.PATCH);
+        return entityService.update(entityId, patch.getEntity(), HttpMethod.PATCH);
     }
 
     /**
@@ -230,4 +231,13 @@ public abstract class CudRequestHandler<T extends StaDTO> extends AbstractSTAReq
         entityService.delete(entityId);
         return null;
     }
+
+    /**
+     * Creates a reader for POSTed Entities passing the Idempotency-Key header of the request to deserialization.
+     */
+    private ObjectReader createReader(Class<T> clazz, HttpServletRequest request) {
+        ObjectReader reader = mapper.readerFor(clazz);
+        String idempotencyKey = request.getHeader(IDEMPOTENCY_KEY);
+        return idempotencyKey == null ? reader : reader.withAttribute(IDEMPOTENCY_KEY, idempotencyKey);
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.http;
+
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes request processing that accesses the Persistence Layer on a dedicated executor, freeing the servlet
+ * container threads while requests wait for database access. By default the executor is a fixed pool sized to the
+ * database connection pool with a bounded queue. When running on a JDK providing virtual threads these may be used
+ * instead. The number of requests in progress on virtual threads is limited to the capacity of the pool and queue.
+ */
+@Component
+@ConditionalOnProperty(value = "http.async.enabled", havingValue = "true")
+public class DaoRequestExecutor implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DaoRequestExecutor.class);
+    private static final String VIRTUAL_THREAD_FACTORY_METHOD = "newVirtualThreadPerTaskExecutor";
+    private static final String EXECUTOR_OVERLOADED = "Unable to process request. Server is overloaded!";
+
+    private final ExecutorService executor;
+    // Limits requests in progress if the executor does not bound them itself, i.e. when using virtual threads
+    private final Semaphore permits;
+
+    public DaoRequestExecutor(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                              @Value("${http.async.queueSize:1000}") int queueSize,
+                              @Value("${http.async.virtualThreads:false}") boolean useVirtualThreads) {
+        ExecutorService virtual = useVirtualThreads ? createVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            LOGGER.info("Processing HTTP requests asynchronously using virtual threads.");
+            this.executor = virtual;
+            this.permits = new Semaphore(poolSize + queueSize);
+        } else {
+            LOGGER.info("Processing HTTP requests asynchronously using {} threads.", poolSize);
+            this.executor = new ThreadPoolExecutor(poolSize,
+                                                   poolSize,
+                                                   0L,
+                                                   TimeUnit.MILLISECONDS,
+                                                   new ArrayBlockingQueue<>(queueSize),
+                                                   new DaoThreadFactory());
+            this.permits = null;
+        }
+    }
+
+    /**
+     * Submits given task for execution.
+     *
+     * @param task task to be executed
+     * @param <T>  return type of the task
+     * @return future completed with the result of the task or exceptionally with the exception thrown by the task
+     */
+    public <T> CompletableFuture<T> submit(RequestTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (permits != null && !permits.tryAcquire()) {
+            LOGGER.debug(EXECUTOR_OVERLOADED);
+            future.completeExceptionally(new STACRUDException(EXECUTOR_OVERLOADED, HTTPStatus.SERVICE_UNAVAILABLE));
+            return future;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            LOGGER.debug(EXECUTOR_OVERLOADED, e);
+            future.completeExceptionally(new STACRUDException(EXECUTOR_OVERLOADED, HTTPStatus.SERVICE_UNAVAILABLE));
+        }
+        return future;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    private ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod(VIRTUAL_THREAD_FACTORY_METHOD);
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads are not supported by the running JVM. Falling back to fixed thread pool.");
+            return null;
+        }
+    }
+
+    /**
+     * Unit of work executed by {@link DaoRequestExecutor}.
+     *
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    public interface RequestTask<T> {
+
+        T call() throws Exception;
+    }
+
+
+    private static final class DaoThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "sta-dao-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.http;
+
+import org.n52.sta.api.RequestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces identical concurrent GET requests. The first request for a given path and set of query options is
+ * processed as usual while its response is recorded. Identical requests arriving while it is processed wait for it
+ * to finish and are answered with the recorded response instead of querying the database again. Followers waiting
+ * longer than maxWait, or whose leader did not produce a shareable response (e.g. because it failed or exceeded
+ * maxBytes), are processed on their own.
+ */
+@Component
+@ConditionalOnProperty(value = "http.coalescing.enabled", havingValue = "true")
+@ManagedResource(objectName = "org.n52.sta:name=RequestCoalescingFilter",
+                 description = "Coalesces identical concurrent GET requests")
+public class RequestCoalescingFilter implements Filter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestCoalescingFilter.class);
+    // Content type and length are replayed explicitly as containers do not necessarily expose them as headers
+    private static final List<String> SKIPPED_HEADERS = Arrays.asList(HttpHeaders.CONTENT_TYPE,
+                                                                      HttpHeaders.CONTENT_LENGTH,
+                                                                      HttpHeaders.TRANSFER_ENCODING,
+                                                                      HttpHeaders.DATE);
+    private static final String CHARSET = "charset=";
+
+    private final Map<String, CompletableFuture<RecordedResponse>> inFlight = new ConcurrentHashMap<>();
+    private final long maxWait;
+    private final int maxBytes;
+
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder followers = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder unshared = new LongAdder();
+
+    public RequestCoalescingFilter(@Value("${http.coalescing.maxWait:1000}") long maxWait,
+                                   @Value("${http.coalescing.maxBytes:4194304}") int maxBytes) {
+        this.maxWait = maxWait;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+        throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        String key = createKey(request);
+        if (key == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        CompletableFuture<RecordedResponse> future = new CompletableFuture<>();
+        CompletableFuture<RecordedResponse> leader = inFlight.putIfAbsent(key, future);
+        if (leader == null) {
+            lead(key, future, request, response, chain);
+        } else if (!follow(leader, response)) {
+            chain.doFilter(request, response);
+        }
+    }
+
+    @ManagedAttribute(description = "Requests processed and shared with identical concurrent requests")
+    public long getLeaders() {
+        return leaders.sum();
+    }
+
+    @ManagedAttribute(description = "Requests answered with the response of an identical concurrent request")
+    public long getFollowers() {
+        return followers.sum();
+    }
+
+    @ManagedAttribute(description = "Requests processed on their own after waiting maxWait for an identical request")
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @ManagedAttribute(description = "Requests processed on their own as the identical request was not shareable")
+    public long getUnshared() {
+        return unshared.sum();
+    }
+
+    @ManagedAttribute(description = "Share of coalesced requests that were answered without querying the database")
+    public double getCollapseRatio() {
+        long served = followers.sum();
+        long total = served + leaders.sum();
+        return total == 0 ? 0 : (double) served / total;
+    }
+
+    @ManagedAttribute(description = "Requests currently processed for coalescing")
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private void lead(String key,
+                      CompletableFuture<RecordedResponse> future,
+                      HttpServletRequest request,
+                      HttpServletResponse response,
+                      FilterChain chain) throws IOException, ServletException {
+        leaders.increment();
+        RecordingResponseWrapper recording = new RecordingResponseWrapper(response, maxBytes);
+        try {
+            chain.doFilter(request, recording);
+        } catch (IOException | ServletException | RuntimeException e) {
+            complete(key, future, null);
+            throw e;
+        }
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override public void onComplete(AsyncEvent event) {
+                    complete(key, future, recording.toRecordedResponse());
+                }
+
+                @Override public void onTimeout(AsyncEvent event) {
+                    complete(key, future, null);
+                }
+
+                @Override public void onError(AsyncEvent event) {
+                    complete(key, future, null);
+                }
+
+                @Override public void onStartAsync(AsyncEvent event) {
+                    // Listener has to be registered again for a new async cycle
+                    event.getAsyncContext().addListener(this);
+                }
+            });
+        } else {
+            complete(key, future, recording.toRecordedResponse());
+        }
+    }
+
+    private void complete(String key,
+                          CompletableFuture<RecordedResponse> future,
+                          RecordedResponse recorded) {
+        // Requests arriving from now on start a new computation
+        inFlight.remove(key, future);
+        future.complete(recorded);
+    }
+
+    private boolean follow(CompletableFuture<RecordedResponse> leader, HttpServletResponse response)
+        throws IOException {
+        RecordedResponse recorded;
+        try {
+            recorded = leader.get(maxWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            LOGGER.debug("Coalesced request failed", e);
+            recorded = null;
+        }
+        if (recorded == null || response.isCommitted()) {
+            unshared.increment();
+            return false;
+        }
+        followers.increment();
+        recorded.writeTo(response);
+        return true;
+    }
+
+    /**
+     * Creates the key identifying identical requests. Query options are sorted as their order does not change the
+     * response. Path and query options are used as sent by the client, i.e. still percent-encoded, so that an
+     * encoded '&amp;' or '?' cannot make different requests share a key.
+     *
+     * @param request request
+     * @return key or null if the request is not coalesced
+     */
+    private String createKey(HttpServletRequest request) {
+        if (!HttpMethod.GET.matches(request.getMethod())
+            || request.getRequestURI().endsWith(RequestUtils.SLASHSTREAM)) {
+            return null;
+        }
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept != null && accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE)) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(request.getRequestURI());
+        String query = request.getQueryString();
+        if (query != null && !query.isEmpty()) {
+            List<String> options = new ArrayList<>();
+            for (String option : query.split("&")) {
+                if (!option.isEmpty()) {
+                    options.add(option);
+                }
+            }
+            options.sort(null);
+            key.append('?').append(String.join("&", options));
+        }
+        return key.toString();
+    }
+
+
+    /**
+     * Response of a leading request replayed to its followers.
+     */
+    private static final class RecordedResponse {
+
+        private final int status;
+        private final String contentType;
+        private final String characterEncoding;
+        private final Map<String, Collection<String>> headers;
+        private final byte[] body;
+
+        RecordedResponse(int status,
+                         String contentType,
+                         String characterEncoding,
+                         Map<String, Collection<String>> headers,
+                         byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.characterEncoding = characterEncoding;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        void writeTo(HttpServletResponse response) throws IOException {
+            response.setStatus(status);
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            if (characterEncoding != null) {
+                response.setCharacterEncoding(characterEncoding);
+            }
+            for (Map.Entry<String, Collection<String>> header : headers.entrySet()) {
+                for (String value : header.getValue()) {
+                    response.addHeader(header.getKey(), value);
+                }
+            }
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            response.flushBuffer();
+        }
+    }
+
+
+    /**
+     * Passes the response through to the client while keeping a copy of the body. Stops copying once the body
+     * exceeds maxBytes or the response is written through a Writer or sendError.
+     */
+    private static final class RecordingResponseWrapper extends HttpServletResponseWrapper {
+
+        private final int maxBytes;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private volatile boolean shareable = true;
+        private ServletOutputStream outputStream;
+
+        RecordingResponseWrapper(HttpServletResponse response, int maxBytes) {
+            super(response);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public synchronized ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new RecordingOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            shareable = false;
+            return super.getWriter();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            shareable = false;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            shareable = false;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            shareable = false;
+            super.sendRedirect(location);
+        }
+
+        synchronized RecordedResponse toRecordedResponse() {
+            if (!shareable) {
+                return null;
+            }
+            Map<String, Collection<String>> headers = new LinkedHashMap<>();
+            for (String name : getHeaderNames()) {
+                if (SKIPPED_HEADERS.stream().noneMatch(name::equalsIgnoreCase)) {
+                    headers.put(name, new ArrayList<>(getHeaders(name)));
+                }
+            }
+            String contentType = getContentType();
+            // Without an explicit charset getCharacterEncoding() returns the container default, which must not be
+            // added to the Content-Type of followers
+            String characterEncoding =
+                contentType != null && contentType.toLowerCase(Locale.ROOT).contains(CHARSET)
+                    ? getCharacterEncoding()
+                    : null;
+            return new RecordedResponse(getStatus(), contentType, characterEncoding, headers, copy.toByteArray());
+        }
+
+        private synchronized void record(byte[] b, int off, int len) {
+            if (shareable) {
+                if (copy.size() + len > maxBytes) {
+                    shareable = false;
+                    copy.reset();
+                } else {
+                    copy.write(b, off, len);
+                }
+            }
+        }
+
+
+        private final class RecordingOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream delegate;
+
+            RecordingOutputStream(ServletOutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                delegate.write(b);
+                record(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                delegate.write(b, off, len);
+                record(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                delegate.setWriteListener(writeListener);
+            }
+        }
+    }
+}
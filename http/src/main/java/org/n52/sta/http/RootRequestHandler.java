@@ -59,6 +59,8 @@ public class RootRequestHandler {
         "http://www.opengis.net/spec/iot_sensing/1.1/req/receive-updates-via-mqtt/receive-updates";
     private static final String HTTP_WWW_OPENGIS_NET_SPEC_IOT_SENSING_1_1_REQ_CREATE_UPDATE_DELETE =
         "http://www.opengis.net/spec/iot_sensing/1.1/req/create-update-delete";
+    private static final String HTTP_WWW_OPENGIS_NET_SPEC_IOT_SENSING_1_1_REQ_BATCH_REQUEST =
+        "http://www.opengis.net/spec/iot_sensing/1.1/req/batch-request/batch-request";
     private static final String HTTP_WWW_OPENGIS_NET_SPEC_IOT_SENSING_1_1_REQ_REQUEST_DATA =
         "http://www.opengis.net/spec/iot_sensing/1.1/req/request-data";
     private static final String
@@ -118,6 +120,8 @@ public class RootRequestHandler {
         if (!serverProperties.getHttpReadOnly()) {
             conformanceClasses.add(
                 HTTP_WWW_OPENGIS_NET_SPEC_IOT_SENSING_1_1_REQ_CREATE_UPDATE_DELETE);
+            conformanceClasses.add(
+                HTTP_WWW_OPENGIS_NET_SPEC_IOT_SENSING_1_1_REQ_BATCH_REQUEST);
         }
 
         // 52N Extensions
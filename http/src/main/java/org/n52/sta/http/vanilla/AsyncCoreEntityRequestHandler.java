@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.http.vanilla;
+
+import org.n52.sta.api.CoreRequestUtils;
+import org.n52.sta.api.EntityServiceFactory;
+import org.n52.sta.api.dto.StaDTO;
+import org.n52.sta.http.DaoRequestExecutor;
+import org.n52.sta.http.EntityRequestHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handles all requests to Entities and to Entity association links asynchronously.
+ * Requests are processed on the {@link DaoRequestExecutor}.
+ * e.g. /Things(52)
+ * e.g. /Datastreams(52)/Thing
+ * e.g. /Things(52)/$ref
+ * e.g. /Datastreams(52)/Thing/$ref
+ */
+@RestController
+@ConditionalOnProperty(value = "http.async.enabled", havingValue = "true")
+public class AsyncCoreEntityRequestHandler extends EntityRequestHandler implements CoreRequestUtils {
+
+    private final DaoRequestExecutor executor;
+
+    public AsyncCoreEntityRequestHandler(@Value("${server.rootUrl}") String rootUrl,
+                                         @Value("${server.feature.escapeId:true}") boolean shouldEscapeId,
+                                         EntityServiceFactory serviceRepository,
+                                         DaoRequestExecutor executor) {
+        super(rootUrl, shouldEscapeId, serviceRepository);
+        this.executor = executor;
+    }
+
+    @GetMapping(
+        value = MAPPING_PREFIX + CoreRequestUtils.ENTITY_IDENTIFIED_DIRECTLY,
+        produces = "application/json"
+    )
+    public CompletableFuture<StaDTO> readEntityDirectAsync(@PathVariable String entity,
+                                                           @PathVariable String id,
+                                                           HttpServletRequest request) {
+        return executor.submit(() -> super.readEntityDirect(entity, id, request));
+    }
+
+    @GetMapping(
+        value = MAPPING_PREFIX + CoreRequestUtils.ENTITY_IDENTIFIED_DIRECTLY + SLASHREF,
+        produces = "application/json"
+    )
+    public CompletableFuture<StaDTO> readEntityRefDirectAsync(@PathVariable String entity,
+                                                              @PathVariable String id,
+                                                              HttpServletRequest request) {
+        return executor.submit(() -> super.readEntityRefDirect(entity, id, request));
+    }
+
+    @GetMapping(
+        value = {
+            MAPPING_PREFIX + CoreRequestUtils.ENTITY_IDENTIFIED_BY_DATASTREAM_PATH_VARIABLE,
+            MAPPING_PREFIX + CoreRequestUtils.ENTITY_IDENTIFIED_BY_OBSERVATION_PATH_VARIABLE,
+            MAPPING_PREFIX + CoreRequestUtils.ENTITY_IDENTIFIED_BY_HISTORICAL_LOCATION_PATH_VARIABLE
+        },
+        produces = "application/json"
+    )
+    public CompletableFuture<StaDTO> readRelatedEntityAsync(@PathVariable String entity,
+                                                            @PathVariable String target,
+                                                            HttpServletRequest request) {
+        return executor.submit(() -> super.readRelatedEntity(entity, target, request));
+    }
+
+    @GetMapping(
+        value = {
+            MAPPING_PREFIX + CoreRequestUtils.ENTITY_IDENTIFIED_BY_DATASTREAM_PATH_VARIABLE + SLASHREF,
+            MAPPING_PREFIX + CoreRequestUtils.ENTITY_IDENTIFIED_BY_OBSERVATION_PATH_VARIABLE + SLASHREF,
+            MAPPING_PREFIX + CoreRequestUtils.ENTITY_IDENTIFIED_BY_HISTORICAL_LOCATION_PATH_VARIABLE + SLASHREF
+        },
+        produces = "application/json"
+    )
+    public CompletableFuture<StaDTO> readRelatedEntityRefAsync(@PathVariable String entity,
+                                                               @PathVariable String target,
+                                                               HttpServletRequest request) {
+        return executor.submit(() -> super.readRelatedEntityRef(entity, target, request));
+    }
+}
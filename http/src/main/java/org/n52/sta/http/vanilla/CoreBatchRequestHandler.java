@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.http.vanilla;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.shetland.ogc.sta.exception.STAInvalidFilterExpressionException;
+import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
+import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
+import org.n52.shetland.ogc.sta.exception.STANotFoundException;
+import org.n52.sta.api.ChangeSetExecutor;
+import org.n52.sta.api.CoreRequestUtils;
+import org.n52.sta.api.dto.StaDTO;
+import org.n52.sta.http.CollectionRequestHandler;
+import org.n52.sta.http.CudRequestHandler;
+import org.n52.sta.http.EntityRequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Handles batch requests in JSON format (e.g. POST /$batch). Requests are dispatched to the regular request
+ * handlers. Consecutive requests sharing an atomicityGroup form a change set which is executed in a single
+ * transaction. Entities created in a change set may be referenced by subsequent requests of the same change set via
+ * $&lt;id&gt; of the creating request, either at the start of the url or as the @iot.id of a related Entity.
+ */
+@RestController
+@ConditionalOnProperty(value = "server.feature.httpReadOnly", havingValue = "false", matchIfMissing = true)
+public class CoreBatchRequestHandler implements CoreRequestUtils {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoreBatchRequestHandler.class);
+
+    private static final String REQUESTS = "requests";
+    private static final String RESPONSES = "responses";
+    private static final String ATOMICITY_GROUP = "atomicityGroup";
+    private static final String METHOD = "method";
+    private static final String URL = "url";
+    private static final String BODY = "body";
+    private static final String STATUS = "status";
+    private static final String HEADERS = "headers";
+    private static final String LOCATION = "location";
+    private static final String REFERENCE = "$";
+    private static final String GET = "GET";
+    private static final String POST = "POST";
+    private static final String PATCH = "PATCH";
+    private static final String DELETE = "DELETE";
+
+    // Collection, optional id and optional navigation, e.g. Things(1)/Datastreams
+    private static final Pattern RESOURCE_PATH = Pattern.compile("^(\\w+)(\\([^)]+\\))?(?:/(\\w+))?$");
+
+    private final String rootUrl;
+    private final int maxRequests;
+    private final CudRequestHandler<?> cudHandler;
+    private final CollectionRequestHandler<?> collectionHandler;
+    private final EntityRequestHandler entityHandler;
+    private final ObjectProvider<ChangeSetExecutor> changeSetExecutor;
+    private final ObjectMapper mapper;
+
+    public CoreBatchRequestHandler(@Value("${server.rootUrl}") String rootUrl,
+                                   @Value("${http.batch.maxRequests:1000}") int maxRequests,
+                                   CudRequestHandler<?> cudHandler,
+                                   CollectionRequestHandler<?> collectionHandler,
+                                   EntityRequestHandler entityHandler,
+                                   ObjectProvider<ChangeSetExecutor> changeSetExecutor,
+                                   ObjectMapper mapper) {
+        this.rootUrl = rootUrl;
+        this.maxRequests = maxRequests;
+        this.cudHandler = cudHandler;
+        this.collectionHandler = collectionHandler;
+        this.entityHandler = entityHandler;
+        this.changeSetExecutor = changeSetExecutor;
+        this.mapper = mapper;
+    }
+
+    @PostMapping(
+        consumes = "application/json",
+        value = "/$batch",
+        produces = "application/json")
+    public JsonNode handleBatch(InputStream body, HttpServletRequest request) throws Exception {
+        JsonNode requests = mapper.readTree(body).get(REQUESTS);
+        if (requests == null || !requests.isArray()) {
+            throw new STACRUDException("Batch request does not contain requests!", HTTPStatus.BAD_REQUEST);
+        }
+        if (requests.size() > maxRequests) {
+            throw new STACRUDException("Batch request contains more than " + maxRequests + " requests!",
+                                       HTTPStatus.BAD_REQUEST);
+        }
+
+        ObjectNode result = mapper.createObjectNode();
+        ArrayNode responses = result.putArray(RESPONSES);
+        int start = 0;
+        while (start < requests.size()) {
+            String group = requests.get(start).path(ATOMICITY_GROUP).textValue();
+            if (group == null) {
+                responses.add(executeSingle(requests.get(start), request));
+                start++;
+            } else {
+                List<JsonNode> changeSet = new ArrayList<>();
+                while (start < requests.size() && group.equals(requests.get(start).path(ATOMICITY_GROUP).textValue())) {
+                    changeSet.add(requests.get(start++));
+                }
+                responses.addAll(executeChangeSet(changeSet, request));
+            }
+        }
+        return result;
+    }
+
+    private ObjectNode executeSingle(JsonNode part, HttpServletRequest request) {
+        try {
+            return execute(part, Collections.emptyMap(), request);
+        } catch (Exception e) {
+            return createErrorResponse(part, e);
+        }
+    }
+
+    /**
+     * Executes all requests of a change set in a single transaction. If any request fails the change set is rolled
+     * back and a single error response is returned for the failed request.
+     */
+    private List<ObjectNode> executeChangeSet(List<JsonNode> changeSet, HttpServletRequest request) {
+        Map<String, String> references = new HashMap<>();
+        JsonNode[] current = new JsonNode[] {changeSet.get(0)};
+        try {
+            ChangeSetExecutor executor = changeSetExecutor.getIfAvailable();
+            if (executor == null) {
+                throw new STACRUDException("Change sets are not supported by this backend!",
+                                           HTTPStatus.NOT_IMPLEMENTED);
+            }
+            return executor.execute(() -> {
+                List<ObjectNode> responses = new ArrayList<>(changeSet.size());
+                for (JsonNode part : changeSet) {
+                    current[0] = part;
+                    responses.add(execute(part, references, request));
+                }
+                return responses;
+            });
+        } catch (Exception e) {
+            return Collections.singletonList(createErrorResponse(current[0], e));
+        }
+    }
+
+    private ObjectNode execute(JsonNode part, Map<String, String> references, HttpServletRequest request)
+        throws Exception {
+        String method = part.path(METHOD).asText().toUpperCase(Locale.ROOT);
+        String url = resolveUrl(part.path(URL).asText(), references);
+        InputStream body = part.has(BODY)
+            ? new ByteArrayInputStream(mapper.writeValueAsBytes(resolveBody(part.get(BODY).deepCopy(), references)))
+            : null;
+
+        String path = url;
+        String query = null;
+        int queryStart = url.indexOf('?');
+        if (queryStart >= 0) {
+            path = url.substring(0, queryStart);
+            query = url.substring(queryStart + 1);
+        }
+        if (path.startsWith(rootUrl)) {
+            path = path.substring(rootUrl.length());
+        } else if (path.startsWith(SLASH)) {
+            path = path.substring(1);
+        }
+        Matcher matcher = RESOURCE_PATH.matcher(path);
+        if (!matcher.matches() || !matcher.group(1).matches(BASE_COLLECTION_REGEX)) {
+            throw new STAInvalidUrlException(URL_INVALID + url);
+        }
+        String collection = matcher.group(1);
+        String id = matcher.group(2);
+        String target = matcher.group(3);
+        String entity = id != null ? collection + id : null;
+        HttpServletRequest partRequest =
+            new BatchPartRequest(request, method, SLASH + path, query, part.path(HEADERS));
+
+        Object result;
+        int status = 200;
+        switch (method) {
+            case GET:
+                if (id == null && target == null) {
+                    result = collectionHandler.readCollectionDirect(collection, partRequest);
+                } else if (id == null) {
+                    throw new STAInvalidUrlException(URL_INVALID + url);
+                } else if (target == null) {
+                    result = entityHandler.readEntityDirect(collection, id, partRequest);
+                } else if (target.matches(BASE_COLLECTION_REGEX)) {
+                    result = collectionHandler.readCollectionRelated(entity, target, partRequest);
+                } else {
+                    result = entityHandler.readRelatedEntity(entity, target, partRequest);
+                }
+                break;
+            case POST:
+                if (id == null && target == null) {
+                    result = cudHandler.handlePostDirect(collection, body, partRequest);
+                } else if (id != null && target != null) {
+                    result = cudHandler.handlePostRelated(entity, target, body, partRequest);
+                } else {
+                    throw new STAInvalidUrlException(URL_INVALID + url);
+                }
+                status = 201;
+                break;
+            case PATCH:
+                if (id != null && target == null) {
+                    result = cudHandler.handleDirectPatch(collection, id, body, partRequest);
+                } else if (id != null) {
+                    result = cudHandler.handleRelatedPatch(entity, target, body, partRequest);
+                } else {
+                    throw new STAInvalidUrlException(URL_INVALID + url);
+                }
+                break;
+            case DELETE:
+                if (id != null && target == null) {
+                    result = cudHandler.handleDelete(collection, id, partRequest);
+                } else if (id != null) {
+                    result = cudHandler.handleRelatedDelete(entity, target, null, partRequest);
+                } else {
+                    throw new STAInvalidUrlException(URL_INVALID + url);
+                }
+                status = 204;
+                break;
+            default:
+                throw new STACRUDException("Unsupported method in batch request: " + method,
+                                           HTTPStatus.BAD_REQUEST);
+        }
+
+        ObjectNode response = createResponse(part, status);
+        if (result instanceof StaDTO && POST.equals(method)) {
+            String location = (target != null ? target : collection) + "(" + ((StaDTO) result).getId() + ")";
+            response.putObject(HEADERS).put(LOCATION, rootUrl + location);
+            if (part.hasNonNull(ID)) {
+                references.put(part.get(ID).asText(), location);
+            }
+        }
+        if (result != null) {
+            response.set(BODY, mapper.valueToTree(result));
+        }
+        return response;
+    }
+
+    /**
+     * Replaces a leading $&lt;id&gt; with the path of the Entity created by the referenced request.
+     */
+    private String resolveUrl(String url, Map<String, String> references) {
+        if (!url.startsWith(REFERENCE)) {
+            return url;
+        }
+        int end = url.indexOf(SLASH);
+        String location = references.get(url.substring(1, end < 0 ? url.length() : end));
+        return location == null ? url : location + (end < 0 ? "" : url.substring(end));
+    }
+
+    /**
+     * Replaces @iot.id values $&lt;id&gt; with the id of the Entity created by the referenced request. Other
+     * properties are left untouched even if their value happens to start with $.
+     */
+    private JsonNode resolveBody(JsonNode node, Map<String, String> references) {
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (StaConstants.AT_IOT_ID.equals(field.getKey()) && field.getValue().isTextual()) {
+                    String reference = resolveReference(field.getValue().textValue(), references);
+                    if (reference != null) {
+                        ((ObjectNode) node).put(field.getKey(), reference);
+                    }
+                } else {
+                    resolveBody(field.getValue(), references);
+                }
+            }
+        } else if (node.isArray()) {
+            for (JsonNode element : node) {
+                resolveBody(element, references);
+            }
+        }
+        return node;
+    }
+
+    private String resolveReference(String value, Map<String, String> references) {
+        if (!value.startsWith(REFERENCE)) {
+            return null;
+        }
+        String location = references.get(value.substring(1));
+        return location == null ? null : location.substring(location.indexOf('(') + 1, location.length() - 1);
+    }
+
+    private ObjectNode createResponse(JsonNode part, int status) {
+        ObjectNode response = mapper.createObjectNode();
+        if (part.hasNonNull(ID)) {
+            response.put(ID, part.get(ID).asText());
+        }
+        if (part.hasNonNull(ATOMICITY_GROUP)) {
+            response.put(ATOMICITY_GROUP, part.get(ATOMICITY_GROUP).asText());
+        }
+        response.put(STATUS, status);
+        return response;
+    }
+
+    private ObjectNode createErrorResponse(JsonNode part, Exception e) {
+        int status;
+        if (e instanceof STACRUDException) {
+            status = ((STACRUDException) e).getResponseStatus().getCode();
+        } else if (e instanceof STANotFoundException) {
+            status = 404;
+        } else if (e instanceof STAInvalidUrlException
+            || e instanceof STAInvalidQueryException
+            || e instanceof STAInvalidFilterExpressionException
+            || e instanceof JsonProcessingException
+            || e instanceof IllegalArgumentException
+            || e instanceof IllegalStateException) {
+            status = 400;
+        } else {
+            status = 500;
+        }
+        LOGGER.debug("Batch request failed.", e);
+        ObjectNode response = createResponse(part, status);
+        ObjectNode error = response.putObject(BODY);
+        error.put("timestamp", System.currentTimeMillis());
+        error.put("error", e.getClass().getName());
+        error.put("message", e.getMessage());
+        return response;
+    }
+
+    /**
+     * Exposes a request of the batch to the regular request handlers.
+     */
+    private static final class BatchPartRequest extends HttpServletRequestWrapper {
+
+        private final String method;
+        private final String lookupPath;
+        private final String queryString;
+        private final JsonNode headers;
+
+        BatchPartRequest(HttpServletRequest request,
+                         String method,
+                         String lookupPath,
+                         String queryString,
+                         JsonNode headers) {
+            super(request);
+            this.method = method;
+            this.lookupPath = lookupPath;
+            this.queryString = queryString;
+            this.headers = headers;
+        }
+
+        /**
+         * Idempotency keys identify a single request, so they are taken from the headers of the part only.
+         */
+        @Override public String getHeader(String name) {
+            if (IDEMPOTENCY_KEY.equalsIgnoreCase(name)) {
+                JsonNode value = headers.get(IDEMPOTENCY_KEY);
+                return value != null && value.isTextual() ? value.textValue() : null;
+            }
+            return super.getHeader(name);
+        }
+
+        @Override public String getMethod() {
+            return method;
+        }
+
+        @Override public String getQueryString() {
+            return queryString;
+        }
+
+        @Override public Object getAttribute(String name) {
+            return HandlerMapping.LOOKUP_PATH.equals(name) ? lookupPath : super.getAttribute(name);
+        }
+    }
+}
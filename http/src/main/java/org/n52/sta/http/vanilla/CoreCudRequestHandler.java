@@ -46,6 +46,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Handles all CUD requests (POST, PUT, DELETE)
@@ -68,9 +69,10 @@ public class CoreCudRequestHandler<T extends StaDTO> extends CudRequestHandler<T
         value = "/{collectionName:" + CoreRequestUtils.BASE_COLLECTION_REGEX + "$}",
         produces = "application/json")
     public StaDTO handlePostDirect(@PathVariable String collectionName,
-                                   @RequestBody String body)
+                                   InputStream body,
+                                   HttpServletRequest request)
         throws IOException, STACRUDException, STAInvalidUrlException {
-        return super.handlePostDirect(collectionName, body);
+        return super.handlePostDirect(collectionName, body, request);
     }
 
     @PostMapping(
@@ -87,7 +89,7 @@ public class CoreCudRequestHandler<T extends StaDTO> extends CudRequestHandler<T
     )
     public StaDTO handlePostRelated(@PathVariable String entity,
                                     @PathVariable String target,
-                                    @RequestBody String body,
+                                    InputStream body,
                                     HttpServletRequest request)
         throws Exception {
         return super.handlePostRelated(entity, target, body, request);
@@ -99,7 +101,7 @@ public class CoreCudRequestHandler<T extends StaDTO> extends CudRequestHandler<T
     )
     public StaDTO handleDirectPatch(@PathVariable String collectionName,
                                     @PathVariable String id,
-                                    @RequestBody String body,
+                                    InputStream body,
                                     HttpServletRequest request)
         throws Exception {
         return super.handleDirectPatch(collectionName, id, body, request);
@@ -115,7 +117,7 @@ public class CoreCudRequestHandler<T extends StaDTO> extends CudRequestHandler<T
     )
     public StaDTO handleRelatedPatch(@PathVariable String entity,
                                      @PathVariable String target,
-                                     @RequestBody String body,
+                                     InputStream body,
                                      HttpServletRequest request)
         throws Exception {
         return super.handleRelatedPatch(entity, target, body, request);
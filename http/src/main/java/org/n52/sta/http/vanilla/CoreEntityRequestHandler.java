@@ -33,6 +33,7 @@ import org.n52.sta.api.EntityServiceFactory;
 import org.n52.sta.api.dto.StaDTO;
 import org.n52.sta.http.EntityRequestHandler;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
@@ -49,6 +50,7 @@ import javax.servlet.http.HttpServletRequest;
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
 @RestController
+@ConditionalOnProperty(value = "http.async.enabled", havingValue = "false", matchIfMissing = true)
 public class CoreEntityRequestHandler extends EntityRequestHandler implements CoreRequestUtils {
 
     public CoreEntityRequestHandler(@Value("${server.rootUrl}") String rootUrl,
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.http.vanilla;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.shetland.ogc.sta.exception.STANotFoundException;
+import org.n52.sta.api.AbstractSensorThingsEntityService;
+import org.n52.sta.api.CoreRequestUtils;
+import org.n52.sta.api.EntityServiceFactory;
+import org.n52.sta.api.dto.ObservationDTO;
+import org.n52.sta.api.dto.StaDTO;
+import org.n52.sta.utils.AbstractSTARequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Handles POSTing of Observations as newline-delimited JSON, one Observation per line.
+ * e.g. /Datastreams(52)/Observations/$ndjson
+ *
+ * <p>
+ * The body is read incrementally and lines are processed in chunks of http.ndjson.chunkSize, valid or not. The
+ * Observations of a chunk are created in a single transaction. If a chunk fails its Observations are created one by
+ * one. The status of each line is streamed back as newline-delimited JSON after its chunk was processed, followed by a
+ * summary line. Memory is bounded by chunk size and maximum line length independent of the size of the body.
+ */
+@RestController
+@ConditionalOnProperty(value = "server.feature.httpReadOnly", havingValue = "false", matchIfMissing = true)
+public class CoreNdjsonRequestHandler extends AbstractSTARequestHandler implements CoreRequestUtils {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoreNdjsonRequestHandler.class);
+
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final String LINE = "line";
+    private static final String STATUS = "status";
+    private static final String MESSAGE = "message";
+    private static final String CREATED = "created";
+    private static final String FAILED = "failed";
+    private static final int EOF = -1;
+    private static final int TOO_LONG = -2;
+
+    private final ObjectMapper mapper;
+    private final int chunkSize;
+    private final int maxLineLength;
+
+    public CoreNdjsonRequestHandler(@Value("${server.rootUrl}") String rootUrl,
+                                    @Value("${server.feature.escapeId:true}") boolean shouldEscapeId,
+                                    @Value("${http.ndjson.chunkSize:1000}") int chunkSize,
+                                    @Value("${http.ndjson.maxLineLength:1048576}") int maxLineLength,
+                                    EntityServiceFactory serviceRepository,
+                                    ObjectMapper mapper) {
+        super(rootUrl, shouldEscapeId, serviceRepository);
+        this.mapper = mapper;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxLineLength = maxLineLength;
+    }
+
+    @PostMapping(
+        value = MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_DATASTREAM_PATH_VARIABLE + SLASHNDJSON,
+        produces = APPLICATION_NDJSON
+    )
+    @SuppressWarnings("unchecked")
+    public void handlePostNdjson(@PathVariable String entity,
+                                 @PathVariable String target,
+                                 HttpServletRequest request,
+                                 HttpServletResponse response)
+        throws Exception {
+        String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
+        validateResource(lookupPath.substring(0, lookupPath.length() - SLASHNDJSON.length()), serviceRepository);
+
+        String[] split = splitId(entity);
+        ObjectReader reader = mapper.readerFor(ObservationDTO.class)
+            .withAttribute(REFERENCED_FROM_TYPE, split[0])
+            .withAttribute(REFERENCED_FROM_ID, split[1]);
+        AbstractSensorThingsEntityService<ObservationDTO> service =
+            (AbstractSensorThingsEntityService<ObservationDTO>) serviceRepository.getEntityService(target);
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(APPLICATION_NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        long lines = 0;
+        long created = 0;
+        try (Reader body = new BufferedReader(new InputStreamReader(request.getInputStream(),
+                                                                      StandardCharsets.UTF_8))) {
+            OutputStream out = response.getOutputStream();
+            StringBuilder buffer = new StringBuilder();
+            List<Line> chunk = new ArrayList<>(chunkSize);
+            long number = 0;
+            int length;
+            while ((length = readLine(body, buffer)) != EOF) {
+                number++;
+                String text = buffer.toString();
+                if (length != TOO_LONG && text.trim().isEmpty()) {
+                    continue;
+                }
+                lines++;
+                Line line = new Line(number);
+                if (length == TOO_LONG) {
+                    line.error = new STACRUDException("Line exceeds maximum length of " + maxLineLength,
+                                                      HTTPStatus.BAD_REQUEST);
+                } else {
+                    try {
+                        line.observation = reader.readValue(text);
+                    } catch (IOException | RuntimeException e) {
+                        line.error = e;
+                    }
+                }
+                // Invalid lines count towards the chunk so that their status does not accumulate in memory
+                chunk.add(line);
+                if (chunk.size() == chunkSize) {
+                    created += persist(chunk, service, out);
+                    chunk.clear();
+                }
+            }
+            created += persist(chunk, service, out);
+
+            ObjectNode summary = mapper.createObjectNode();
+            summary.put(CREATED, created);
+            summary.put(FAILED, lines - created);
+            write(summary, out);
+            out.flush();
+        }
+    }
+
+    /**
+     * Creates the Observations of a chunk and writes the status of each line.
+     *
+     * @return number of Observations created
+     */
+    private int persist(List<Line> chunk,
+                        AbstractSensorThingsEntityService<ObservationDTO> service,
+                        OutputStream out) throws IOException {
+        List<ObservationDTO> observations = new ArrayList<>(chunk.size());
+        for (Line line : chunk) {
+            if (line.observation != null) {
+                observations.add(line.observation);
+            }
+        }
+        if (!observations.isEmpty()) {
+            try {
+                List<? extends StaDTO> result = await(service.createAllAsync(observations));
+                int i = 0;
+                for (Line line : chunk) {
+                    if (line.observation != null) {
+                        line.created = result.get(i++);
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.debug("Creation of {} Observations in a single transaction failed. Creating them separately.",
+                             observations.size());
+                for (Line line : chunk) {
+                    if (line.observation != null) {
+                        try {
+                            line.created = await(service.createAsync(line.observation));
+                        } catch (Exception ex) {
+                            line.error = ex;
+                        }
+                    }
+                }
+            }
+        }
+
+        int created = 0;
+        for (Line line : chunk) {
+            ObjectNode status = mapper.createObjectNode();
+            status.put(LINE, line.number);
+            if (line.created != null) {
+                status.put(STATUS, HttpServletResponse.SC_CREATED);
+                status.put(StaConstants.AT_IOT_ID, line.created.getId());
+                created++;
+            } else {
+                status.put(STATUS, getStatus(line.error));
+                status.put(MESSAGE, line.error.getMessage());
+            }
+            write(status, out);
+        }
+        out.flush();
+        return created;
+    }
+
+    /**
+     * Reads the next line into given buffer. Characters exceeding the maximum line length are discarded.
+     *
+     * @return length of the line, EOF at the end of the body or TOO_LONG if the line was truncated
+     */
+    private int readLine(Reader reader, StringBuilder buffer) throws IOException {
+        buffer.setLength(0);
+        boolean truncated = false;
+        int c = reader.read();
+        if (c == EOF) {
+            return EOF;
+        }
+        while (c != EOF && c != '\n') {
+            if (buffer.length() < maxLineLength) {
+                buffer.append((char) c);
+            } else {
+                truncated = true;
+            }
+            c = reader.read();
+        }
+        return truncated ? TOO_LONG : buffer.length();
+    }
+
+    private void write(ObjectNode node, OutputStream out) throws IOException {
+        out.write(mapper.writeValueAsBytes(node));
+        out.write('\n');
+    }
+
+    private int getStatus(Exception e) {
+        if (e instanceof STACRUDException) {
+            return ((STACRUDException) e).getResponseStatus().getCode();
+        } else if (e instanceof STANotFoundException) {
+            return HttpServletResponse.SC_NOT_FOUND;
+        } else if (e instanceof IOException
+            || e instanceof IllegalArgumentException
+            || e instanceof IllegalStateException) {
+            return HttpServletResponse.SC_BAD_REQUEST;
+        }
+        return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+
+    private static final class Line {
+
+        private final long number;
+        private ObservationDTO observation;
+        private StaDTO created;
+        private Exception error;
+
+        Line(long number) {
+            this.number = number;
+        }
+    }
+}
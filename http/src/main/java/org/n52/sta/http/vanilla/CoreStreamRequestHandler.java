@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.http.vanilla;
+
+import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
+import org.n52.shetland.ogc.sta.exception.STANotFoundException;
+import org.n52.sta.api.CoreRequestUtils;
+import org.n52.sta.api.EntityServiceFactory;
+import org.n52.sta.mqtt.MqttHandlerException;
+import org.n52.sta.mqtt.vanilla.subscription.AbstractMqttSubscription;
+import org.n52.sta.mqtt.vanilla.subscription.SubscriptionFactory;
+import org.n52.sta.utils.AbstractSTARequestHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Handles all requests for Server-Sent Event streams of Entity changes.
+ * e.g. /Things/$stream
+ * e.g. /Datastreams(52)/Observations/$stream?$select=result
+ * e.g. /Things(52)/$stream
+ * e.g. /Things(52)/name/$stream
+ */
+@RestController
+@ConditionalOnProperty(value = "http.sse.enabled", havingValue = "true")
+@ConditionalOnClass(name = "org.n52.sta.mqtt.vanilla.subscription.SubscriptionFactory")
+public class CoreStreamRequestHandler extends AbstractSTARequestHandler implements CoreRequestUtils {
+
+    private static final String SELECT_PARAMETER = "$select";
+
+    private final SseSubscriptionEventHandler eventHandler;
+    private final SubscriptionFactory subscriptionFactory;
+
+    public CoreStreamRequestHandler(@Value("${server.rootUrl}") String rootUrl,
+                                    @Value("${server.feature.escapeId:true}") boolean shouldEscapeId,
+                                    EntityServiceFactory serviceRepository,
+                                    SseSubscriptionEventHandler eventHandler) {
+        super(rootUrl, shouldEscapeId, serviceRepository);
+        this.eventHandler = eventHandler;
+        this.subscriptionFactory = new SubscriptionFactory(rootUrl, shouldEscapeId);
+    }
+
+    @GetMapping(
+        value = {
+            "/{collectionName:" + BASE_COLLECTION_REGEX + "}" + SLASHSTREAM,
+            MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_THING_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_LOCATION_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_OBSERVED_PROPERTY_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_FEATURE_OF_INTEREST_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_SENSOR_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_DATASTREAM_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_HIST_LOCATION_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + ENTITY_IDENTIFIED_DIRECTLY + SLASHSTREAM,
+            MAPPING_PREFIX + ENTITY_IDENTIFIED_BY_DATASTREAM_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + ENTITY_IDENTIFIED_BY_OBSERVATION_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + ENTITY_IDENTIFIED_BY_HISTORICAL_LOCATION_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + ENTITY_IDENTIFIED_DIRECTLY + SLASH + PATH_PROPERTY + SLASHSTREAM,
+            MAPPING_PREFIX + ENTITY_PROPERTY_IDENTIFIED_BY_DATASTREAM_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + ENTITY_PROPERTY_IDENTIFIED_BY_OBSERVATION_PATH_VARIABLE + SLASHSTREAM,
+            MAPPING_PREFIX + ENTITY_PROPERTY_IDENTIFIED_BY_HISTORICAL_LOCATION_PATH_VARIABLE + SLASHSTREAM
+        },
+        produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter stream(HttpServletRequest request) throws Exception {
+        String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
+        String path = lookupPath.substring(0, lookupPath.length() - SLASHSTREAM.length());
+        if (path.startsWith(SLASH)) {
+            path = path.substring(1);
+        }
+
+        AbstractMqttSubscription subscription;
+        try {
+            subscription = subscriptionFactory.createSubscription(path, serviceRepository);
+        } catch (MqttHandlerException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof STANotFoundException || cause instanceof STAInvalidUrlException) {
+                throw (Exception) cause;
+            }
+            throw new STAInvalidUrlException("Unable to create stream on: " + path);
+        }
+        return eventHandler.register(subscription, request.getParameter(SELECT_PARAMETER));
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.http.vanilla;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.n52.shetland.filter.SelectFilter;
+import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.n52.shetland.ogc.filter.FilterClause;
+import org.n52.sta.api.EntityServiceFactory;
+import org.n52.sta.api.RequestUtils;
+import org.n52.sta.api.STAEventHandler;
+import org.n52.sta.api.dto.StaDTO;
+import org.n52.sta.mqtt.vanilla.subscription.AbstractMqttSubscription;
+import org.n52.sta.mqtt.vanilla.subscription.SubscriptionIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes Entity changes to clients connected via Server-Sent Events.
+ * Matching is done with the same Subscriptions and the same {@link SubscriptionIndex} as used for MQTT, so only the
+ * Subscriptions that may match a change are checked. Every connection has a bounded buffer, connections whose buffer
+ * overflows are considered too slow and are closed. Requires the optional sta-mqtt module on the classpath.
+ */
+@Component
+@ConditionalOnProperty(value = "http.sse.enabled", havingValue = "true")
+@ConditionalOnClass(name = "org.n52.sta.mqtt.vanilla.subscription.SubscriptionIndex")
+public class SseSubscriptionEventHandler implements STAEventHandler, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SseSubscriptionEventHandler.class);
+
+    private final ObjectMapper mapper;
+    private final int bufferSize;
+    private final long timeout;
+    private final ExecutorService sender;
+
+    /*
+     * Connections per Subscription. Modified by request threads while events are processed concurrently.
+     */
+    private final Map<AbstractMqttSubscription, Set<SseConnection>> subscriptions = new ConcurrentHashMap<>();
+    private final SubscriptionIndex subscriptionIndex = new SubscriptionIndex();
+
+    public SseSubscriptionEventHandler(ObjectMapper mapper,
+                                       @Value("${http.sse.bufferSize:64}") int bufferSize,
+                                       @Value("${http.sse.timeout:0}") long timeout,
+                                       @Value("${http.sse.senderThreads:2}") int senderThreads) {
+        this.mapper = mapper;
+        this.bufferSize = bufferSize;
+        this.timeout = timeout;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "sta-sse-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void handleEvent(StaDTO rawObject,
+                            String entityType,
+                            Set<String> differenceMap,
+                            Map<String, Set<String>> collections) {
+        // Store serialized Versions for reusing while processing other connections.
+        Map<String, String> serializedCache = new HashMap<>();
+        // Only matching subscriptions are returned by the index
+        for (AbstractMqttSubscription subscription : subscriptionIndex.match(rawObject,
+                                                                             entityType,
+                                                                             collections,
+                                                                             differenceMap)) {
+            Set<SseConnection> connections = subscriptions.get(subscription);
+            if (connections == null) {
+                // Last connection was closed concurrently
+                continue;
+            }
+            for (SseConnection connection : connections) {
+                try {
+                    String key = connection.getSelect() != null
+                        ? connection.getSelect()
+                        : subscription.getQueryOptions() != null ? subscription.getTopic() : "";
+                    String payload = serializedCache.get(key);
+                    if (payload == null) {
+                        rawObject.setAndParseQueryOptions(connection.getSelect() != null
+                                                              ? connection.getQueryOptions()
+                                                              : subscription.getQueryOptions());
+                        payload = mapper.writeValueAsString(rawObject);
+                        serializedCache.put(key, payload);
+                    }
+                    if (!connection.offer(payload)) {
+                        LOGGER.debug("Closing slow SSE connection on: {}", subscription.getTopic());
+                        unregister(subscription, connection);
+                        connection.close();
+                    }
+                } catch (JsonProcessingException ex) {
+                    LOGGER.error("Error while serializing Entity for SSE connection: {}", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a new connection on the given subscription.
+     *
+     * @param subscription Subscription the connection listens to
+     * @param select       value of the $select query option. may be null
+     * @return SseEmitter to be returned to the client
+     */
+    public SseEmitter register(AbstractMqttSubscription subscription, String select) {
+        SseEmitter emitter = new SseEmitter(timeout);
+        SseConnection connection = new SseConnection(emitter, normalizeSelect(select), bufferSize, sender);
+        emitter.onCompletion(() -> unregister(subscription, connection));
+        emitter.onTimeout(() -> unregister(subscription, connection));
+        emitter.onError(ex -> unregister(subscription, connection));
+
+        subscriptions.compute(subscription, (key, connections) -> {
+            if (connections == null) {
+                connections = ConcurrentHashMap.newKeySet();
+                subscriptionIndex.add(key);
+            }
+            connections.add(connection);
+            return connections;
+        });
+        LOGGER.debug("Registered SSE connection on: {}", subscription.getTopic());
+        return emitter;
+    }
+
+    private void unregister(AbstractMqttSubscription subscription, SseConnection connection) {
+        subscriptions.computeIfPresent(subscription, (key, connections) -> {
+            connections.remove(connection);
+            if (connections.isEmpty()) {
+                subscriptionIndex.remove(key);
+                return null;
+            }
+            return connections;
+        });
+    }
+
+    private String normalizeSelect(String select) {
+        if (select == null || select.trim().isEmpty()) {
+            return null;
+        }
+        return String.join(",", Arrays.stream(select.split(","))
+            .map(String::trim)
+            .collect(Collectors.toCollection(TreeSet::new)));
+    }
+
+    @Override
+    public Set<String> getWatchedEntityTypes() {
+        return subscriptionIndex.getEntityTypes();
+    }
+
+    @Override
+    public void setServiceRepository(EntityServiceFactory serviceRepository) {
+        // not needed as subscriptions are validated when the connection is opened
+    }
+
+    @Override
+    public void destroy() {
+        subscriptions.values().forEach(connections -> connections.forEach(SseConnection::close));
+        sender.shutdownNow();
+    }
+
+    /**
+     * Single client connection. Payloads are buffered and written to the client on the sender executor so that
+     * slow clients do not block event processing.
+     */
+    private static final class SseConnection implements Runnable {
+
+        private final SseEmitter emitter;
+        private final String select;
+        private final QueryOptions queryOptions;
+        private final BlockingQueue<String> buffer;
+        private final Executor sender;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        SseConnection(SseEmitter emitter, String select, int bufferSize, Executor sender) {
+            this.emitter = emitter;
+            this.select = select;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+            this.sender = sender;
+            if (select != null) {
+                HashSet<FilterClause> filters = new HashSet<>();
+                filters.add(new SelectFilter(new HashSet<>(Arrays.asList(select.split(",")))));
+                this.queryOptions = RequestUtils.QUERY_OPTIONS_FACTORY.createQueryOptions(filters);
+            } else {
+                this.queryOptions = null;
+            }
+        }
+
+        String getSelect() {
+            return select;
+        }
+
+        QueryOptions getQueryOptions() {
+            return queryOptions;
+        }
+
+        boolean offer(String payload) {
+            if (closed || !buffer.offer(payload)) {
+                return false;
+            }
+            schedule();
+            return true;
+        }
+
+        void close() {
+            closed = true;
+            buffer.clear();
+            emitter.complete();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                sender.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                String payload;
+                while (!closed && (payload = buffer.poll()) != null) {
+                    emitter.send(SseEmitter.event().data(payload, MediaType.APPLICATION_JSON));
+                }
+            } catch (IOException | IllegalStateException ex) {
+                // Client has disconnected
+                closed = true;
+                buffer.clear();
+                emitter.completeWithError(ex);
+            } finally {
+                scheduled.set(false);
+                if (!closed && !buffer.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
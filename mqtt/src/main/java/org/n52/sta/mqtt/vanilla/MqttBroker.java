@@ -97,6 +97,9 @@ public class MqttBroker {
     @Autowired
     private MqttPublishMessageHandler publishHandler;
 
+    @Autowired
+    private MqttIngestQueue ingestQueue;
+
     private IConfig brokerConfig;
 
     private Server mqttServer;
@@ -155,6 +158,7 @@ public class MqttBroker {
             @Override
             public void onConnect(InterceptConnectMessage msg) {
                 LOGGER.debug("Client with ID: {} has connected", msg.getClientID());
+                ingestQueue.clientConnected(msg.getClientID());
             }
 
             @Override
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.mqtt.vanilla;
+
+import org.n52.sta.api.dto.StaDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Buffers Entities received via MQTT until they are persisted. Entities are parsed by the broker thread and handed
+ * over to bounded queues that are drained by a small pool of workers. Each worker persists up to batchSize Entities
+ * or all Entities received within batchTimeout in a single transaction. Entities with the same partition key (e.g.
+ * the referenced Datastream) are always processed by the same worker to retain their order.
+ * <p>
+ * The behaviour when the queue is full is controlled by {@link Backpressure}.
+ */
+@Component
+@ManagedResource(objectName = "org.n52.sta:name=MqttIngestQueue",
+                 description = "Buffers Entities received via MQTT until they are persisted")
+public class MqttIngestQueue implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttIngestQueue.class);
+
+    private final List<BlockingQueue<Message>> queues;
+    private final ExecutorService workers;
+    private final int batchSize;
+    private final long batchTimeout;
+    private final long blockTimeout;
+    private final Backpressure backpressure;
+    private final Set<String> rejectedClients = ConcurrentHashMap.newKeySet();
+    private volatile Consumer<List<Message>> consumer;
+    private volatile boolean running = true;
+
+    private final LongAdder processedMessages = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+
+    public MqttIngestQueue(@Value("${mqtt.ingest.queueSize:10000}") int queueSize,
+                           @Value("${mqtt.ingest.workers:2}") int workerCount,
+                           @Value("${mqtt.ingest.batchSize:100}") int batchSize,
+                           @Value("${mqtt.ingest.batchTimeout:50}") long batchTimeout,
+                           @Value("${mqtt.ingest.backpressure:block}") String backpressure,
+                           @Value("${mqtt.ingest.blockTimeout:5000}") long blockTimeout) {
+        this.batchSize = batchSize;
+        this.batchTimeout = TimeUnit.MILLISECONDS.toNanos(batchTimeout);
+        this.blockTimeout = blockTimeout;
+        this.backpressure = Backpressure.valueOf(backpressure.trim().toUpperCase(Locale.ROOT));
+        this.queues = new ArrayList<>(workerCount);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "sta-mqtt-ingest-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int capacity = Math.max(1, queueSize / workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            BlockingQueue<Message> queue = new ArrayBlockingQueue<>(capacity);
+            queues.add(queue);
+            workers.execute(() -> work(queue));
+        }
+        LOGGER.info("Initialized MQTT ingest queue with {} workers and backpressure strategy {}",
+                    workerCount,
+                    this.backpressure);
+    }
+
+    /**
+     * Sets the consumer persisting a batch of messages in a single transaction.
+     *
+     * @param consumer consumer of batches
+     */
+    void setConsumer(Consumer<List<Message>> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Enqueues a message for persisting. Applies the configured {@link Backpressure} if the queue is full.
+     *
+     * @param message message to be persisted
+     * @return true if the message was accepted
+     * @throws InterruptedException if interrupted while waiting for space in the queue
+     */
+    public boolean submit(Message message) throws InterruptedException {
+        if (rejectedClients.contains(message.clientId)) {
+            droppedMessages.increment();
+            return false;
+        }
+        BlockingQueue<Message> queue =
+            queues.get(Math.floorMod(message.partitionKey.hashCode(), queues.size()));
+        boolean accepted;
+        switch (backpressure) {
+            case BLOCK:
+                accepted = queue.offer(message, blockTimeout, TimeUnit.MILLISECONDS);
+                break;
+            case DISCONNECT:
+                accepted = queue.offer(message);
+                if (!accepted) {
+                    rejectedClients.add(message.clientId);
+                    LOGGER.warn("MQTT ingest queue is full. Rejecting publications of client {} until it reconnects.",
+                                message.clientId);
+                }
+                break;
+            case DROP:
+            default:
+                accepted = queue.offer(message);
+                break;
+        }
+        if (!accepted) {
+            droppedMessages.increment();
+            LOGGER.debug("Dropped publication on topic {}. Queue is full!", message.topic);
+        }
+        return accepted;
+    }
+
+    /**
+     * Accepts publications of a client again that was rejected with {@link Backpressure#DISCONNECT}.
+     *
+     * @param clientId id of the client
+     */
+    public void clientConnected(String clientId) {
+        rejectedClients.remove(clientId);
+    }
+
+    private void work(BlockingQueue<Message> queue) {
+        List<Message> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + batchTimeout;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Message next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                consumer.accept(batch);
+                commits.increment();
+                processedMessages.add(batch.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("Error while persisting {} MQTT publications: {}", batch.size(), e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    @ManagedAttribute(description = "Number of publications waiting to be persisted")
+    public int getQueueDepth() {
+        return queues.stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    @ManagedAttribute(description = "Number of publications processed")
+    public long getProcessedMessages() {
+        return processedMessages.sum();
+    }
+
+    @ManagedAttribute(description = "Number of transactions used to persist publications")
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    @ManagedAttribute(description = "Number of publications dropped because the queue was full")
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        workers.shutdownNow();
+        int pending = getQueueDepth();
+        if (pending > 0) {
+            LOGGER.warn("Discarded {} MQTT publications that were not yet persisted.", pending);
+        }
+    }
+
+    /**
+     * Strategy applied when the queue is full.
+     */
+    public enum Backpressure {
+        /**
+         * Publication is discarded.
+         */
+        DROP,
+        /**
+         * Broker thread waits up to blockTimeout for space in the queue. Publication is discarded afterwards.
+         */
+        BLOCK,
+        /**
+         * Publication is discarded and all further publications of the client are rejected until it reconnects.
+         * The broker does not allow closing connections from an interceptor.
+         */
+        DISCONNECT
+    }
+
+
+    /**
+     * Entity received via MQTT.
+     */
+    public static final class Message {
+
+        private final String clientId;
+        private final String topic;
+        private final String collection;
+        private final String partitionKey;
+        private final StaDTO entity;
+
+        public Message(String clientId, String topic, String collection, String partitionKey, StaDTO entity) {
+            this.clientId = clientId;
+            this.topic = topic;
+            this.collection = collection;
+            this.partitionKey = partitionKey;
+            this.entity = entity;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public String getCollection() {
+            return collection;
+        }
+
+        public String getPartitionKey() {
+            return partitionKey;
+        }
+
+        public StaDTO getEntity() {
+            return entity;
+        }
+    }
+}
@@ -29,13 +29,14 @@
 package org.n52.sta.mqtt.vanilla;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.moquette.interception.messages.InterceptPublishMessage;
+import io.netty.buffer.ByteBufInputStream;
 import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.api.AbstractSensorThingsEntityService;
 import org.n52.sta.api.CoreRequestUtils;
 import org.n52.sta.api.EntityServiceFactory;
+import org.n52.sta.api.dto.ObservationDTO;
 import org.n52.sta.api.dto.StaDTO;
 import org.n52.sta.mqtt.MqttHandlerException;
 import org.n52.sta.utils.AbstractSTARequestHandler;
@@ -44,13 +45,19 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.nio.charset.Charset;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 /**
  * @author <a href="mailto:s.drost@52north.org">Sebastian Drost</a>
@@ -62,6 +69,7 @@ public class MqttPublishMessageHandlerImpl extends AbstractSTARequestHandler
     private static final Logger LOGGER = LoggerFactory.getLogger(MqttPublishMessageHandlerImpl.class);
 
     private final ObjectMapper mapper;
+    private final MqttIngestQueue ingestQueue;
     private final Set<String> publishTopics;
 
     private final boolean readOnly;
@@ -72,9 +80,12 @@ public class MqttPublishMessageHandlerImpl extends AbstractSTARequestHandler
         @Value("${server.rootUrl}") String rootUrl,
         @Value("${server.feature.escapeId:true}") boolean shouldEscapeId,
         EntityServiceFactory serviceRepository,
-        ObjectMapper mapper) {
+        ObjectMapper mapper,
+        MqttIngestQueue ingestQueue) {
         super(rootUrl, shouldEscapeId, serviceRepository);
         this.mapper = mapper;
+        this.ingestQueue = ingestQueue;
+        ingestQueue.setConsumer(this::persist);
         this.readOnly = readOnly;
         Set topics = new HashSet<>(publishTopics);
 
@@ -114,9 +125,6 @@ public class MqttPublishMessageHandlerImpl extends AbstractSTARequestHandler
             }
             topic = topic.substring(5);
 
-            // Check topic for syntax+semantics
-            validateResource(new StringBuffer(topic), serviceRepository);
-
             // Check if topic references valid Collection
             boolean valid = false;
             String collection = "";
@@ -128,25 +136,35 @@ public class MqttPublishMessageHandlerImpl extends AbstractSTARequestHandler
                 }
             }
             if (valid) {
-                String payload;
+                Class<T> clazz = collectionNameToClass(collection);
+                T entity;
+                String partitionKey = collection;
                 // Check whether we are posted via a related collection
                 if (topic.contains("/")) {
                     String[] split = topic.split("/");
                     String[] reference = split[split.length - 2].split("\\(");
                     String sourceType = reference[0];
                     String sourceId = reference[1].replace(")", "");
-                    ObjectNode jsonBody =
-                        (ObjectNode) mapper.readTree(msg.getPayload().toString(Charset.defaultCharset()));
-                    jsonBody.put(REFERENCED_FROM_TYPE, sourceType);
-                    jsonBody.put(REFERENCED_FROM_ID, sourceId);
-                    payload = jsonBody.toString();
+                    InputStream payload = new ByteBufInputStream(msg.getPayload().duplicate());
+                    entity = mapper.readerFor(clazz)
+                        .withAttribute(REFERENCED_FROM_TYPE, sourceType)
+                        .withAttribute(REFERENCED_FROM_ID, sourceId)
+                        .readValue(payload);
+                    partitionKey = sourceType + sourceId;
                 } else {
-                    payload = msg.getPayload().toString(Charset.defaultCharset());
+                    InputStream payload = new ByteBufInputStream(msg.getPayload().duplicate());
+                    entity = mapper.readValue(payload, clazz);
+                    if (entity instanceof ObservationDTO && ((ObservationDTO) entity).getDatastream() != null) {
+                        partitionKey = STAEntityDefinition.DATASTREAMS
+                            + ((ObservationDTO) entity).getDatastream().getId();
+                    }
                 }
-
-                Class<T> clazz = collectionNameToClass(collection);
-                ((AbstractSensorThingsEntityService<T>) serviceRepository.getEntityService(collection))
-                    .create(mapper.readValue(payload, clazz));
+                // Topic is checked against the database by the ingest worker
+                ingestQueue.submit(new MqttIngestQueue.Message(msg.getClientID(),
+                                                               topic,
+                                                               collection,
+                                                               partitionKey,
+                                                               entity));
             } else {
                 throw new STAInvalidUrlException("Topic does not reference a Collection allowed for POSTing via mqtt");
             }
@@ -157,4 +175,67 @@ public class MqttPublishMessageHandlerImpl extends AbstractSTARequestHandler
                          e.getMessage());
         }
     }
+
+    /**
+     * Persists a batch of publications. Entities of the same collection and partition (e.g. Datastream) are created
+     * in a single transaction. Partitions are submitted concurrently. If a partition fails its Entities are created
+     * one by one so that a single invalid Entity does not discard the whole partition.
+     *
+     * @param batch publications to be persisted
+     */
+    private void persist(List<MqttIngestQueue.Message> batch) {
+        Map<List<String>, List<MqttIngestQueue.Message>> partitions = new LinkedHashMap<>();
+        Set<String> validTopics = new HashSet<>();
+        for (MqttIngestQueue.Message message : batch) {
+            try {
+                // Check topic for syntax+semantics
+                if (!validTopics.contains(message.getTopic())) {
+                    validateResource(message.getTopic(), serviceRepository);
+                    validTopics.add(message.getTopic());
+                }
+                partitions.computeIfAbsent(Arrays.asList(message.getCollection(), message.getPartitionKey()),
+                                           c -> new ArrayList<>())
+                    .add(message);
+            } catch (Exception e) {
+                logError(message, e);
+            }
+        }
+
+        Map<List<MqttIngestQueue.Message>, CompletableFuture<?>> pending = new LinkedHashMap<>();
+        for (List<MqttIngestQueue.Message> partition : partitions.values()) {
+            List<StaDTO> entities = partition.stream()
+                .map(MqttIngestQueue.Message::getEntity)
+                .collect(Collectors.toList());
+            pending.put(partition, getService(partition.get(0)).createAllAsync(entities));
+        }
+        for (Map.Entry<List<MqttIngestQueue.Message>, CompletableFuture<?>> entry : pending.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.debug("Creation of {} Entities in a single transaction failed. Creating them separately.",
+                             entry.getKey().size());
+                for (MqttIngestQueue.Message message : entry.getKey()) {
+                    try {
+                        getService(message).create(message.getEntity());
+                    } catch (Exception ex) {
+                        logError(message, ex);
+                    }
+                }
+            }
+        }
+    }
+
+    private AbstractSensorThingsEntityService<StaDTO> getService(MqttIngestQueue.Message message) {
+        return (AbstractSensorThingsEntityService<StaDTO>) serviceRepository.getEntityService(message.getCollection());
+    }
+
+    private void logError(MqttIngestQueue.Message message, Exception e) {
+        LOGGER.error("Creation of Entity on topic {} published by {} failed with Exception {}!",
+                     message.getTopic(),
+                     message.getClientId(),
+                     e.getMessage());
+    }
 }
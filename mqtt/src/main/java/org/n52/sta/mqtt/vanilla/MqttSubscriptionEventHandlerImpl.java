@@ -28,13 +28,13 @@
  */
 package org.n52.sta.mqtt.vanilla;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.moquette.broker.Server;
 import io.moquette.interception.messages.InterceptSubscribeMessage;
 import io.moquette.interception.messages.InterceptUnsubscribeMessage;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.handler.codec.mqtt.MqttFixedHeader;
 import io.netty.handler.codec.mqtt.MqttMessageType;
 import io.netty.handler.codec.mqtt.MqttPublishMessage;
@@ -46,23 +46,25 @@ import org.n52.sta.api.EntityServiceFactory;
 import org.n52.sta.api.dto.StaDTO;
 import org.n52.sta.mqtt.MqttHandlerException;
 import org.n52.sta.mqtt.vanilla.subscription.AbstractMqttSubscription;
-import org.n52.sta.mqtt.vanilla.subscription.MqttEntityCollectionSubscription;
-import org.n52.sta.mqtt.vanilla.subscription.MqttEntitySubscription;
-import org.n52.sta.mqtt.vanilla.subscription.MqttPropertySubscription;
-import org.n52.sta.mqtt.vanilla.subscription.MqttSelectSubscription;
+import org.n52.sta.mqtt.vanilla.subscription.SubscriptionFactory;
+import org.n52.sta.mqtt.vanilla.subscription.SubscriptionIndex;
 import org.n52.sta.utils.AbstractSTARequestHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
@@ -82,13 +84,14 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
 
     private final MqttUtil config;
     private final ObjectMapper mapper;
+    private final SubscriptionFactory subscriptionFactory;
     private EntityServiceFactory serviceRepository;
     private Server mqttBroker;
-    private Map<AbstractMqttSubscription, HashSet<String>> subscriptions = new HashMap<>();
     /*
-     * List of all Entity Types that are currently subscribed to. Used for fail-fast.
+     * Clients per Subscription. Modified by Netty threads while events are processed concurrently.
      */
-    private Set<String> watchedEntityTypes = new HashSet<>();
+    private final Map<AbstractMqttSubscription, Set<String>> subscriptions = new ConcurrentHashMap<>();
+    private final SubscriptionIndex subscriptionIndex = new SubscriptionIndex();
 
     public MqttSubscriptionEventHandlerImpl(@Value("${server.rootUrl}") String rootUrl,
                                             @Value("${server.feature.escapeId:true}") boolean shouldEscapeId,
@@ -97,56 +100,95 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
         super(rootUrl, shouldEscapeId, null);
         this.config = config;
         this.mapper = mapper;
+        this.subscriptionFactory = new SubscriptionFactory(rootUrl, shouldEscapeId);
     }
 
     @Override
-    @Async
     public void handleEvent(StaDTO rawObject,
                             String entityType,
                             Set<String> differenceMap,
                             Map<String, Set<String>> collections) {
-        try {
-            // Invariant: As watchedEntityTypes contains rawObject->class
-            // there is at least one subscription that matches.
-
-            // Store serialized Versions for reusing while processing other subscriptions.
-            // Multiple serializations may be necessary due to different select clauses.
-            Map<QueryOptions, ByteBuf> serializedCache = new HashMap<>();
-
-            // Check all subscriptions for a match
-            for (AbstractMqttSubscription subscrip : subscriptions.keySet()) {
+        handleEvents(Collections.singletonList(new Event(rawObject, entityType, differenceMap, collections)));
+    }
 
-                String topic = subscrip.checkSubscription(rawObject, entityType, collections, differenceMap);
+    /**
+     * Publishes the events grouped by Subscription, so that all messages of a topic are published in one go and in
+     * the order of the events.
+     */
+    @Override
+    public void handleEvents(List<Event> events) {
+        // Only matching subscriptions are returned by the index
+        Map<AbstractMqttSubscription, List<Event>> bySubscription = new LinkedHashMap<>();
+        for (Event event : events) {
+            for (AbstractMqttSubscription subscrip : subscriptionIndex.match(event.getEntity(),
+                                                                             event.getEntityType(),
+                                                                             event.getRelatedCollections(),
+                                                                             event.getDifferenceMap())) {
+                bySubscription.computeIfAbsent(subscrip, s -> new ArrayList<>()).add(event);
+            }
+        }
 
-                if (topic != null) {
-                    LOGGER.trace("found matching subscription: " + topic);
+        // Store serialized Versions for reusing while processing other subscriptions.
+        // Multiple serializations may be necessary due to different select clauses.
+        // Buffers are shared by all topics and released after all messages have been published.
+        Map<Event, Map<Set<String>, ByteBuf>> serializedCache = new IdentityHashMap<>();
+        try {
+            for (Map.Entry<AbstractMqttSubscription, List<Event>> entry : bySubscription.entrySet()) {
+                AbstractMqttSubscription subscrip = entry.getKey();
+                String topic = subscrip.getTopic();
+                LOGGER.trace("found matching subscription: " + topic);
+                for (Event event : entry.getValue()) {
                     // Use cache if applicable
-                    ByteBuf out;
-                    if (serializedCache.containsKey(subscrip.getQueryOptions())) {
-                        out = serializedCache.get(subscrip.getQueryOptions());
-                    } else {
-                        rawObject.setAndParseQueryOptions(subscrip.getQueryOptions());
-                        out = Unpooled.wrappedBuffer(mapper.writeValueAsBytes(rawObject));
-                        serializedCache.put(subscrip.getQueryOptions(), out);
+                    Map<Set<String>, ByteBuf> serialized =
+                        serializedCache.computeIfAbsent(event, e -> new HashMap<>());
+                    ByteBuf out = serialized.get(subscrip.getSelectedProperties());
+                    if (out == null) {
+                        try {
+                            out = serialize(event.getEntity(), subscrip.getQueryOptions());
+                        } catch (IOException ex) {
+                            LOGGER.error("Error while serializing Entity for MQTT: {}", ex.getMessage());
+                            continue;
+                        }
+                        serialized.put(subscrip.getSelectedProperties(), out);
                     }
-                    MqttPublishMessage msg = new MqttPublishMessage(mqttFixedHeader,
-                                                                    new MqttPublishVariableHeader(MQTT_PREFIX + topic,
-                                                                                                  52),
-                                                                    out);
-                    mqttBroker.internalPublish(msg, INTERNAL_CLIENT_ID);
-                    LOGGER.debug("Posted Message to Topic: {}", topic);
-                } else {
-                    LOGGER.debug("Subscription does not match!");
+                    publish(topic, out);
                 }
+                LOGGER.debug("Posted {} Messages to Topic: {}", entry.getValue().size(), topic);
             }
-        } catch (JsonProcessingException ex) {
-            ex.printStackTrace();
+        } finally {
+            serializedCache.values().forEach(serialized -> serialized.values().forEach(ByteBuf::release));
+        }
+    }
+
+    private void publish(String topic, ByteBuf out) {
+        // Moquette retains a duplicate per receiving client so the message only needs a view on the payload
+        ByteBuf payload = out.retainedDuplicate();
+        try {
+            MqttPublishMessage msg =
+                new MqttPublishMessage(mqttFixedHeader,
+                                       new MqttPublishVariableHeader(MQTT_PREFIX + topic, 52),
+                                       payload);
+            mqttBroker.internalPublish(msg, INTERNAL_CLIENT_ID);
+        } finally {
+            payload.release();
+        }
+    }
+
+    private ByteBuf serialize(StaDTO rawObject, QueryOptions queryOptions) throws IOException {
+        rawObject.setAndParseQueryOptions(queryOptions);
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            mapper.writeValue((OutputStream) new ByteBufOutputStream(out), rawObject);
+            return out;
+        } catch (IOException | RuntimeException ex) {
+            out.release();
+            throw ex;
         }
     }
 
     @Override
     public Set<String> getWatchedEntityTypes() {
-        return watchedEntityTypes;
+        return subscriptionIndex.getEntityTypes();
     }
 
     @Override public void setServiceRepository(EntityServiceFactory serviceRepository) {
@@ -154,27 +196,26 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
     }
 
     public void addSubscription(AbstractMqttSubscription subscription, String clientId) {
-        HashSet<String> clients = subscriptions.get(subscription);
-        if (clients == null) {
-            clients = new HashSet<>();
-        }
-        LOGGER.debug("Adding to watched EntityType: " + subscription.getEntityType());
-        watchedEntityTypes.add(subscription.getEntityType());
-        clients.add(clientId);
-        subscriptions.put(subscription, clients);
+        subscriptions.compute(subscription, (key, clients) -> {
+            if (clients == null) {
+                LOGGER.debug("Adding to watched EntityType: " + key.getEntityType());
+                clients = ConcurrentHashMap.newKeySet();
+                subscriptionIndex.add(key);
+            }
+            clients.add(clientId);
+            return clients;
+        });
     }
 
     public void removeSubscription(AbstractMqttSubscription subscription, String clientId) {
-        HashSet<String> clients = subscriptions.get(subscription);
-        if (clients != null) {
-            if (clients.size() == 1) {
-                subscriptions.remove(subscription);
-                watchedEntityTypes.remove(subscription.getEntityType());
-            } else {
-                clients.remove(clientId);
-                subscriptions.put(subscription, clients);
+        subscriptions.computeIfPresent(subscription, (key, clients) -> {
+            clients.remove(clientId);
+            if (clients.isEmpty()) {
+                subscriptionIndex.remove(key);
+                return null;
             }
-        }
+            return clients;
+        });
     }
 
     @Override public void processSubscribeMessage(InterceptSubscribeMessage msg) throws MqttHandlerException {
@@ -190,64 +231,11 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
     }
 
     private AbstractMqttSubscription createMqttSubscription(String rawTopic) throws MqttHandlerException {
-        try {
-            Matcher mt;
-            // Delete possible leading slash and version information
-            String topic = (rawTopic.startsWith("/")) ? rawTopic.substring(1) : rawTopic;
-            if (!topic.startsWith(MQTT_PREFIX)) {
-                throw new MqttHandlerException("Error while parsing MQTT topic. Missing Version information!");
-            }
-            topic = topic.substring(5);
-
-            // Check topic for syntax+semantics
-            if (topic.contains("?")) {
-                // only check path part of the topic (excluding the select parameter)
-                validateResource(topic.substring(0, topic.indexOf("?")), serviceRepository);
-                for (Pattern namedSelectPattern : NAMED_SELECT_PATTERNS) {
-                    mt = namedSelectPattern.matcher(topic);
-                    if (mt.matches()) {
-                        // OGC-15-078r6 14.2.4
-                        return new MqttSelectSubscription(topic, mt);
-                    }
-                }
-            } else {
-                // check full topic
-                // This will fail if we have a PropertySubscription
-                try {
-                    validateResource(topic, serviceRepository);
-                    for (Pattern collectionPattern : NAMED_COLL_PATTERNS) {
-                        mt = collectionPattern.matcher(topic);
-                        if (mt.matches()) {
-                            // OGC-15-078r6 14.2.1
-                            return new MqttEntityCollectionSubscription(topic, mt);
-                        }
-                    }
-
-                    for (Pattern namedEntityPattern : NAMED_ENTITY_PATTERNS) {
-                        mt = namedEntityPattern.matcher(topic);
-                        if (mt.matches()) {
-                            // OGC-15-078r6 14.2.2
-                            return new MqttEntitySubscription(topic, mt);
-                        }
-                    }
-                } catch (Exception ex) {
-                    for (Pattern namedPropertyPattern : NAMED_PROP_PATTERNS) {
-                        mt = namedPropertyPattern.matcher(topic);
-                        if (mt.matches()) {
-                            // OGC-15-078r6 14.2.3
-                            // Only check path part of the topic (excluding the property)
-                            String path = topic.substring(0, topic.lastIndexOf("/"));
-                            validateResource(path, serviceRepository);
-                            return new MqttPropertySubscription(topic, mt);
-                        }
-                    }
-                }
-
-            }
-
-            throw new MqttHandlerException("Error while parsing MQTT topic. Could not identify subscription type!");
-        } catch (Exception ex) {
-            throw new MqttHandlerException("Error while parsing MQTT topic.", ex);
+        // Delete possible leading slash and version information
+        String topic = (rawTopic.startsWith("/")) ? rawTopic.substring(1) : rawTopic;
+        if (!topic.startsWith(MQTT_PREFIX)) {
+            throw new MqttHandlerException("Error while parsing MQTT topic. Missing Version information!");
         }
+        return subscriptionFactory.createSubscription(topic.substring(MQTT_PREFIX.length()), serviceRepository);
     }
 }
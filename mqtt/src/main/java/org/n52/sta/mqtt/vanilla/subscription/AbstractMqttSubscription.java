@@ -77,6 +77,32 @@ public abstract class AbstractMqttSubscription {
         return wantedEntityType;
     }
 
+    public String getSourceEntityType() {
+        return sourceEntityType;
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * Returns the identifier of the Entity if the Entity is referenced directly (e.g. /Things(52)).
+     *
+     * @return identifier of the wanted Entity. null if Entity is not referenced directly
+     */
+    public String getWantedIdentifier() {
+        return null;
+    }
+
+    /**
+     * Returns the property watched by this subscription.
+     *
+     * @return name of the watched property. null if this subscription does not watch a single property
+     */
+    public String getWatchedProperty() {
+        return null;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(topic);
@@ -108,6 +134,16 @@ public abstract class AbstractMqttSubscription {
             .toString();
     }
 
+    /**
+     * Returns the properties selected by this subscription. Subscriptions with equal selected properties share the
+     * same serialized payload.
+     *
+     * @return Set of selected properties. null if all properties are selected
+     */
+    public Set<String> getSelectedProperties() {
+        return null;
+    }
+
     /**
      * Returns the selectOption extracted from the Topic.
      *
@@ -99,6 +99,11 @@ public class MqttEntitySubscription extends AbstractMqttSubscription {
             .toString();
     }
 
+    @Override
+    public String getWantedIdentifier() {
+        return wantedIdentifier;
+    }
+
     @Override public QueryOptions getQueryOptions() {
         return null;
     }
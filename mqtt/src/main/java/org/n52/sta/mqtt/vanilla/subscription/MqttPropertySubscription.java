@@ -44,6 +44,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -72,6 +73,16 @@ public class MqttPropertySubscription extends MqttEntitySubscription {
         queryOptions = qof.createQueryOptions(filters);
     }
 
+    @Override
+    public Set<String> getSelectedProperties() {
+        return Collections.singleton(watchedProperty);
+    }
+
+    @Override
+    public String getWatchedProperty() {
+        return watchedProperty;
+    }
+
     @Override
     public QueryOptions getQueryOptions() {
         return queryOptions;
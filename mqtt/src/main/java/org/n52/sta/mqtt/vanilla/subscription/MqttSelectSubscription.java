@@ -39,6 +39,7 @@ import org.springframework.util.Assert;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Matcher;
 
 /**
@@ -52,6 +53,8 @@ public class MqttSelectSubscription extends MqttEntityCollectionSubscription {
 
     private QueryOptions queryOptions;
 
+    private Set<String> selectedProperties;
+
     public MqttSelectSubscription(String topic, Matcher mt) {
         super(topic, mt, true);
 
@@ -63,6 +66,7 @@ public class MqttSelectSubscription extends MqttEntityCollectionSubscription {
         HashSet<String> filterItems = new HashSet<>();
         Collections.addAll(filterItems, mt.group(RequestUtils.GROUPNAME_SELECT).split(","));
         filters.add(new SelectFilter(filterItems));
+        selectedProperties = Collections.unmodifiableSet(filterItems);
         queryOptions = qof.createQueryOptions(filters);
         LOGGER.debug(this.toString());
     }
@@ -79,6 +83,11 @@ public class MqttSelectSubscription extends MqttEntityCollectionSubscription {
             .toString();
     }
 
+    @Override
+    public Set<String> getSelectedProperties() {
+        return selectedProperties;
+    }
+
     public QueryOptions getQueryOptions() {
         return queryOptions;
     }
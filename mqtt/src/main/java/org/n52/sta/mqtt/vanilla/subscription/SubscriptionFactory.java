@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.mqtt.vanilla.subscription;
+
+import org.n52.sta.api.CoreRequestUtils;
+import org.n52.sta.api.EntityServiceFactory;
+import org.n52.sta.mqtt.MqttHandlerException;
+import org.n52.sta.utils.AbstractSTARequestHandler;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses Subscriptions from a resource path (without version prefix) optionally followed by a $select clause.
+ * e.g. Datastreams(52)/Observations?$select=result
+ * Used by all Handlers that match Entity changes against Subscriptions (e.g. MQTT, SSE).
+ */
+public class SubscriptionFactory extends AbstractSTARequestHandler implements CoreRequestUtils {
+
+    public SubscriptionFactory(String rootUrl, boolean shouldEscapeId) {
+        super(rootUrl, shouldEscapeId, null);
+    }
+
+    public AbstractMqttSubscription createSubscription(String topic, EntityServiceFactory serviceRepository)
+        throws MqttHandlerException {
+        try {
+            Matcher mt;
+            // Check topic for syntax+semantics
+            if (topic.contains("?")) {
+                // only check path part of the topic (excluding the select parameter)
+                validateResource(topic.substring(0, topic.indexOf("?")), serviceRepository);
+                for (Pattern namedSelectPattern : NAMED_SELECT_PATTERNS) {
+                    mt = namedSelectPattern.matcher(topic);
+                    if (mt.matches()) {
+                        // OGC-15-078r6 14.2.4
+                        return new MqttSelectSubscription(topic, mt);
+                    }
+                }
+            } else {
+                // check full topic
+                // This will fail if we have a PropertySubscription
+                try {
+                    validateResource(topic, serviceRepository);
+                    for (Pattern collectionPattern : NAMED_COLL_PATTERNS) {
+                        mt = collectionPattern.matcher(topic);
+                        if (mt.matches()) {
+                            // OGC-15-078r6 14.2.1
+                            return new MqttEntityCollectionSubscription(topic, mt);
+                        }
+                    }
+
+                    for (Pattern namedEntityPattern : NAMED_ENTITY_PATTERNS) {
+                        mt = namedEntityPattern.matcher(topic);
+                        if (mt.matches()) {
+                            // OGC-15-078r6 14.2.2
+                            return new MqttEntitySubscription(topic, mt);
+                        }
+                    }
+                } catch (Exception ex) {
+                    for (Pattern namedPropertyPattern : NAMED_PROP_PATTERNS) {
+                        mt = namedPropertyPattern.matcher(topic);
+                        if (mt.matches()) {
+                            // OGC-15-078r6 14.2.3
+                            // Only check path part of the topic (excluding the property)
+                            String path = topic.substring(0, topic.lastIndexOf("/"));
+                            validateResource(path, serviceRepository);
+                            return new MqttPropertySubscription(topic, mt);
+                        }
+                    }
+                }
+
+            }
+
+            throw new MqttHandlerException("Error while parsing topic. Could not identify subscription type!");
+        } catch (MqttHandlerException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new MqttHandlerException("Error while parsing topic.", ex);
+        }
+    }
+}
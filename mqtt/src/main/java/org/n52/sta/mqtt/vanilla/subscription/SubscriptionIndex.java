@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2018-2021 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.mqtt.vanilla.subscription;
+
+import org.n52.sta.api.dto.StaDTO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent index of Subscriptions keyed by (wantedEntityType, sourceEntityType, sourceId) and watched property.
+ * Matching an Entity only looks up the keys that may possibly match instead of checking every Subscription.
+ * Reads are lock-free and may run concurrently with updates.
+ */
+public class SubscriptionIndex {
+
+    private static final String SEPARATOR = "|";
+
+    private final Map<String, Set<AbstractMqttSubscription>> subscriptions = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<String, Set<AbstractMqttSubscription>>> propertySubscriptions =
+        new ConcurrentHashMap<>();
+
+    /*
+     * Number of Subscriptions per wanted Entity Type. Used for fail-fast.
+     */
+    private final Map<String, Integer> entityTypes = new ConcurrentHashMap<>();
+
+    public void add(AbstractMqttSubscription subscription) {
+        String key = createKey(subscription);
+        String property = subscription.getWatchedProperty();
+        boolean[] added = new boolean[1];
+        if (property == null) {
+            subscriptions.compute(key, (k, set) -> {
+                Set<AbstractMqttSubscription> result = set != null ? set : ConcurrentHashMap.newKeySet();
+                added[0] = result.add(subscription);
+                return result;
+            });
+        } else {
+            propertySubscriptions.compute(key, (k, properties) -> {
+                Map<String, Set<AbstractMqttSubscription>> result =
+                    properties != null ? properties : new ConcurrentHashMap<>();
+                added[0] = result.computeIfAbsent(property, p -> ConcurrentHashMap.newKeySet()).add(subscription);
+                return result;
+            });
+        }
+        if (added[0]) {
+            entityTypes.merge(subscription.getEntityType(), 1, Integer::sum);
+        }
+    }
+
+    public void remove(AbstractMqttSubscription subscription) {
+        String key = createKey(subscription);
+        String property = subscription.getWatchedProperty();
+        boolean[] removed = new boolean[1];
+        if (property == null) {
+            subscriptions.computeIfPresent(key, (k, set) -> {
+                removed[0] = set.remove(subscription);
+                return set.isEmpty() ? null : set;
+            });
+        } else {
+            propertySubscriptions.computeIfPresent(key, (k, properties) -> {
+                properties.computeIfPresent(property, (p, set) -> {
+                    removed[0] = set.remove(subscription);
+                    return set.isEmpty() ? null : set;
+                });
+                return properties.isEmpty() ? null : properties;
+            });
+        }
+        if (removed[0]) {
+            entityTypes.computeIfPresent(subscription.getEntityType(), (k, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    /**
+     * Returns all Subscriptions matching the given Entity.
+     *
+     * @param entity        Entity to be posted
+     * @param entityType    Type of Entity
+     * @param collections   Map with EntityType-ID pairs for the related entities
+     * @param differenceMap names of properties that have changed. if null all properties have changed (new entity)
+     * @return List of matching Subscriptions
+     */
+    public List<AbstractMqttSubscription> match(StaDTO entity,
+                                                String entityType,
+                                                Map<String, Set<String>> collections,
+                                                Set<String> differenceMap) {
+        List<AbstractMqttSubscription> result = new ArrayList<>();
+        if (!entityTypes.containsKey(entityType)) {
+            return result;
+        }
+        // Root Collection e.g. /Things
+        collect(entityType, differenceMap, result);
+        // Direct Entity e.g. /Things(52)
+        collect(createKey(entityType, null, entity.getId()), differenceMap, result);
+        // Related Collection or Entity e.g. /Datastreams(52)/Observations
+        if (collections != null) {
+            for (Map.Entry<String, Set<String>> collection : collections.entrySet()) {
+                for (String id : collection.getValue()) {
+                    collect(createKey(entityType, collection.getKey(), id), differenceMap, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists all Entity types that have at least one Subscription.
+     *
+     * @return live view of all watched Entity Types
+     */
+    public Set<String> getEntityTypes() {
+        return entityTypes.keySet();
+    }
+
+    private void collect(String key, Set<String> differenceMap, List<AbstractMqttSubscription> result) {
+        Set<AbstractMqttSubscription> direct = subscriptions.get(key);
+        if (direct != null) {
+            result.addAll(direct);
+        }
+        Map<String, Set<AbstractMqttSubscription>> properties = propertySubscriptions.get(key);
+        if (properties != null) {
+            if (differenceMap == null) {
+                for (Collection<AbstractMqttSubscription> set : properties.values()) {
+                    result.addAll(set);
+                }
+            } else {
+                for (String property : differenceMap) {
+                    Set<AbstractMqttSubscription> set = properties.get(property);
+                    if (set != null) {
+                        result.addAll(set);
+                    }
+                }
+            }
+        }
+    }
+
+    private String createKey(AbstractMqttSubscription subscription) {
+        if (subscription.getWantedIdentifier() != null) {
+            return createKey(subscription.getEntityType(), null, subscription.getWantedIdentifier());
+        } else if (subscription.getSourceId() != null) {
+            return createKey(subscription.getEntityType(),
+                             subscription.getSourceEntityType(),
+                             subscription.getSourceId());
+        } else {
+            return subscription.getEntityType();
+        }
+    }
+
+    private String createKey(String wantedEntityType, String sourceEntityType, String sourceId) {
+        return wantedEntityType
+            + SEPARATOR + (sourceEntityType != null ? sourceEntityType : "")
+            + SEPARATOR + sourceId;
+    }
+}